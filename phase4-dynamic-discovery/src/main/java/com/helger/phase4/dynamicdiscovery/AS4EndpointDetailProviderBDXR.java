@@ -21,12 +21,14 @@ import java.security.cert.X509Certificate;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
 import com.helger.commons.string.StringHelper;
 import com.helger.peppol.smp.ESMPTransportProfile;
 import com.helger.peppol.smp.ISMPTransportProfile;
@@ -52,10 +54,40 @@ public class AS4EndpointDetailProviderBDXR implements IAS4EndpointDetailProvider
 
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4EndpointDetailProviderBDXR.class);
 
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+  @GuardedBy ("RW_LOCK")
+  private static AS4SMPEndpointCache <EndpointType> s_aDefaultEndpointCache;
+
   private final IBDXRServiceMetadataProvider m_aSMPClient;
   private ISMPTransportProfile m_aTP = DEFAULT_TRANSPORT_PROFILE;
+  private AS4SMPEndpointCache <EndpointType> m_aEndpointCache = getDefaultEndpointCache ();
   private EndpointType m_aEndpoint;
 
+  /**
+   * @return The endpoint cache that is used by default for new instances. May
+   *         be <code>null</code>.
+   * @since 2.7.7
+   */
+  @Nullable
+  public static AS4SMPEndpointCache <EndpointType> getDefaultEndpointCache ()
+  {
+    return RW_LOCK.readLockedGet ( () -> s_aDefaultEndpointCache);
+  }
+
+  /**
+   * Set the endpoint cache that is used by default for new instances. By
+   * default no cache is used.
+   *
+   * @param aEndpointCache
+   *        The cache to be shared by all new instances. May be
+   *        <code>null</code> to disable caching.
+   * @since 2.7.7
+   */
+  public static void setDefaultEndpointCache (@Nullable final AS4SMPEndpointCache <EndpointType> aEndpointCache)
+  {
+    RW_LOCK.writeLocked ( () -> s_aDefaultEndpointCache = aEndpointCache);
+  }
+
   public AS4EndpointDetailProviderBDXR (@Nonnull final IBDXRServiceMetadataProvider aSMPClient)
   {
     ValueEnforcer.notNull (aSMPClient, "SMPClient");
@@ -99,6 +131,35 @@ public class AS4EndpointDetailProviderBDXR implements IAS4EndpointDetailProvider
     return this;
   }
 
+  /**
+   * @return The endpoint cache to be used. May be <code>null</code>. Defaults
+   *         to {@link #getDefaultEndpointCache()}.
+   * @since 2.7.7
+   */
+  @Nullable
+  public final AS4SMPEndpointCache <EndpointType> getEndpointCache ()
+  {
+    return m_aEndpointCache;
+  }
+
+  /**
+   * Change the endpoint cache to be used. This only has an effect if it is
+   * called prior to
+   * {@link #init(IDocumentTypeIdentifier, IProcessIdentifier, IParticipantIdentifier)}.
+   *
+   * @param aEndpointCache
+   *        The endpoint cache to be used. May be <code>null</code> to disable
+   *        caching.
+   * @return this for chaining.
+   * @since 2.7.7
+   */
+  @Nonnull
+  public final AS4EndpointDetailProviderBDXR setEndpointCache (@Nullable final AS4SMPEndpointCache <EndpointType> aEndpointCache)
+  {
+    m_aEndpointCache = aEndpointCache;
+    return this;
+  }
+
   /**
    * @return The endpoint resolved. May only be non-<code>null</code> if
    *         {@link #init(IDocumentTypeIdentifier, IProcessIdentifier, IParticipantIdentifier)}
@@ -134,7 +195,21 @@ public class AS4EndpointDetailProviderBDXR implements IAS4EndpointDetailProvider
       // Perform SMP lookup
       try
       {
-        m_aEndpoint = m_aSMPClient.getEndpoint (aReceiverID, aDocTypeID, aProcID, m_aTP);
+        if (m_aEndpointCache != null)
+        {
+          final String sCacheKey = AS4SMPEndpointCache.getCacheKey (aReceiverID,
+                                                                    aDocTypeID,
+                                                                    aProcID,
+                                                                    m_aTP,
+                                                                    AS4SMPEndpointCache.getSMPClientDiscriminator (m_aSMPClient));
+          m_aEndpoint = m_aEndpointCache.getEndpoint (sCacheKey,
+                                                      () -> m_aSMPClient.getEndpoint (aReceiverID,
+                                                                                      aDocTypeID,
+                                                                                      aProcID,
+                                                                                      m_aTP));
+        }
+        else
+          m_aEndpoint = m_aSMPClient.getEndpoint (aReceiverID, aDocTypeID, aProcID, m_aTP);
         if (m_aEndpoint == null)
           throw new Phase4SMPException ("Failed to resolve SMP endpoint (" +
                                         aReceiverID.getURIEncoded () +
@@ -21,12 +21,14 @@ import java.security.cert.X509Certificate;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.string.ToStringGenerator;
 import com.helger.peppol.smp.ESMPTransportProfile;
@@ -58,11 +60,41 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
 
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4EndpointDetailProviderPeppol.class);
 
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+  @GuardedBy ("RW_LOCK")
+  private static AS4SMPEndpointCache <EndpointType> s_aDefaultEndpointCache;
+
   private final ISMPServiceMetadataProvider m_aSMPClient;
   private PeppolWildcardSelector.EMode m_eWildcardSelectionMode = DEFAULT_WILDCARD_SELECTION_MODE;
   private ISMPTransportProfile m_aTP = DEFAULT_TRANSPORT_PROFILE;
+  private AS4SMPEndpointCache <EndpointType> m_aEndpointCache = getDefaultEndpointCache ();
   private EndpointType m_aEndpoint;
 
+  /**
+   * @return The endpoint cache that is used by default for new instances. May
+   *         be <code>null</code>.
+   * @since 2.7.7
+   */
+  @Nullable
+  public static AS4SMPEndpointCache <EndpointType> getDefaultEndpointCache ()
+  {
+    return RW_LOCK.readLockedGet ( () -> s_aDefaultEndpointCache);
+  }
+
+  /**
+   * Set the endpoint cache that is used by default for new instances. By
+   * default no cache is used.
+   *
+   * @param aEndpointCache
+   *        The cache to be shared by all new instances. May be
+   *        <code>null</code> to disable caching.
+   * @since 2.7.7
+   */
+  public static void setDefaultEndpointCache (@Nullable final AS4SMPEndpointCache <EndpointType> aEndpointCache)
+  {
+    RW_LOCK.writeLocked ( () -> s_aDefaultEndpointCache = aEndpointCache);
+  }
+
   public AS4EndpointDetailProviderPeppol (@Nonnull final ISMPServiceMetadataProvider aSMPClient)
   {
     ValueEnforcer.notNull (aSMPClient, "SMPClient");
@@ -136,6 +168,35 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
     return this;
   }
 
+  /**
+   * @return The endpoint cache to be used. May be <code>null</code>. Defaults
+   *         to {@link #getDefaultEndpointCache()}.
+   * @since 2.7.7
+   */
+  @Nullable
+  public final AS4SMPEndpointCache <EndpointType> getEndpointCache ()
+  {
+    return m_aEndpointCache;
+  }
+
+  /**
+   * Change the endpoint cache to be used. This only has an effect if it is
+   * called prior to
+   * {@link #init(IDocumentTypeIdentifier, IProcessIdentifier, IParticipantIdentifier)}.
+   *
+   * @param aEndpointCache
+   *        The endpoint cache to be used. May be <code>null</code> to disable
+   *        caching.
+   * @return this for chaining.
+   * @since 2.7.7
+   */
+  @Nonnull
+  public final AS4EndpointDetailProviderPeppol setEndpointCache (@Nullable final AS4SMPEndpointCache <EndpointType> aEndpointCache)
+  {
+    m_aEndpointCache = aEndpointCache;
+    return this;
+  }
+
   /**
    * @return The endpoint resolved. May only be non-<code>null</code> if
    *         {@link #init(IDocumentTypeIdentifier, IProcessIdentifier, IParticipantIdentifier)}
@@ -147,6 +208,25 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
     return m_aEndpoint;
   }
 
+  @Nullable
+  private EndpointType _lookupEndpoint (@Nonnull final IDocumentTypeIdentifier aDocTypeID,
+                                        @Nonnull final IProcessIdentifier aProcID,
+                                        @Nonnull final IParticipantIdentifier aReceiverID,
+                                        final boolean bWildcard) throws SMPClientException
+  {
+    if (bWildcard)
+    {
+      // Wildcard lookup
+      final SignedServiceMetadataType aSSM = m_aSMPClient.getWildcardServiceMetadataOrNull (aReceiverID,
+                                                                                            aDocTypeID,
+                                                                                            m_eWildcardSelectionMode);
+      return aSSM == null ? null : SMPClientReadOnly.getEndpoint (aSSM, aProcID, m_aTP);
+    }
+
+    // Direct match
+    return m_aSMPClient.getEndpoint (aReceiverID, aDocTypeID, aProcID, m_aTP);
+  }
+
   public void init (@Nonnull final IDocumentTypeIdentifier aDocTypeID,
                     @Nonnull final IProcessIdentifier aProcID,
                     @Nonnull final IParticipantIdentifier aReceiverID) throws Phase4Exception
@@ -174,19 +254,24 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
       try
       {
         final boolean bWildcard = PeppolIdentifierHelper.DOCUMENT_TYPE_SCHEME_PEPPOL_DOCTYPE_WILDCARD.equals (aDocTypeID.getScheme ());
-        if (bWildcard)
+        if (m_aEndpointCache != null)
         {
-          // Wildcard lookup
-          final SignedServiceMetadataType aSSM = m_aSMPClient.getWildcardServiceMetadataOrNull (aReceiverID,
-                                                                                                aDocTypeID,
-                                                                                                m_eWildcardSelectionMode);
-          m_aEndpoint = aSSM == null ? null : SMPClientReadOnly.getEndpoint (aSSM, aProcID, m_aTP);
+          String sDiscriminator = AS4SMPEndpointCache.getSMPClientDiscriminator (m_aSMPClient);
+          if (bWildcard)
+          {
+            // The wildcard selection mode influences the result
+            sDiscriminator += " " + m_eWildcardSelectionMode.name ();
+          }
+          final String sCacheKey = AS4SMPEndpointCache.getCacheKey (aReceiverID,
+                                                                    aDocTypeID,
+                                                                    aProcID,
+                                                                    m_aTP,
+                                                                    sDiscriminator);
+          m_aEndpoint = m_aEndpointCache.getEndpoint (sCacheKey,
+                                                      () -> _lookupEndpoint (aDocTypeID, aProcID, aReceiverID, bWildcard));
         }
         else
-        {
-          // Direct match
-          m_aEndpoint = m_aSMPClient.getEndpoint (aReceiverID, aDocTypeID, aProcID, m_aTP);
-        }
+          m_aEndpoint = _lookupEndpoint (aDocTypeID, aProcID, aReceiverID, bWildcard);
         if (m_aEndpoint == null)
           throw new Phase4SMPException ("Failed to resolve SMP endpoint (" +
                                         aReceiverID.getURIEncoded () +
@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2020-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.functional.IThrowingSupplier;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.peppol.smp.ISMPTransportProfile;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.phase4.util.AS4ExpiringCache;
+import com.helger.smpclient.AbstractGenericSMPClient;
+import com.helger.smpclient.exception.SMPClientException;
+
+/**
+ * A bounded cache for SMP endpoint lookups that can be shared between
+ * multiple {@link IAS4EndpointDetailProvider} instances. Found endpoints are
+ * cached for the configured time to live, and endpoints that were not found
+ * are cached for a (usually shorter) negative time to live. Exceptions are
+ * never cached. Concurrent lookups for the same key are coalesced, so that
+ * only one SMP query is performed.
+ *
+ * @author Philip Helger
+ * @param <T>
+ *        The SMP endpoint type
+ * @since 2.7.7
+ */
+@ThreadSafe
+public class AS4SMPEndpointCache <T>
+{
+  /** The default time to live of found endpoints */
+  public static final Duration DEFAULT_TTL = Duration.ofMinutes (15);
+  /** The default time to live of endpoints that were not found */
+  public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofMinutes (1);
+  /** The default maximum number of cached entries */
+  public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+  private static final char KEY_SEPARATOR = '\n';
+
+  private final long m_nTTLMillis;
+  private final long m_nNegativeTTLMillis;
+  private final AS4ExpiringCache <T> m_aCache;
+  private final Map <String, CompletableFuture <T>> m_aInFlight = new ConcurrentHashMap <> ();
+  private final AtomicLong m_aHits = new AtomicLong (0);
+  private final AtomicLong m_aMisses = new AtomicLong (0);
+  private final AtomicLong m_aCoalesced = new AtomicLong (0);
+
+  /**
+   * Constructor using the default settings.
+   */
+  public AS4SMPEndpointCache ()
+  {
+    this (DEFAULT_TTL, DEFAULT_NEGATIVE_TTL, DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aTTL
+   *        The time to live of found endpoints. May not be <code>null</code>
+   *        and must be positive.
+   * @param aNegativeTTL
+   *        The time to live of endpoints that were not found. May not be
+   *        <code>null</code> and must not be negative. Use
+   *        {@link Duration#ZERO} to not cache negative results.
+   * @param nMaxEntries
+   *        The maximum number of entries. Must be &gt; 0.
+   */
+  public AS4SMPEndpointCache (@Nonnull final Duration aTTL,
+                              @Nonnull final Duration aNegativeTTL,
+                              @Nonnegative final int nMaxEntries)
+  {
+    ValueEnforcer.notNull (aTTL, "TTL");
+    ValueEnforcer.isTrue (!aTTL.isNegative () && !aTTL.isZero (), "TTL must be positive");
+    ValueEnforcer.notNull (aNegativeTTL, "NegativeTTL");
+    ValueEnforcer.isFalse (aNegativeTTL.isNegative (), "NegativeTTL must not be negative");
+    m_nTTLMillis = aTTL.toMillis ();
+    m_nNegativeTTLMillis = aNegativeTTL.toMillis ();
+    m_aCache = new AS4ExpiringCache <> (nMaxEntries);
+  }
+
+  /**
+   * Build the cache key for a lookup.
+   *
+   * @param aReceiverID
+   *        Receiver participant ID. May not be <code>null</code>.
+   * @param aDocTypeID
+   *        Document type ID. May not be <code>null</code>.
+   * @param aProcID
+   *        Process ID. May not be <code>null</code>.
+   * @param aTP
+   *        Transport profile. May not be <code>null</code>.
+   * @param sDiscriminator
+   *        An optional additional discriminator for settings that influence
+   *        the lookup result. May be <code>null</code>.
+   * @return The cache key. Never <code>null</code>.
+   */
+  @Nonnull
+  @Nonempty
+  public static String getCacheKey (@Nonnull final IParticipantIdentifier aReceiverID,
+                                    @Nonnull final IDocumentTypeIdentifier aDocTypeID,
+                                    @Nonnull final IProcessIdentifier aProcID,
+                                    @Nonnull final ISMPTransportProfile aTP,
+                                    @Nullable final String sDiscriminator)
+  {
+    final StringBuilder aSB = new StringBuilder (_getReceiverKeyPrefix (aReceiverID));
+    aSB.append (aDocTypeID.getURIEncoded ())
+       .append (KEY_SEPARATOR)
+       .append (aProcID.getURIEncoded ())
+       .append (KEY_SEPARATOR)
+       .append (aTP.getID ());
+    if (sDiscriminator != null)
+      aSB.append (KEY_SEPARATOR).append (sDiscriminator);
+    return aSB.toString ();
+  }
+
+  /**
+   * Get a discriminator for the provided SMP client, so that lookups of
+   * different SMPs are not mixed up. For the standard SMP clients this is the
+   * SMP host URI.
+   *
+   * @param aSMPClient
+   *        The SMP client used for the lookup. May not be <code>null</code>.
+   * @return The discriminator. Never <code>null</code>.
+   */
+  @Nonnull
+  public static String getSMPClientDiscriminator (@Nonnull final Object aSMPClient)
+  {
+    if (aSMPClient instanceof AbstractGenericSMPClient <?>)
+      return ((AbstractGenericSMPClient <?>) aSMPClient).getSMPHostURI ();
+    // Unknown implementation - don't share between instances
+    return aSMPClient.getClass ().getName () + '@' + Integer.toHexString (System.identityHashCode (aSMPClient));
+  }
+
+  @Nonnull
+  private static String _getReceiverKeyPrefix (@Nonnull final IParticipantIdentifier aReceiverID)
+  {
+    return aReceiverID.getURIEncoded () + KEY_SEPARATOR;
+  }
+
+  /**
+   * @return The number of lookups answered from the cache.
+   */
+  @Nonnegative
+  public final long getHitCount ()
+  {
+    return m_aHits.get ();
+  }
+
+  /**
+   * @return The number of lookups not answered from the cache.
+   */
+  @Nonnegative
+  public final long getMissCount ()
+  {
+    return m_aMisses.get ();
+  }
+
+  /**
+   * @return The number of lookups that waited for a concurrent lookup of the
+   *         same key instead of querying the SMP.
+   */
+  @Nonnegative
+  public final long getCoalescedCount ()
+  {
+    return m_aCoalesced.get ();
+  }
+
+  @Nullable
+  private static <T> T _await (@Nonnull final CompletableFuture <T> aFuture) throws SMPClientException
+  {
+    try
+    {
+      return aFuture.get ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new SMPClientException ("Interrupted while waiting for a concurrent SMP lookup", ex);
+    }
+    catch (final ExecutionException ex)
+    {
+      final Throwable aCause = ex.getCause ();
+      if (aCause instanceof SMPClientException)
+        throw (SMPClientException) aCause;
+      if (aCause instanceof RuntimeException)
+        throw (RuntimeException) aCause;
+      throw new SMPClientException ("Concurrent SMP lookup failed", aCause);
+    }
+  }
+
+  /**
+   * Get the endpoint from the cache or perform the lookup.
+   *
+   * @param sKey
+   *        The cache key as created by
+   *        {@link #getCacheKey(IParticipantIdentifier, IDocumentTypeIdentifier, IProcessIdentifier, ISMPTransportProfile, String)}.
+   *        May neither be <code>null</code> nor empty.
+   * @param aLookup
+   *        The lookup to perform on a cache miss. May not be
+   *        <code>null</code>.
+   * @return The endpoint or <code>null</code> if none was found.
+   * @throws SMPClientException
+   *         If the lookup failed
+   */
+  @Nullable
+  public T getEndpoint (@Nonnull @Nonempty final String sKey,
+                        @Nonnull final IThrowingSupplier <? extends T, SMPClientException> aLookup) throws SMPClientException
+  {
+    ValueEnforcer.notEmpty (sKey, "Key");
+    ValueEnforcer.notNull (aLookup, "Lookup");
+
+    final AS4ExpiringCache.Entry <T> aEntry = m_aCache.getNotExpired (sKey);
+    if (aEntry != null)
+    {
+      m_aHits.incrementAndGet ();
+      return aEntry.getValue ();
+    }
+    m_aMisses.incrementAndGet ();
+
+    final CompletableFuture <T> aFuture = new CompletableFuture <> ();
+    final CompletableFuture <T> aExisting = m_aInFlight.putIfAbsent (sKey, aFuture);
+    if (aExisting != null)
+    {
+      // Somebody else is already querying
+      m_aCoalesced.incrementAndGet ();
+      return _await (aExisting);
+    }
+
+    try
+    {
+      final T ret = aLookup.get ();
+      final long nTTL = ret != null ? m_nTTLMillis : m_nNegativeTTLMillis;
+      if (nTTL > 0)
+        m_aCache.put (sKey, ret, System.currentTimeMillis () + nTTL);
+      aFuture.complete (ret);
+      return ret;
+    }
+    catch (final SMPClientException | RuntimeException ex)
+    {
+      aFuture.completeExceptionally (ex);
+      throw ex;
+    }
+    finally
+    {
+      m_aInFlight.remove (sKey, aFuture);
+    }
+  }
+
+  /**
+   * Remove all cached entries of the provided receiver, e.g. after its SMP
+   * registration changed.
+   *
+   * @param aReceiverID
+   *        The receiver participant ID. May not be <code>null</code>.
+   * @return The number of removed entries.
+   */
+  @Nonnegative
+  public int removeAllOfReceiver (@Nonnull final IParticipantIdentifier aReceiverID)
+  {
+    ValueEnforcer.notNull (aReceiverID, "ReceiverID");
+    return m_aCache.removeAllWithKeyPrefix (_getReceiverKeyPrefix (aReceiverID));
+  }
+
+  /**
+   * Remove all cached entries.
+   */
+  public void removeAll ()
+  {
+    m_aCache.removeAll ();
+  }
+
+  /**
+   * @return The number of cached entries, including expired ones that were not
+   *         yet evicted.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aCache.size ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("TTLMillis", m_nTTLMillis)
+                                       .append ("NegativeTTLMillis", m_nNegativeTTLMillis)
+                                       .append ("Cache", m_aCache)
+                                       .append ("Hits", m_aHits.get ())
+                                       .append ("Misses", m_aMisses.get ())
+                                       .append ("Coalesced", m_aCoalesced.get ())
+                                       .getToString ();
+  }
+}
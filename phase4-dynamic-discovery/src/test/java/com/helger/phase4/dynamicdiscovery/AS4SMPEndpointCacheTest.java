@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2020-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.peppol.smp.ESMPTransportProfile;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.peppolid.factory.SimpleIdentifierFactory;
+import com.helger.smpclient.exception.SMPClientException;
+
+/**
+ * Test class for class {@link AS4SMPEndpointCache}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4SMPEndpointCacheTest
+{
+  private static final IParticipantIdentifier RECEIVER = SimpleIdentifierFactory.INSTANCE.createParticipantIdentifier ("iso6523-actorid-upis",
+                                                                                                                      "9915:test");
+  private static final IDocumentTypeIdentifier DOCTYPE = SimpleIdentifierFactory.INSTANCE.createDocumentTypeIdentifier ("busdox-docid-qns",
+                                                                                                                       "doctype");
+  private static final IProcessIdentifier PROCESS = SimpleIdentifierFactory.INSTANCE.createProcessIdentifier ("cenbii-procid-ubl",
+                                                                                                              "process");
+
+  @Test
+  public void testPositiveAndNegative () throws Exception
+  {
+    final AS4SMPEndpointCache <String> aCache = new AS4SMPEndpointCache <> (Duration.ofMinutes (1),
+                                                                            Duration.ofMillis (50),
+                                                                            100);
+    final AtomicInteger aLookups = new AtomicInteger (0);
+    final String sKey = AS4SMPEndpointCache.getCacheKey (RECEIVER,
+                                                         DOCTYPE,
+                                                         PROCESS,
+                                                         ESMPTransportProfile.TRANSPORT_PROFILE_PEPPOL_AS4_V2,
+                                                         null);
+    for (int i = 0; i < 10; ++i)
+      assertEquals ("ep", aCache.getEndpoint (sKey, () -> {
+        aLookups.incrementAndGet ();
+        return "ep";
+      }));
+    assertEquals (1, aLookups.get ());
+    assertEquals (9, aCache.getHitCount ());
+
+    // Negative result with short TTL
+    final String sKey2 = sKey + "x";
+    assertNull (aCache.getEndpoint (sKey2, () -> {
+      aLookups.incrementAndGet ();
+      return null;
+    }));
+    assertNull (aCache.getEndpoint (sKey2, () -> "ep"));
+    assertEquals (2, aLookups.get ());
+    ThreadHelper.sleep (100);
+    assertEquals ("ep", aCache.getEndpoint (sKey2, () -> "ep"));
+
+    // Exceptions are not cached
+    try
+    {
+      aCache.getEndpoint ("error", () -> {
+        throw new SMPClientException ("Simulated");
+      });
+      fail ();
+    }
+    catch (final SMPClientException ex)
+    {
+      // expected
+    }
+    assertEquals ("ep", aCache.getEndpoint ("error", () -> "ep"));
+
+    // Eviction per receiver
+    assertEquals (2, aCache.removeAllOfReceiver (RECEIVER));
+    assertEquals (1, aCache.size ());
+    aCache.removeAll ();
+    assertEquals (0, aCache.size ());
+  }
+
+  @Test
+  public void testMaxEntries () throws Exception
+  {
+    final AS4SMPEndpointCache <String> aCache = new AS4SMPEndpointCache <> (Duration.ofMinutes (1),
+                                                                            Duration.ofMinutes (1),
+                                                                            2);
+    aCache.getEndpoint ("a", () -> "a");
+    aCache.getEndpoint ("b", () -> "b");
+    aCache.getEndpoint ("c", () -> "c");
+    assertEquals (2, aCache.size ());
+    // "a" was evicted
+    assertEquals ("a2", aCache.getEndpoint ("a", () -> "a2"));
+  }
+
+  @Test
+  public void testCoalescing () throws Exception
+  {
+    final AS4SMPEndpointCache <String> aCache = new AS4SMPEndpointCache <> ();
+    final AtomicInteger aLookups = new AtomicInteger (0);
+    final CountDownLatch aStarted = new CountDownLatch (1);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+
+    final ExecutorService aES = Executors.newFixedThreadPool (4);
+    try
+    {
+      final Future <String> aFirst = aES.submit ( () -> aCache.getEndpoint ("key", () -> {
+        aLookups.incrementAndGet ();
+        aStarted.countDown ();
+        try
+        {
+          aRelease.await ();
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+        }
+        return "ep";
+      }));
+      aStarted.await ();
+
+      final Future <String> aSecond = aES.submit ( () -> aCache.getEndpoint ("key", () -> {
+        aLookups.incrementAndGet ();
+        return "other";
+      }));
+      // Wait until the second lookup is waiting for the first one
+      for (int i = 0; i < 500 && aCache.getCoalescedCount () == 0; ++i)
+        ThreadHelper.sleep (10);
+      aRelease.countDown ();
+
+      assertEquals ("ep", aFirst.get ());
+      assertEquals ("ep", aSecond.get ());
+      assertEquals (1, aLookups.get ());
+      assertEquals (1, aCache.getCoalescedCount ());
+    }
+    finally
+    {
+      aES.shutdown ();
+      aES.awaitTermination (10, TimeUnit.SECONDS);
+    }
+  }
+}
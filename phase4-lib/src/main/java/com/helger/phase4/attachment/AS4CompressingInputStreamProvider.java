@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * An {@link IHasInputStream} that provides the compressed version of an
+ * uncompressed source, without compressing it upfront. The first reader
+ * compresses the content while reading and writes the compressed bytes to a
+ * temporary file at the same time. After the first reader consumed the
+ * complete content, all subsequent readers read from that temporary file. That
+ * way, compressing and e.g. digesting an outgoing attachment happens in a
+ * single pass.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@ThreadSafe
+public class AS4CompressingInputStreamProvider implements IHasInputStream
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4CompressingInputStreamProvider.class);
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  private final IHasInputStream m_aSourceISP;
+  private final EAS4CompressionMode m_eCompressionMode;
+  private final AS4ResourceHelper m_aResHelper;
+  @GuardedBy ("m_aLock")
+  private boolean m_bSpooling = false;
+  @GuardedBy ("m_aLock")
+  private File m_aSpoolFile;
+
+  /**
+   * Constructor
+   *
+   * @param aSourceISP
+   *        The input stream provider of the uncompressed source. Must be
+   *        readable multiple times. May not be <code>null</code>.
+   * @param eCompressionMode
+   *        The compression mode to use. May not be <code>null</code>.
+   * @param aResHelper
+   *        The resource helper used to create temporary files. May not be
+   *        <code>null</code>.
+   */
+  public AS4CompressingInputStreamProvider (@Nonnull final IHasInputStream aSourceISP,
+                                            @Nonnull final EAS4CompressionMode eCompressionMode,
+                                            @Nonnull @WillNotClose final AS4ResourceHelper aResHelper)
+  {
+    ValueEnforcer.notNull (aSourceISP, "SourceISP");
+    ValueEnforcer.isTrue (aSourceISP.isReadMultiple (), "SourceISP must be readable multiple times");
+    ValueEnforcer.notNull (eCompressionMode, "CompressionMode");
+    ValueEnforcer.notNull (aResHelper, "ResHelper");
+    m_aSourceISP = aSourceISP;
+    m_eCompressionMode = eCompressionMode;
+    m_aResHelper = aResHelper;
+  }
+
+  /**
+   * @return The compression mode used. Never <code>null</code>.
+   */
+  @Nonnull
+  public final EAS4CompressionMode getCompressionMode ()
+  {
+    return m_eCompressionMode;
+  }
+
+  /**
+   * @return <code>true</code> if the compressed content was completely written
+   *         to a temporary file and is therefore not compressed again.
+   */
+  public final boolean isSpooled ()
+  {
+    return m_aLock.lockedBoolean ( () -> m_aSpoolFile != null);
+  }
+
+  /**
+   * @return The temporary file containing the complete compressed content, or
+   *         <code>null</code> if the content was not yet completely read once.
+   * @since 2.7.7
+   */
+  @Nullable
+  public final File getSpoolFile ()
+  {
+    return m_aLock.lockedGet ( () -> m_aSpoolFile);
+  }
+
+  public final boolean isReadMultiple ()
+  {
+    return true;
+  }
+
+  @Nonnull
+  public InputStream getInputStream ()
+  {
+    return m_aLock.lockedGet ( () -> {
+      if (m_aSpoolFile != null)
+        return FileHelper.getBufferedInputStream (m_aSpoolFile);
+
+      final InputStream aSrcIS = m_aSourceISP.getInputStream ();
+      if (aSrcIS == null)
+        throw new IllegalStateException ("Failed to open InputStream from " + m_aSourceISP);
+
+      File aTeeFile = null;
+      OutputStream aTeeOS = null;
+      if (!m_bSpooling)
+      {
+        // This is the first reader - remember the compressed content
+        aTeeFile = m_aResHelper.createTempFile ();
+        aTeeOS = FileHelper.getBufferedOutputStream (aTeeFile);
+        if (aTeeOS != null)
+          m_bSpooling = true;
+        else
+          aTeeFile = null;
+      }
+
+      try
+      {
+        return new CompressingInputStream (aSrcIS, aTeeOS, aTeeFile);
+      }
+      catch (final IOException ex)
+      {
+        StreamHelper.close (aSrcIS);
+        StreamHelper.close (aTeeOS);
+        if (aTeeOS != null)
+          m_bSpooling = false;
+        throw new UncheckedIOException (ex);
+      }
+    });
+  }
+
+  private void _onSpoolingFinished (@Nullable final File aSpoolFile)
+  {
+    m_aLock.locked ( () -> {
+      m_bSpooling = false;
+      if (aSpoolFile != null && m_aSpoolFile == null)
+      {
+        m_aSpoolFile = aSpoolFile;
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Compressed content is now available in temporary file '" +
+                        aSpoolFile.getAbsolutePath () +
+                        "'");
+      }
+    });
+  }
+
+  /**
+   * An input stream that compresses the source while reading, and optionally
+   * writes all compressed bytes to a second output stream.
+   *
+   * @author Philip Helger
+   */
+  private final class CompressingInputStream extends InputStream
+  {
+    private final InputStream m_aSrcIS;
+    private final NonBlockingByteArrayOutputStream m_aCompressed = new NonBlockingByteArrayOutputStream ();
+    private final OutputStream m_aCompressOS;
+    private final byte [] m_aReadBuffer = new byte [BUFFER_SIZE];
+    private OutputStream m_aTeeOS;
+    private final File m_aTeeFile;
+    private byte [] m_aPending = new byte [0];
+    private int m_nPendingPos = 0;
+    private boolean m_bSourceEOF = false;
+
+    CompressingInputStream (@Nonnull final InputStream aSrcIS,
+                            @Nullable final OutputStream aTeeOS,
+                            @Nullable final File aTeeFile) throws IOException
+    {
+      m_aSrcIS = aSrcIS;
+      m_aCompressOS = m_eCompressionMode.getCompressStream (m_aCompressed);
+      m_aTeeOS = aTeeOS;
+      m_aTeeFile = aTeeFile;
+    }
+
+    private void _fill () throws IOException
+    {
+      while (m_nPendingPos >= m_aPending.length && !m_bSourceEOF)
+      {
+        final int nRead = m_aSrcIS.read (m_aReadBuffer);
+        if (nRead < 0)
+        {
+          // Writes the trailer
+          m_aCompressOS.close ();
+          m_bSourceEOF = true;
+        }
+        else
+          m_aCompressOS.write (m_aReadBuffer, 0, nRead);
+
+        if (m_aCompressed.size () > 0)
+        {
+          m_aPending = m_aCompressed.toByteArray ();
+          m_nPendingPos = 0;
+          m_aCompressed.reset ();
+          if (m_aTeeOS != null)
+            m_aTeeOS.write (m_aPending);
+        }
+      }
+
+      if (m_bSourceEOF && m_aTeeOS != null)
+      {
+        // All compressed bytes were written
+        m_aTeeOS.close ();
+        m_aTeeOS = null;
+        _onSpoolingFinished (m_aTeeFile);
+      }
+    }
+
+    @Override
+    public int read () throws IOException
+    {
+      _fill ();
+      if (m_nPendingPos >= m_aPending.length)
+        return -1;
+      return m_aPending[m_nPendingPos++] & 0xff;
+    }
+
+    @Override
+    public int read (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      ValueEnforcer.isArrayOfsLen (aBuf, nOfs, nLen);
+      if (nLen == 0)
+        return 0;
+
+      _fill ();
+      final int nAvailable = m_aPending.length - m_nPendingPos;
+      if (nAvailable <= 0)
+        return -1;
+
+      final int nCopy = Math.min (nAvailable, nLen);
+      System.arraycopy (m_aPending, m_nPendingPos, aBuf, nOfs, nCopy);
+      m_nPendingPos += nCopy;
+      return nCopy;
+    }
+
+    @Override
+    public int available ()
+    {
+      return m_aPending.length - m_nPendingPos;
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+      try
+      {
+        m_aSrcIS.close ();
+      }
+      finally
+      {
+        if (!m_bSourceEOF)
+        {
+          // Release the compressor
+          StreamHelper.close (m_aCompressOS);
+          m_bSourceEOF = true;
+        }
+        if (m_aTeeOS != null)
+        {
+          // Not read until the end - the temporary file is incomplete
+          StreamHelper.close (m_aTeeOS);
+          m_aTeeOS = null;
+          _onSpoolingFinished (null);
+        }
+      }
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("SourceISP", m_aSourceISP)
+                                       .append ("CompressionMode", m_eCompressionMode)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * Default GZip {@link IAS4CompressionCodec} based on the JDK
+ * {@link GZIPOutputStream} with a configurable deflate level.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@Immutable
+public class AS4GZipCompressionCodec implements IAS4CompressionCodec
+{
+  private final int m_nLevel;
+
+  /**
+   * Constructor
+   *
+   * @param nLevel
+   *        The deflate level to use. Must be between 0 and 9 or -1 for the
+   *        default level.
+   */
+  public AS4GZipCompressionCodec (final int nLevel)
+  {
+    ValueEnforcer.isTrue (nLevel == Deflater.DEFAULT_COMPRESSION ||
+                          (nLevel >= Deflater.NO_COMPRESSION && nLevel <= Deflater.BEST_COMPRESSION),
+                          () -> "Invalid deflate level " + nLevel);
+    m_nLevel = nLevel;
+  }
+
+  /**
+   * @return The deflate level. Either between 0 and 9 or -1 for the default
+   *         level.
+   */
+  public final int getLevel ()
+  {
+    return m_nLevel;
+  }
+
+  @Nonnull
+  public InputStream getDecompressStream (@Nonnull final InputStream aIS) throws IOException
+  {
+    return new GZIPInputStream (aIS);
+  }
+
+  /**
+   * Create a new {@link GZIPOutputStream} using the provided deflate level.
+   *
+   * @param aOS
+   *        The target output stream. May not be <code>null</code>.
+   * @param nLevel
+   *        The deflate level to use.
+   * @return The new {@link GZIPOutputStream}. Never <code>null</code>.
+   * @throws IOException
+   *         In case of IO error
+   */
+  @Nonnull
+  static GZIPOutputStream createGZIPOutputStream (@Nonnull final OutputStream aOS, final int nLevel) throws IOException
+  {
+    return new GZIPOutputStream (aOS)
+    {
+      {
+        def.setLevel (nLevel);
+      }
+    };
+  }
+
+  @Nonnull
+  public OutputStream getCompressStream (@Nonnull final OutputStream aOS) throws IOException
+  {
+    return createGZIPOutputStream (aOS, m_nLevel);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Level", m_nLevel).getToString ();
+  }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * An {@link IHasInputStream} for content that can only be read once (like
+ * decrypted attachments), that avoids copying the content upfront. The first
+ * call to {@link #getInputStream()} returns the source stream directly. If the
+ * content is not larger than the provided memory threshold, it is remembered
+ * while reading, so that it can be read again afterwards. Larger content can
+ * only be read more than once, if {@link #spool()} is called before the first
+ * read. {@link #isReadMultiple()} only returns <code>true</code> once the
+ * content is completely spooled.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@ThreadSafe
+public class AS4LazySpoolingInputStreamProvider implements IHasInputStream
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4LazySpoolingInputStreamProvider.class);
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  private final IHasInputStream m_aSourceISP;
+  private final AS4ResourceHelper m_aResHelper;
+  private final int m_nMemoryThreshold;
+  @GuardedBy ("m_aLock")
+  private boolean m_bSourceOpened = false;
+  @GuardedBy ("m_aLock")
+  private byte [] m_aMemoryCopy;
+  @GuardedBy ("m_aLock")
+  private File m_aSpoolFile;
+
+  /**
+   * Constructor
+   *
+   * @param aSourceISP
+   *        The source input stream provider that is opened at most once. May
+   *        not be <code>null</code>.
+   * @param aResHelper
+   *        The resource helper used to create temporary files. May not be
+   *        <code>null</code>.
+   * @param nMemoryThreshold
+   *        The maximum number of bytes to be kept in memory. Must be &ge; 0.
+   */
+  public AS4LazySpoolingInputStreamProvider (@Nonnull final IHasInputStream aSourceISP,
+                                             @Nonnull @WillNotClose final AS4ResourceHelper aResHelper,
+                                             @Nonnegative final int nMemoryThreshold)
+  {
+    ValueEnforcer.notNull (aSourceISP, "SourceISP");
+    ValueEnforcer.notNull (aResHelper, "ResHelper");
+    ValueEnforcer.isGE0 (nMemoryThreshold, "MemoryThreshold");
+    m_aSourceISP = aSourceISP;
+    m_aResHelper = aResHelper;
+    m_nMemoryThreshold = nMemoryThreshold;
+  }
+
+  /**
+   * @return The maximum number of bytes to be kept in memory. Always &ge; 0.
+   */
+  @Nonnegative
+  public final int getMemoryThreshold ()
+  {
+    return m_nMemoryThreshold;
+  }
+
+  /**
+   * @return <code>true</code> if the content is available in memory or in a
+   *         temporary file and can therefore be read more than once.
+   */
+  public final boolean isSpooled ()
+  {
+    return m_aLock.lockedBoolean ( () -> m_aMemoryCopy != null || m_aSpoolFile != null);
+  }
+
+  @Nonnull
+  private InputStream _openSourceLocked ()
+  {
+    if (m_bSourceOpened)
+      throw new IllegalStateException ("The content was already read once and is too large to be kept in memory. Call spool() before the first read, to read the content more than once.");
+    m_bSourceOpened = true;
+
+    final InputStream ret = m_aSourceISP.getInputStream ();
+    if (ret == null)
+      throw new IllegalStateException ("Failed to open InputStream from " + m_aSourceISP);
+    return ret;
+  }
+
+  /**
+   * Read the source content completely and keep it in memory, or in a
+   * temporary file if it is larger than the memory threshold. Afterwards the
+   * content can be read any number of times. If the content is already spooled,
+   * nothing happens.
+   *
+   * @throws IOException
+   *         In case reading or writing fails
+   * @throws IllegalStateException
+   *         If the content was already read without being spooled
+   */
+  public void spool () throws IOException
+  {
+    m_aLock.lock ();
+    try
+    {
+      if (m_aMemoryCopy != null || m_aSpoolFile != null)
+        return;
+
+      try (final InputStream aIS = _openSourceLocked ())
+      {
+        // Read up to the threshold into memory
+        final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+        final byte [] aBuffer = new byte [16 * 1024];
+        int nRead = 0;
+        while (aBAOS.size () <= m_nMemoryThreshold && (nRead = aIS.read (aBuffer)) >= 0)
+          aBAOS.write (aBuffer, 0, nRead);
+
+        if (nRead < 0)
+        {
+          // EOF reached within the threshold
+          m_aMemoryCopy = aBAOS.toByteArray ();
+          if (LOGGER.isDebugEnabled ())
+            LOGGER.debug ("Spooled " + m_aMemoryCopy.length + " bytes into memory");
+        }
+        else
+        {
+          // Too large - continue in a temporary file
+          final File aTempFile = m_aResHelper.createTempFile ();
+          try (final OutputStream aOS = FileHelper.getBufferedOutputStream (aTempFile))
+          {
+            if (aOS == null)
+              throw new IOException ("Failed to open temporary file '" + aTempFile.getAbsolutePath () + "'");
+            aBAOS.writeTo (aOS);
+            if (StreamHelper.copyByteStream ().from (aIS).closeFrom (false).to (aOS).closeTo (false).build ().isFailure ())
+              throw new IOException ("Failed to spool content to temporary file '" + aTempFile.getAbsolutePath () + "'");
+          }
+          m_aSpoolFile = aTempFile;
+          if (LOGGER.isDebugEnabled ())
+            LOGGER.debug ("Spooled content to temporary file '" + aTempFile.getAbsolutePath () + "'");
+        }
+      }
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * @return <code>true</code> only if the content is completely available in
+   *         memory or in a temporary file. Before that it is unknown whether the
+   *         content can be read again, as only content not larger than the
+   *         memory threshold is remembered while reading.
+   * @see #isSpooled()
+   * @see #spool()
+   */
+  public final boolean isReadMultiple ()
+  {
+    return isSpooled ();
+  }
+
+  @Nonnull
+  public InputStream getInputStream ()
+  {
+    return m_aLock.lockedGet ( () -> {
+      if (m_aMemoryCopy != null)
+        return new NonBlockingByteArrayInputStream (m_aMemoryCopy);
+      if (m_aSpoolFile != null)
+        return FileHelper.getBufferedInputStream (m_aSpoolFile);
+
+      // Read directly from source, remembering small content
+      return new CapturingInputStream (_openSourceLocked ());
+    });
+  }
+
+  private void _onSourceFullyRead (@Nonnull final byte [] aContent)
+  {
+    m_aLock.locked ( () -> {
+      if (m_aMemoryCopy == null && m_aSpoolFile == null)
+        m_aMemoryCopy = aContent;
+    });
+  }
+
+  /**
+   * An input stream that remembers the read bytes, as long as the threshold is
+   * not exceeded.
+   *
+   * @author Philip Helger
+   */
+  private final class CapturingInputStream extends FilterInputStream
+  {
+    private NonBlockingByteArrayOutputStream m_aCapture = new NonBlockingByteArrayOutputStream ();
+
+    CapturingInputStream (@Nonnull final InputStream aIS)
+    {
+      super (aIS);
+    }
+
+    private void _onRead (@Nonnull final byte [] aBuf, final int nOfs, final int nRead)
+    {
+      if (m_aCapture != null)
+      {
+        if (nRead < 0)
+        {
+          // EOF
+          _onSourceFullyRead (m_aCapture.toByteArray ());
+          m_aCapture = null;
+        }
+        else
+          if (m_aCapture.size () + nRead > m_nMemoryThreshold)
+          {
+            // Too large - stop capturing
+            m_aCapture = null;
+          }
+          else
+            m_aCapture.write (aBuf, nOfs, nRead);
+      }
+    }
+
+    @Override
+    public int read () throws IOException
+    {
+      final byte [] aBuf = new byte [1];
+      final int nRead = read (aBuf, 0, 1);
+      return nRead < 0 ? -1 : aBuf[0] & 0xff;
+    }
+
+    @Override
+    public int read (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      final int ret = super.read (aBuf, nOfs, nLen);
+      _onRead (aBuf, nOfs, ret);
+      return ret;
+    }
+
+    @Override
+    public long skip (final long n) throws IOException
+    {
+      // Skipped bytes cannot be captured
+      m_aCapture = null;
+      return super.skip (n);
+    }
+
+    @Override
+    public boolean markSupported ()
+    {
+      return false;
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("SourceISP", m_aSourceISP)
+                                       .append ("MemoryThreshold", m_nMemoryThreshold)
+                                       .getToString ();
+  }
+}
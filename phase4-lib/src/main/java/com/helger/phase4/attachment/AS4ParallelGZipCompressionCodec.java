@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.WillCloseWhenClosed;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * GZip {@link IAS4CompressionCodec} that splits the content into blocks of a
+ * fixed size and compresses these blocks in parallel using a
+ * {@link ForkJoinPool}. Each block is written as a separate gzip member, so the
+ * result is a standard multi-member gzip stream (RFC 1952) that can be read by
+ * any compliant gzip decompressor, including {@link GZIPInputStream}. Content
+ * that is not larger than one block results in a single member, identical to
+ * the output of {@link AS4GZipCompressionCodec}.<br>
+ * Note: the output is deterministic for the same content, block size and
+ * level. It is slightly larger than single-member output, as the dictionary is
+ * reset per block.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@Immutable
+public class AS4ParallelGZipCompressionCodec extends AS4GZipCompressionCodec
+{
+  private final int m_nBlockSize;
+  private final ForkJoinPool m_aPool;
+
+  /**
+   * Constructor using the common fork-join pool.
+   *
+   * @param nLevel
+   *        The deflate level to use. Must be between 0 and 9 or -1 for the
+   *        default level.
+   * @param nBlockSize
+   *        The number of uncompressed bytes per gzip member. Must be &gt; 0.
+   */
+  public AS4ParallelGZipCompressionCodec (final int nLevel, @Nonnegative final int nBlockSize)
+  {
+    this (nLevel, nBlockSize, ForkJoinPool.commonPool ());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nLevel
+   *        The deflate level to use. Must be between 0 and 9 or -1 for the
+   *        default level.
+   * @param nBlockSize
+   *        The number of uncompressed bytes per gzip member. Must be &gt; 0.
+   * @param aPool
+   *        The fork-join pool to compress the blocks in. May not be
+   *        <code>null</code>.
+   */
+  public AS4ParallelGZipCompressionCodec (final int nLevel,
+                                          @Nonnegative final int nBlockSize,
+                                          @Nonnull final ForkJoinPool aPool)
+  {
+    super (nLevel);
+    ValueEnforcer.isGT0 (nBlockSize, "BlockSize");
+    ValueEnforcer.notNull (aPool, "Pool");
+    m_nBlockSize = nBlockSize;
+    m_aPool = aPool;
+  }
+
+  /**
+   * @return The number of uncompressed bytes per gzip member. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getBlockSize ()
+  {
+    return m_nBlockSize;
+  }
+
+  /**
+   * @return The fork-join pool used for compression. Never <code>null</code>.
+   */
+  @Nonnull
+  public final ForkJoinPool getPool ()
+  {
+    return m_aPool;
+  }
+
+  @Override
+  @Nonnull
+  public OutputStream getCompressStream (@Nonnull final OutputStream aOS) throws IOException
+  {
+    return new ParallelGZIPOutputStream (aOS, getLevel (), m_nBlockSize, m_aPool);
+  }
+
+  @Nonnull
+  static byte [] compressMember (@Nonnull final byte [] aData, final int nLength, final int nLevel) throws IOException
+  {
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream (Math.max (64, nLength / 2));
+    try (final OutputStream aGZOS = createGZIPOutputStream (aBAOS, nLevel))
+    {
+      aGZOS.write (aData, 0, nLength);
+    }
+    return aBAOS.toByteArray ();
+  }
+
+  /**
+   * The output stream that compresses the blocks in parallel and writes the
+   * resulting members in the original order.
+   *
+   * @author Philip Helger
+   */
+  @NotThreadSafe
+  static final class ParallelGZIPOutputStream extends OutputStream
+  {
+    private final OutputStream m_aOS;
+    private final int m_nLevel;
+    private final int m_nBlockSize;
+    private final ForkJoinPool m_aPool;
+    private final int m_nMaxPending;
+    private final Deque <Future <byte []>> m_aPending = new ArrayDeque <> ();
+    private byte [] m_aBlock;
+    private int m_nBlockLen = 0;
+    private boolean m_bAnyMember = false;
+    private boolean m_bClosed = false;
+
+    ParallelGZIPOutputStream (@Nonnull @WillCloseWhenClosed final OutputStream aOS,
+                              final int nLevel,
+                              @Nonnegative final int nBlockSize,
+                              @Nonnull final ForkJoinPool aPool)
+    {
+      m_aOS = aOS;
+      m_nLevel = nLevel;
+      m_nBlockSize = nBlockSize;
+      m_aPool = aPool;
+      // Limit the memory consumption
+      m_nMaxPending = Math.max (2, aPool.getParallelism () * 2);
+      m_aBlock = new byte [nBlockSize];
+    }
+
+    private void _ensureOpen () throws IOException
+    {
+      if (m_bClosed)
+        throw new IOException ("Stream is already closed");
+    }
+
+    private void _writeHead () throws IOException
+    {
+      final Future <byte []> aFuture = m_aPending.removeFirst ();
+      try
+      {
+        m_aOS.write (aFuture.get ());
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        throw new InterruptedIOException ("Interrupted while waiting for compressed block");
+      }
+      catch (final ExecutionException ex)
+      {
+        final Throwable aCause = ex.getCause ();
+        if (aCause instanceof IOException)
+          throw (IOException) aCause;
+        throw new IOException ("Failed to compress block", aCause);
+      }
+    }
+
+    private void _submitBlock () throws IOException
+    {
+      final byte [] aBlock = m_aBlock;
+      final int nBlockLen = m_nBlockLen;
+      m_aPending.addLast (m_aPool.submit ( () -> compressMember (aBlock, nBlockLen, m_nLevel)));
+      m_bAnyMember = true;
+      m_aBlock = new byte [m_nBlockSize];
+      m_nBlockLen = 0;
+
+      while (m_aPending.size () > m_nMaxPending)
+        _writeHead ();
+    }
+
+    @Override
+    public void write (final int b) throws IOException
+    {
+      write (new byte [] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      ValueEnforcer.isArrayOfsLen (aBuf, nOfs, nLen);
+      _ensureOpen ();
+
+      int nOffset = nOfs;
+      int nRemaining = nLen;
+      while (nRemaining > 0)
+      {
+        final int nCopy = Math.min (nRemaining, m_nBlockSize - m_nBlockLen);
+        System.arraycopy (aBuf, nOffset, m_aBlock, m_nBlockLen, nCopy);
+        m_nBlockLen += nCopy;
+        nOffset += nCopy;
+        nRemaining -= nCopy;
+        if (m_nBlockLen == m_nBlockSize)
+          _submitBlock ();
+      }
+    }
+
+    @Override
+    public void flush () throws IOException
+    {
+      _ensureOpen ();
+      // Only write what is already compressed
+      while (!m_aPending.isEmpty () && m_aPending.peekFirst ().isDone ())
+        _writeHead ();
+      m_aOS.flush ();
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+      if (m_bClosed)
+        return;
+      m_bClosed = true;
+      try
+      {
+        // An empty input must still result in a valid gzip stream
+        if (m_nBlockLen > 0 || !m_bAnyMember)
+          _submitBlock ();
+        while (!m_aPending.isEmpty ())
+          _writeHead ();
+        m_aBlock = null;
+      }
+      finally
+      {
+        for (final Future <byte []> aFuture : m_aPending)
+          aFuture.cancel (false);
+        m_aPending.clear ();
+        m_aOS.close ();
+      }
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return ToStringGenerator.getDerived (super.toString ())
+                            .append ("BlockSize", m_nBlockSize)
+                            .append ("Pool", m_aPool)
+                            .getToString ();
+  }
+}
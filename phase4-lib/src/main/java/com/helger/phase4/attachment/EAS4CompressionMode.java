@@ -19,18 +19,19 @@ package com.helger.phase4.attachment;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
 import com.helger.commons.id.IHasID;
 import com.helger.commons.lang.EnumHelper;
 import com.helger.commons.mime.CMimeType;
 import com.helger.commons.mime.IMimeType;
 import com.helger.commons.string.StringHelper;
+import com.helger.phase4.config.AS4Configuration;
 
 /**
  * Defines the allowed AS4 compression modes.
@@ -44,22 +45,22 @@ public enum EAS4CompressionMode implements IHasID <String>
   {
     @Override
     @Nonnull
-    public InputStream getDecompressStream (@Nonnull final InputStream aIS) throws IOException
+    public IAS4CompressionCodec createDefaultCodec ()
     {
-      return new GZIPInputStream (aIS);
-    }
-
-    @Override
-    @Nonnull
-    public OutputStream getCompressStream (@Nonnull final OutputStream aOS) throws IOException
-    {
-      return new GZIPOutputStream (aOS);
+      final int nLevel = AS4Configuration.getCompressionGZipLevel ();
+      if (AS4Configuration.isCompressionGZipParallel ())
+        return new AS4ParallelGZipCompressionCodec (nLevel, AS4Configuration.getCompressionGZipParallelBlockSize ());
+      return new AS4GZipCompressionCodec (nLevel);
     }
   };
 
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+
   private final String m_sID;
   private final IMimeType m_aMimeType;
   private final String m_sFileExtension;
+  @GuardedBy ("RW_LOCK")
+  private IAS4CompressionCodec m_aCodec;
 
   EAS4CompressionMode (@Nonnull @Nonempty final String sID,
                        @Nonnull final IMimeType aMimeType,
@@ -107,6 +108,51 @@ public enum EAS4CompressionMode implements IHasID <String>
     return m_sFileExtension;
   }
 
+  /**
+   * Create the codec to be used, if no codec was explicitly set. This is
+   * called lazily and may use the configuration.
+   *
+   * @return A new codec. Never <code>null</code>.
+   * @since 2.7.7
+   */
+  @Nonnull
+  public abstract IAS4CompressionCodec createDefaultCodec ();
+
+  /**
+   * @return The codec used by this compression mode. If none was set, the
+   *         default codec is created on first access. Never <code>null</code>.
+   * @since 2.7.7
+   */
+  @Nonnull
+  public IAS4CompressionCodec getCodec ()
+  {
+    IAS4CompressionCodec ret = RW_LOCK.readLockedGet ( () -> m_aCodec);
+    if (ret == null)
+    {
+      ret = RW_LOCK.writeLockedGet ( () -> {
+        // Try again in write lock
+        if (m_aCodec == null)
+          m_aCodec = createDefaultCodec ();
+        return m_aCodec;
+      });
+    }
+    return ret;
+  }
+
+  /**
+   * Set the codec to be used by this compression mode. Must produce and accept
+   * content that is compatible to the MIME type of this compression mode.
+   *
+   * @param aCodec
+   *        The codec to use. May be <code>null</code> to create the default
+   *        codec on next access.
+   * @since 2.7.7
+   */
+  public void setCodec (@Nullable final IAS4CompressionCodec aCodec)
+  {
+    RW_LOCK.writeLocked ( () -> m_aCodec = aCodec);
+  }
+
   /**
    * Get an {@link InputStream} to decompress the provided {@link InputStream}.
    *
@@ -115,9 +161,13 @@ public enum EAS4CompressionMode implements IHasID <String>
    * @return The decompressing {@link InputStream}
    * @throws IOException
    *         In case of IO error
+   * @see #getCodec()
    */
   @Nonnull
-  public abstract InputStream getDecompressStream (@Nonnull InputStream aIS) throws IOException;
+  public InputStream getDecompressStream (@Nonnull final InputStream aIS) throws IOException
+  {
+    return getCodec ().getDecompressStream (aIS);
+  }
 
   /**
    * Get an {@link OutputStream} to compress the provided {@link OutputStream}.
@@ -127,9 +177,13 @@ public enum EAS4CompressionMode implements IHasID <String>
    * @return The compressing {@link OutputStream}
    * @throws IOException
    *         In case of IO error
+   * @see #getCodec()
    */
   @Nonnull
-  public abstract OutputStream getCompressStream (@Nonnull OutputStream aOS) throws IOException;
+  public OutputStream getCompressStream (@Nonnull final OutputStream aOS) throws IOException
+  {
+    return getCodec ().getCompressStream (aOS);
+  }
 
   @Nullable
   public static EAS4CompressionMode getFromMimeTypeStringOrNull (@Nullable final String sMimeType)
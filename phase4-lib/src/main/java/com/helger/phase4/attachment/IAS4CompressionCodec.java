@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Interface for a single compression codec that is used by an
+ * {@link EAS4CompressionMode}. Implementations must be thread-safe, as the same
+ * codec is used for all compression and decompression operations.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+public interface IAS4CompressionCodec
+{
+  /**
+   * Get an {@link InputStream} to decompress the provided {@link InputStream}.
+   *
+   * @param aIS
+   *        The source {@link InputStream}. May not be <code>null</code>.
+   * @return The decompressing {@link InputStream}
+   * @throws IOException
+   *         In case of IO error
+   */
+  @Nonnull
+  InputStream getDecompressStream (@Nonnull InputStream aIS) throws IOException;
+
+  /**
+   * Get an {@link OutputStream} to compress the provided {@link OutputStream}.
+   *
+   * @param aOS
+   *        The target {@link OutputStream}. May not be <code>null</code>.
+   * @return The compressing {@link OutputStream}
+   * @throws IOException
+   *         In case of IO error
+   */
+  @Nonnull
+  OutputStream getCompressStream (@Nonnull OutputStream aOS) throws IOException;
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+
+import javax.annotation.Nonnull;
+import javax.annotation.WillNotClose;
+
+import com.helger.phase4.util.AS4ResourceHelper;
+
+import jakarta.mail.Header;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.InternetHeaders;
+import jakarta.mail.internet.MimeBodyPart;
+
+/**
+ * Extended {@link IAS4IncomingAttachmentFactory} that receives the parsed MIME
+ * part headers and the not yet read MIME part content, instead of a completely
+ * read {@link MimeBodyPart}. This avoids reading the content of the MIME part
+ * more than once.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@FunctionalInterface
+public interface IAS4IncomingStreamingAttachmentFactory extends IAS4IncomingAttachmentFactory
+{
+  /**
+   * Create an attachment from the MIME part headers and the MIME part content.
+   *
+   * @param aPartHeaders
+   *        The headers of the MIME part. May not be <code>null</code>.
+   * @param aPartContentIS
+   *        The raw content of the MIME part, still using the Content Transfer
+   *        Encoding. Must be read completely and must not be closed. May not be
+   *        <code>null</code>.
+   * @param aResHelper
+   *        The resource manager to use. May not be <code>null</code>.
+   * @return The internal attachment representation. Never <code>null</code>.
+   * @throws IOException
+   *         In case of IO error
+   * @throws MessagingException
+   *         In case MIME part reading fails.
+   */
+  @Nonnull
+  WSS4JAttachment createAttachment (@Nonnull InternetHeaders aPartHeaders,
+                                    @Nonnull @WillNotClose InputStream aPartContentIS,
+                                    @Nonnull AS4ResourceHelper aResHelper) throws IOException, MessagingException;
+
+  @Override
+  @Nonnull
+  default WSS4JAttachment createAttachment (@Nonnull final MimeBodyPart aBodyPart,
+                                            @Nonnull final AS4ResourceHelper aResHelper) throws IOException,
+                                                                                         MessagingException
+  {
+    final InternetHeaders aPartHeaders = new InternetHeaders ();
+    final Enumeration <Header> aEnum = aBodyPart.getAllHeaders ();
+    while (aEnum.hasMoreElements ())
+    {
+      final Header aHeader = aEnum.nextElement ();
+      aPartHeaders.addHeader (aHeader.getName (), aHeader.getValue ());
+    }
+    try (final InputStream aIS = aBodyPart.getRawInputStream ())
+    {
+      return createAttachment (aPartHeaders, aIS, aResHelper);
+    }
+  }
+
+  /**
+   * The streaming instance of {@link IAS4IncomingStreamingAttachmentFactory}
+   * that uses
+   * {@link WSS4JAttachment#createIncomingFileAttachment(InternetHeaders, InputStream, AS4ResourceHelper)}
+   */
+  @Nonnull
+  IAS4IncomingStreamingAttachmentFactory STREAMING_INSTANCE = WSS4JAttachment::createIncomingFileAttachment;
+}
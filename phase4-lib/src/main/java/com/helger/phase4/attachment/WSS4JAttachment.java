@@ -21,7 +21,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
 import java.util.Enumeration;
 import java.util.Map;
 
@@ -52,6 +56,7 @@ import com.helger.commons.string.StringHelper;
 import com.helger.commons.string.ToStringGenerator;
 import com.helger.mail.cte.EContentTransferEncoding;
 import com.helger.mail.datasource.InputStreamProviderDataSource;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.messaging.domain.MessageHelperMethods;
 import com.helger.phase4.util.AS4ResourceHelper;
 
@@ -59,8 +64,10 @@ import jakarta.activation.DataHandler;
 import jakarta.activation.DataSource;
 import jakarta.mail.Header;
 import jakarta.mail.MessagingException;
+import jakarta.mail.internet.InternetHeaders;
 import jakarta.mail.internet.MimeBodyPart;
 import jakarta.mail.internet.MimeMultipart;
+import jakarta.mail.internet.MimeUtility;
 
 /**
  * Special WSS4J attachment with an InputStream provider instead of a fixed
@@ -79,9 +86,15 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
   public static final String CONTENT_ID_SUFFIX = ">";
 
   private static final Logger LOGGER = LoggerFactory.getLogger (WSS4JAttachment.class);
+  // Maximum number of bytes per FileChannel transfer of streamed attachments
+  private static final long STREAMING_TRANSFER_CHUNK_SIZE = CGlobal.BYTES_PER_MEGABYTE;
+  // The default MIME type of a MIME part according to RFC 2045, as returned by
+  // MimeBodyPart.getContentType ()
+  private static final String DEFAULT_PART_CONTENT_TYPE = "text/plain";
 
   private final AS4ResourceHelper m_aResHelper;
   private IHasInputStream m_aISP;
+  private File m_aSourceFile;
   private EContentTransferEncoding m_eCTE = EContentTransferEncoding.BINARY;
   private EAS4CompressionMode m_eCompressionMode;
   private Charset m_aCharset;
@@ -188,6 +201,39 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
   {
     ValueEnforcer.notNull (aISP, "InputStreamProvider");
     m_aISP = aISP;
+    m_aSourceFile = null;
+  }
+
+  /**
+   * Set the source file of this attachment. The content of this attachment is
+   * the unmodified content of the file.
+   *
+   * @param aFile
+   *        The source file. May not be <code>null</code>.
+   */
+  private void _setSourceFile (@Nonnull final File aFile)
+  {
+    setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aFile)));
+    m_aSourceFile = aFile;
+  }
+
+  /**
+   * @return The file that contains exactly the content of this attachment, or
+   *         <code>null</code> if the content is not available as a file (e.g.
+   *         because it is in memory or because it was encrypted).
+   * @since 2.7.7
+   */
+  @Nullable
+  public final File getSourceFile ()
+  {
+    if (m_aSourceFile != null)
+      return m_aSourceFile;
+    if (m_aISP instanceof AS4CompressingInputStreamProvider)
+    {
+      // Only available after the first complete read
+      return ((AS4CompressingInputStreamProvider) m_aISP).getSpoolFile ();
+    }
+    return null;
   }
 
   @Nonnull
@@ -368,7 +414,10 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
   }
 
   /**
-   * Quasi constructor. Performs compression internally if necessary.
+   * Quasi constructor. Performs compression internally if necessary. If
+   * {@link AS4Configuration#isOutgoingAttachmentsDeferredCompression()} is
+   * enabled, the compression happens while the attachment is read the first
+   * time.
    *
    * @param aSrcFile
    *        Source, uncompressed, unencrypted file.
@@ -415,6 +464,15 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
     {
       ret.setCompressionMode (eCompressionMode);
 
+      if (AS4Configuration.isOutgoingAttachmentsDeferredCompression ())
+      {
+        // Compress while reading the first time
+        ret.setSourceStreamProvider (new AS4CompressingInputStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aSrcFile)),
+                                                                            eCompressionMode,
+                                                                            aResHelper));
+        return ret;
+      }
+
       // Create temporary file with compressed content to avoid that the
       // original is compressed more than once
       aRealFile = aResHelper.createTempFile ();
@@ -435,12 +493,15 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
 
     // Set a stream provider that can be read multiple times (opens a new
     // FileInputStream internally)
-    ret.setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aRealFile)));
+    ret._setSourceFile (aRealFile);
     return ret;
   }
 
   /**
-   * Quasi constructor. Performs compression internally.
+   * Quasi constructor. Performs compression internally. If
+   * {@link AS4Configuration#isOutgoingAttachmentsDeferredCompression()} is
+   * enabled, the compression happens while the attachment is read the first
+   * time.
    *
    * @param aSrcData
    *        Source in-memory data, uncompressed, unencrypted.
@@ -488,6 +549,15 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
     {
       ret.setCompressionMode (eCompressionMode);
 
+      if (AS4Configuration.isOutgoingAttachmentsDeferredCompression ())
+      {
+        // Compress while reading the first time
+        ret.setSourceStreamProvider (new AS4CompressingInputStreamProvider (HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aSrcData)),
+                                                                            eCompressionMode,
+                                                                            aResHelper));
+        return ret;
+      }
+
       // Create temporary file with compressed content
       final File aRealFile = aResHelper.createTempFile ();
       try (final NonBlockingBufferedOutputStream aFOS = FileHelper.getBufferedOutputStream (aRealFile))
@@ -498,7 +568,7 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
             aOS.write (aSrcData);
           }
       }
-      ret.setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aRealFile)));
+      ret._setSourceFile (aRealFile);
     }
     else
     {
@@ -616,4 +686,100 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
 
     return ret;
   }
+
+  private static boolean _isIdentityTransferEncoding (@Nullable final String sCTE)
+  {
+    return StringHelper.hasNoText (sCTE) ||
+           sCTE.trim ().equalsIgnoreCase ("binary") ||
+           sCTE.trim ().equalsIgnoreCase ("7bit") ||
+           sCTE.trim ().equalsIgnoreCase ("8bit");
+  }
+
+  /**
+   * Create an incoming attachment from the MIME part headers and the MIME part
+   * content stream. The content is always spooled to a temporary file, without
+   * keeping the content in memory. If the part has no Content-Type header,
+   * "text/plain" is used.
+   *
+   * @param aPartHeaders
+   *        The headers of the MIME part. May not be <code>null</code>.
+   * @param aPartContentIS
+   *        The raw content of the MIME part. Is read completely but not
+   *        closed. May not be <code>null</code>.
+   * @param aResHelper
+   *        The resource manager to use. May not be <code>null</code>.
+   * @return The created attachment. Never <code>null</code>.
+   * @throws MessagingException
+   *         In case the Content Transfer Encoding is unsupported
+   * @throws IOException
+   *         In case of IO error
+   * @since 2.7.7
+   */
+  @Nonnull
+  public static WSS4JAttachment createIncomingFileAttachment (@Nonnull final InternetHeaders aPartHeaders,
+                                                              @Nonnull @WillNotClose final InputStream aPartContentIS,
+                                                              @Nonnull final AS4ResourceHelper aResHelper) throws MessagingException,
+                                                                                                           IOException
+  {
+    ValueEnforcer.notNull (aPartHeaders, "PartHeaders");
+    ValueEnforcer.notNull (aPartContentIS, "PartContentIS");
+    ValueEnforcer.notNull (aResHelper, "ResHelper");
+
+    final WSS4JAttachment ret = new WSS4JAttachment (aResHelper,
+                                                     StringHelper.getNotNull (aPartHeaders.getHeader (CHttpHeader.CONTENT_TYPE,
+                                                                                                      null),
+                                                                              DEFAULT_PART_CONTENT_TYPE));
+
+    {
+      // Reference in Content-ID header is: "<ID>"
+      final String sRealContentID = StringHelper.trimStartAndEnd (aPartHeaders.getHeader (CHttpHeader.CONTENT_ID,
+                                                                                         null),
+                                                                 '<',
+                                                                 '>');
+      ret.setId (sRealContentID);
+    }
+
+    // Decode the content transfer encoding on the fly
+    final String sCTE = aPartHeaders.getHeader (CHttpHeader.CONTENT_TRANSFER_ENCODING, null);
+    final InputStream aContentIS = _isIdentityTransferEncoding (sCTE) ? aPartContentIS
+                                                                      : MimeUtility.decode (aPartContentIS,
+                                                                                            sCTE.trim ());
+
+    // Write to temp file
+    final File aTempFile = aResHelper.createTempFile ();
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Streaming WSS4J attachment to temporary file '" + aTempFile.getAbsolutePath () + "'");
+
+    long nBytes = 0;
+    try (final FileChannel aFC = FileChannel.open (aTempFile.toPath (),
+                                                   StandardOpenOption.WRITE,
+                                                   StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      // Don't close the channel, as this would close the source stream
+      final ReadableByteChannel aSrc = Channels.newChannel (aContentIS);
+      long nTransferred;
+      while ((nTransferred = aFC.transferFrom (aSrc, nBytes, STREAMING_TRANSFER_CHUNK_SIZE)) > 0)
+        nBytes += nTransferred;
+    }
+    ret.setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aTempFile)));
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Streamed incoming WSS4J attachment with " + nBytes + " bytes");
+
+    // Take all MIME part headers
+    final Enumeration <Header> aEnum = aPartHeaders.getAllHeaders ();
+    while (aEnum.hasMoreElements ())
+    {
+      final Header aHeader = aEnum.nextElement ();
+      ret.addHeader (aHeader.getName (), aHeader.getValue ());
+    }
+
+    // These headers are mandatory and overwrite headers from the MIME body part
+    ret.addHeader (CHttpHeader.CONTENT_DESCRIPTION, CONTENT_DESCRIPTION_ATTACHMENT);
+    ret.addHeader (CHttpHeader.CONTENT_ID, CONTENT_ID_PREFIX + ret.getId () + CONTENT_ID_SUFFIX);
+    ret.addHeader (CHttpHeader.CONTENT_TYPE, ret.getMimeType ());
+
+    return ret;
+  }
 }
@@ -77,10 +77,12 @@ import jakarta.mail.MessagingException;
 public class AS4ClientUserMessage extends AbstractAS4Client <AS4ClientUserMessage>
 {
   public static final boolean DEFAULT_FORCE_MIME_MESSAGE = false;
+  public static final boolean DEFAULT_ADOPT_PAYLOAD = false;
 
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4ClientUserMessage.class);
 
   private Node m_aSoapBodyPayload;
+  private boolean m_bAdoptPayload = DEFAULT_ADOPT_PAYLOAD;
   private final ICommonsList <WSS4JAttachment> m_aAttachments = new CommonsArrayList <> ();
   private boolean m_bForceMimeMessage = DEFAULT_FORCE_MIME_MESSAGE;
 
@@ -142,6 +144,37 @@ public class AS4ClientUserMessage extends AbstractAS4Client <AS4ClientUserMessag
     return this;
   }
 
+  /**
+   * @return <code>true</code> if the payload node is moved into the created
+   *         SOAP document, <code>false</code> if it is copied. Default is
+   *         {@link #DEFAULT_ADOPT_PAYLOAD}.
+   * @since 2.7.7
+   */
+  public final boolean isAdoptPayload ()
+  {
+    return m_bAdoptPayload;
+  }
+
+  /**
+   * Define whether the payload node should be moved into the created SOAP
+   * document instead of being copied. This avoids a deep copy of large
+   * payloads, but the payload is removed from its original DOM and the message
+   * can therefore only be built once. Only enable this, if the payload is not
+   * used elsewhere.
+   *
+   * @param bAdoptPayload
+   *        <code>true</code> to move the payload, <code>false</code> to copy
+   *        it.
+   * @return this for chaining
+   * @since 2.7.7
+   */
+  @Nonnull
+  public final AS4ClientUserMessage setAdoptPayload (final boolean bAdoptPayload)
+  {
+    m_bAdoptPayload = bAdoptPayload;
+    return this;
+  }
+
   /**
    * @return The list of attachments that are part of the message. If this list
    *         is not empty, a MIME message is created. Having attachments and no
@@ -721,13 +754,14 @@ public class AS4ClientUserMessage extends AbstractAS4Client <AS4ClientUserMessag
     if (aCallback != null)
       aCallback.onAS4Message (aUserMsg);
 
-    final Document aPureDoc = aUserMsg.getAsSoapDocument (m_aSoapBodyPayload);
+    final Document aPureDoc = aUserMsg.getAsSoapDocument (m_aSoapBodyPayload, m_bAdoptPayload);
 
     if (aCallback != null)
       aCallback.onSoapDocument (aPureDoc);
 
     // 1. compress
-    // Is done when the attachments are added
+    // Is done when the attachments are added, or while reading them for the
+    // first time when deferred compression is enabled
 
     // 2. sign and/or encrypt
     Document aDoc = aPureDoc;
@@ -25,6 +25,7 @@ import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.CGlobal;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.concurrent.SimpleReadWriteLock;
 import com.helger.commons.equals.EqualsHelper;
@@ -61,8 +62,80 @@ public final class AS4Configuration
   public static final String PROPERTY_PHASE4_WSS4J_SYNCSECURITY = "phase4.wss4j.syncsecurity";
   public static final boolean DEFAULT_PHASE4_WSS4J_SYNCSECURITY = false;
 
+  /**
+   * The boolean property to run synchronized sign/verify and encrypt/decrypt
+   * concurrently. Only relevant if {@link #PROPERTY_PHASE4_WSS4J_SYNCSECURITY}
+   * is enabled.
+   *
+   * @since 2.7.7
+   */
+  public static final String PROPERTY_PHASE4_WSS4J_SYNCSECURITY_CONCURRENT = "phase4.wss4j.syncsecurity.concurrent";
+  public static final boolean DEFAULT_PHASE4_WSS4J_SYNCSECURITY_CONCURRENT = false;
+
   public static final long DEFAULT_PHASE4_INCOMING_DUPLICATEDISPOSAL_MINUTES = 10;
 
+  /**
+   * The boolean property to enable the duplicate check of incoming messages
+   * before the WS-Security processing.
+   *
+   * @since 2.7.7
+   */
+  public static final String PROPERTY_PHASE4_INCOMING_DUPLICATE_PRECHECK = "phase4.incoming.duplicate.precheck";
+  public static final boolean DEFAULT_PHASE4_INCOMING_DUPLICATE_PRECHECK = false;
+
+  /**
+   * The boolean property to enable the lazy handling of decrypted incoming
+   * attachments.
+   *
+   * @since 2.7.7
+   */
+  public static final String PROPERTY_PHASE4_INCOMING_DECRYPTEDATTACHMENTS_LAZY = "phase4.incoming.decryptedattachments.lazy";
+  public static final boolean DEFAULT_PHASE4_INCOMING_DECRYPTEDATTACHMENTS_LAZY = false;
+
+  /**
+   * The int property defining the maximum size in bytes of decrypted incoming
+   * attachments, that are kept in memory instead of a temporary file.
+   *
+   * @since 2.7.7
+   */
+  public static final String PROPERTY_PHASE4_INCOMING_DECRYPTEDATTACHMENTS_MEMORY_THRESHOLD = "phase4.incoming.decryptedattachments.memorythreshold";
+  public static final int DEFAULT_PHASE4_INCOMING_DECRYPTEDATTACHMENTS_MEMORY_THRESHOLD = 64 * CGlobal.BYTES_PER_KILOBYTE;
+
+  /**
+   * The boolean property to enable the deferred compression of outgoing
+   * attachments.
+   *
+   * @since 2.7.7
+   */
+  public static final String PROPERTY_PHASE4_OUTGOING_ATTACHMENTS_DEFERREDCOMPRESSION = "phase4.outgoing.attachments.deferredcompression";
+  public static final boolean DEFAULT_PHASE4_OUTGOING_ATTACHMENTS_DEFERREDCOMPRESSION = false;
+
+  /**
+   * The int property defining the deflate level of the GZip compression. Must
+   * be between 0 and 9 or -1 for the default level.
+   *
+   * @since 2.7.7
+   */
+  public static final String PROPERTY_PHASE4_COMPRESSION_GZIP_LEVEL = "phase4.compression.gzip.level";
+  public static final int DEFAULT_PHASE4_COMPRESSION_GZIP_LEVEL = -1;
+
+  /**
+   * The boolean property to enable the parallel GZip compression.
+   *
+   * @since 2.7.7
+   */
+  public static final String PROPERTY_PHASE4_COMPRESSION_GZIP_PARALLEL = "phase4.compression.gzip.parallel";
+  public static final boolean DEFAULT_PHASE4_COMPRESSION_GZIP_PARALLEL = false;
+
+  /**
+   * The int property defining the number of uncompressed bytes per block of
+   * the parallel GZip compression.
+   *
+   * @since 2.7.7
+   */
+  public static final String PROPERTY_PHASE4_COMPRESSION_GZIP_PARALLEL_BLOCKSIZE = "phase4.compression.gzip.parallel.blocksize";
+  public static final int DEFAULT_PHASE4_COMPRESSION_GZIP_PARALLEL_BLOCKSIZE = CGlobal.BYTES_PER_MEGABYTE;
+
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4Configuration.class);
 
   /**
@@ -229,6 +302,22 @@ public final class AS4Configuration
     return StringParser.parseBool (sValue, DEFAULT_PHASE4_WSS4J_SYNCSECURITY);
   }
 
+  /**
+   * @return <code>true</code> if the synchronized WSS4J actions (see
+   *         {@link #isWSS4JSynchronizedSecurity()}) may run concurrently. In
+   *         that case the WSS4J security providers are installed once when the
+   *         first action starts and are removed after the last running action
+   *         finished, instead of serializing all actions. The configuration
+   *         item is <code>phase4.wss4j.syncsecurity.concurrent</code>.
+   * @since 2.7.7
+   */
+  public static boolean isWSS4JSynchronizedSecurityConcurrent ()
+  {
+    // Parse manually
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_WSS4J_SYNCSECURITY_CONCURRENT);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_WSS4J_SYNCSECURITY_CONCURRENT);
+  }
+
   /**
    * @return The AS4 profile to use, taken from the configuration item
    *         <code>phase4.profile</code>. May be <code>null</code>.
@@ -252,6 +341,120 @@ public final class AS4Configuration
                                    DEFAULT_PHASE4_INCOMING_DUPLICATEDISPOSAL_MINUTES);
   }
 
+  /**
+   * @return <code>true</code> if incoming messages should be checked for
+   *         duplicates before the WS-Security processing takes place. The
+   *         cached receipt of the original message is only returned, if the raw
+   *         eb:MessageId and ds:SignatureValue exactly match the ones of the
+   *         originally verified message. In that case signature verification,
+   *         decryption and the SPIs are skipped. In all other cases the message
+   *         is processed as usual. The configuration item is
+   *         <code>phase4.incoming.duplicate.precheck</code>.
+   * @since 2.7.7
+   */
+  public static boolean isIncomingDuplicatePreCheckEnabled ()
+  {
+    // Parse manually
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_INCOMING_DUPLICATE_PRECHECK);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_INCOMING_DUPLICATE_PRECHECK);
+  }
+
+  /**
+   * @return <code>true</code> if decrypted incoming attachments should be
+   *         provided as a stream that is decrypted while reading, instead of
+   *         copying the decrypted content to a temporary file first. In this
+   *         mode, decrypted attachments that are larger than
+   *         {@link #getIncomingDecryptedAttachmentsMemoryThreshold()} can only
+   *         be read once, unless they are spooled explicitly before. The
+   *         configuration item is
+   *         <code>phase4.incoming.decryptedattachments.lazy</code>.
+   * @since 2.7.7
+   */
+  public static boolean isIncomingDecryptedAttachmentsLazy ()
+  {
+    // Parse manually
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_INCOMING_DECRYPTEDATTACHMENTS_LAZY);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_INCOMING_DECRYPTEDATTACHMENTS_LAZY);
+  }
+
+  /**
+   * @return The maximum number of bytes of a decrypted incoming attachment,
+   *         that is kept in memory instead of a temporary file. The
+   *         configuration item is
+   *         <code>phase4.incoming.decryptedattachments.memorythreshold</code>.
+   *         By default this is
+   *         {@value #DEFAULT_PHASE4_INCOMING_DECRYPTEDATTACHMENTS_MEMORY_THRESHOLD}
+   *         bytes.
+   * @since 2.7.7
+   */
+  public static int getIncomingDecryptedAttachmentsMemoryThreshold ()
+  {
+    return Math.max (0,
+                     getConfig ().getAsInt (PROPERTY_PHASE4_INCOMING_DECRYPTEDATTACHMENTS_MEMORY_THRESHOLD,
+                                            DEFAULT_PHASE4_INCOMING_DECRYPTEDATTACHMENTS_MEMORY_THRESHOLD));
+  }
+
+  /**
+   * @return <code>true</code> if outgoing attachments should be compressed
+   *         while they are read for the first time (e.g. for signing or
+   *         sending), instead of compressing them into a temporary file when
+   *         the attachment is created. The configuration item is
+   *         <code>phase4.outgoing.attachments.deferredcompression</code>.
+   * @since 2.7.7
+   */
+  public static boolean isOutgoingAttachmentsDeferredCompression ()
+  {
+    // Parse manually
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_OUTGOING_ATTACHMENTS_DEFERREDCOMPRESSION);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_OUTGOING_ATTACHMENTS_DEFERREDCOMPRESSION);
+  }
+
+  /**
+   * @return The deflate level of the GZip compression. Either between 0 and 9
+   *         or -1 for the default level. The configuration item is
+   *         <code>phase4.compression.gzip.level</code>.
+   * @since 2.7.7
+   */
+  public static int getCompressionGZipLevel ()
+  {
+    final int ret = getConfig ().getAsInt (PROPERTY_PHASE4_COMPRESSION_GZIP_LEVEL,
+                                           DEFAULT_PHASE4_COMPRESSION_GZIP_LEVEL);
+    if (ret < -1 || ret > 9)
+    {
+      LOGGER.warn ("The configured GZip compression level " + ret + " is invalid - using the default level");
+      return DEFAULT_PHASE4_COMPRESSION_GZIP_LEVEL;
+    }
+    return ret;
+  }
+
+  /**
+   * @return <code>true</code> if GZip compression should split the content
+   *         into blocks that are compressed in parallel. The configuration item
+   *         is <code>phase4.compression.gzip.parallel</code>.
+   * @since 2.7.7
+   */
+  public static boolean isCompressionGZipParallel ()
+  {
+    // Parse manually
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_COMPRESSION_GZIP_PARALLEL);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_COMPRESSION_GZIP_PARALLEL);
+  }
+
+  /**
+   * @return The number of uncompressed bytes per block of the parallel GZip
+   *         compression. The configuration item is
+   *         <code>phase4.compression.gzip.parallel.blocksize</code>. By default
+   *         this is {@value #DEFAULT_PHASE4_COMPRESSION_GZIP_PARALLEL_BLOCKSIZE}
+   *         bytes.
+   * @since 2.7.7
+   */
+  public static int getCompressionGZipParallelBlockSize ()
+  {
+    final int ret = getConfig ().getAsInt (PROPERTY_PHASE4_COMPRESSION_GZIP_PARALLEL_BLOCKSIZE,
+                                           DEFAULT_PHASE4_COMPRESSION_GZIP_PARALLEL_BLOCKSIZE);
+    return ret > 0 ? ret : DEFAULT_PHASE4_COMPRESSION_GZIP_PARALLEL_BLOCKSIZE;
+  }
+
   /**
    * @return The dumping base path. Taken from the configuration item
    *         <code>phase4.dump.path</code>.
@@ -31,7 +31,9 @@ import com.helger.commons.annotation.Nonempty;
 /**
  * This class contains an implementation of {@link IAS4CryptoFactory} in which
  * case the {@link KeyStore} is available in memory and the settings are NOT
- * read from a file. Created for https://github.com/phax/phase4/issues/28
+ * read from a file. Created for https://github.com/phax/phase4/issues/28<br>
+ * Note: the private key entry is cached, so if the provided key store is
+ * modified afterwards, {@link #clearCachedPrivateKeyEntry()} must be called.
  *
  * @author Philip Helger
  * @since 0.9.7
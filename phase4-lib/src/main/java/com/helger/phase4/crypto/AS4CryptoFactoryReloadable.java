@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import java.io.File;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.Merlin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.state.ESuccess;
+import com.helger.commons.string.StringHelper;
+import com.helger.security.keystore.KeyStoreHelper;
+import com.helger.security.keystore.LoadedKeyStore;
+
+/**
+ * A crypto factory based on {@link AS4CryptoProperties} where the key store and
+ * the trust store can be reloaded at runtime, e.g. in case of a certificate
+ * renewal. Reloading can be triggered explicitly via {@link #reload()} or
+ * {@link #reloadIfModified()} or periodically via
+ * {@link #startMonitoring(Duration)}.<br>
+ * The {@link Crypto} instance is created from the configured properties in the
+ * same way as in {@link AS4CryptoFactoryProperties}. If no trust store is
+ * configured, no default trust store (like the JDK cacerts) is used.<br>
+ * All loaded objects are kept in a single immutable snapshot, that is replaced
+ * atomically. Readers never block. Operations that already retrieved the
+ * {@link Crypto} instance finish with the old one, while all subsequent
+ * operations use the new one. If loading fails, the previous snapshot stays
+ * active.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@ThreadSafe
+public class AS4CryptoFactoryReloadable extends AbstractAS4CryptoFactory implements AutoCloseable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4CryptoFactoryReloadable.class);
+
+  /**
+   * The modification state of a single file.
+   */
+  @Immutable
+  private static final class FileState
+  {
+    private final long m_nLastModified;
+    private final long m_nLength;
+
+    FileState (@Nullable final File aFile)
+    {
+      m_nLastModified = aFile == null ? 0 : aFile.lastModified ();
+      m_nLength = aFile == null ? 0 : aFile.length ();
+    }
+
+    boolean isSame (@Nonnull final FileState aOther)
+    {
+      return m_nLastModified == aOther.m_nLastModified && m_nLength == aOther.m_nLength;
+    }
+  }
+
+  /**
+   * All the loaded stuff that must be swapped together.
+   */
+  @Immutable
+  private static final class Snapshot
+  {
+    private final Crypto m_aCrypto;
+    private final KeyStore m_aKeyStore;
+    private final KeyStore m_aTrustStore;
+    private final FileState m_aKeyStoreState;
+    private final FileState m_aTrustStoreState;
+
+    Snapshot (@Nonnull final Crypto aCrypto,
+              @Nonnull final KeyStore aKeyStore,
+              @Nullable final KeyStore aTrustStore,
+              @Nonnull final FileState aKeyStoreState,
+              @Nonnull final FileState aTrustStoreState)
+    {
+      m_aCrypto = aCrypto;
+      m_aKeyStore = aKeyStore;
+      m_aTrustStore = aTrustStore;
+      m_aKeyStoreState = aKeyStoreState;
+      m_aTrustStoreState = aTrustStoreState;
+    }
+  }
+
+  private final AS4CryptoProperties m_aCryptoProps;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  private final AtomicInteger m_aReloadCount = new AtomicInteger (0);
+  private volatile Snapshot m_aSnapshot;
+  @GuardedBy ("m_aLock")
+  private ScheduledExecutorService m_aMonitor;
+
+  /**
+   * Constructor. The key store and the trust store are loaded immediately.
+   *
+   * @param aCryptoProps
+   *        The properties to be used. May not be <code>null</code>. Note: the
+   *        object is cloned internally to avoid outside modification.
+   * @throws IllegalStateException
+   *         If the initial loading of the key store or trust store fails
+   */
+  public AS4CryptoFactoryReloadable (@Nonnull final AS4CryptoProperties aCryptoProps)
+  {
+    ValueEnforcer.notNull (aCryptoProps, "CryptoProps");
+    m_aCryptoProps = aCryptoProps.getClone ();
+    if (reload ().isFailure ())
+      throw new IllegalStateException ("Failed to initially load the key store and trust store");
+  }
+
+  /**
+   * @return A copy of the crypto properties as created in the constructor.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  public final AS4CryptoProperties getCryptoProperties ()
+  {
+    return m_aCryptoProps.getClone ();
+  }
+
+  /**
+   * Resolve the provided path to a local file, to be able to check for
+   * modifications. First the file system is checked and than the class path.
+   *
+   * @param sPath
+   *        The path to resolve. May be <code>null</code>.
+   * @return <code>null</code> if the path cannot be resolved to a local file.
+   */
+  @Nullable
+  private static File _getFile (@Nullable final String sPath)
+  {
+    if (StringHelper.hasNoText (sPath))
+      return null;
+    final File aFile = new File (sPath);
+    if (aFile.isFile ())
+      return aFile;
+    return new ClassPathResource (sPath).getAsFile ();
+  }
+
+  @Nullable
+  private static KeyStore _loadKeyStore (@Nonnull final String sWhat,
+                                         @Nonnull final LoadedKeyStore aLKS)
+  {
+    if (aLKS.isFailure ())
+    {
+      LOGGER.error ("Failed to load " + sWhat + ": " + aLKS.getErrorText (Locale.US));
+      return null;
+    }
+    return aLKS.getKeyStore ();
+  }
+
+  /**
+   * Load the key store and the trust store from the crypto properties and
+   * atomically activate them. If loading fails, the previously loaded objects
+   * stay active.
+   *
+   * @return {@link ESuccess} and never <code>null</code>.
+   */
+  @Nonnull
+  public final ESuccess reload ()
+  {
+    return m_aLock.lockedGet ( () -> {
+      // Determine file state before loading, so that a modification during
+      // loading triggers another reload
+      final FileState aKeyStoreState = new FileState (_getFile (m_aCryptoProps.getKeyStorePath ()));
+      final FileState aTrustStoreState = new FileState (_getFile (m_aCryptoProps.getTrustStorePath ()));
+
+      // Same as AS4CryptoFactoryProperties, so that provider, aliases etc. are
+      // considered and no default trust store (like cacerts) is used
+      final Crypto aCrypto;
+      try
+      {
+        aCrypto = AS4CryptoFactoryProperties.createCrypto (m_aCryptoProps);
+      }
+      catch (final IllegalStateException ex)
+      {
+        LOGGER.error ("Failed to load the crypto configuration", ex);
+        return ESuccess.FAILURE;
+      }
+
+      final KeyStore aKeyStore;
+      KeyStore aTrustStore = null;
+      if (aCrypto instanceof Merlin)
+      {
+        // Use the stores that were loaded by the crypto instance
+        aKeyStore = ((Merlin) aCrypto).getKeyStore ();
+        if (aKeyStore == null)
+        {
+          LOGGER.error ("Failed to load key store");
+          return ESuccess.FAILURE;
+        }
+        aTrustStore = ((Merlin) aCrypto).getTrustStore ();
+      }
+      else
+      {
+        aKeyStore = _loadKeyStore ("key store",
+                                   KeyStoreHelper.loadKeyStore (m_aCryptoProps.getKeyStoreType (),
+                                                                m_aCryptoProps.getKeyStorePath (),
+                                                                m_aCryptoProps.getKeyStorePassword ()));
+        if (aKeyStore == null)
+          return ESuccess.FAILURE;
+
+        if (StringHelper.hasText (m_aCryptoProps.getTrustStorePath ()))
+        {
+          aTrustStore = _loadKeyStore ("trust store",
+                                       KeyStoreHelper.loadKeyStore (m_aCryptoProps.getTrustStoreType (),
+                                                                    m_aCryptoProps.getTrustStorePath (),
+                                                                    m_aCryptoProps.getTrustStorePassword ()));
+          if (aTrustStore == null)
+            return ESuccess.FAILURE;
+        }
+      }
+
+      // Atomic swap
+      m_aSnapshot = new Snapshot (aCrypto, aKeyStore, aTrustStore, aKeyStoreState, aTrustStoreState);
+      final int nCount = m_aReloadCount.incrementAndGet ();
+      if (nCount > 1)
+        LOGGER.info ("Successfully reloaded the key store and trust store");
+      return ESuccess.SUCCESS;
+    });
+  }
+
+  /**
+   * @return <code>true</code> if the key store file or the trust store file
+   *         changed since the last successful loading. Always
+   *         <code>false</code> if the stores are not available as local files.
+   */
+  public final boolean isModified ()
+  {
+    final Snapshot aSnapshot = m_aSnapshot;
+    return !aSnapshot.m_aKeyStoreState.isSame (new FileState (_getFile (m_aCryptoProps.getKeyStorePath ()))) ||
+           !aSnapshot.m_aTrustStoreState.isSame (new FileState (_getFile (m_aCryptoProps.getTrustStorePath ())));
+  }
+
+  /**
+   * Reload the key store and the trust store only if one of the underlying
+   * files was modified.
+   *
+   * @return {@link ESuccess#SUCCESS} if nothing was modified or if reloading
+   *         succeeded. Never <code>null</code>.
+   */
+  @Nonnull
+  public final ESuccess reloadIfModified ()
+  {
+    if (!isModified ())
+      return ESuccess.SUCCESS;
+    return reload ();
+  }
+
+  /**
+   * @return The number of successful loads, including the initial one.
+   */
+  @Nonnegative
+  public final int getLoadCount ()
+  {
+    return m_aReloadCount.get ();
+  }
+
+  /**
+   * Start periodically checking the key store and trust store files for
+   * modifications in a background daemon thread. If monitoring is already
+   * active, it is restarted with the new interval.
+   *
+   * @param aInterval
+   *        The check interval. May not be <code>null</code> and must be
+   *        positive.
+   */
+  public final void startMonitoring (@Nonnull final Duration aInterval)
+  {
+    ValueEnforcer.notNull (aInterval, "Interval");
+    ValueEnforcer.isTrue (!aInterval.isNegative () && !aInterval.isZero (), "Interval must be positive");
+
+    m_aLock.locked ( () -> {
+      stopMonitoring ();
+      m_aMonitor = Executors.newSingleThreadScheduledExecutor (aRunnable -> {
+        final Thread ret = new Thread (aRunnable, "phase4-crypto-reload");
+        ret.setDaemon (true);
+        return ret;
+      });
+      final long nMillis = aInterval.toMillis ();
+      m_aMonitor.scheduleWithFixedDelay ( () -> {
+        try
+        {
+          reloadIfModified ();
+        }
+        catch (final RuntimeException ex)
+        {
+          LOGGER.error ("Error checking key store and trust store for modifications", ex);
+        }
+      }, nMillis, nMillis, TimeUnit.MILLISECONDS);
+    });
+  }
+
+  /**
+   * Stop the background monitoring, if it is active.
+   */
+  public final void stopMonitoring ()
+  {
+    m_aLock.locked ( () -> {
+      if (m_aMonitor != null)
+      {
+        m_aMonitor.shutdownNow ();
+        m_aMonitor = null;
+      }
+    });
+  }
+
+  /**
+   * @return <code>true</code> if background monitoring is active.
+   */
+  public final boolean isMonitoring ()
+  {
+    return m_aLock.lockedBoolean ( () -> m_aMonitor != null);
+  }
+
+  public void close ()
+  {
+    stopMonitoring ();
+  }
+
+  /**
+   * @return The {@link Crypto} instance of the currently active snapshot.
+   */
+  @Nonnull
+  public final Crypto getCrypto (@Nonnull final ECryptoMode eCryptoMode)
+  {
+    return m_aSnapshot.m_aCrypto;
+  }
+
+  @Nonnull
+  public final KeyStore getKeyStore ()
+  {
+    return m_aSnapshot.m_aKeyStore;
+  }
+
+  @Nullable
+  public final String getKeyAlias ()
+  {
+    return m_aCryptoProps.getKeyAlias ();
+  }
+
+  @Nullable
+  @Deprecated
+  public final String getKeyPassword ()
+  {
+    return m_aCryptoProps.getKeyPassword ();
+  }
+
+  @Nullable
+  public String getKeyPasswordPerAlias (@Nullable final String sSearchKeyAlias)
+  {
+    final String sKeyAlias = getKeyAlias ();
+
+    // Use case insensitive compare, depends on the keystore type
+    if (sKeyAlias != null && sSearchKeyAlias != null && sKeyAlias.equalsIgnoreCase (sSearchKeyAlias))
+      return m_aCryptoProps.getKeyPassword ();
+
+    return null;
+  }
+
+  @Nullable
+  public final KeyStore getTrustStore ()
+  {
+    return m_aSnapshot.m_aTrustStore;
+  }
+}
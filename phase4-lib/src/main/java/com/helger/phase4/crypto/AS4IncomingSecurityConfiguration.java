@@ -34,6 +34,7 @@ public class AS4IncomingSecurityConfiguration implements IAS4IncomingSecurityCon
   private AS4SigningParams m_aSigningParams;
   private AS4CryptParams m_aCryptParams;
   private IAS4DecryptParameterModifier m_aDecryptParameterModifier;
+  private IAS4TrustValidationCache m_aTrustValidationCache;
 
   public AS4IncomingSecurityConfiguration ()
   {}
@@ -77,12 +78,26 @@ public class AS4IncomingSecurityConfiguration implements IAS4IncomingSecurityCon
     return this;
   }
 
+  @Nullable
+  public IAS4TrustValidationCache getTrustValidationCache ()
+  {
+    return m_aTrustValidationCache;
+  }
+
+  @Nonnull
+  public AS4IncomingSecurityConfiguration setTrustValidationCache (@Nullable final IAS4TrustValidationCache a)
+  {
+    m_aTrustValidationCache = a;
+    return this;
+  }
+
   @Override
   public String toString ()
   {
     return new ToStringGenerator (null).append ("SigningParams", m_aSigningParams)
                                        .append ("CryptParams", m_aCryptParams)
                                        .append ("DecryptParameterModifier", m_aDecryptParameterModifier)
+                                       .append ("TrustValidationCache", m_aTrustValidationCache)
                                        .getToString ();
   }
 
@@ -92,6 +107,7 @@ public class AS4IncomingSecurityConfiguration implements IAS4IncomingSecurityCon
     // No SigningParams
     // No CryptParams
     // No DecryptParameterModifier
+    // No TrustValidationCache
     return new AS4IncomingSecurityConfiguration ();
   }
 }
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * Default implementation of {@link IAS4TrustValidationCache} keeping the
+ * results in memory. Entries are identified by the validation type and the
+ * SHA-256 fingerprint of the certificate. Each entry is valid for the
+ * configured time to live, but never longer than the validity of the
+ * certificate itself. If the maximum number of entries is reached, expired
+ * entries are removed first and then the oldest entries.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@ThreadSafe
+public class AS4TrustValidationCache implements IAS4TrustValidationCache
+{
+  /** The default time to live of a positive validation result */
+  public static final Duration DEFAULT_TTL = Duration.ofMinutes (10);
+  /** The default maximum number of cached entries */
+  public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+  private final long m_nTTLMillis;
+  private final int m_nMaxEntries;
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  @GuardedBy ("m_aRWLock")
+  private final Map <String, Long> m_aMap = new LinkedHashMap <> ();
+  private final AtomicLong m_aHits = new AtomicLong (0);
+  private final AtomicLong m_aMisses = new AtomicLong (0);
+
+  /**
+   * Constructor using the default time to live and the default maximum number
+   * of entries.
+   */
+  public AS4TrustValidationCache ()
+  {
+    this (DEFAULT_TTL, DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aTTL
+   *        The time to live of each positive validation result. May not be
+   *        <code>null</code> and must be positive.
+   * @param nMaxEntries
+   *        The maximum number of entries to keep. Must be &gt; 0.
+   */
+  public AS4TrustValidationCache (@Nonnull final Duration aTTL, @Nonnegative final int nMaxEntries)
+  {
+    ValueEnforcer.notNull (aTTL, "TTL");
+    ValueEnforcer.isTrue (!aTTL.isNegative () && !aTTL.isZero (), "TTL must be positive");
+    ValueEnforcer.isGT0 (nMaxEntries, "MaxEntries");
+    m_nTTLMillis = aTTL.toMillis ();
+    m_nMaxEntries = nMaxEntries;
+  }
+
+  /**
+   * @return The time to live of each entry in milliseconds.
+   */
+  @Nonnegative
+  public final long getTTLMillis ()
+  {
+    return m_nTTLMillis;
+  }
+
+  /**
+   * @return The maximum number of entries. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxEntries ()
+  {
+    return m_nMaxEntries;
+  }
+
+  /**
+   * @return The number of successful lookups.
+   */
+  @Nonnegative
+  public final long getHitCount ()
+  {
+    return m_aHits.get ();
+  }
+
+  /**
+   * @return The number of unsuccessful lookups.
+   */
+  @Nonnegative
+  public final long getMissCount ()
+  {
+    return m_aMisses.get ();
+  }
+
+  @Nullable
+  private static String _getKey (@Nonnull @Nonempty final String sValidationType,
+                                 @Nonnull final X509Certificate aCert)
+  {
+    try
+    {
+      final byte [] aDigest = MessageDigest.getInstance ("SHA-256").digest (aCert.getEncoded ());
+      return sValidationType + ':' + StringHelper.getHexEncoded (aDigest);
+    }
+    catch (final NoSuchAlgorithmException | CertificateEncodingException ex)
+    {
+      // Don't cache
+      return null;
+    }
+  }
+
+  public boolean isTrusted (@Nonnull @Nonempty final String sValidationType, @Nonnull final X509Certificate aCert)
+  {
+    ValueEnforcer.notEmpty (sValidationType, "ValidationType");
+    ValueEnforcer.notNull (aCert, "Cert");
+
+    final String sKey = _getKey (sValidationType, aCert);
+    if (sKey != null)
+    {
+      final Long aExpiry = m_aRWLock.readLockedGet ( () -> m_aMap.get (sKey));
+      if (aExpiry != null && aExpiry.longValue () > System.currentTimeMillis ())
+      {
+        m_aHits.incrementAndGet ();
+        return true;
+      }
+    }
+    m_aMisses.incrementAndGet ();
+    return false;
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private void _evict (final long nNow)
+  {
+    // Remove expired ones first
+    m_aMap.values ().removeIf (x -> x.longValue () <= nNow);
+
+    // Remove the oldest entries
+    final Iterator <String> it = m_aMap.keySet ().iterator ();
+    while (m_aMap.size () >= m_nMaxEntries && it.hasNext ())
+    {
+      it.next ();
+      it.remove ();
+    }
+  }
+
+  public void setTrusted (@Nonnull @Nonempty final String sValidationType, @Nonnull final X509Certificate aCert)
+  {
+    ValueEnforcer.notEmpty (sValidationType, "ValidationType");
+    ValueEnforcer.notNull (aCert, "Cert");
+
+    final String sKey = _getKey (sValidationType, aCert);
+    if (sKey != null)
+    {
+      final long nNow = System.currentTimeMillis ();
+      // Never trust longer than the certificate is valid
+      final long nExpiry = Math.min (nNow + m_nTTLMillis, aCert.getNotAfter ().getTime ());
+      if (nExpiry > nNow)
+        m_aRWLock.writeLocked ( () -> {
+          // Re-insert to update the insertion order
+          m_aMap.remove (sKey);
+          if (m_aMap.size () >= m_nMaxEntries)
+            _evict (nNow);
+          m_aMap.put (sKey, Long.valueOf (nExpiry));
+        });
+    }
+  }
+
+  public void clear ()
+  {
+    m_aRWLock.writeLocked (m_aMap::clear);
+  }
+
+  @Nonnegative
+  public int size ()
+  {
+    return m_aRWLock.readLockedInt (m_aMap::size);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("TTLMillis", m_nTTLMillis)
+                                       .append ("MaxEntries", m_nMaxEntries)
+                                       .append ("Hits", m_aHits.get ())
+                                       .append ("Misses", m_aMisses.get ())
+                                       .getToString ();
+  }
+}
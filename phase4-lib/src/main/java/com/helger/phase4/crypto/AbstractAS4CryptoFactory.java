@@ -19,29 +19,73 @@ package com.helger.phase4.crypto;
 import java.security.KeyStore;
 import java.security.cert.X509Certificate;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
 
 import com.helger.commons.collection.ArrayHelper;
+import com.helger.commons.equals.EqualsHelper;
 import com.helger.security.keystore.KeyStoreHelper;
 
 /**
- * Abstract implementation of {@link IAS4CryptoFactory}.
+ * Abstract implementation of {@link IAS4CryptoFactory}.<br>
+ * Since v2.7.7 the private key entry and the certificate are cached, because
+ * recovering a password protected key is expensive. The cache is bound to the
+ * identity of the key store and the key alias, so a replaced key store is
+ * automatically picked up. If the content of an existing key store object is
+ * modified, {@link #clearCachedPrivateKeyEntry()} must be called explicitly.
  *
  * @author Philip Helger
  * @since 2.6.0
  */
 public abstract class AbstractAS4CryptoFactory implements IAS4CryptoFactory
 {
+  /**
+   * The cached private key entry together with the source it was loaded
+   * from.
+   */
+  @Immutable
+  private static final class CachedKeyEntry
+  {
+    private final KeyStore m_aKeyStore;
+    private final String m_sKeyAlias;
+    private final KeyStore.PrivateKeyEntry m_aKeyEntry;
+    private final X509Certificate m_aCertificate;
+
+    CachedKeyEntry (@Nonnull final KeyStore aKeyStore,
+                    @Nullable final String sKeyAlias,
+                    @Nonnull final KeyStore.PrivateKeyEntry aKeyEntry)
+    {
+      m_aKeyStore = aKeyStore;
+      m_sKeyAlias = sKeyAlias;
+      m_aKeyEntry = aKeyEntry;
+      m_aCertificate = (X509Certificate) aKeyEntry.getCertificate ();
+    }
+
+    boolean isFor (@Nonnull final KeyStore aKeyStore, @Nullable final String sKeyAlias)
+    {
+      return m_aKeyStore == aKeyStore && EqualsHelper.equals (m_sKeyAlias, sKeyAlias);
+    }
+  }
+
+  // Status vars
+  private volatile CachedKeyEntry m_aCachedKeyEntry;
+
   protected AbstractAS4CryptoFactory ()
   {}
 
   /**
+   * Load the private key entry from the key store without using the cache.
+   * This is the expensive operation, that is cached by
+   * {@link #getPrivateKeyEntry()}.
+   *
    * @return The underlying private key entry from the keystore or
    *         <code>null</code> if none is available (the reasons depend on the
    *         used implementation).
+   * @since 2.7.7
    */
   @Nullable
-  public KeyStore.PrivateKeyEntry getPrivateKeyEntry ()
+  public KeyStore.PrivateKeyEntry loadPrivateKeyEntry ()
   {
     final KeyStore aKeyStore = getKeyStore ();
     if (aKeyStore == null)
@@ -57,14 +101,67 @@ public abstract class AbstractAS4CryptoFactory implements IAS4CryptoFactory
                          .getKeyEntry ();
   }
 
+  @Nullable
+  private CachedKeyEntry _getCachedKeyEntry ()
+  {
+    final KeyStore aKeyStore = getKeyStore ();
+    if (aKeyStore == null)
+      return null;
+
+    final String sKeyAlias = getKeyAlias ();
+    CachedKeyEntry ret = m_aCachedKeyEntry;
+    if (ret == null || !ret.isFor (aKeyStore, sKeyAlias))
+    {
+      // Not cached or outdated. Concurrent loads are harmless - last one wins
+      final KeyStore.PrivateKeyEntry aKeyEntry = loadPrivateKeyEntry ();
+      if (aKeyEntry == null)
+      {
+        // Failures are not cached, to pick up fixes later on
+        return null;
+      }
+      ret = new CachedKeyEntry (aKeyStore, sKeyAlias, aKeyEntry);
+      m_aCachedKeyEntry = ret;
+    }
+    return ret;
+  }
+
+  /**
+   * Remove the cached private key entry and certificate, so that the next call
+   * to {@link #getPrivateKeyEntry()} or {@link #getCertificate()} loads them
+   * again from the key store. This only needs to be called explicitly, if the
+   * content of the key store object was modified in place.
+   *
+   * @since 2.7.7
+   */
+  public void clearCachedPrivateKeyEntry ()
+  {
+    m_aCachedKeyEntry = null;
+  }
+
+  /**
+   * @return The underlying private key entry from the keystore or
+   *         <code>null</code> if none is available (the reasons depend on the
+   *         used implementation). Since v2.7.7 the result is cached.
+   * @see #loadPrivateKeyEntry()
+   * @see #clearCachedPrivateKeyEntry()
+   */
+  @Nullable
+  public KeyStore.PrivateKeyEntry getPrivateKeyEntry ()
+  {
+    final CachedKeyEntry aEntry = _getCachedKeyEntry ();
+    return aEntry == null ? null : aEntry.m_aKeyEntry;
+  }
+
   /**
    * @return The public certificate of the private key entry or
    *         <code>null</code> if the private key entry could not be loaded.
+   *         Since v2.7.7 the result is cached.
+   * @see #clearCachedPrivateKeyEntry()
    */
   @Nullable
   public X509Certificate getCertificate ()
   {
-    final KeyStore.PrivateKeyEntry aPK = getPrivateKeyEntry ();
-    return aPK == null ? null : (X509Certificate) aPK.getCertificate ();
+    final CachedKeyEntry aEntry = _getCachedKeyEntry ();
+    return aEntry == null ? null : aEntry.m_aCertificate;
   }
 }
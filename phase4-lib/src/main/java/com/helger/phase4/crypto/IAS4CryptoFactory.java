@@ -30,6 +30,9 @@ import com.helger.phase4.v3.ChangeV3;
  * <ul>
  * <li>See {@link AS4CryptoFactoryProperties} for an implementation of this
  * interface using a properties based approach</li>
+ * <li>See {@link AS4CryptoFactoryReloadable} for an implementation of this
+ * interface that supports reloading the key store and trust store at
+ * runtime</li>
  * </ul>
  *
  * @author Philip Helger
@@ -75,4 +75,19 @@ public interface IAS4IncomingSecurityConfiguration
    */
   @Nullable
   IAS4DecryptParameterModifier getDecryptParameterModifier ();
+
+  /**
+   * @return An optional cache for positive certificate trust validation
+   *         results. If present, it is used for the signature certificate path
+   *         validation in WSS4J and it is available to profile specific
+   *         certificate checks via
+   *         {@link com.helger.phase4.servlet.IAS4MessageState#getTrustValidationCache()}.
+   *         May be <code>null</code> to disable caching.
+   * @since 2.7.7
+   */
+  @Nullable
+  default IAS4TrustValidationCache getTrustValidationCache ()
+  {
+    return null;
+  }
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import java.security.cert.X509Certificate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nonnegative;
+
+import com.helger.commons.annotation.Nonempty;
+
+/**
+ * Interface for caching positive certificate trust validation results (e.g.
+ * PKIX path validation or revocation checks) of incoming messages. Only
+ * positive results are cached. The validation type is used to separate
+ * different kind of checks, that use the same cache instance.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+public interface IAS4TrustValidationCache
+{
+  /**
+   * Check if the provided certificate was recently successfully validated
+   * with the provided validation type.
+   *
+   * @param sValidationType
+   *        The type of validation that was performed. May neither be
+   *        <code>null</code> nor empty.
+   * @param aCert
+   *        The certificate to check. May not be <code>null</code>.
+   * @return <code>true</code> if a non-expired positive validation result is
+   *         present, <code>false</code> otherwise.
+   */
+  boolean isTrusted (@Nonnull @Nonempty String sValidationType, @Nonnull X509Certificate aCert);
+
+  /**
+   * Remember that the provided certificate was successfully validated with the
+   * provided validation type.
+   *
+   * @param sValidationType
+   *        The type of validation that was performed. May neither be
+   *        <code>null</code> nor empty.
+   * @param aCert
+   *        The successfully validated certificate. May not be
+   *        <code>null</code>.
+   */
+  void setTrusted (@Nonnull @Nonempty String sValidationType, @Nonnull X509Certificate aCert);
+
+  /**
+   * Remove all cached validation results, e.g. after the trust store was
+   * changed.
+   */
+  void clear ();
+
+  /**
+   * @return The number of currently cached results, including expired ones
+   *         that were not yet evicted.
+   */
+  @Nonnegative
+  int size ();
+}
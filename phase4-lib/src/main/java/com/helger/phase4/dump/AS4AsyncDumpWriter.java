@@ -0,0 +1,974 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * An asynchronous dump writer. Request threads only copy the dumped bytes into
+ * chunks, that are handed over to a single background thread through a bounded
+ * queue. The background thread appends all chunks to large segment files, that
+ * are rotated when they exceed the maximum segment size. Calls to
+ * <code>fsync</code> are batched and happen at most once per fsync interval.
+ * Each segment file has a sidecar index file with one {@link AS4DumpIndexEntry}
+ * per message, so that single messages can be found with
+ * {@link AS4DumpSegmentReader} without scanning the segments.<br>
+ * Back-pressure: the queue is bounded by the number of chunks and by the number
+ * of queued bytes. If the queue is full, the {@link EAS4DumpOverflowPolicy}
+ * decides whether the request thread waits (at most the block timeout) or
+ * whether the chunk is dropped immediately. Once a chunk of a stream was
+ * dropped, all remaining chunks of that stream are dropped as well and the
+ * stream is marked as truncated, so that a dump never contains holes. The
+ * same applies if writing to the segment file fails. All dropped bytes are
+ * counted.<br>
+ * The writer thread is started with the first opened stream. Call
+ * {@link #close()} to write all pending data and stop the thread.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@ThreadSafe
+public class AS4AsyncDumpWriter implements AutoCloseable
+{
+  public static final int DEFAULT_QUEUE_CAPACITY = 4 * 1024;
+  public static final int DEFAULT_MAX_QUEUED_BYTES = 64 * CGlobal.BYTES_PER_MEGABYTE;
+  public static final int DEFAULT_CHUNK_SIZE = 64 * CGlobal.BYTES_PER_KILOBYTE;
+  public static final long DEFAULT_MAX_SEGMENT_SIZE = 256L * CGlobal.BYTES_PER_MEGABYTE;
+  public static final long DEFAULT_FSYNC_INTERVAL_MILLIS = CGlobal.MILLISECONDS_PER_SECOND;
+  public static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = 100;
+  public static final EAS4DumpOverflowPolicy DEFAULT_OVERFLOW_POLICY = EAS4DumpOverflowPolicy.BLOCK;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4AsyncDumpWriter.class);
+  private static final int MAX_BATCH_SIZE = 256;
+  // The lower bits of a stream ID are a counter, the upper bits are the start
+  // time of the writer
+  private static final int STREAM_ID_COUNTER_BITS = 20;
+  // Ensures distinct start times for writers created in the same millisecond
+  private static final AtomicLong LAST_START_MILLIS = new AtomicLong (0);
+
+  /**
+   * A single element in the queue.
+   *
+   * @author Philip Helger
+   */
+  private static final class Frame
+  {
+    private final byte m_nType;
+    private final long m_nStreamID;
+    private final byte [] m_aPayload;
+    private final int m_nLength;
+
+    Frame (final byte nType, final long nStreamID, @Nonnull final byte [] aPayload, final int nLength)
+    {
+      m_nType = nType;
+      m_nStreamID = nStreamID;
+      m_aPayload = aPayload;
+      m_nLength = nLength;
+    }
+  }
+
+  private static final Frame SHUTDOWN = new Frame ((byte) 0, 0, new byte [0], 0);
+
+  // Only the beginning of incoming messages is searched for the message ID
+  private static final int MESSAGE_ID_SEARCH_LIMIT = 64 * CGlobal.BYTES_PER_KILOBYTE;
+  private static final Pattern MESSAGE_ID_PATTERN = Pattern.compile ("[<:]MessageId>\\s*([^<\\s]+)\\s*<");
+
+  /**
+   * The writer thread state of a single dump stream, needed to create the
+   * index entry.
+   *
+   * @author Philip Helger
+   */
+  private static final class StreamState
+  {
+    private final boolean m_bIncoming;
+    private final String m_sID;
+    private final int m_nTry;
+    private final String m_sSegmentFilename;
+    private final long m_nBeginOffset;
+    private String m_sMessageID;
+    private StringBuilder m_aSearchBuffer;
+    // Set if writing failed, so that the stream is incomplete
+    private boolean m_bTruncated = false;
+
+    StreamState (final boolean bIncoming,
+                 @Nonnull final String sID,
+                 final int nTry,
+                 @Nonnull final String sSegmentFilename,
+                 final long nBeginOffset)
+    {
+      m_bIncoming = bIncoming;
+      m_sID = sID;
+      m_nTry = nTry;
+      m_sSegmentFilename = sSegmentFilename;
+      m_nBeginOffset = nBeginOffset;
+      if (bIncoming)
+        m_aSearchBuffer = new StringBuilder ();
+      else
+        m_sMessageID = sID;
+    }
+
+    void onData (@Nonnull final byte [] aPayload, final int nLength)
+    {
+      if (m_aSearchBuffer != null)
+      {
+        final int nAppend = Math.min (nLength, MESSAGE_ID_SEARCH_LIMIT - m_aSearchBuffer.length ());
+        m_aSearchBuffer.append (new String (aPayload, 0, nAppend, StandardCharsets.ISO_8859_1));
+        final Matcher aMatcher = MESSAGE_ID_PATTERN.matcher (m_aSearchBuffer);
+        if (aMatcher.find ())
+        {
+          m_sMessageID = aMatcher.group (1);
+          m_aSearchBuffer = null;
+        }
+        else
+          if (m_aSearchBuffer.length () >= MESSAGE_ID_SEARCH_LIMIT)
+            m_aSearchBuffer = null;
+      }
+    }
+
+    @Nonnull
+    AS4DumpIndexEntry createIndexEntry (final long nStreamID,
+                                        final boolean bComplete,
+                                        @Nonnull final String sEndSegmentFilename)
+    {
+      return new AS4DumpIndexEntry (m_bIncoming,
+                                    m_sID,
+                                    m_nTry,
+                                    m_sMessageID,
+                                    m_sSegmentFilename,
+                                    m_nBeginOffset,
+                                    nStreamID,
+                                    bComplete,
+                                    sEndSegmentFilename);
+    }
+  }
+
+  private final File m_aDirectory;
+  private final BlockingQueue <Frame> m_aQueue;
+  private final int m_nMaxQueuedBytes;
+  private final Semaphore m_aQueuedBytesPermits;
+  private final int m_nChunkSize;
+  private volatile EAS4DumpOverflowPolicy m_eOverflowPolicy = DEFAULT_OVERFLOW_POLICY;
+  private volatile long m_nBlockTimeoutMillis = DEFAULT_BLOCK_TIMEOUT_MILLIS;
+  private volatile long m_nMaxSegmentSize = DEFAULT_MAX_SEGMENT_SIZE;
+  private volatile long m_nFsyncIntervalMillis = DEFAULT_FSYNC_INTERVAL_MILLIS;
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private Thread m_aWriterThread;
+  @GuardedBy ("m_aLock")
+  private boolean m_bClosed = false;
+  // Set in close() - afterwards no more frames are accepted
+  private volatile boolean m_bShutdown = false;
+
+  // Streams of different runs may continue in the same directory, so the IDs
+  // must be unique across runs
+  private final AtomicLong m_aStreamIDs;
+  private final AtomicLong m_aQueuedBytes = new AtomicLong (0);
+  private final AtomicLong m_aMaxQueuedBytes = new AtomicLong (0);
+  private final AtomicLong m_aWrittenBytes = new AtomicLong (0);
+  private final AtomicLong m_aDroppedBytes = new AtomicLong (0);
+  private final AtomicLong m_aTruncatedStreams = new AtomicLong (0);
+  private final AtomicLong m_aSegmentCount = new AtomicLong (0);
+
+  // Only accessed by the writer thread
+  private FileOutputStream m_aSegmentFOS;
+  private DataOutputStream m_aSegmentDOS;
+  private String m_sSegmentFilename;
+  private FileOutputStream m_aIndexFOS;
+  private DataOutputStream m_aIndexDOS;
+  private final Map <Long, StreamState> m_aOpenStreams = new HashMap <> ();
+  private long m_nSegmentSize;
+  private boolean m_bSyncPending = false;
+  private long m_nLastSyncNanos = System.nanoTime ();
+
+  /**
+   * Constructor with the default queue settings.
+   *
+   * @param aDirectory
+   *        The directory to write the segment files to. May not be
+   *        <code>null</code>.
+   */
+  public AS4AsyncDumpWriter (@Nonnull final File aDirectory)
+  {
+    this (aDirectory, DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_QUEUED_BYTES, DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDirectory
+   *        The directory to write the segment files to. May not be
+   *        <code>null</code>.
+   * @param nQueueCapacity
+   *        The maximum number of chunks in the queue. Must be &gt; 0.
+   * @param nMaxQueuedBytes
+   *        The maximum number of bytes in the queue. Must be &ge; the chunk
+   *        size.
+   * @param nChunkSize
+   *        The number of bytes collected by a request thread before they are
+   *        handed over to the writer thread. Must be &gt; 0.
+   */
+  public AS4AsyncDumpWriter (@Nonnull final File aDirectory,
+                             @Nonnegative final int nQueueCapacity,
+                             @Nonnegative final int nMaxQueuedBytes,
+                             @Nonnegative final int nChunkSize)
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    ValueEnforcer.isGT0 (nQueueCapacity, "QueueCapacity");
+    ValueEnforcer.isGT0 (nChunkSize, "ChunkSize");
+    ValueEnforcer.isTrue (nMaxQueuedBytes >= nChunkSize, "MaxQueuedBytes must be >= ChunkSize");
+    m_aDirectory = aDirectory;
+    m_aQueue = new ArrayBlockingQueue <> (nQueueCapacity);
+    m_nMaxQueuedBytes = nMaxQueuedBytes;
+    m_aQueuedBytesPermits = new Semaphore (nMaxQueuedBytes);
+    m_nChunkSize = nChunkSize;
+    final long nStartMillis = LAST_START_MILLIS.accumulateAndGet (System.currentTimeMillis (),
+                                                                  (nLast, nNow) -> Math.max (nLast + 1, nNow));
+    m_aStreamIDs = new AtomicLong (nStartMillis << STREAM_ID_COUNTER_BITS);
+  }
+
+  /**
+   * @return The directory the segment files are written to. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final File getDirectory ()
+  {
+    return m_aDirectory;
+  }
+
+  /**
+   * @return The maximum number of bytes in the queue.
+   */
+  @Nonnegative
+  public final int getMaxQueuedBytes ()
+  {
+    return m_nMaxQueuedBytes;
+  }
+
+  /**
+   * @return The chunk size in bytes.
+   */
+  @Nonnegative
+  public final int getChunkSize ()
+  {
+    return m_nChunkSize;
+  }
+
+  @Nonnull
+  public final EAS4DumpOverflowPolicy getOverflowPolicy ()
+  {
+    return m_eOverflowPolicy;
+  }
+
+  @Nonnull
+  public final AS4AsyncDumpWriter setOverflowPolicy (@Nonnull final EAS4DumpOverflowPolicy eOverflowPolicy)
+  {
+    ValueEnforcer.notNull (eOverflowPolicy, "OverflowPolicy");
+    m_eOverflowPolicy = eOverflowPolicy;
+    return this;
+  }
+
+  /**
+   * @return The maximum milliseconds a request thread waits for free space in
+   *         the queue, if the overflow policy is
+   *         {@link EAS4DumpOverflowPolicy#BLOCK}.
+   */
+  @Nonnegative
+  public final long getBlockTimeoutMillis ()
+  {
+    return m_nBlockTimeoutMillis;
+  }
+
+  @Nonnull
+  public final AS4AsyncDumpWriter setBlockTimeoutMillis (@Nonnegative final long nBlockTimeoutMillis)
+  {
+    ValueEnforcer.isGE0 (nBlockTimeoutMillis, "BlockTimeoutMillis");
+    m_nBlockTimeoutMillis = nBlockTimeoutMillis;
+    return this;
+  }
+
+  /**
+   * @return The size in bytes after which a new segment file is started.
+   */
+  @Nonnegative
+  public final long getMaxSegmentSize ()
+  {
+    return m_nMaxSegmentSize;
+  }
+
+  @Nonnull
+  public final AS4AsyncDumpWriter setMaxSegmentSize (@Nonnegative final long nMaxSegmentSize)
+  {
+    ValueEnforcer.isGT0 (nMaxSegmentSize, "MaxSegmentSize");
+    m_nMaxSegmentSize = nMaxSegmentSize;
+    return this;
+  }
+
+  /**
+   * @return The minimum number of milliseconds between two calls to
+   *         <code>fsync</code>. 0 means that every batch is synced.
+   */
+  @Nonnegative
+  public final long getFsyncIntervalMillis ()
+  {
+    return m_nFsyncIntervalMillis;
+  }
+
+  @Nonnull
+  public final AS4AsyncDumpWriter setFsyncIntervalMillis (@Nonnegative final long nFsyncIntervalMillis)
+  {
+    ValueEnforcer.isGE0 (nFsyncIntervalMillis, "FsyncIntervalMillis");
+    m_nFsyncIntervalMillis = nFsyncIntervalMillis;
+    return this;
+  }
+
+  /**
+   * @return The number of bytes that are currently queued but not yet written.
+   *         This is the current lag of the writer.
+   */
+  @Nonnegative
+  public final long getQueuedBytes ()
+  {
+    return m_aQueuedBytes.get ();
+  }
+
+  /**
+   * @return The maximum number of bytes that were queued at the same time.
+   */
+  @Nonnegative
+  public final long getMaxObservedQueuedBytes ()
+  {
+    return m_aMaxQueuedBytes.get ();
+  }
+
+  /**
+   * @return The number of bytes written to segment files, including the frame
+   *         overhead.
+   */
+  @Nonnegative
+  public final long getWrittenBytes ()
+  {
+    return m_aWrittenBytes.get ();
+  }
+
+  /**
+   * @return The number of dumped bytes that were dropped, because the queue was
+   *         full or writing failed.
+   */
+  @Nonnegative
+  public final long getDroppedBytes ()
+  {
+    return m_aDroppedBytes.get ();
+  }
+
+  /**
+   * @return The number of streams that are incomplete, because some of their
+   *         data was dropped.
+   */
+  @Nonnegative
+  public final long getTruncatedStreamCount ()
+  {
+    return m_aTruncatedStreams.get ();
+  }
+
+  /**
+   * @return The number of segment files that were created.
+   */
+  @Nonnegative
+  public final long getSegmentCount ()
+  {
+    return m_aSegmentCount.get ();
+  }
+
+  /**
+   * @return <code>true</code> if {@link #close()} was called and no new streams
+   *         can be opened anymore, <code>false</code> otherwise.
+   */
+  public boolean isClosed ()
+  {
+    return m_aLock.lockedBoolean ( () -> m_bClosed);
+  }
+
+  private void _ensureWriterThread ()
+  {
+    m_aLock.locked ( () -> {
+      if (m_bClosed)
+        throw new IllegalStateException ("The async dump writer is already closed");
+      if (m_aWriterThread == null)
+      {
+        m_aWriterThread = new Thread (this::_runWriter, "phase4-async-dump-writer");
+        m_aWriterThread.setDaemon (true);
+        m_aWriterThread.start ();
+      }
+    });
+  }
+
+  private boolean _enqueue (@Nonnull final Frame aFrame)
+  {
+    if (m_bShutdown)
+    {
+      // Nobody would write the frame anymore
+      return false;
+    }
+
+    final int nLength = aFrame.m_nLength;
+    final boolean bBlock = m_eOverflowPolicy == EAS4DumpOverflowPolicy.BLOCK;
+    final long nTimeoutNanos = bBlock ? TimeUnit.MILLISECONDS.toNanos (m_nBlockTimeoutMillis) : 0;
+    final long nStartNanos = System.nanoTime ();
+    try
+    {
+      if (bBlock ? !m_aQueuedBytesPermits.tryAcquire (nLength, nTimeoutNanos, TimeUnit.NANOSECONDS)
+                 : !m_aQueuedBytesPermits.tryAcquire (nLength))
+        return false;
+
+      final long nRemainingNanos = Math.max (0, nTimeoutNanos - (System.nanoTime () - nStartNanos));
+      if (bBlock ? !m_aQueue.offer (aFrame, nRemainingNanos, TimeUnit.NANOSECONDS) : !m_aQueue.offer (aFrame))
+      {
+        m_aQueuedBytesPermits.release (nLength);
+        return false;
+      }
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      return false;
+    }
+
+    final long nQueued = m_aQueuedBytes.addAndGet (nLength);
+    m_aMaxQueuedBytes.accumulateAndGet (nQueued, Math::max);
+    return true;
+  }
+
+  @Nonnull
+  private OutputStream _openStream (final byte nDirection, @Nonnull @Nonempty final String sID, final int nTry)
+  {
+    _ensureWriterThread ();
+
+    final long nStreamID = m_aStreamIDs.incrementAndGet ();
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+    try (final DataOutputStream aDOS = new DataOutputStream (aBAOS))
+    {
+      aDOS.writeByte (nDirection);
+      aDOS.writeUTF (sID);
+      aDOS.writeInt (nTry);
+    }
+    catch (final IOException ex)
+    {
+      // Cannot happen on a byte array
+      throw new IllegalStateException (ex);
+    }
+    final byte [] aBegin = aBAOS.toByteArray ();
+    final boolean bBeginQueued = _enqueue (new Frame (AS4DumpSegment.FRAME_BEGIN, nStreamID, aBegin, aBegin.length));
+    return new AsyncDumpOutputStream (nStreamID, bBeginQueued);
+  }
+
+  /**
+   * Open a new dump stream for an incoming message.
+   *
+   * @param sIncomingUniqueID
+   *        The incoming unique ID of the message. May neither be
+   *        <code>null</code> nor empty.
+   * @return A new output stream that must be closed by the caller. Never
+   *         <code>null</code>.
+   * @throws IllegalStateException
+   *         if this writer is already closed
+   */
+  @Nonnull
+  public OutputStream openIncomingStream (@Nonnull @Nonempty final String sIncomingUniqueID)
+  {
+    ValueEnforcer.notEmpty (sIncomingUniqueID, "IncomingUniqueID");
+    return _openStream (AS4DumpSegment.DIRECTION_INCOMING, sIncomingUniqueID, 0);
+  }
+
+  /**
+   * Open a new dump stream for an outgoing message.
+   *
+   * @param sMessageID
+   *        The AS4 message ID of the message. May neither be <code>null</code>
+   *        nor empty.
+   * @param nTry
+   *        The 0-based index of the sending try.
+   * @return A new output stream that must be closed by the caller. Never
+   *         <code>null</code>.
+   * @throws IllegalStateException
+   *         if this writer is already closed
+   */
+  @Nonnull
+  public OutputStream openOutgoingStream (@Nonnull @Nonempty final String sMessageID, @Nonnegative final int nTry)
+  {
+    ValueEnforcer.notEmpty (sMessageID, "MessageID");
+    return _openStream (AS4DumpSegment.DIRECTION_OUTGOING, sMessageID, nTry);
+  }
+
+  /**
+   * The output stream used by the request threads. It collects the bytes in
+   * chunks and hands them over to the writer thread.
+   *
+   * @author Philip Helger
+   */
+  @NotThreadSafe
+  private final class AsyncDumpOutputStream extends OutputStream
+  {
+    private final long m_nStreamID;
+    private final boolean m_bBeginQueued;
+    private byte [] m_aChunk;
+    private int m_nChunkLen = 0;
+    private boolean m_bDropping;
+    private boolean m_bClosed = false;
+
+    AsyncDumpOutputStream (final long nStreamID, final boolean bBeginQueued)
+    {
+      m_nStreamID = nStreamID;
+      m_bBeginQueued = bBeginQueued;
+      m_aChunk = new byte [m_nChunkSize];
+      m_bDropping = !bBeginQueued;
+      if (m_bDropping)
+        m_aTruncatedStreams.incrementAndGet ();
+    }
+
+    private void _submitChunk ()
+    {
+      if (m_nChunkLen == 0)
+        return;
+
+      if (!m_bDropping && !_enqueue (new Frame (AS4DumpSegment.FRAME_DATA, m_nStreamID, m_aChunk, m_nChunkLen)))
+      {
+        // Drop this and all following chunks
+        m_bDropping = true;
+        m_aTruncatedStreams.incrementAndGet ();
+        LOGGER.warn ((m_bShutdown ? "Dump writer is closed" : "Dump queue is full") +
+                     " - truncating dump stream " +
+                     m_nStreamID);
+      }
+
+      if (m_bDropping)
+      {
+        m_aDroppedBytes.addAndGet (m_nChunkLen);
+        // Chunk can be reused
+      }
+      else
+        m_aChunk = new byte [m_nChunkSize];
+      m_nChunkLen = 0;
+    }
+
+    @Override
+    public void write (final int b) throws IOException
+    {
+      if (m_bClosed)
+        throw new IOException ("Dump stream is already closed");
+      m_aChunk[m_nChunkLen++] = (byte) b;
+      if (m_nChunkLen == m_aChunk.length)
+        _submitChunk ();
+    }
+
+    @Override
+    public void write (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      ValueEnforcer.isArrayOfsLen (aBuf, nOfs, nLen);
+      if (m_bClosed)
+        throw new IOException ("Dump stream is already closed");
+
+      int nOffset = nOfs;
+      int nRemaining = nLen;
+      while (nRemaining > 0)
+      {
+        final int nCopy = Math.min (nRemaining, m_aChunk.length - m_nChunkLen);
+        System.arraycopy (aBuf, nOffset, m_aChunk, m_nChunkLen, nCopy);
+        m_nChunkLen += nCopy;
+        nOffset += nCopy;
+        nRemaining -= nCopy;
+        if (m_nChunkLen == m_aChunk.length)
+          _submitChunk ();
+      }
+    }
+
+    @Override
+    public void close ()
+    {
+      if (m_bClosed)
+        return;
+      m_bClosed = true;
+      _submitChunk ();
+      m_aChunk = null;
+
+      if (!m_bBeginQueued)
+      {
+        // The stream was never started
+        return;
+      }
+
+      final byte [] aEnd = { (byte) (m_bDropping ? 1 : 0) };
+      if (!_enqueue (new Frame (AS4DumpSegment.FRAME_END, m_nStreamID, aEnd, aEnd.length)) && !m_bShutdown)
+        LOGGER.warn ("Failed to queue the end of dump stream " + m_nStreamID);
+    }
+  }
+
+  @Nonnull
+  private File _createSegmentFile ()
+  {
+    return new File (m_aDirectory,
+                     "as4dump-" +
+                                   StringHelper.getLeadingZero (System.currentTimeMillis (), 15) +
+                                   "-" +
+                                   StringHelper.getLeadingZero (m_aSegmentCount.incrementAndGet (), 6) +
+                                   AS4DumpSegment.FILE_EXTENSION);
+  }
+
+  private void _openSegment () throws IOException
+  {
+    final File aFile = _createSegmentFile ();
+    FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (m_aDirectory);
+    m_aSegmentFOS = new FileOutputStream (aFile);
+    m_aSegmentDOS = new DataOutputStream (new BufferedOutputStream (m_aSegmentFOS, 64 * CGlobal.BYTES_PER_KILOBYTE));
+    m_aSegmentDOS.write (AS4DumpSegment.FILE_MAGIC);
+    m_nSegmentSize = AS4DumpSegment.FILE_MAGIC.length;
+    m_sSegmentFilename = aFile.getName ();
+    m_aWrittenBytes.addAndGet (m_nSegmentSize);
+
+    // The sidecar index
+    m_aIndexFOS = new FileOutputStream (new File (m_aDirectory,
+                                                  AS4DumpSegment.getIndexFilename (m_sSegmentFilename)));
+    m_aIndexDOS = new DataOutputStream (new BufferedOutputStream (m_aIndexFOS));
+    m_aIndexDOS.write (AS4DumpSegment.INDEX_FILE_MAGIC);
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Started dump segment file '" + aFile.getAbsolutePath () + "'");
+  }
+
+  private void _sync () throws IOException
+  {
+    if (m_aSegmentDOS != null)
+    {
+      m_aSegmentDOS.flush ();
+      m_aSegmentFOS.getChannel ().force (false);
+      // Index after the segment, so that it never points to unsynced data
+      m_aIndexDOS.flush ();
+      m_aIndexFOS.getChannel ().force (false);
+    }
+    m_bSyncPending = false;
+    m_nLastSyncNanos = System.nanoTime ();
+  }
+
+  private void _closeSegment ()
+  {
+    if (m_aSegmentDOS != null)
+    {
+      try
+      {
+        _sync ();
+      }
+      catch (final IOException ex)
+      {
+        LOGGER.error ("Failed to sync dump segment file", ex);
+      }
+      _releaseSegment ();
+    }
+  }
+
+  private void _releaseSegment ()
+  {
+    StreamHelper.close (m_aSegmentDOS);
+    StreamHelper.close (m_aIndexDOS);
+    m_aSegmentDOS = null;
+    m_aSegmentFOS = null;
+    m_aIndexDOS = null;
+    m_aIndexFOS = null;
+    m_sSegmentFilename = null;
+  }
+
+  private void _ensureSegment () throws IOException
+  {
+    if (m_aSegmentDOS != null && m_nSegmentSize >= m_nMaxSegmentSize)
+      _closeSegment ();
+    if (m_aSegmentDOS == null)
+      _openSegment ();
+  }
+
+  private void _processFrame (@Nonnull final Frame aFrame) throws IOException
+  {
+    if (aFrame.m_nType != AS4DumpSegment.FRAME_BEGIN)
+    {
+      final StreamState aState = m_aOpenStreams.get (Long.valueOf (aFrame.m_nStreamID));
+      if (aState == null || aState.m_bTruncated)
+      {
+        // The begin of the stream was lost or writing the stream failed - don't
+        // write anything else of it, so that a dump never contains holes
+        if (aFrame.m_nType == AS4DumpSegment.FRAME_DATA)
+          m_aDroppedBytes.addAndGet (aFrame.m_nLength);
+        else
+          if (aFrame.m_nType == AS4DumpSegment.FRAME_END && aState != null)
+          {
+            m_aOpenStreams.remove (Long.valueOf (aFrame.m_nStreamID));
+            _ensureSegment ();
+            aState.createIndexEntry (aFrame.m_nStreamID, false, m_sSegmentFilename).writeTo (m_aIndexDOS);
+            m_bSyncPending = true;
+          }
+        return;
+      }
+    }
+    _writeFrame (aFrame);
+  }
+
+  private void _markOpenStreamsTruncated ()
+  {
+    for (final StreamState aState : m_aOpenStreams.values ())
+      if (!aState.m_bTruncated)
+      {
+        aState.m_bTruncated = true;
+        m_aTruncatedStreams.incrementAndGet ();
+      }
+  }
+
+  private void _writeFrame (@Nonnull final Frame aFrame) throws IOException
+  {
+    _ensureSegment ();
+
+    final long nFrameOffset = m_nSegmentSize;
+    m_aSegmentDOS.writeByte (aFrame.m_nType);
+    m_aSegmentDOS.writeLong (aFrame.m_nStreamID);
+    m_aSegmentDOS.writeInt (aFrame.m_nLength);
+    m_aSegmentDOS.write (aFrame.m_aPayload, 0, aFrame.m_nLength);
+
+    final long nFrameSize = AS4DumpSegment.FRAME_HEADER_SIZE + (long) aFrame.m_nLength;
+    m_nSegmentSize += nFrameSize;
+    m_aWrittenBytes.addAndGet (nFrameSize);
+    m_bSyncPending = true;
+
+    _updateIndex (aFrame, nFrameOffset);
+  }
+
+  private void _updateIndex (@Nonnull final Frame aFrame, final long nFrameOffset) throws IOException
+  {
+    final Long aStreamID = Long.valueOf (aFrame.m_nStreamID);
+    switch (aFrame.m_nType)
+    {
+      case AS4DumpSegment.FRAME_BEGIN:
+      {
+        final DataInputStream aDIS = new DataInputStream (new NonBlockingByteArrayInputStream (aFrame.m_aPayload,
+                                                                                               0,
+                                                                                               aFrame.m_nLength));
+        final boolean bIncoming = aDIS.readByte () == AS4DumpSegment.DIRECTION_INCOMING;
+        final String sID = aDIS.readUTF ();
+        final int nTry = aDIS.readInt ();
+        m_aOpenStreams.put (aStreamID, new StreamState (bIncoming, sID, nTry, m_sSegmentFilename, nFrameOffset));
+        break;
+      }
+      case AS4DumpSegment.FRAME_DATA:
+      {
+        final StreamState aState = m_aOpenStreams.get (aStreamID);
+        if (aState != null)
+          aState.onData (aFrame.m_aPayload, aFrame.m_nLength);
+        break;
+      }
+      case AS4DumpSegment.FRAME_END:
+      {
+        final StreamState aState = m_aOpenStreams.remove (aStreamID);
+        if (aState != null)
+        {
+          final boolean bComplete = aFrame.m_nLength > 0 && aFrame.m_aPayload[0] == 0;
+          aState.createIndexEntry (aFrame.m_nStreamID, bComplete, m_sSegmentFilename).writeTo (m_aIndexDOS);
+        }
+        break;
+      }
+      default:
+        throw new IllegalStateException ("Unsupported frame type " + aFrame.m_nType);
+    }
+  }
+
+  private void _writeIndexOfOpenStreams ()
+  {
+    if (!m_aOpenStreams.isEmpty ())
+    {
+      // Remember the streams that were not closed in time
+      try
+      {
+        if (m_aSegmentDOS == null)
+          _openSegment ();
+        for (final Map.Entry <Long, StreamState> aEntry : m_aOpenStreams.entrySet ())
+          aEntry.getValue ()
+                .createIndexEntry (aEntry.getKey ().longValue (), false, m_sSegmentFilename)
+                .writeTo (m_aIndexDOS);
+      }
+      catch (final IOException ex)
+      {
+        LOGGER.error ("Failed to write dump index of " + m_aOpenStreams.size () + " open streams", ex);
+      }
+      m_aOpenStreams.clear ();
+    }
+  }
+
+  private void _runWriter ()
+  {
+    final List <Frame> aBatch = new ArrayList <> (MAX_BATCH_SIZE);
+    boolean bShutdown = false;
+    while (!bShutdown)
+    {
+      final long nFsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos (m_nFsyncIntervalMillis);
+      try
+      {
+        final Frame aFirst = m_aQueue.poll (Math.max (1, m_nFsyncIntervalMillis), TimeUnit.MILLISECONDS);
+        if (aFirst != null)
+        {
+          aBatch.add (aFirst);
+          m_aQueue.drainTo (aBatch, MAX_BATCH_SIZE - 1);
+        }
+      }
+      catch (final InterruptedException ex)
+      {
+        // Only stop via close()
+        LOGGER.warn ("Async dump writer was interrupted");
+      }
+
+      for (final Frame aFrame : aBatch)
+      {
+        if (aFrame == SHUTDOWN)
+        {
+          bShutdown = true;
+          continue;
+        }
+
+        try
+        {
+          _processFrame (aFrame);
+        }
+        catch (final IOException ex)
+        {
+          LOGGER.error ("Failed to write dump frame of stream " + aFrame.m_nStreamID, ex);
+          // The current segment is abandoned, so all streams with data in it
+          // are incomplete
+          _releaseSegment ();
+          _markOpenStreamsTruncated ();
+          try
+          {
+            // Try again with a new segment: a begin frame is written again, for
+            // all other frames only the index is updated
+            _processFrame (aFrame);
+          }
+          catch (final IOException ex2)
+          {
+            LOGGER.error ("Failed to write dump frame of stream " + aFrame.m_nStreamID + " to a new segment", ex2);
+            _releaseSegment ();
+            _markOpenStreamsTruncated ();
+            if (aFrame.m_nType == AS4DumpSegment.FRAME_DATA)
+              m_aDroppedBytes.addAndGet (aFrame.m_nLength);
+          }
+        }
+        finally
+        {
+          m_aQueuedBytes.addAndGet (-aFrame.m_nLength);
+          m_aQueuedBytesPermits.release (aFrame.m_nLength);
+        }
+      }
+      aBatch.clear ();
+
+      if (m_bSyncPending && System.nanoTime () - m_nLastSyncNanos >= nFsyncIntervalNanos)
+        try
+        {
+          _sync ();
+        }
+        catch (final IOException ex)
+        {
+          LOGGER.error ("Failed to sync dump segment file", ex);
+        }
+    }
+    _writeIndexOfOpenStreams ();
+    _closeSegment ();
+  }
+
+  /**
+   * Write all pending data, stop the writer thread and close the current
+   * segment file. Afterwards no new streams can be opened, and all data written
+   * to streams that are still open is dropped. These streams are marked as
+   * incomplete in the index. Waits until the writer thread finished.
+   */
+  public void close ()
+  {
+    final Thread aThread = m_aLock.lockedGet ( () -> {
+      if (m_bClosed)
+        return null;
+      m_bClosed = true;
+      m_bShutdown = true;
+      return m_aWriterThread;
+    });
+    if (aThread != null)
+    {
+      try
+      {
+        m_aQueue.put (SHUTDOWN);
+        aThread.join ();
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        LOGGER.warn ("Interrupted while waiting for the async dump writer to finish");
+      }
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Directory", m_aDirectory)
+                                       .append ("MaxQueuedBytes", m_nMaxQueuedBytes)
+                                       .append ("ChunkSize", m_nChunkSize)
+                                       .append ("OverflowPolicy", m_eOverflowPolicy)
+                                       .append ("BlockTimeoutMillis", m_nBlockTimeoutMillis)
+                                       .append ("MaxSegmentSize", m_nMaxSegmentSize)
+                                       .append ("FsyncIntervalMillis", m_nFsyncIntervalMillis)
+                                       .getToString ();
+  }
+}
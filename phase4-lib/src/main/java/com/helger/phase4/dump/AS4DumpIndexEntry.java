@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A single entry of the sidecar index of a dump segment file, as written by
+ * {@link AS4AsyncDumpWriter}. It points to the first frame of a dumped message.
+ * The segment file containing the last frame is not stored explicitly, as the
+ * entry is always written to the index of that segment (or a later one).
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@Immutable
+public final class AS4DumpIndexEntry
+{
+  private final boolean m_bIncoming;
+  private final String m_sID;
+  private final int m_nTry;
+  private final String m_sMessageID;
+  private final String m_sSegmentFilename;
+  private final long m_nBeginOffset;
+  private final long m_nStreamID;
+  private final boolean m_bComplete;
+  private final String m_sEndSegmentFilename;
+
+  AS4DumpIndexEntry (final boolean bIncoming,
+                     @Nonnull @Nonempty final String sID,
+                     @Nonnegative final int nTry,
+                     @Nullable final String sMessageID,
+                     @Nonnull @Nonempty final String sSegmentFilename,
+                     @Nonnegative final long nBeginOffset,
+                     final long nStreamID,
+                     final boolean bComplete,
+                     @Nonnull @Nonempty final String sEndSegmentFilename)
+  {
+    ValueEnforcer.notEmpty (sID, "ID");
+    ValueEnforcer.notEmpty (sSegmentFilename, "SegmentFilename");
+    ValueEnforcer.notEmpty (sEndSegmentFilename, "EndSegmentFilename");
+    m_bIncoming = bIncoming;
+    m_sID = sID;
+    m_nTry = nTry;
+    m_sMessageID = sMessageID;
+    m_sSegmentFilename = sSegmentFilename;
+    m_nBeginOffset = nBeginOffset;
+    m_nStreamID = nStreamID;
+    m_bComplete = bComplete;
+    m_sEndSegmentFilename = sEndSegmentFilename;
+  }
+
+  /**
+   * @return <code>true</code> for an incoming message, <code>false</code> for
+   *         an outgoing message.
+   */
+  public boolean isIncoming ()
+  {
+    return m_bIncoming;
+  }
+
+  /**
+   * @return The incoming unique ID for incoming messages, and the AS4 message
+   *         ID for outgoing messages. Never <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  /**
+   * @return The 0-based sending try for outgoing messages. Always 0 for
+   *         incoming messages.
+   */
+  @Nonnegative
+  public int getTry ()
+  {
+    return m_nTry;
+  }
+
+  /**
+   * @return The AS4 message ID. For incoming messages it is taken from the
+   *         dumped content and may be <code>null</code>, if it could not be
+   *         found.
+   */
+  @Nullable
+  public String getMessageID ()
+  {
+    return m_sMessageID;
+  }
+
+  public boolean hasMessageID ()
+  {
+    return StringHelper.hasText (m_sMessageID);
+  }
+
+  /**
+   * @return The filename (without path) of the segment file that contains the
+   *         first frame of the message.
+   */
+  @Nonnull
+  @Nonempty
+  public String getSegmentFilename ()
+  {
+    return m_sSegmentFilename;
+  }
+
+  /**
+   * @return The offset of the first frame of the message inside the segment
+   *         file.
+   */
+  @Nonnegative
+  public long getBeginOffset ()
+  {
+    return m_nBeginOffset;
+  }
+
+  /**
+   * @return The internal stream ID used in the frames of the message.
+   */
+  public long getStreamID ()
+  {
+    return m_nStreamID;
+  }
+
+  /**
+   * @return <code>true</code> if the message was dumped completely,
+   *         <code>false</code> if some data was dropped or the writer was
+   *         closed while the message was still being dumped.
+   */
+  public boolean isComplete ()
+  {
+    return m_bComplete;
+  }
+
+  /**
+   * @return The filename (without path) of the segment file whose index
+   *         contains this entry. No frame of the message is contained in a
+   *         later segment file.
+   */
+  @Nonnull
+  @Nonempty
+  public String getEndSegmentFilename ()
+  {
+    return m_sEndSegmentFilename;
+  }
+
+  void writeTo (@Nonnull final DataOutput aDO) throws IOException
+  {
+    aDO.writeByte (m_bIncoming ? AS4DumpSegment.DIRECTION_INCOMING : AS4DumpSegment.DIRECTION_OUTGOING);
+    aDO.writeUTF (m_sID);
+    aDO.writeInt (m_nTry);
+    aDO.writeUTF (StringHelper.getNotNull (m_sMessageID));
+    aDO.writeUTF (m_sSegmentFilename);
+    aDO.writeLong (m_nBeginOffset);
+    aDO.writeLong (m_nStreamID);
+    aDO.writeBoolean (m_bComplete);
+  }
+
+  @Nonnull
+  static AS4DumpIndexEntry readFrom (@Nonnull final DataInput aDI,
+                                     @Nonnull @Nonempty final String sEndSegmentFilename) throws IOException
+  {
+    final boolean bIncoming = aDI.readByte () == AS4DumpSegment.DIRECTION_INCOMING;
+    final String sID = aDI.readUTF ();
+    final int nTry = aDI.readInt ();
+    final String sMessageID = aDI.readUTF ();
+    final String sSegmentFilename = aDI.readUTF ();
+    final long nBeginOffset = aDI.readLong ();
+    final long nStreamID = aDI.readLong ();
+    final boolean bComplete = aDI.readBoolean ();
+    return new AS4DumpIndexEntry (bIncoming,
+                                  sID,
+                                  nTry,
+                                  StringHelper.hasText (sMessageID) ? sMessageID : null,
+                                  sSegmentFilename,
+                                  nBeginOffset,
+                                  nStreamID,
+                                  bComplete,
+                                  sEndSegmentFilename);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Incoming", m_bIncoming)
+                                       .append ("ID", m_sID)
+                                       .append ("Try", m_nTry)
+                                       .appendIfNotNull ("MessageID", m_sMessageID)
+                                       .append ("SegmentFilename", m_sSegmentFilename)
+                                       .append ("BeginOffset", m_nBeginOffset)
+                                       .append ("StreamID", m_nStreamID)
+                                       .append ("Complete", m_bComplete)
+                                       .append ("EndSegmentFilename", m_sEndSegmentFilename)
+                                       .getToString ();
+  }
+}
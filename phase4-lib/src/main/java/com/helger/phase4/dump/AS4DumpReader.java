@@ -16,7 +16,9 @@
  */
 package com.helger.phase4.dump;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.function.Consumer;
@@ -25,6 +27,8 @@ import java.util.function.IntConsumer;
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.WillClose;
+import javax.annotation.WillNotClose;
 
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.slf4j.Logger;
@@ -37,6 +41,7 @@ import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.io.IHasInputStream;
 import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.mime.IMimeType;
 import com.helger.commons.mutable.MutableInt;
@@ -222,6 +227,165 @@ public final class AS4DumpReader
 
     LOGGER.info ("Now at byte " + nHttpEnd + " having " + hm.getCount () + " HTTP headers");
 
+    _decryptAS4In (new NonBlockingByteArrayInputStream (aAS4InData, nHttpEnd, aAS4InData.length - nHttpEnd),
+                   hm,
+                   aCryptoFactorySign,
+                   aCryptoFactoryCrypt,
+                   aDecryptedConsumer);
+  }
+
+  /**
+   * Utility method to read the leading HTTP headers from a dump stream. After
+   * this method, the stream is positioned at the first byte after the empty
+   * line separating the headers from the payload.
+   *
+   * @param aAS4InStream
+   *        The stream with the dump. May not be <code>null</code>.
+   * @return The read HTTP headers. Never <code>null</code>.
+   * @throws IOException
+   *         In case of a read error
+   * @since 2.7.7
+   */
+  @Nonnull
+  public static HttpHeaderMap readInitialHttpHeaders (@Nonnull @WillNotClose final InputStream aAS4InStream) throws IOException
+  {
+    ValueEnforcer.notNull (aAS4InStream, "AS4InStream");
+
+    final HttpHeaderMap ret = new HttpHeaderMap ();
+    final NonBlockingByteArrayOutputStream aLine = new NonBlockingByteArrayOutputStream ();
+    int b;
+    while ((b = aAS4InStream.read ()) >= 0)
+    {
+      if (b == '\n')
+      {
+        final String sLine = aLine.getAsString (StandardCharsets.ISO_8859_1);
+        aLine.reset ();
+        if (sLine.isEmpty ())
+        {
+          // Empty line separates headers from payload
+          break;
+        }
+
+        // Split in name and value
+        final String [] aParts = StringHelper.getExplodedArray (':', sLine, 2);
+        if (aParts.length == 2)
+          ret.addHeader (aParts[0].trim (), aParts[1].trim ());
+      }
+      else
+        if (b != '\r')
+          aLine.write (b);
+    }
+    return ret;
+  }
+
+  /**
+   * Utility method to decrypt a dumped .as4in message from a stream, so that
+   * the dump does not need to be loaded into memory completely.
+   *
+   * @param aAS4InStream
+   *        The stream with the dumped data, starting with the HTTP headers.
+   *        May not be <code>null</code>. Is closed by this method.
+   * @param aCryptoFactorySign
+   *        The Crypto factory to be used. May not be <code>null</code>.
+   * @param aCryptoFactoryCrypt
+   *        The Crypto factory to be used for decrypting. May not be
+   *        <code>null</code>.
+   * @param aHttpHeaderConsumer
+   *        An optional HTTP Header map consumer. May be <code>null</code>.
+   * @param aDecryptedConsumer
+   *        The consumer for the decrypted payload. May not be
+   *        <code>null</code>.
+   * @throws WSSecurityException
+   *         In case of error
+   * @throws Phase4Exception
+   *         In case of error
+   * @throws IOException
+   *         In case of error
+   * @throws MessagingException
+   *         In case of error
+   * @since 2.7.7
+   */
+  public static void decryptAS4In (@Nonnull @WillClose final InputStream aAS4InStream,
+                                   @Nonnull final IAS4CryptoFactory aCryptoFactorySign,
+                                   @Nonnull final IAS4CryptoFactory aCryptoFactoryCrypt,
+                                   @Nullable final Consumer <HttpHeaderMap> aHttpHeaderConsumer,
+                                   @Nonnull final IDecryptedPayloadConsumer aDecryptedConsumer) throws WSSecurityException,
+                                                                                                Phase4Exception,
+                                                                                                IOException,
+                                                                                                MessagingException
+  {
+    try (final InputStream aIS = aAS4InStream)
+    {
+      final HttpHeaderMap hm = readInitialHttpHeaders (aIS);
+
+      // In case somebody cares about the HTTP headers
+      if (aHttpHeaderConsumer != null)
+        aHttpHeaderConsumer.accept (hm);
+
+      LOGGER.info ("Read " + hm.getCount () + " HTTP headers from stream");
+
+      _decryptAS4In (aIS, hm, aCryptoFactorySign, aCryptoFactoryCrypt, aDecryptedConsumer);
+    }
+  }
+
+  /**
+   * Utility method to decrypt a single incoming message from a segmented dump
+   * archive written by {@link AS4AsyncDumpWriter}. Only the frames of the
+   * provided message are read from disk.
+   *
+   * @param aSegmentReader
+   *        The segment reader to use. May not be <code>null</code>.
+   * @param aEntry
+   *        The index entry of the incoming message. May not be
+   *        <code>null</code>.
+   * @param aCryptoFactorySign
+   *        The Crypto factory to be used. May not be <code>null</code>.
+   * @param aCryptoFactoryCrypt
+   *        The Crypto factory to be used for decrypting. May not be
+   *        <code>null</code>.
+   * @param aHttpHeaderConsumer
+   *        An optional HTTP Header map consumer. May be <code>null</code>.
+   * @param aDecryptedConsumer
+   *        The consumer for the decrypted payload. May not be
+   *        <code>null</code>.
+   * @throws WSSecurityException
+   *         In case of error
+   * @throws Phase4Exception
+   *         In case of error
+   * @throws IOException
+   *         In case of error
+   * @throws MessagingException
+   *         In case of error
+   * @since 2.7.7
+   */
+  public static void decryptAS4In (@Nonnull final AS4DumpSegmentReader aSegmentReader,
+                                   @Nonnull final AS4DumpIndexEntry aEntry,
+                                   @Nonnull final IAS4CryptoFactory aCryptoFactorySign,
+                                   @Nonnull final IAS4CryptoFactory aCryptoFactoryCrypt,
+                                   @Nullable final Consumer <HttpHeaderMap> aHttpHeaderConsumer,
+                                   @Nonnull final IDecryptedPayloadConsumer aDecryptedConsumer) throws WSSecurityException,
+                                                                                                Phase4Exception,
+                                                                                                IOException,
+                                                                                                MessagingException
+  {
+    ValueEnforcer.notNull (aSegmentReader, "SegmentReader");
+    ValueEnforcer.isTrue (aEntry.isIncoming (), "Only incoming messages can be decrypted");
+
+    try (final InputStream aIS = new BufferedInputStream (aSegmentReader.openStream (aEntry)))
+    {
+      decryptAS4In (aIS, aCryptoFactorySign, aCryptoFactoryCrypt, aHttpHeaderConsumer, aDecryptedConsumer);
+    }
+  }
+
+  private static void _decryptAS4In (@Nonnull @WillClose final InputStream aPayloadIS,
+                                     @Nonnull final HttpHeaderMap hm,
+                                     @Nonnull final IAS4CryptoFactory aCryptoFactorySign,
+                                     @Nonnull final IAS4CryptoFactory aCryptoFactoryCrypt,
+                                     @Nonnull final IDecryptedPayloadConsumer aDecryptedConsumer) throws WSSecurityException,
+                                                                                                  Phase4Exception,
+                                                                                                  IOException,
+                                                                                                  MessagingException
+  {
     final boolean bGlobalScopePresent = WebScopeManager.isGlobalScopePresent ();
     if (!bGlobalScopePresent)
     {
@@ -292,7 +456,7 @@ public final class AS4DumpReader
         }
       };
       rh.setProcessorSupplier ( () -> new CommonsArrayList <> (aSPI));
-      rh.handleRequest (new NonBlockingByteArrayInputStream (aAS4InData, nHttpEnd, aAS4InData.length - nHttpEnd),
+      rh.handleRequest (aPayloadIS,
                         hm,
                         new IAS4ResponseAbstraction ()
                         {
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.io.file.FilenameHelper;
+
+/**
+ * Constants for the segment file format written by {@link AS4AsyncDumpWriter}.
+ * Each segment file starts with {@link #FILE_MAGIC} followed by any number of
+ * frames. Each frame consists of the frame type (1 byte), the stream ID (8
+ * bytes), the payload length (4 bytes) and the payload. The frames of
+ * different dump streams may be interleaved, and a stream may continue in the
+ * next segment file.<br>
+ * Each segment file has a sidecar index file with the same base name, that
+ * starts with {@link #INDEX_FILE_MAGIC} followed by any number of
+ * {@link AS4DumpIndexEntry} objects. An index entry is written to the index of
+ * the segment that is current when the message ends.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@Immutable
+final class AS4DumpSegment
+{
+  /** The magic bytes at the start of each segment file */
+  static final byte [] FILE_MAGIC = "PH4DSEG1".getBytes (StandardCharsets.US_ASCII);
+  /** The file extension of segment files */
+  static final String FILE_EXTENSION = ".as4seg";
+  /** The magic bytes at the start of each index file */
+  static final byte [] INDEX_FILE_MAGIC = "PH4DIDX1".getBytes (StandardCharsets.US_ASCII);
+  /** The file extension of index files */
+  static final String INDEX_FILE_EXTENSION = ".as4idx";
+
+  /** Size of a frame header in bytes */
+  static final int FRAME_HEADER_SIZE = 1 + 8 + 4;
+
+  /**
+   * Start of a stream. Payload: direction (1 byte), ID (modified UTF-8), try
+   * (4 bytes)
+   */
+  static final byte FRAME_BEGIN = 1;
+  /** Content of a stream. Payload: the dumped bytes */
+  static final byte FRAME_DATA = 2;
+  /** End of a stream. Payload: 1 if the stream was truncated, 0 otherwise */
+  static final byte FRAME_END = 3;
+
+  static final byte DIRECTION_INCOMING = 'I';
+  static final byte DIRECTION_OUTGOING = 'O';
+
+  private AS4DumpSegment ()
+  {}
+
+  @Nonnull
+  @Nonempty
+  static String getIndexFilename (@Nonnull @Nonempty final String sSegmentFilename)
+  {
+    return FilenameHelper.getWithoutExtension (sSegmentFilename) + INDEX_FILE_EXTENSION;
+  }
+}
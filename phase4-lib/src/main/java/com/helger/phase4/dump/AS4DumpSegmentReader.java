@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * Random access reader for the segment files written by
+ * {@link AS4AsyncDumpWriter}. Only the small sidecar index files are read
+ * upfront. The content of a single message is streamed directly from the
+ * segment file(s), skipping the frames of all other messages.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@ThreadSafe
+public class AS4DumpSegmentReader
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4DumpSegmentReader.class);
+
+  private final File m_aDirectory;
+  private final ICommonsList <String> m_aSegmentFilenames = new CommonsArrayList <> ();
+  private final ICommonsList <AS4DumpIndexEntry> m_aEntries = new CommonsArrayList <> ();
+  private final ICommonsMap <String, AS4DumpIndexEntry> m_aIncomingByID = new CommonsHashMap <> ();
+  private final ICommonsMap <String, ICommonsList <AS4DumpIndexEntry>> m_aByMessageID = new CommonsHashMap <> ();
+
+  /**
+   * Constructor. Reads all index files of the provided directory.
+   *
+   * @param aDirectory
+   *        The directory containing the segment and index files. May not be
+   *        <code>null</code>.
+   * @throws IOException
+   *         If an index file cannot be read
+   */
+  public AS4DumpSegmentReader (@Nonnull final File aDirectory) throws IOException
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    m_aDirectory = aDirectory;
+
+    final String [] aSegmentFilenames = aDirectory.list ( (d, n) -> n.endsWith (AS4DumpSegment.FILE_EXTENSION));
+    if (aSegmentFilenames != null)
+    {
+      // The names are sortable by creation
+      Arrays.sort (aSegmentFilenames);
+      for (final String sSegmentFilename : aSegmentFilenames)
+      {
+        m_aSegmentFilenames.add (sSegmentFilename);
+        _readIndex (new File (aDirectory, AS4DumpSegment.getIndexFilename (sSegmentFilename)), sSegmentFilename);
+      }
+    }
+  }
+
+  private void _readIndex (@Nonnull final File aIndexFile, @Nonnull final String sSegmentFilename) throws IOException
+  {
+    if (!aIndexFile.isFile ())
+    {
+      LOGGER.warn ("Dump index file '" + aIndexFile.getAbsolutePath () + "' is missing");
+      return;
+    }
+
+    try (final DataInputStream aDIS = new DataInputStream (FileHelper.getBufferedInputStream (aIndexFile)))
+    {
+      final byte [] aMagic = new byte [AS4DumpSegment.INDEX_FILE_MAGIC.length];
+      aDIS.readFully (aMagic);
+      if (!Arrays.equals (aMagic, AS4DumpSegment.INDEX_FILE_MAGIC))
+        throw new IOException ("The file '" + aIndexFile.getAbsolutePath () + "' is not a dump index file");
+
+      while (true)
+      {
+        final AS4DumpIndexEntry aEntry;
+        try
+        {
+          aEntry = AS4DumpIndexEntry.readFrom (aDIS, sSegmentFilename);
+        }
+        catch (final EOFException ex)
+        {
+          // End of file or partially written last entry
+          break;
+        }
+        m_aEntries.add (aEntry);
+        if (aEntry.isIncoming ())
+          m_aIncomingByID.put (aEntry.getID (), aEntry);
+        if (aEntry.hasMessageID ())
+          m_aByMessageID.computeIfAbsent (aEntry.getMessageID (), k -> new CommonsArrayList <> ()).add (aEntry);
+      }
+    }
+  }
+
+  /**
+   * @return The directory of the segment files. Never <code>null</code>.
+   */
+  @Nonnull
+  public final File getDirectory ()
+  {
+    return m_aDirectory;
+  }
+
+  /**
+   * @return All index entries in the order of the segment files. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <AS4DumpIndexEntry> getAllEntries ()
+  {
+    return m_aEntries.getClone ();
+  }
+
+  /**
+   * Find the dump of an incoming message.
+   *
+   * @param sIncomingUniqueID
+   *        The incoming unique ID of the message. May be <code>null</code>.
+   * @return <code>null</code> if no such message was dumped.
+   */
+  @Nullable
+  public AS4DumpIndexEntry getIncomingEntryOfUniqueID (@Nullable final String sIncomingUniqueID)
+  {
+    return m_aIncomingByID.get (sIncomingUniqueID);
+  }
+
+  /**
+   * Find all dumps of the provided AS4 message ID. This may contain the
+   * incoming message as well as multiple sending tries.
+   *
+   * @param sMessageID
+   *        The AS4 message ID. May be <code>null</code>.
+   * @return A non-<code>null</code> but maybe empty list.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <AS4DumpIndexEntry> getAllEntriesOfMessageID (@Nullable final String sMessageID)
+  {
+    final ICommonsList <AS4DumpIndexEntry> ret = m_aByMessageID.get (sMessageID);
+    return ret == null ? new CommonsArrayList <> () : ret.getClone ();
+  }
+
+  /**
+   * Open the dumped content of a single message. The content is exactly what
+   * the dumper received, including the HTTP headers if they were dumped.
+   *
+   * @param aEntry
+   *        The index entry to read. May not be <code>null</code>.
+   * @return A new input stream that must be closed by the caller. Never
+   *         <code>null</code>.
+   * @throws IOException
+   *         If the segment file cannot be opened
+   */
+  @Nonnull
+  public InputStream openStream (@Nonnull final AS4DumpIndexEntry aEntry) throws IOException
+  {
+    ValueEnforcer.notNull (aEntry, "Entry");
+    final int nSegmentIndex = m_aSegmentFilenames.indexOf (aEntry.getSegmentFilename ());
+    if (nSegmentIndex < 0)
+      throw new IOException ("The dump segment file '" + aEntry.getSegmentFilename () + "' was not found");
+
+    // The stream has no frames after the segment containing its index entry
+    int nEndSegmentIndex = m_aSegmentFilenames.indexOf (aEntry.getEndSegmentFilename ());
+    if (nEndSegmentIndex < nSegmentIndex)
+      nEndSegmentIndex = m_aSegmentFilenames.size () - 1;
+
+    final SegmentStreamInputStream ret = new SegmentStreamInputStream (nSegmentIndex,
+                                                                       nEndSegmentIndex,
+                                                                       aEntry.getStreamID (),
+                                                                       aEntry.isComplete ());
+    try
+    {
+      ret.openSegment (aEntry.getBeginOffset ());
+    }
+    catch (final IOException ex)
+    {
+      ret.close ();
+      throw ex;
+    }
+    return ret;
+  }
+
+  /**
+   * Input stream that returns the payload of all data frames of one stream.
+   *
+   * @author Philip Helger
+   */
+  @NotThreadSafe
+  private final class SegmentStreamInputStream extends InputStream
+  {
+    private final int m_nEndSegmentIndex;
+    private final long m_nStreamID;
+    private final boolean m_bComplete;
+    private final byte [] m_aFrameHeader = new byte [AS4DumpSegment.FRAME_HEADER_SIZE];
+    private final ByteBuffer m_aFrameHeaderBuf = ByteBuffer.wrap (m_aFrameHeader);
+    private int m_nSegmentIndex;
+    private RandomAccessFile m_aRAF;
+    // Position and length of the current segment file, to avoid system calls
+    private long m_nPosition;
+    private long m_nSegmentLength;
+    // Remaining bytes of the current data frame
+    private int m_nFrameRemaining = 0;
+    private boolean m_bEOF = false;
+
+    SegmentStreamInputStream (final int nSegmentIndex,
+                              final int nEndSegmentIndex,
+                              final long nStreamID,
+                              final boolean bComplete)
+    {
+      m_nSegmentIndex = nSegmentIndex;
+      m_nEndSegmentIndex = nEndSegmentIndex;
+      m_nStreamID = nStreamID;
+      m_bComplete = bComplete;
+    }
+
+    void openSegment (final long nPosition) throws IOException
+    {
+      m_aRAF = new RandomAccessFile (new File (m_aDirectory, m_aSegmentFilenames.get (m_nSegmentIndex)), "r");
+      m_nSegmentLength = m_aRAF.length ();
+      m_aRAF.seek (nPosition);
+      m_nPosition = nPosition;
+    }
+
+    private boolean _nextSegment () throws IOException
+    {
+      m_aRAF.close ();
+      m_aRAF = null;
+      if (m_nSegmentIndex >= m_nEndSegmentIndex)
+        return false;
+
+      m_nSegmentIndex++;
+      openSegment (AS4DumpSegment.FILE_MAGIC.length);
+      return true;
+    }
+
+    private void _skip (final int nLength) throws IOException
+    {
+      m_nPosition += nLength;
+      m_aRAF.seek (m_nPosition);
+    }
+
+    /**
+     * Move to the next data frame of this stream.
+     *
+     * @return <code>false</code> if the end of the stream was reached
+     */
+    private boolean _nextDataFrame () throws IOException
+    {
+      while (!m_bEOF)
+      {
+        if (m_nPosition + AS4DumpSegment.FRAME_HEADER_SIZE > m_nSegmentLength)
+        {
+          // Stream continues in the next segment (if any)
+          if (!_nextSegment ())
+          {
+            // Incomplete streams may legitimately have no end frame
+            if (m_bComplete)
+              LOGGER.warn ("Dump stream " + m_nStreamID + " has no end frame");
+            m_bEOF = true;
+          }
+          continue;
+        }
+
+        // Read the whole frame header at once
+        m_aRAF.readFully (m_aFrameHeader);
+        m_nPosition += AS4DumpSegment.FRAME_HEADER_SIZE;
+        final byte nType = m_aFrameHeader[0];
+        final long nStreamID = m_aFrameHeaderBuf.getLong (1);
+        final int nLength = m_aFrameHeaderBuf.getInt (9);
+        if (nStreamID != m_nStreamID)
+        {
+          // Frame of another stream
+          _skip (nLength);
+          continue;
+        }
+
+        if (nType == AS4DumpSegment.FRAME_DATA)
+        {
+          m_nFrameRemaining = nLength;
+          if (nLength > 0)
+            return true;
+        }
+        else
+          if (nType == AS4DumpSegment.FRAME_END)
+            m_bEOF = true;
+          else
+            _skip (nLength);
+      }
+      return false;
+    }
+
+    @Override
+    public int read () throws IOException
+    {
+      final byte [] aBuf = new byte [1];
+      final int nRead = read (aBuf, 0, 1);
+      return nRead < 0 ? -1 : aBuf[0] & 0xff;
+    }
+
+    @Override
+    public int read (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      ValueEnforcer.isArrayOfsLen (aBuf, nOfs, nLen);
+      if (nLen == 0)
+        return 0;
+      if (m_aRAF == null)
+        return -1;
+      if (m_nFrameRemaining == 0 && !_nextDataFrame ())
+        return -1;
+
+      final int nRead = m_aRAF.read (aBuf, nOfs, Math.min (nLen, m_nFrameRemaining));
+      if (nRead < 0)
+        throw new EOFException ("Dump segment file ended within a frame");
+      m_nPosition += nRead;
+      m_nFrameRemaining -= nRead;
+      return nRead;
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+      if (m_aRAF != null)
+      {
+        m_aRAF.close ();
+        m_aRAF = null;
+      }
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Directory", m_aDirectory)
+                                       .append ("SegmentCount", m_aSegmentFilenames.size ())
+                                       .append ("EntryCount", m_aEntries.size ())
+                                       .getToString ();
+  }
+}
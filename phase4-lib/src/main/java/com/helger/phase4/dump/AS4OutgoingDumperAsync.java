@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import java.io.OutputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.messaging.EAS4MessageMode;
+import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
+import com.helger.phase4.servlet.IAS4MessageState;
+
+/**
+ * Version of {@link IAS4OutgoingDumper} that hands all dumped data over to an
+ * {@link AS4AsyncDumpWriter}, so that the sending thread is not blocked by
+ * slow disk IO. After the writer was closed, nothing is dumped anymore.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+public class AS4OutgoingDumperAsync extends AbstractAS4OutgoingDumperWithHeaders
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4OutgoingDumperAsync.class);
+
+  private final AS4AsyncDumpWriter m_aWriter;
+
+  /**
+   * Constructor
+   *
+   * @param aWriter
+   *        The async writer to use. May not be <code>null</code>. The writer
+   *        may be shared with an {@link AS4IncomingDumperAsync}. It must be
+   *        closed by the caller.
+   */
+  public AS4OutgoingDumperAsync (@Nonnull final AS4AsyncDumpWriter aWriter)
+  {
+    ValueEnforcer.notNull (aWriter, "Writer");
+    m_aWriter = aWriter;
+  }
+
+  /**
+   * @return The async writer used. Never <code>null</code>.
+   */
+  @Nonnull
+  public final AS4AsyncDumpWriter getWriter ()
+  {
+    return m_aWriter;
+  }
+
+  @Override
+  @Nullable
+  protected OutputStream openOutputStream (@Nonnull final EAS4MessageMode eMsgMode,
+                                           @Nullable final IAS4IncomingMessageMetadata aMessageMetadata,
+                                           @Nullable final IAS4MessageState aState,
+                                           @Nonnull @Nonempty final String sMessageID,
+                                           @Nullable final HttpHeaderMap aCustomHeaders,
+                                           @Nonnegative final int nTry)
+  {
+    if (!m_aWriter.isClosed ())
+    {
+      try
+      {
+        return m_aWriter.openOutgoingStream (sMessageID, nTry);
+      }
+      catch (final IllegalStateException ex)
+      {
+        // The writer was closed in the meantime
+        if (!m_aWriter.isClosed ())
+          throw ex;
+      }
+    }
+
+    // Dumping is optional - e.g. during shutdown
+    LOGGER.warn ("The async dump writer is already closed - not dumping outgoing message '" +
+                 sMessageID +
+                 "' (try " +
+                 nTry +
+                 ")");
+    return null;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Writer", m_aWriter).getToString ();
+  }
+}
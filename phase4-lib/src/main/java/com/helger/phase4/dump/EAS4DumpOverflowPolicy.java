@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+/**
+ * Defines what {@link AS4AsyncDumpWriter} does with dump data, if the queue to
+ * the background writer is full.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+public enum EAS4DumpOverflowPolicy
+{
+  /**
+   * Wait at most the configured block timeout for free space in the queue. If
+   * the queue is still full afterwards, the data is dropped. This limits the
+   * additional latency per dumped chunk.
+   */
+  BLOCK,
+  /**
+   * Never wait and drop the data immediately, if the queue is full. This never
+   * adds latency to the request thread.
+   */
+  DROP;
+}
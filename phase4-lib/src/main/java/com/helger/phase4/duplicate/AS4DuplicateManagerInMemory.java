@@ -17,36 +17,44 @@
 package com.helger.phase4.duplicate;
 
 import java.time.OffsetDateTime;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Predicate;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.CollectionHelper;
 import com.helger.commons.collection.impl.CommonsArrayList;
-import com.helger.commons.collection.impl.CommonsHashMap;
 import com.helger.commons.collection.impl.ICommonsList;
-import com.helger.commons.collection.impl.ICommonsMap;
-import com.helger.commons.concurrent.SimpleReadWriteLock;
 import com.helger.commons.state.EChange;
 import com.helger.commons.state.EContinue;
 import com.helger.commons.string.StringHelper;
 
 /**
- * This is the duplicate checker for avoiding duplicate messages.
+ * This is the duplicate checker for avoiding duplicate messages.<br>
+ * Since 2.7.7 the items are stored in a {@link ConcurrentHashMap} so that
+ * registration and lookup by message ID don't need a global lock. Additionally
+ * all items are kept in a queue in registration order, so that eviction only
+ * needs to touch the evicted items. Because the registration date time is
+ * taken upon registration, the queue is ordered by date time.
  *
  * @author Philip Helger
  */
 @ThreadSafe
 public class AS4DuplicateManagerInMemory implements IAS4DuplicateManager
 {
-  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
-  @GuardedBy ("m_aRWLock")
-  private final ICommonsMap <String, AS4DuplicateItem> m_aMap = new CommonsHashMap <> ();
+  private final ConcurrentHashMap <String, AS4DuplicateItem> m_aMap = new ConcurrentHashMap <> ();
+  // Registration order
+  private final Queue <AS4DuplicateItem> m_aEvictionQueue = new ConcurrentLinkedQueue <> ();
+  // Only one eviction at a time
+  private final Lock m_aEvictionLock = new ReentrantLock ();
 
   public AS4DuplicateManagerInMemory ()
   {}
@@ -60,69 +68,99 @@ public class AS4DuplicateManagerInMemory implements IAS4DuplicateManager
       return EContinue.CONTINUE;
     }
 
-    final AS4DuplicateItem aItem = new AS4DuplicateItem (sMessageID, sProfileID, sPModeID);
-    m_aRWLock.writeLock ().lock ();
-    try
-    {
-      final String sID = aItem.getID ();
-      if (m_aMap.containsKey (sID))
-      {
-        // ID already in use
-        return EContinue.BREAK;
-      }
-      m_aMap.put (sID, aItem);
-    }
-    finally
+    return internalRegisterItem (new AS4DuplicateItem (sMessageID, sProfileID, sPModeID));
+  }
+
+  /**
+   * Register the provided item, if no item with the same ID is already
+   * contained.
+   *
+   * @param aItem
+   *        The item to be registered. May not be <code>null</code>.
+   * @return {@link EContinue#CONTINUE} if the item was registered,
+   *         {@link EContinue#BREAK} if the ID is already in use.
+   * @since 2.7.7
+   */
+  @Nonnull
+  protected final EContinue internalRegisterItem (@Nonnull final AS4DuplicateItem aItem)
+  {
+    if (m_aMap.putIfAbsent (aItem.getID (), aItem) != null)
     {
-      m_aRWLock.writeLock ().unlock ();
+      // ID already in use
+      return EContinue.BREAK;
     }
+    // Add to queue only after it was added to the map
+    m_aEvictionQueue.add (aItem);
     return EContinue.CONTINUE;
   }
 
   @Nonnull
   public EChange clearCache ()
   {
-    return m_aRWLock.writeLockedGet (m_aMap::removeAll);
+    if (m_aMap.isEmpty ())
+      return EChange.UNCHANGED;
+
+    // Clear the queue first, so that no map entry is left without a queue
+    // entry. Queue entries without a map entry are ignored upon eviction.
+    m_aEvictionQueue.clear ();
+    m_aMap.clear ();
+    return EChange.CHANGED;
   }
 
   @Nonnull
   @ReturnsMutableCopy
   public ICommonsList <String> evictAllItemsBefore (@Nonnull final OffsetDateTime aRefDT)
   {
-    // Get all message IDs to be removed
     final ICommonsList <String> aEvictItems = new CommonsArrayList <> ();
-    m_aRWLock.readLocked ( () -> m_aMap.forEachValue (x -> x.getDateTime ().isBefore (aRefDT), x -> aEvictItems.add (x.getMessageID ())));
-    if (aEvictItems.isNotEmpty ())
+    m_aEvictionLock.lock ();
+    try
     {
-      // Bulk erase all
-      m_aRWLock.writeLock ().lock ();
-      try
+      // The queue is ordered by date time, so stop at the first item that is
+      // not old enough
+      AS4DuplicateItem aItem;
+      while ((aItem = m_aEvictionQueue.peek ()) != null && aItem.getDateTime ().isBefore (aRefDT))
       {
-        m_aMap.removeIfKey (aEvictItems::contains);
-      }
-      finally
-      {
-        m_aRWLock.writeLock ().unlock ();
+        m_aEvictionQueue.poll ();
+        // Only remove if it is still the same item (e.g. after clearCache)
+        if (m_aMap.remove (aItem.getID (), aItem))
+          aEvictItems.add (aItem.getMessageID ());
       }
     }
+    finally
+    {
+      m_aEvictionLock.unlock ();
+    }
     return aEvictItems;
   }
 
   public boolean isEmpty ()
   {
-    return m_aRWLock.readLockedBoolean (m_aMap::isEmpty);
+    return m_aMap.isEmpty ();
   }
 
   @Nonnegative
   public int size ()
   {
-    return m_aRWLock.readLockedInt (m_aMap::size);
+    return m_aMap.size ();
+  }
+
+  /**
+   * Check if the provided item is the currently registered item for its ID.
+   *
+   * @param aItem
+   *        The item to check. May not be <code>null</code>.
+   * @return <code>true</code> if it is contained, <code>false</code> if not.
+   * @since 2.7.7
+   */
+  protected final boolean internalContainsItem (@Nonnull final AS4DuplicateItem aItem)
+  {
+    return m_aMap.get (aItem.getID ()) == aItem;
   }
 
   @Nullable
   public IAS4DuplicateItem findFirst (@Nonnull final Predicate <? super IAS4DuplicateItem> aFilter)
   {
-    return m_aRWLock.readLockedGet ( () -> CollectionHelper.findFirst (m_aMap.values (), aFilter));
+    return CollectionHelper.findFirst (m_aMap.values (), aFilter);
   }
 
   @Nullable
@@ -131,13 +169,13 @@ public class AS4DuplicateManagerInMemory implements IAS4DuplicateManager
     if (StringHelper.hasNoText (sMessageID))
       return null;
 
-    return findFirst (x -> x.getMessageID ().equals (sMessageID));
+    return m_aMap.get (sMessageID);
   }
 
   @Nonnull
   @ReturnsMutableCopy
   public ICommonsList <IAS4DuplicateItem> getAll ()
   {
-    return m_aRWLock.readLockedGet ( () -> new CommonsArrayList <> (m_aMap.values ()));
+    return new CommonsArrayList <> (m_aMap.values ());
   }
 }
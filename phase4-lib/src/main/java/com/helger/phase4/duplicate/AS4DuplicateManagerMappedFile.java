@@ -0,0 +1,637 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.state.EChange;
+import com.helger.commons.state.EContinue;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.StringParser;
+import com.helger.commons.timing.StopWatch;
+
+/**
+ * This is a persistent duplicate checker for avoiding duplicate messages. All
+ * registered items are kept in memory (see
+ * {@link AS4DuplicateManagerInMemory}) and are additionally appended to
+ * memory-mapped, binary segment files in a directory. On startup all segments
+ * are read to restore the previous state and new items are appended to the last
+ * segment.<br>
+ * Segments are rolled when they are full and are deleted as a whole, when all
+ * contained items were evicted via {@link #evictAllItemsBefore(OffsetDateTime)}
+ * (usually called from <code>AS4DuplicateCleanupJob</code>). The reference date
+ * time of the last eviction is stored as a "watermark", so that evicted items
+ * from partially evicted segments are not restored.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@ThreadSafe
+public class AS4DuplicateManagerMappedFile extends AS4DuplicateManagerInMemory implements AutoCloseable
+{
+  public static final int DEFAULT_SEGMENT_SIZE = 16 * CGlobal.BYTES_PER_MEGABYTE;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4DuplicateManagerMappedFile.class);
+  // "P4DU"
+  private static final int SEGMENT_MAGIC = 0x50344455;
+  private static final int SEGMENT_VERSION = 1;
+  private static final int SEGMENT_HEADER_SIZE = 8;
+  // The length of a record is stored as an int
+  private static final int RECORD_LENGTH_SIZE = 4;
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".bin";
+  private static final String WATERMARK_FILENAME = "watermark.bin";
+
+  private static final class Segment
+  {
+    private final File m_aFile;
+    private final long m_nNumber;
+    private long m_nLastMillis = Long.MIN_VALUE;
+    // The position after the last complete record or -1 if unknown
+    private int m_nEndPosition = -1;
+    // Only present for the active segment
+    private MappedByteBuffer m_aBuffer;
+
+    Segment (@Nonnull final File aFile, final long nNumber)
+    {
+      m_aFile = aFile;
+      m_nNumber = nNumber;
+    }
+
+    boolean hasRecords ()
+    {
+      return m_nLastMillis != Long.MIN_VALUE;
+    }
+  }
+
+  private final File m_aDirectory;
+  private final int m_nSegmentSize;
+  private final Lock m_aLogLock = new ReentrantLock ();
+  @GuardedBy ("m_aLogLock")
+  private final ICommonsList <Segment> m_aClosedSegments = new CommonsArrayList <> ();
+  @GuardedBy ("m_aLogLock")
+  private Segment m_aActiveSegment;
+  @GuardedBy ("m_aLogLock")
+  private long m_nNextSegmentNumber = 1;
+  @GuardedBy ("m_aLogLock")
+  private long m_nWatermarkMillis = Long.MIN_VALUE;
+
+  /**
+   * Constructor using the default segment size.
+   *
+   * @param aDirectory
+   *        The directory to store the segment files in. Is created if not
+   *        existing. May not be <code>null</code>.
+   * @throws IOException
+   *         In case the existing data cannot be read
+   */
+  public AS4DuplicateManagerMappedFile (@Nonnull final File aDirectory) throws IOException
+  {
+    this (aDirectory, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDirectory
+   *        The directory to store the segment files in. Is created if not
+   *        existing. May not be <code>null</code>.
+   * @param nSegmentSize
+   *        The size of each segment file in bytes. Must be &ge; 1024.
+   * @throws IOException
+   *         In case the existing data cannot be read
+   */
+  public AS4DuplicateManagerMappedFile (@Nonnull final File aDirectory, @Nonnegative final int nSegmentSize) throws IOException
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    ValueEnforcer.isTrue (nSegmentSize >= 1024, "SegmentSize must be at least 1024 bytes");
+    m_aDirectory = aDirectory;
+    m_nSegmentSize = nSegmentSize;
+
+    if (FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (aDirectory).isFailure ())
+      throw new IOException ("Failed to create directory " + aDirectory.getAbsolutePath ());
+
+    m_aLogLock.lock ();
+    try
+    {
+      _readWatermark ();
+      _restoreAllSegments ();
+      // Continue with the last segment if possible
+      if (!_reopenLastSegment ())
+        _openNewSegment (0);
+    }
+    finally
+    {
+      m_aLogLock.unlock ();
+    }
+  }
+
+  /**
+   * @return The directory in which the segment files reside. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final File getDirectory ()
+  {
+    return m_aDirectory;
+  }
+
+  /**
+   * @return The size of a single segment file in bytes.
+   */
+  @Nonnegative
+  public final int getSegmentSize ()
+  {
+    return m_nSegmentSize;
+  }
+
+  /**
+   * @return The number of segment files currently in use, including the active
+   *         one.
+   */
+  @Nonnegative
+  public int getSegmentCount ()
+  {
+    m_aLogLock.lock ();
+    try
+    {
+      return m_aClosedSegments.size () + (m_aActiveSegment != null ? 1 : 0);
+    }
+    finally
+    {
+      m_aLogLock.unlock ();
+    }
+  }
+
+  @Nonnull
+  private File _getWatermarkFile ()
+  {
+    return new File (m_aDirectory, WATERMARK_FILENAME);
+  }
+
+  private void _readWatermark () throws IOException
+  {
+    final File aFile = _getWatermarkFile ();
+    if (aFile.isFile ())
+    {
+      final byte [] aBytes = Files.readAllBytes (aFile.toPath ());
+      if (aBytes.length == Long.BYTES)
+        m_nWatermarkMillis = ByteBuffer.wrap (aBytes).getLong ();
+      else
+        LOGGER.warn ("Ignoring invalid watermark file " + aFile.getAbsolutePath ());
+    }
+  }
+
+  private void _writeWatermark () throws IOException
+  {
+    final byte [] aBytes = ByteBuffer.allocate (Long.BYTES).putLong (m_nWatermarkMillis).array ();
+    Files.write (_getWatermarkFile ().toPath (), aBytes);
+  }
+
+  @Nonnull
+  private File _getSegmentFile (final long nNumber)
+  {
+    return new File (m_aDirectory, SEGMENT_PREFIX + StringHelper.getLeadingZero (nNumber, 12) + SEGMENT_SUFFIX);
+  }
+
+  private static long _getMillis (@Nonnull final OffsetDateTime aDT)
+  {
+    return aDT.toInstant ().toEpochMilli ();
+  }
+
+  @Nullable
+  private static String _readString (@Nonnull final ByteBuffer aBB)
+  {
+    final int nLen = aBB.getInt ();
+    if (nLen < 0)
+      return null;
+    if (nLen > aBB.remaining ())
+      throw new IllegalStateException ("Invalid string length " + nLen);
+    final byte [] aBytes = new byte [nLen];
+    aBB.get (aBytes);
+    return new String (aBytes, StandardCharsets.UTF_8);
+  }
+
+  private void _restoreAllSegments () throws IOException
+  {
+    final File [] aFiles = m_aDirectory.listFiles ( (d,
+                                                     n) -> n.startsWith (SEGMENT_PREFIX) && n.endsWith (SEGMENT_SUFFIX));
+    if (aFiles == null)
+      throw new IOException ("Failed to list directory " + m_aDirectory.getAbsolutePath ());
+
+    final ICommonsList <Segment> aSegments = new CommonsArrayList <> ();
+    for (final File aFile : aFiles)
+    {
+      final String sName = aFile.getName ();
+      final long nNumber = StringParser.parseLong (sName.substring (SEGMENT_PREFIX.length (),
+                                                                     sName.length () - SEGMENT_SUFFIX.length ()),
+                                                   -1);
+      if (nNumber > 0)
+        aSegments.add (new Segment (aFile, nNumber));
+      else
+        LOGGER.warn ("Ignoring unexpected file " + aFile.getAbsolutePath ());
+    }
+    // Restore in creation order
+    aSegments.sortInline ( (x, y) -> Long.compare (x.m_nNumber, y.m_nNumber));
+
+    final StopWatch aSW = StopWatch.createdStarted ();
+    int nRestored = 0;
+    for (final Segment aSegment : aSegments)
+    {
+      nRestored += _restoreSegment (aSegment);
+      m_aClosedSegments.add (aSegment);
+      m_nNextSegmentNumber = Math.max (m_nNextSegmentNumber, aSegment.m_nNumber + 1);
+    }
+    aSW.stop ();
+
+    if (aSegments.isNotEmpty ())
+      LOGGER.info ("Restored " +
+                   nRestored +
+                   " AS4 duplicate items from " +
+                   aSegments.size () +
+                   " segments in " +
+                   aSW.getMillis () +
+                   " ms");
+  }
+
+  private int _restoreSegment (@Nonnull final Segment aSegment) throws IOException
+  {
+    int ret = 0;
+    try (final FileChannel aFC = FileChannel.open (aSegment.m_aFile.toPath (), StandardOpenOption.READ))
+    {
+      final long nSize = aFC.size ();
+      if (nSize < SEGMENT_HEADER_SIZE)
+      {
+        LOGGER.warn ("Ignoring too short segment file " + aSegment.m_aFile.getAbsolutePath ());
+        return 0;
+      }
+      final MappedByteBuffer aBB = aFC.map (FileChannel.MapMode.READ_ONLY, 0, nSize);
+      if (aBB.getInt () != SEGMENT_MAGIC || aBB.getInt () != SEGMENT_VERSION)
+      {
+        LOGGER.warn ("Ignoring segment file with unexpected header " + aSegment.m_aFile.getAbsolutePath ());
+        return 0;
+      }
+
+      aSegment.m_nEndPosition = aBB.position ();
+
+      while (aBB.remaining () >= RECORD_LENGTH_SIZE)
+      {
+        final int nLen = aBB.getInt ();
+        // 0 is the end marker - everything else is an incomplete record
+        if (nLen <= 0 || nLen > aBB.remaining ())
+          break;
+
+        final int nStart = aBB.position ();
+        final long nEpochSeconds = aBB.getLong ();
+        final int nNanos = aBB.getInt ();
+        final int nOffsetSeconds = aBB.getInt ();
+        final String sMessageID = _readString (aBB);
+        final String sProfileID = _readString (aBB);
+        final String sPModeID = _readString (aBB);
+        aBB.position (nStart + nLen);
+        aSegment.m_nEndPosition = nStart + nLen;
+
+        final OffsetDateTime aDT = OffsetDateTime.ofInstant (Instant.ofEpochSecond (nEpochSeconds, nNanos),
+                                                             ZoneOffset.ofTotalSeconds (nOffsetSeconds));
+        final long nMillis = _getMillis (aDT);
+        aSegment.m_nLastMillis = Math.max (aSegment.m_nLastMillis, nMillis);
+
+        // Skip all items that were already evicted
+        if (nMillis >= m_nWatermarkMillis && StringHelper.hasText (sMessageID))
+          if (internalRegisterItem (new AS4DuplicateItem (aDT, sMessageID, sProfileID, sPModeID)).isContinue ())
+            ret++;
+      }
+    }
+    catch (final RuntimeException ex)
+    {
+      // E.g. BufferUnderflowException on corrupt data
+      LOGGER.warn ("Stopped reading corrupt segment file " + aSegment.m_aFile.getAbsolutePath (), ex);
+    }
+    return ret;
+  }
+
+  private boolean _reopenLastSegment () throws IOException
+  {
+    if (m_aClosedSegments.isEmpty ())
+      return false;
+    final int nLastIndex = m_aClosedSegments.size () - 1;
+    final Segment aSegment = m_aClosedSegments.get (nLastIndex);
+    if (aSegment.m_nEndPosition < 0)
+      return false;
+
+    final MappedByteBuffer aBB;
+    try (final FileChannel aFC = FileChannel.open (aSegment.m_aFile.toPath (),
+                                                   StandardOpenOption.READ,
+                                                   StandardOpenOption.WRITE))
+    {
+      aBB = aFC.map (FileChannel.MapMode.READ_WRITE, 0, aFC.size ());
+    }
+    // Keep space for the end marker
+    if (aBB.capacity () - aSegment.m_nEndPosition < RECORD_LENGTH_SIZE)
+      return false;
+
+    aBB.position (aSegment.m_nEndPosition);
+    // Overwrite anything left from an incomplete record
+    aBB.putInt (aSegment.m_nEndPosition, 0);
+    aSegment.m_aBuffer = aBB;
+    m_aClosedSegments.remove (nLastIndex);
+    m_aActiveSegment = aSegment;
+    return true;
+  }
+
+  private void _openNewSegment (@Nonnegative final int nMinRecordSize) throws IOException
+  {
+    final Segment aSegment = new Segment (_getSegmentFile (m_nNextSegmentNumber), m_nNextSegmentNumber);
+    m_nNextSegmentNumber++;
+
+    // Keep space for the end marker
+    final int nSize = Math.max (m_nSegmentSize, SEGMENT_HEADER_SIZE + nMinRecordSize + RECORD_LENGTH_SIZE);
+    try (final FileChannel aFC = FileChannel.open (aSegment.m_aFile.toPath (),
+                                                   StandardOpenOption.CREATE_NEW,
+                                                   StandardOpenOption.READ,
+                                                   StandardOpenOption.WRITE))
+    {
+      // The mapping stays valid after the channel is closed
+      aSegment.m_aBuffer = aFC.map (FileChannel.MapMode.READ_WRITE, 0, nSize);
+    }
+    aSegment.m_aBuffer.putInt (SEGMENT_MAGIC).putInt (SEGMENT_VERSION);
+    m_aActiveSegment = aSegment;
+  }
+
+  private void _closeActiveSegment ()
+  {
+    if (m_aActiveSegment != null)
+    {
+      m_aActiveSegment.m_aBuffer.force ();
+      m_aActiveSegment.m_aBuffer = null;
+      m_aClosedSegments.add (m_aActiveSegment);
+      m_aActiveSegment = null;
+    }
+  }
+
+  private boolean _deleteSegment (@Nonnull final Segment aSegment)
+  {
+    if (FileOperationManager.INSTANCE.deleteFileIfExisting (aSegment.m_aFile).isFailure ())
+    {
+      // E.g. on Windows, if the mapping is still active
+      LOGGER.warn ("Failed to delete segment file " + aSegment.m_aFile.getAbsolutePath ());
+      return false;
+    }
+    return true;
+  }
+
+  @Nullable
+  private static byte [] _getBytes (@Nullable final String s)
+  {
+    return s == null ? null : s.getBytes (StandardCharsets.UTF_8);
+  }
+
+  private static void _putBytes (@Nonnull final ByteBuffer aBB, @Nullable final byte [] aBytes)
+  {
+    if (aBytes == null)
+      aBB.putInt (-1);
+    else
+      aBB.putInt (aBytes.length).put (aBytes);
+  }
+
+  private void _append (@Nonnull final AS4DuplicateItem aItem) throws IOException
+  {
+    final byte [] aMessageID = _getBytes (aItem.getMessageID ());
+    final byte [] aProfileID = _getBytes (aItem.getProfileID ());
+    final byte [] aPModeID = _getBytes (aItem.getPModeID ());
+    final int nLen = Long.BYTES +
+                     Integer.BYTES +
+                     Integer.BYTES +
+                     3 * Integer.BYTES +
+                     aMessageID.length +
+                     (aProfileID == null ? 0 : aProfileID.length) +
+                     (aPModeID == null ? 0 : aPModeID.length);
+    final int nRecordSize = RECORD_LENGTH_SIZE + nLen;
+
+    if (m_aActiveSegment == null || m_aActiveSegment.m_aBuffer.remaining () < nRecordSize + RECORD_LENGTH_SIZE)
+    {
+      _closeActiveSegment ();
+      _openNewSegment (nRecordSize);
+    }
+
+    final OffsetDateTime aDT = aItem.getDateTime ();
+    final Instant aInstant = aDT.toInstant ();
+    final MappedByteBuffer aBB = m_aActiveSegment.m_aBuffer;
+    final int nStart = aBB.position ();
+    aBB.position (nStart + RECORD_LENGTH_SIZE);
+    aBB.putLong (aInstant.getEpochSecond ());
+    aBB.putInt (aInstant.getNano ());
+    aBB.putInt (aDT.getOffset ().getTotalSeconds ());
+    _putBytes (aBB, aMessageID);
+    _putBytes (aBB, aProfileID);
+    _putBytes (aBB, aPModeID);
+    // Terminate the records, in case the segment was reopened
+    aBB.putInt (aBB.position (), 0);
+    // Write the length last, so that a reader never sees an incomplete record
+    aBB.putInt (nStart, nLen);
+
+    m_aActiveSegment.m_nLastMillis = Math.max (m_aActiveSegment.m_nLastMillis, _getMillis (aDT));
+  }
+
+  @Override
+  @Nonnull
+  public EContinue registerAndCheck (@Nullable final String sMessageID, @Nullable final String sProfileID, @Nullable final String sPModeID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+    {
+      // No message ID present - don't check for duplication
+      return EContinue.CONTINUE;
+    }
+
+    // The duplicate check itself is lock-free
+    final AS4DuplicateItem aItem = new AS4DuplicateItem (sMessageID, sProfileID, sPModeID);
+    if (internalRegisterItem (aItem).isBreak ())
+      return EContinue.BREAK;
+
+    m_aLogLock.lock ();
+    try
+    {
+      // It may have been removed by clearCache in the meantime
+      if (internalContainsItem (aItem))
+        _append (aItem);
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      // Still in memory, so the duplicate check works until restart
+      LOGGER.error ("Failed to persist AS4 duplicate item '" + sMessageID + "'", ex);
+    }
+    finally
+    {
+      m_aLogLock.unlock ();
+    }
+    return EContinue.CONTINUE;
+  }
+
+  /**
+   * Register all provided items with their original date and time. This is
+   * meant to migrate the items of another duplicate manager (e.g. the XML based
+   * {@link AS4DuplicateManager}). Items with an already registered message ID
+   * are ignored.
+   *
+   * @param aItems
+   *        The items to be registered. May not be <code>null</code>.
+   * @return The number of newly registered items. Always &ge; 0.
+   */
+  @Nonnegative
+  public int registerAllItems (@Nonnull final Iterable <? extends IAS4DuplicateItem> aItems)
+  {
+    ValueEnforcer.notNull (aItems, "Items");
+
+    int ret = 0;
+    m_aLogLock.lock ();
+    try
+    {
+      for (final IAS4DuplicateItem aSrcItem : aItems)
+      {
+        final AS4DuplicateItem aItem = new AS4DuplicateItem (aSrcItem.getDateTime (),
+                                                             aSrcItem.getMessageID (),
+                                                             aSrcItem.getProfileID (),
+                                                             aSrcItem.getPModeID ());
+        if (internalRegisterItem (aItem).isContinue ())
+        {
+          _append (aItem);
+          ret++;
+        }
+      }
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.error ("Failed to persist migrated AS4 duplicate items", ex);
+    }
+    finally
+    {
+      m_aLogLock.unlock ();
+    }
+    return ret;
+  }
+
+  @Override
+  @Nonnull
+  public EChange clearCache ()
+  {
+    m_aLogLock.lock ();
+    try
+    {
+      final EChange ret = super.clearCache ();
+      if (ret.isChanged ())
+      {
+        // Delete all segments and start from scratch
+        _closeActiveSegment ();
+        m_aClosedSegments.removeIf (this::_deleteSegment);
+        _openNewSegment (0);
+      }
+      return ret;
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.error ("Failed to open new AS4 duplicate segment", ex);
+      return EChange.CHANGED;
+    }
+    finally
+    {
+      m_aLogLock.unlock ();
+    }
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> evictAllItemsBefore (@Nonnull final OffsetDateTime aRefDT)
+  {
+    final ICommonsList <String> ret = super.evictAllItemsBefore (aRefDT);
+
+    final long nRefMillis = _getMillis (aRefDT);
+    m_aLogLock.lock ();
+    try
+    {
+      if (nRefMillis > m_nWatermarkMillis)
+      {
+        m_nWatermarkMillis = nRefMillis;
+        _writeWatermark ();
+      }
+
+      // If the active segment contains only evicted items, roll it
+      if (m_aActiveSegment != null && m_aActiveSegment.hasRecords () && m_aActiveSegment.m_nLastMillis < nRefMillis)
+      {
+        _closeActiveSegment ();
+        _openNewSegment (0);
+      }
+
+      // Delete all segments that only contain evicted items
+      m_aClosedSegments.removeIf (x -> x.m_nLastMillis < nRefMillis && _deleteSegment (x));
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.error ("Failed to compact AS4 duplicate segments", ex);
+    }
+    finally
+    {
+      m_aLogLock.unlock ();
+    }
+    return ret;
+  }
+
+  /**
+   * Flush all pending changes to disk. After closing, the object can still be
+   * used.
+   */
+  public void close ()
+  {
+    m_aLogLock.lock ();
+    try
+    {
+      if (m_aActiveSegment != null)
+        m_aActiveSegment.m_aBuffer.force ();
+    }
+    finally
+    {
+      m_aLogLock.unlock ();
+    }
+  }
+}
@@ -37,6 +37,7 @@ import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.OverrideOnDemand;
 import com.helger.commons.concurrent.ThreadHelper;
 import com.helger.commons.http.CHttp;
 import com.helger.commons.http.HttpHeaderMap;
@@ -159,7 +160,7 @@ public class BasicHttpPoster implements IHttpPoster
     LOGGER.info ("Starting to transmit AS4 Message to '" + sURL + "'");
 
     IOException aCaughtException = null;
-    try (final HttpClientManager aClientMgr = new HttpClientManager (m_aHttpClientFactory))
+    try
     {
       final HttpPost aPost = new HttpPost (sURL);
 
@@ -198,7 +199,7 @@ public class BasicHttpPoster implements IHttpPoster
         return ret.toString ();
       });
 
-      return aClientMgr.execute (aPost, aResponseHandler);
+      return executeHttpPost (aPost, aResponseHandler);
     }
     catch (final IOException ex)
     {
@@ -217,6 +218,35 @@ public class BasicHttpPoster implements IHttpPoster
     }
   }
 
+  /**
+   * Perform the main HTTP POST execution. The default implementation creates a
+   * new {@link HttpClientManager} from the contained {@link HttpClientFactory}
+   * for every call and closes it afterwards. Override this method to e.g.
+   * reuse HTTP connections.
+   *
+   * @param <T>
+   *        Response data type
+   * @param aPost
+   *        The fully prepared HTTP POST request. Never <code>null</code>.
+   * @param aResponseHandler
+   *        The HTTP response handler that should be used to convert the HTTP
+   *        response to a domain object. Never <code>null</code>.
+   * @return The HTTP response. May be <code>null</code>.
+   * @throws IOException
+   *         In case of IO error
+   * @since 2.7.7
+   */
+  @Nullable
+  @OverrideOnDemand
+  protected <T> T executeHttpPost (@Nonnull final HttpPost aPost,
+                                   @Nonnull final HttpClientResponseHandler <? extends T> aResponseHandler) throws IOException
+  {
+    try (final HttpClientManager aClientMgr = new HttpClientManager (m_aHttpClientFactory))
+    {
+      return aClientMgr.execute (aPost, aResponseHandler);
+    }
+  }
+
   @Nonnull
   protected static HttpEntity createDumpingHttpEntity (@Nullable final IAS4OutgoingDumper aOutgoingDumper,
                                                        @Nonnull final HttpEntity aSrcEntity,
@@ -16,31 +16,88 @@
  */
 package com.helger.phase4.http;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.apache.hc.core5.http.io.entity.AbstractHttpEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.string.StringHelper;
 import com.helger.commons.string.ToStringGenerator;
+import com.helger.mail.cte.EContentTransferEncoding;
+import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.messaging.mime.AS4MimeMessage;
 
 import jakarta.mail.MessagingException;
+import jakarta.mail.internet.ContentType;
+import jakarta.mail.internet.MimeBodyPart;
 import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
 
 /**
- * Special HTTP entity that reads and writes to a {@link MimeMessage}.
+ * Special HTTP entity that reads and writes to a {@link MimeMessage}.<br>
+ * If the MIME message was created by
+ * {@link com.helger.phase4.messaging.mime.MimeMessageCreator} and all
+ * attachments are available as files without the need for a transfer
+ * encoding, the exact content length is determined upfront and the
+ * attachments are written directly from the files. Otherwise the content
+ * length is unknown and the MIME message writes itself.
  *
  * @author Philip Helger
  * @author bayerlma
  */
 public class HttpMimeMessageEntity extends AbstractHttpEntity
 {
+  private static final Logger LOGGER = LoggerFactory.getLogger (HttpMimeMessageEntity.class);
+  private static final byte [] CRLF = { '\r', '\n' };
+
+  /**
+   * A single part of the serialized message, either in memory or a file.
+   *
+   * @author Philip Helger
+   */
+  private static final class Segment
+  {
+    private final byte [] m_aBytes;
+    private final File m_aFile;
+    private final long m_nLength;
+
+    Segment (@Nonnull final byte [] aBytes)
+    {
+      m_aBytes = aBytes;
+      m_aFile = null;
+      m_nLength = aBytes.length;
+    }
+
+    Segment (@Nonnull final File aFile)
+    {
+      m_aBytes = null;
+      m_aFile = aFile;
+      m_nLength = aFile.length ();
+    }
+  }
+
   private final AS4MimeMessage m_aMsg;
+  // Lazily initialized
+  private ICommonsList <Segment> m_aBodySegments;
+  private boolean m_bBodySegmentsResolved = false;
 
   protected HttpMimeMessageEntity (@Nonnull @Nonempty final String sContentType, @Nonnull final AS4MimeMessage aMsg)
   {
@@ -70,8 +127,142 @@ public class HttpMimeMessageEntity extends AbstractHttpEntity
     return m_aMsg.isRepeatable ();
   }
 
+  private static boolean _isIdentityEncoding (@Nullable final String sEncoding)
+  {
+    // No encoding means "7bit"
+    return sEncoding == null ||
+           sEncoding.equalsIgnoreCase (EContentTransferEncoding.BINARY.getID ()) ||
+           sEncoding.equalsIgnoreCase ("7bit") ||
+           sEncoding.equalsIgnoreCase ("8bit");
+  }
+
+  @Nullable
+  private static byte [] _getHeaderBytes (@Nonnull final Enumeration <String> aHeaderLines)
+  {
+    final StringBuilder aSB = new StringBuilder ();
+    while (aHeaderLines.hasMoreElements ())
+      aSB.append (aHeaderLines.nextElement ()).append ("\r\n");
+    // The separator between header and content
+    aSB.append ("\r\n");
+
+    // Avoid any ambiguity in header encoding
+    for (int i = 0; i < aSB.length (); ++i)
+      if (aSB.charAt (i) > 0x7f)
+        return null;
+    return aSB.toString ().getBytes (StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Create the segments of the MIME multipart in the same layout as
+   * {@link MimeMultipart#writeTo(OutputStream)} does.
+   *
+   * @return <code>null</code> if the layout cannot be determined upfront.
+   */
+  @Nullable
+  private ICommonsList <Segment> _createBodySegments () throws MessagingException, IOException
+  {
+    final ICommonsList <WSS4JAttachment> aAttachments = m_aMsg.getAllAttachments ();
+    if (aAttachments == null)
+      return null;
+
+    final Object aContent = m_aMsg.getContent ();
+    if (!(aContent instanceof MimeMultipart))
+      return null;
+    final MimeMultipart aMultipart = (MimeMultipart) aContent;
+    if (aMultipart.getCount () != aAttachments.size () + 1 || aMultipart.getPreamble () != null)
+      return null;
+
+    final String sBoundary = new ContentType (aMultipart.getContentType ()).getParameter ("boundary");
+    if (StringHelper.hasNoText (sBoundary))
+      return null;
+    final byte [] aBoundaryLine = ("--" + sBoundary + "\r\n").getBytes (StandardCharsets.US_ASCII);
+
+    final ICommonsList <Segment> ret = new CommonsArrayList <> ();
+    for (int i = 0; i < aMultipart.getCount (); ++i)
+    {
+      final MimeBodyPart aPart = (MimeBodyPart) aMultipart.getBodyPart (i);
+      if (!_isIdentityEncoding (aPart.getEncoding ()))
+        return null;
+
+      final byte [] aHeaderBytes = _getHeaderBytes (aPart.getAllHeaderLines ());
+      if (aHeaderBytes == null)
+        return null;
+
+      ret.add (new Segment (aBoundaryLine));
+      ret.add (new Segment (aHeaderBytes));
+      if (i == 0)
+      {
+        // The SOAP part is in memory anyway
+        try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+        {
+          aPart.getDataHandler ().writeTo (aBAOS);
+          ret.add (new Segment (aBAOS.toByteArray ()));
+        }
+      }
+      else
+      {
+        final WSS4JAttachment aAttachment = aAttachments.get (i - 1);
+        final File aFile = aAttachment.getSourceFile ();
+        if (aFile == null || !aFile.isFile ())
+          return null;
+        ret.add (new Segment (aFile));
+      }
+      ret.add (new Segment (CRLF));
+    }
+    ret.add (new Segment (("--" + sBoundary + "--\r\n").getBytes (StandardCharsets.US_ASCII)));
+    return ret;
+  }
+
+  @Nullable
+  private ICommonsList <Segment> _getBodySegments ()
+  {
+    if (!m_bBodySegmentsResolved)
+    {
+      try
+      {
+        m_aBodySegments = _createBodySegments ();
+      }
+      catch (final MessagingException | IOException ex)
+      {
+        LOGGER.warn ("Failed to determine the layout of the MIME message - using the unknown length", ex);
+        m_aBodySegments = null;
+      }
+      m_bBodySegmentsResolved = true;
+    }
+    return m_aBodySegments;
+  }
+
+  @Nullable
+  private byte [] _getMessageHeaderBytes () throws MessagingException
+  {
+    // Message headers are usually moved to the HTTP headers before sending
+    if (!_isIdentityEncoding (m_aMsg.getEncoding ()))
+      return null;
+    return _getHeaderBytes (m_aMsg.getAllHeaderLines ());
+  }
+
   public long getContentLength ()
   {
+    final ICommonsList <Segment> aBodySegments = _getBodySegments ();
+    if (aBodySegments != null)
+    {
+      try
+      {
+        final byte [] aHeaderBytes = _getMessageHeaderBytes ();
+        if (aHeaderBytes != null)
+        {
+          long ret = aHeaderBytes.length;
+          for (final Segment aSegment : aBodySegments)
+            ret += aSegment.m_nLength;
+          return ret;
+        }
+      }
+      catch (final MessagingException ex)
+      {
+        LOGGER.warn ("Failed to determine the MIME message headers", ex);
+      }
+    }
+
     // length unknown - negative number
     return -1;
   }
@@ -94,13 +285,53 @@ public class HttpMimeMessageEntity extends AbstractHttpEntity
     }
   }
 
+  private static void _writeFile (@Nonnull final Segment aSegment, @Nonnull final OutputStream aOS) throws IOException
+  {
+    try (final FileChannel aFC = FileChannel.open (aSegment.m_aFile.toPath (), StandardOpenOption.READ))
+    {
+      if (aFC.size () != aSegment.m_nLength)
+        throw new IOException ("The size of file '" +
+                               aSegment.m_aFile.getAbsolutePath () +
+                               "' changed from " +
+                               aSegment.m_nLength +
+                               " to " +
+                               aFC.size () +
+                               " bytes");
+
+      // Don't close the channel, as this would close the target stream
+      final WritableByteChannel aTarget = Channels.newChannel (aOS);
+      long nPos = 0;
+      while (nPos < aSegment.m_nLength)
+      {
+        final long nTransferred = aFC.transferTo (nPos, aSegment.m_nLength - nPos, aTarget);
+        if (nTransferred <= 0)
+          throw new IOException ("Failed to transfer file '" + aSegment.m_aFile.getAbsolutePath () + "'");
+        nPos += nTransferred;
+      }
+    }
+  }
+
   @Override
   public void writeTo (@Nonnull final OutputStream aOS) throws IOException
   {
     ValueEnforcer.notNull (aOS, "OutputStream");
     try
     {
-      m_aMsg.writeTo (aOS);
+      final ICommonsList <Segment> aBodySegments = _getBodySegments ();
+      final byte [] aHeaderBytes = aBodySegments == null ? null : _getMessageHeaderBytes ();
+      if (aHeaderBytes != null)
+      {
+        // Write with the precomputed layout
+        aOS.write (aHeaderBytes);
+        for (final Segment aSegment : aBodySegments)
+          if (aSegment.m_aBytes != null)
+            aOS.write (aSegment.m_aBytes);
+          else
+            _writeFile (aSegment, aOS);
+        aOS.flush ();
+      }
+      else
+        m_aMsg.writeTo (aOS);
     }
     catch (final MessagingException ex)
     {
@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.impl.DefaultConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.HttpClientConnectionManager;
+import org.apache.hc.client5.http.ssl.LayeredConnectionSocketFactory;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.apache.hc.core5.util.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.OverrideOnDemand;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.httpclient.HttpClientFactory;
+
+/**
+ * A special {@link BasicHttpPoster} that keeps a single pooled HTTP client
+ * alive over many calls, so that TCP connections and TLS sessions to the same
+ * endpoints are reused instead of being re-established for every AS4 message.
+ * Connections are limited per route and in total, kept alive according to the
+ * server response (capped by {@link #getMaxKeepAliveDuration()}) and evicted
+ * when idle for longer than {@link #getIdleConnectionTimeout()}.<br>
+ * An instance of this class is meant to be shared by multiple senders, e.g. via
+ * <code>AbstractAS4MessageBuilder.customHttpPoster(IHttpPoster)</code> which
+ * is available on all phase4 sender builders. It must be closed when it is no
+ * longer needed, to release the pooled connections.<br>
+ * If the {@link HttpClientFactory} or one of the pool settings is changed, the
+ * existing pool is retired and a new one is created on the next call. A retired
+ * pool is closed as soon as all requests currently using it are finished.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@ThreadSafe
+public class PooledHttpPoster extends BasicHttpPoster implements AutoCloseable
+{
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+  public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 200;
+  public static final Duration DEFAULT_MAX_KEEP_ALIVE_DURATION = Duration.ofMinutes (3);
+  public static final Duration DEFAULT_IDLE_CONNECTION_TIMEOUT = Duration.ofMinutes (1);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (PooledHttpPoster.class);
+
+  /**
+   * A pooled HTTP client together with the factory it was created from and a
+   * reference count. The reference count is the number of running requests
+   * plus one, as long as the client is the current one.
+   */
+  private static final class PooledClient
+  {
+    private final HttpClientFactory m_aFactory;
+    private final CloseableHttpClient m_aClient;
+    private final AtomicInteger m_aRefCount = new AtomicInteger (1);
+
+    PooledClient (@Nonnull final HttpClientFactory aFactory, @Nonnull final CloseableHttpClient aClient)
+    {
+      m_aFactory = aFactory;
+      m_aClient = aClient;
+    }
+
+    void acquire ()
+    {
+      m_aRefCount.incrementAndGet ();
+    }
+
+    void release ()
+    {
+      if (m_aRefCount.decrementAndGet () == 0)
+      {
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Closing pooled HTTP client");
+        StreamHelper.close (m_aClient);
+      }
+    }
+  }
+
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  @GuardedBy ("m_aRWLock")
+  private int m_nMaxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+  @GuardedBy ("m_aRWLock")
+  private int m_nMaxConnectionsTotal = DEFAULT_MAX_CONNECTIONS_TOTAL;
+  @GuardedBy ("m_aRWLock")
+  private Duration m_aMaxKeepAliveDuration = DEFAULT_MAX_KEEP_ALIVE_DURATION;
+  @GuardedBy ("m_aRWLock")
+  private Duration m_aIdleConnectionTimeout = DEFAULT_IDLE_CONNECTION_TIMEOUT;
+  @GuardedBy ("m_aRWLock")
+  private PooledClient m_aPooledClient;
+
+  public PooledHttpPoster ()
+  {}
+
+  /**
+   * @return The maximum number of concurrent connections per route (=
+   *         endpoint). Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxConnectionsPerRoute ()
+  {
+    return m_aRWLock.readLockedInt ( () -> m_nMaxConnectionsPerRoute);
+  }
+
+  /**
+   * Set the maximum number of concurrent connections per route (= endpoint).
+   *
+   * @param nMaxConnectionsPerRoute
+   *        The maximum number of connections per route. Must be &gt; 0.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final PooledHttpPoster setMaxConnectionsPerRoute (@Nonnegative final int nMaxConnectionsPerRoute)
+  {
+    ValueEnforcer.isGT0 (nMaxConnectionsPerRoute, "MaxConnectionsPerRoute");
+    m_aRWLock.writeLocked ( () -> {
+      if (nMaxConnectionsPerRoute != m_nMaxConnectionsPerRoute)
+      {
+        m_nMaxConnectionsPerRoute = nMaxConnectionsPerRoute;
+        _closePooledHttpClient ();
+      }
+    });
+    return this;
+  }
+
+  /**
+   * @return The maximum number of concurrent connections over all routes.
+   *         Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxConnectionsTotal ()
+  {
+    return m_aRWLock.readLockedInt ( () -> m_nMaxConnectionsTotal);
+  }
+
+  /**
+   * Set the maximum number of concurrent connections over all routes.
+   *
+   * @param nMaxConnectionsTotal
+   *        The maximum number of connections in total. Must be &gt; 0.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final PooledHttpPoster setMaxConnectionsTotal (@Nonnegative final int nMaxConnectionsTotal)
+  {
+    ValueEnforcer.isGT0 (nMaxConnectionsTotal, "MaxConnectionsTotal");
+    m_aRWLock.writeLocked ( () -> {
+      if (nMaxConnectionsTotal != m_nMaxConnectionsTotal)
+      {
+        m_nMaxConnectionsTotal = nMaxConnectionsTotal;
+        _closePooledHttpClient ();
+      }
+    });
+    return this;
+  }
+
+  /**
+   * @return The maximum duration a connection is kept alive for reuse, even if
+   *         the server indicates a longer keep-alive duration. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getMaxKeepAliveDuration ()
+  {
+    return m_aRWLock.readLockedGet ( () -> m_aMaxKeepAliveDuration);
+  }
+
+  /**
+   * Set the maximum duration a connection is kept alive for reuse.
+   *
+   * @param aMaxKeepAliveDuration
+   *        The maximum keep-alive duration. May not be <code>null</code> and
+   *        must not be negative.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final PooledHttpPoster setMaxKeepAliveDuration (@Nonnull final Duration aMaxKeepAliveDuration)
+  {
+    ValueEnforcer.notNull (aMaxKeepAliveDuration, "MaxKeepAliveDuration");
+    ValueEnforcer.isFalse (aMaxKeepAliveDuration.isNegative (), "MaxKeepAliveDuration may not be negative");
+    m_aRWLock.writeLocked ( () -> {
+      if (!aMaxKeepAliveDuration.equals (m_aMaxKeepAliveDuration))
+      {
+        m_aMaxKeepAliveDuration = aMaxKeepAliveDuration;
+        _closePooledHttpClient ();
+      }
+    });
+    return this;
+  }
+
+  /**
+   * @return The duration after which idle connections are evicted from the
+   *         pool. Never <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getIdleConnectionTimeout ()
+  {
+    return m_aRWLock.readLockedGet ( () -> m_aIdleConnectionTimeout);
+  }
+
+  /**
+   * Set the duration after which idle connections are evicted from the pool.
+   *
+   * @param aIdleConnectionTimeout
+   *        The idle timeout. May not be <code>null</code> and must be
+   *        positive.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final PooledHttpPoster setIdleConnectionTimeout (@Nonnull final Duration aIdleConnectionTimeout)
+  {
+    ValueEnforcer.notNull (aIdleConnectionTimeout, "IdleConnectionTimeout");
+    ValueEnforcer.isFalse (aIdleConnectionTimeout.isNegative () || aIdleConnectionTimeout.isZero (),
+                           "IdleConnectionTimeout must be positive");
+    m_aRWLock.writeLocked ( () -> {
+      if (!aIdleConnectionTimeout.equals (m_aIdleConnectionTimeout))
+      {
+        m_aIdleConnectionTimeout = aIdleConnectionTimeout;
+        _closePooledHttpClient ();
+      }
+    });
+    return this;
+  }
+
+  /**
+   * Create the pooled HTTP client based on the provided factory and the
+   * settings of this object. This method is called at most once per factory
+   * and settings combination.
+   *
+   * @param aHCF
+   *        The HTTP client factory to be used. Never <code>null</code>.
+   * @return The new HTTP client. May not be <code>null</code>.
+   */
+  @Nonnull
+  @OverrideOnDemand
+  protected CloseableHttpClient createPooledHttpClient (@Nonnull final HttpClientFactory aHCF)
+  {
+    final LayeredConnectionSocketFactory aSSLFactory = aHCF.createSSLFactory ();
+    if (aSSLFactory == null)
+      throw new IllegalStateException ("Failed to create SSL SocketFactory");
+
+    // Use the connection manager of the factory, but with the custom limits
+    final HttpClientConnectionManager aConnMgr = aHCF.createConnectionManager (aSSLFactory);
+    if (aConnMgr instanceof PoolingHttpClientConnectionManager)
+    {
+      final PoolingHttpClientConnectionManager aPoolingConnMgr = (PoolingHttpClientConnectionManager) aConnMgr;
+      aPoolingConnMgr.setDefaultMaxPerRoute (m_nMaxConnectionsPerRoute);
+      aPoolingConnMgr.setMaxTotal (m_nMaxConnectionsTotal);
+    }
+    else
+      LOGGER.warn ("The HttpClientFactory created a non-pooling connection manager (" +
+                   aConnMgr.getClass ().getName () +
+                   ") - the connection limits are not applied");
+
+    final TimeValue aMaxKeepAlive = TimeValue.ofMilliseconds (m_aMaxKeepAliveDuration.toMillis ());
+    final TimeValue aIdleTimeout = TimeValue.ofMilliseconds (m_aIdleConnectionTimeout.toMillis ());
+
+    return aHCF.createHttpClientBuilder ()
+               .setConnectionManager (aConnMgr)
+               .setKeepAliveStrategy ( (aResponse,
+                                        aContext) -> DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration (aResponse,
+                                                                                                                       aContext)
+                                                                                                .min (aMaxKeepAlive))
+               .evictExpiredConnections ()
+               .evictIdleConnections (aIdleTimeout)
+               .build ();
+  }
+
+  /**
+   * Retire the current pooled HTTP client. It is closed as soon as no request
+   * uses it anymore.
+   */
+  @GuardedBy ("m_aRWLock")
+  private void _closePooledHttpClient ()
+  {
+    if (m_aPooledClient != null)
+    {
+      m_aPooledClient.release ();
+      m_aPooledClient = null;
+    }
+  }
+
+  /**
+   * Get the pooled HTTP client for the current factory and acquire it. The
+   * caller must call {@link PooledClient#release()} afterwards.
+   *
+   * @return The acquired client. Never <code>null</code>.
+   */
+  @Nonnull
+  private PooledClient _acquirePooledHttpClient ()
+  {
+    final HttpClientFactory aHCF = getHttpClientFactory ();
+
+    // Fast path - already created for the current factory
+    // Retiring requires the write lock, so the reference count is always > 0
+    PooledClient ret = m_aRWLock.readLockedGet ( () -> {
+      final PooledClient aPooledClient = m_aPooledClient;
+      if (aPooledClient != null && EqualsHelper.identityEqual (aHCF, aPooledClient.m_aFactory))
+      {
+        aPooledClient.acquire ();
+        return aPooledClient;
+      }
+      return null;
+    });
+    if (ret == null)
+    {
+      ret = m_aRWLock.writeLockedGet ( () -> {
+        // Try again in write lock
+        if (m_aPooledClient == null || !EqualsHelper.identityEqual (aHCF, m_aPooledClient.m_aFactory))
+        {
+          // Factory changed or nothing created yet
+          _closePooledHttpClient ();
+
+          LOGGER.info ("Creating new pooled HTTP client with max " +
+                       m_nMaxConnectionsPerRoute +
+                       " connections per route and max " +
+                       m_nMaxConnectionsTotal +
+                       " connections in total");
+          m_aPooledClient = new PooledClient (aHCF, createPooledHttpClient (aHCF));
+        }
+        m_aPooledClient.acquire ();
+        return m_aPooledClient;
+      });
+    }
+    return ret;
+  }
+
+  @Override
+  @Nullable
+  protected <T> T executeHttpPost (@Nonnull final HttpPost aPost,
+                                   @Nonnull final HttpClientResponseHandler <? extends T> aResponseHandler) throws IOException
+  {
+    final PooledClient aPooledClient = _acquirePooledHttpClient ();
+    try
+    {
+      return aPooledClient.m_aClient.execute (aPost, aResponseHandler);
+    }
+    finally
+    {
+      // Closes the client only if it was retired in the meantime
+      aPooledClient.release ();
+    }
+  }
+
+  /**
+   * Close the pooled HTTP client and all open connections. Requests that are
+   * currently running are finished first. Afterwards this object may still be
+   * used, and a new pool is created upon the next call.
+   */
+  public void close ()
+  {
+    m_aRWLock.writeLocked (this::_closePooledHttpClient);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return m_aRWLock.readLockedGet ( () -> ToStringGenerator.getDerived (super.toString ())
+                                                            .append ("MaxConnectionsPerRoute", m_nMaxConnectionsPerRoute)
+                                                            .append ("MaxConnectionsTotal", m_nMaxConnectionsTotal)
+                                                            .append ("MaxKeepAliveDuration", m_aMaxKeepAliveDuration)
+                                                            .append ("IdleConnectionTimeout", m_aIdleConnectionTimeout)
+                                                            .getToString ());
+  }
+}
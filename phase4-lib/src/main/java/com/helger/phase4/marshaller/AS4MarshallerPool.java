@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.marshaller;
+
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.validation.Schema;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.CollectionHelper;
+import com.helger.commons.functional.IFunction;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.state.ESuccess;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.jaxb.JAXBContextCache;
+import com.helger.jaxb.JAXBMarshallerHelper;
+import com.helger.jaxb.validation.LoggingValidationEventHandler;
+import com.helger.xml.XMLFactory;
+import com.helger.xml.schema.XMLSchemaCache;
+
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import jakarta.xml.bind.Unmarshaller;
+import jakarta.xml.bind.ValidationEvent;
+import jakarta.xml.bind.ValidationEventHandler;
+
+/**
+ * A thread-safe pool of fully configured JAXB {@link Marshaller} and
+ * {@link Unmarshaller} instances of a single type. The JAXB context and the XML
+ * Schema are cached process wide by ph-jaxb, but the JAXB (un)marshallers are
+ * otherwise created and configured for every message. Each pooled instance is
+ * only used by one thread at a time, so that a validation event handler can be
+ * provided per call. If no handler is provided, events are logged and
+ * processing only stops on fatal errors, like with the default handler of
+ * {@link com.helger.jaxb.GenericJAXBMarshaller}.<br>
+ * See {@link AS4MarshallerPools} for the predefined pools.
+ *
+ * @author Philip Helger
+ * @param <JAXBTYPE>
+ *        The JAXB type to be handled
+ * @since 2.7.7
+ */
+@ThreadSafe
+public class AS4MarshallerPool <JAXBTYPE>
+{
+  /** The default maximum number of idle instances kept in the pool */
+  public static final int DEFAULT_MAX_IDLE = 64;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4MarshallerPool.class);
+
+  /**
+   * A single pooled pair of marshaller and unmarshaller, that are created on
+   * demand. The validation event handler of both is this object, which
+   * forwards to the handler provided per call.
+   *
+   * @author Philip Helger
+   */
+  private static final class PooledEntry implements ValidationEventHandler
+  {
+    private final AS4MarshallerPool <?> m_aPool;
+    private Marshaller m_aMarshaller;
+    private Unmarshaller m_aUnmarshaller;
+    private ValidationEventHandler m_aHandler;
+
+    PooledEntry (@Nonnull final AS4MarshallerPool <?> aPool)
+    {
+      m_aPool = aPool;
+    }
+
+    @Nonnull
+    Marshaller getMarshaller () throws JAXBException
+    {
+      if (m_aMarshaller == null)
+        m_aMarshaller = m_aPool._createMarshaller (this);
+      return m_aMarshaller;
+    }
+
+    @Nonnull
+    Unmarshaller getUnmarshaller () throws JAXBException
+    {
+      if (m_aUnmarshaller == null)
+        m_aUnmarshaller = m_aPool._createUnmarshaller (this);
+      return m_aUnmarshaller;
+    }
+
+    public boolean handleEvent (@Nonnull final ValidationEvent aEvent)
+    {
+      final ValidationEventHandler aHandler = m_aHandler;
+      return (aHandler != null ? aHandler : m_aPool.m_aDefaultHandler).handleEvent (aEvent);
+    }
+  }
+
+  /**
+   * Internal callback interface.
+   *
+   * @param <R>
+   *        return type
+   */
+  @FunctionalInterface
+  private interface IPooledAction <R>
+  {
+    R apply (@Nonnull PooledEntry aEntry) throws JAXBException;
+  }
+
+  private final Class <JAXBTYPE> m_aType;
+  private final IFunction <? super JAXBTYPE, ? extends JAXBElement <JAXBTYPE>> m_aWrapper;
+  private final NamespaceContext m_aNSContext;
+  private final Schema m_aSchema;
+  private final ValidationEventHandler m_aDefaultHandler = new LoggingValidationEventHandler ();
+  private final int m_nMaxIdle;
+  private final Queue <PooledEntry> m_aIdle = new ConcurrentLinkedQueue <> ();
+  private final AtomicInteger m_aIdleCount = new AtomicInteger (0);
+  private final AtomicLong m_aCreated = new AtomicLong (0);
+  private final AtomicLong m_aReused = new AtomicLong (0);
+
+  /**
+   * Constructor using {@link #DEFAULT_MAX_IDLE} idle instances.
+   *
+   * @param aType
+   *        The JAXB type to handle. May not be <code>null</code>.
+   * @param aXSDs
+   *        The XSDs to validate against. May be <code>null</code> or empty to
+   *        not validate.
+   * @param aWrapper
+   *        The function to wrap an object into a {@link JAXBElement} for
+   *        writing. May not be <code>null</code>.
+   * @param aNSContext
+   *        The namespace context to use for writing. May be <code>null</code>.
+   */
+  public AS4MarshallerPool (@Nonnull final Class <JAXBTYPE> aType,
+                            @Nullable final List <? extends ClassPathResource> aXSDs,
+                            @Nonnull final IFunction <? super JAXBTYPE, ? extends JAXBElement <JAXBTYPE>> aWrapper,
+                            @Nullable final NamespaceContext aNSContext)
+  {
+    this (aType, aXSDs, aWrapper, aNSContext, DEFAULT_MAX_IDLE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aType
+   *        The JAXB type to handle. May not be <code>null</code>.
+   * @param aXSDs
+   *        The XSDs to validate against. May be <code>null</code> or empty to
+   *        not validate.
+   * @param aWrapper
+   *        The function to wrap an object into a {@link JAXBElement} for
+   *        writing. May not be <code>null</code>.
+   * @param aNSContext
+   *        The namespace context to use for writing. May be <code>null</code>.
+   * @param nMaxIdle
+   *        The maximum number of idle instances to keep. Must be &gt; 0.
+   */
+  public AS4MarshallerPool (@Nonnull final Class <JAXBTYPE> aType,
+                            @Nullable final List <? extends ClassPathResource> aXSDs,
+                            @Nonnull final IFunction <? super JAXBTYPE, ? extends JAXBElement <JAXBTYPE>> aWrapper,
+                            @Nullable final NamespaceContext aNSContext,
+                            @Nonnegative final int nMaxIdle)
+  {
+    ValueEnforcer.notNull (aType, "Type");
+    ValueEnforcer.notNull (aWrapper, "Wrapper");
+    ValueEnforcer.isGT0 (nMaxIdle, "MaxIdle");
+    m_aType = aType;
+    m_aWrapper = aWrapper;
+    m_aNSContext = aNSContext;
+    m_aSchema = CollectionHelper.isEmpty (aXSDs) ? null : XMLSchemaCache.getInstance ().getSchema (aXSDs);
+    m_nMaxIdle = nMaxIdle;
+  }
+
+  @Nonnull
+  private JAXBContext _getJAXBContext ()
+  {
+    return JAXBContextCache.getInstance ().getFromCache (m_aType);
+  }
+
+  @Nonnull
+  private Marshaller _createMarshaller (@Nonnull final ValidationEventHandler aHandler) throws JAXBException
+  {
+    final Marshaller ret = _getJAXBContext ().createMarshaller ();
+    if (m_aNSContext != null)
+      JAXBMarshallerHelper.setJakartaNamespacePrefixMapper (ret, m_aNSContext);
+    if (m_aSchema != null)
+      ret.setSchema (m_aSchema);
+    ret.setEventHandler (aHandler);
+    return ret;
+  }
+
+  @Nonnull
+  private Unmarshaller _createUnmarshaller (@Nonnull final ValidationEventHandler aHandler) throws JAXBException
+  {
+    final Unmarshaller ret = _getJAXBContext ().createUnmarshaller ();
+    if (m_aSchema != null)
+      ret.setSchema (m_aSchema);
+    ret.setEventHandler (aHandler);
+    return ret;
+  }
+
+  /**
+   * @return The maximum number of idle instances. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxIdle ()
+  {
+    return m_nMaxIdle;
+  }
+
+  /**
+   * @return The number of instances created so far.
+   */
+  @Nonnegative
+  public final long getCreatedCount ()
+  {
+    return m_aCreated.get ();
+  }
+
+  /**
+   * @return The number of times an idle instance was reused.
+   */
+  @Nonnegative
+  public final long getReusedCount ()
+  {
+    return m_aReused.get ();
+  }
+
+  /**
+   * @return The number of instances currently idle in the pool.
+   */
+  @Nonnegative
+  public final int getIdleCount ()
+  {
+    return m_aIdleCount.get ();
+  }
+
+  @Nonnull
+  private PooledEntry _borrow ()
+  {
+    final PooledEntry ret = m_aIdle.poll ();
+    if (ret != null)
+    {
+      m_aIdleCount.decrementAndGet ();
+      m_aReused.incrementAndGet ();
+      return ret;
+    }
+    m_aCreated.incrementAndGet ();
+    return new PooledEntry (this);
+  }
+
+  private void _return (@Nonnull final PooledEntry aEntry)
+  {
+    // Don't keep a reference to the caller's handler
+    aEntry.m_aHandler = null;
+    if (m_aIdleCount.incrementAndGet () <= m_nMaxIdle)
+      m_aIdle.offer (aEntry);
+    else
+      m_aIdleCount.decrementAndGet ();
+  }
+
+  @Nullable
+  private <R> R _run (@Nullable final ValidationEventHandler aHandler,
+                      @Nonnull final IPooledAction <? extends R> aAction,
+                      @Nullable final R aErrorValue)
+  {
+    final PooledEntry aEntry = _borrow ();
+    boolean bReturn = false;
+    try
+    {
+      aEntry.m_aHandler = aHandler;
+      final R ret = aAction.apply (aEntry);
+      bReturn = true;
+      return ret;
+    }
+    catch (final JAXBException ex)
+    {
+      LOGGER.error ("JAXB processing of " + m_aType.getName () + " failed", ex);
+      bReturn = true;
+      return aErrorValue;
+    }
+    finally
+    {
+      // Don't reuse instances after unexpected runtime exceptions
+      if (bReturn)
+        _return (aEntry);
+    }
+  }
+
+  /**
+   * Read the provided node with a pooled unmarshaller.
+   *
+   * @param aNode
+   *        The node to read. May not be <code>null</code>.
+   * @return The read object or <code>null</code> in case of error.
+   */
+  @Nullable
+  public JAXBTYPE read (@Nonnull final Node aNode)
+  {
+    return read (aNode, null);
+  }
+
+  /**
+   * Read the provided node with a pooled unmarshaller.
+   *
+   * @param aNode
+   *        The node to read. May not be <code>null</code>.
+   * @param aHandler
+   *        The validation event handler to be used for this call only. May be
+   *        <code>null</code> to log the events.
+   * @return The read object or <code>null</code> in case of error.
+   */
+  @Nullable
+  public JAXBTYPE read (@Nonnull final Node aNode, @Nullable final ValidationEventHandler aHandler)
+  {
+    ValueEnforcer.notNull (aNode, "Node");
+    return _run (aHandler, x -> x.getUnmarshaller ().unmarshal (aNode, m_aType).getValue (), null);
+  }
+
+  /**
+   * Write the provided object to a new DOM document with a pooled marshaller.
+   *
+   * @param aObj
+   *        The object to write. May not be <code>null</code>.
+   * @return The created document or <code>null</code> in case of error.
+   */
+  @Nullable
+  public Document getAsDocument (@Nonnull final JAXBTYPE aObj)
+  {
+    ValueEnforcer.notNull (aObj, "Object");
+    final Document aDoc = XMLFactory.newDocument ();
+    return write (aObj, aDoc).isSuccess () ? aDoc : null;
+  }
+
+  /**
+   * Write the provided object to a DOM element with a pooled marshaller.
+   *
+   * @param aObj
+   *        The object to write. May not be <code>null</code>.
+   * @return The created element or <code>null</code> in case of error.
+   */
+  @Nullable
+  public Element getAsElement (@Nonnull final JAXBTYPE aObj)
+  {
+    final Document aDoc = getAsDocument (aObj);
+    return aDoc == null ? null : aDoc.getDocumentElement ();
+  }
+
+  /**
+   * Write the provided object to a string with a pooled marshaller.
+   *
+   * @param aObj
+   *        The object to write. May not be <code>null</code>.
+   * @return The created string or <code>null</code> in case of error.
+   */
+  @Nullable
+  public String getAsString (@Nonnull final JAXBTYPE aObj)
+  {
+    ValueEnforcer.notNull (aObj, "Object");
+    return _run (null, x -> {
+      final StringWriter aSW = new StringWriter ();
+      x.getMarshaller ().marshal (m_aWrapper.apply (aObj), aSW);
+      return aSW.toString ();
+    }, null);
+  }
+
+  /**
+   * Write the provided object as a child of the provided DOM node with a pooled
+   * marshaller.
+   *
+   * @param aObj
+   *        The object to write. May not be <code>null</code>.
+   * @param aParentNode
+   *        The DOM node to append the created element to. May not be
+   *        <code>null</code>.
+   * @return {@link ESuccess}. Never <code>null</code>.
+   */
+  @Nonnull
+  public ESuccess write (@Nonnull final JAXBTYPE aObj, @Nonnull final Node aParentNode)
+  {
+    ValueEnforcer.notNull (aObj, "Object");
+    ValueEnforcer.notNull (aParentNode, "ParentNode");
+    return _run (null, x -> {
+      x.getMarshaller ().marshal (m_aWrapper.apply (aObj), new DOMResult (aParentNode));
+      return ESuccess.SUCCESS;
+    }, ESuccess.FAILURE);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Type", m_aType)
+                                       .append ("MaxIdle", m_nMaxIdle)
+                                       .append ("Created", m_aCreated.get ())
+                                       .append ("Reused", m_aReused.get ())
+                                       .append ("Idle", m_aIdleCount.get ())
+                                       .getToString ();
+  }
+}
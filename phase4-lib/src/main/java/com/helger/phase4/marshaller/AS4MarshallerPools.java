@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.marshaller;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.phase4.ebms3header.Ebms3Messaging;
+import com.helger.phase4.ebms3header.NonRepudiationInformation;
+import com.helger.phase4.ebms3header.ObjectFactory;
+import com.helger.xsds.xmldsig.ReferenceType;
+
+import jakarta.xml.bind.JAXBElement;
+
+/**
+ * Contains the global {@link AS4MarshallerPool} instances for the marshallers
+ * used while processing each message.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@Immutable
+public final class AS4MarshallerPools
+{
+  /** Pool with the settings of {@link Ebms3MessagingMarshaller} */
+  public static final AS4MarshallerPool <Ebms3Messaging> EBMS3_MESSAGING = new AS4MarshallerPool <> (Ebms3Messaging.class,
+                                                                                                      Ebms3MessagingMarshaller.XSDS,
+                                                                                                      new ObjectFactory ()::createMessaging,
+                                                                                                      Ebms3NamespaceHandler.getInstance ());
+  /** Pool with the settings of {@link NonRepudiationInformationMarshaller} */
+  public static final AS4MarshallerPool <NonRepudiationInformation> NON_REPUDIATION_INFORMATION = new AS4MarshallerPool <> (NonRepudiationInformation.class,
+                                                                                                                            NonRepudiationInformationMarshaller.XSDS,
+                                                                                                                            x -> new JAXBElement <> (NonRepudiationInformationMarshaller.ROOT_ELEMENT_QNAME,
+                                                                                                                                                     NonRepudiationInformation.class,
+                                                                                                                                                     null,
+                                                                                                                                                     x),
+                                                                                                                            Ebms3NamespaceHandler.getInstance ());
+  /** Pool with the settings of {@link DSigReferenceMarshaller} */
+  public static final AS4MarshallerPool <ReferenceType> DSIG_REFERENCE = new AS4MarshallerPool <> (ReferenceType.class,
+                                                                                                    DSigReferenceMarshaller.XSDS,
+                                                                                                    x -> new JAXBElement <> (DSigReferenceMarshaller.ROOT_ELEMENT_QNAME,
+                                                                                                                             ReferenceType.class,
+                                                                                                                             null,
+                                                                                                                             x),
+                                                                                                    null);
+
+  private AS4MarshallerPools ()
+  {}
+}
@@ -35,12 +35,17 @@ import com.helger.xsds.xmldsig.ReferenceType;
 public class DSigReferenceMarshaller extends GenericJAXBMarshaller <ReferenceType>
 {
   public static final List <ClassPathResource> XSDS = new CommonsArrayList <> (CXMLDSig.getXSDResource ()).getAsUnmodifiable ();
+  /**
+   * The name of the root element to use.
+   *
+   * @since 2.7.7
+   */
+  public static final QName ROOT_ELEMENT_QNAME = new QName (CXMLDSig.NAMESPACE_URI,
+                                                            "ReferenceType",
+                                                            CXMLDSig.DEFAULT_PREFIX);
 
   public DSigReferenceMarshaller ()
   {
-    super (ReferenceType.class,
-           XSDS,
-           createSimpleJAXBElement (new QName (CXMLDSig.NAMESPACE_URI, "ReferenceType", CXMLDSig.DEFAULT_PREFIX),
-                                    ReferenceType.class));
+    super (ReferenceType.class, XSDS, createSimpleJAXBElement (ROOT_ELEMENT_QNAME, ReferenceType.class));
   }
 }
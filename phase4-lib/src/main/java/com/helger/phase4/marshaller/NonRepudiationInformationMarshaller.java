@@ -41,16 +41,20 @@ public class NonRepudiationInformationMarshaller extends GenericJAXBMarshaller <
                                                                                CXLink.getXSDResource (),
                                                                                CXMLDSig.getXSDResource (),
                                                                                CAS4.XSD_EBBP_SIGNALS).getAsUnmodifiable ();
+  /**
+   * The name of the root element to use. Information is taken from the
+   * <code>@XmlRootElement</code> of {@link NonRepudiationInformation}.
+   *
+   * @since 2.7.7
+   */
+  public static final QName ROOT_ELEMENT_QNAME = new QName ("http://docs.oasis-open.org/ebxml-bp/ebbp-signals-2.0",
+                                                            "NonRepudiationInformation");
 
   public NonRepudiationInformationMarshaller ()
   {
-    // Information is taken from the @XmlRootElement of
-    // NonRepudiationInformation
     super (NonRepudiationInformation.class,
            XSDS,
-           createSimpleJAXBElement (new QName ("http://docs.oasis-open.org/ebxml-bp/ebbp-signals-2.0",
-                                               "NonRepudiationInformation"),
-                                    NonRepudiationInformation.class));
+           createSimpleJAXBElement (ROOT_ELEMENT_QNAME, NonRepudiationInformation.class));
     setNamespaceContext (Ebms3NamespaceHandler.getInstance ());
   }
 }
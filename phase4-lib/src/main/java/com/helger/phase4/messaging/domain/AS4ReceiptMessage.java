@@ -16,11 +16,15 @@
  */
 package com.helger.phase4.messaging.domain;
 
+import java.util.function.Supplier;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.xml.XMLConstants;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
@@ -36,10 +40,10 @@ import com.helger.phase4.ebms3header.Ebms3SignalMessage;
 import com.helger.phase4.ebms3header.Ebms3UserMessage;
 import com.helger.phase4.ebms3header.MessagePartNRInformation;
 import com.helger.phase4.ebms3header.NonRepudiationInformation;
-import com.helger.phase4.marshaller.DSigReferenceMarshaller;
-import com.helger.phase4.marshaller.NonRepudiationInformationMarshaller;
+import com.helger.phase4.marshaller.AS4MarshallerPools;
 import com.helger.phase4.soap.ESoapVersion;
 import com.helger.xml.ChildElementIterator;
+import com.helger.xml.XMLFactory;
 import com.helger.xml.XMLHelper;
 import com.helger.xml.serialize.write.XMLWriter;
 import com.helger.xsds.xmldsig.ReferenceType;
@@ -91,7 +95,6 @@ public class AS4ReceiptMessage extends AbstractAS4Message <AS4ReceiptMessage>
   @ReturnsMutableCopy
   public static ICommonsList <Node> getAllDSigReferenceNodes (@Nullable final Node aSoapDocument)
   {
-    final ICommonsList <Node> aDSRefs = new CommonsArrayList <> ();
     Node aNext = XMLHelper.getFirstChildElementOfName (aSoapDocument, "Envelope");
     if (aNext != null)
     {
@@ -100,22 +103,38 @@ public class AS4ReceiptMessage extends AbstractAS4Message <AS4ReceiptMessage>
       {
         aNext = XMLHelper.getFirstChildElementOfName (aNext, CAS4.WSSE_NS, "Security");
         if (aNext != null)
-        {
-          aNext = XMLHelper.getFirstChildElementOfName (aNext, CAS4.DS_NS, "Signature");
-          if (aNext != null)
-          {
-            aNext = XMLHelper.getFirstChildElementOfName (aNext, CAS4.DS_NS, "SignedInfo");
-            if (aNext != null)
-            {
-              new ChildElementIterator (aNext).findAll (XMLHelper.filterElementWithNamespaceAndLocalName (CAS4.DS_NS,
-                                                                                                          "Reference"),
-                                                        aDSRefs::add);
-            }
-          }
-        }
+          return new CommonsArrayList <> (getAllDSigReferenceElements ((Element) aNext));
       }
     }
-    return aDSRefs;
+    return new CommonsArrayList <> ();
+  }
+
+  /**
+   * Extract all "ds:Reference" elements from the passed WS-Security header.
+   * This method searches in "{securityHeader}/Signature/SignedInfo".
+   *
+   * @param aSecurityHeader
+   *        The "wsse:Security" element to search in. May be <code>null</code>.
+   * @return A non-<code>null</code> but maybe empty list of Reference elements.
+   * @since 2.7.7
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsList <Element> getAllDSigReferenceElements (@Nullable final Element aSecurityHeader)
+  {
+    final ICommonsList <Element> ret = new CommonsArrayList <> ();
+    Element aNext = XMLHelper.getFirstChildElementOfName (aSecurityHeader, CAS4.DS_NS, "Signature");
+    if (aNext != null)
+    {
+      aNext = XMLHelper.getFirstChildElementOfName (aNext, CAS4.DS_NS, "SignedInfo");
+      if (aNext != null)
+      {
+        new ChildElementIterator (aNext).findAll (XMLHelper.filterElementWithNamespaceAndLocalName (CAS4.DS_NS,
+                                                                                                    "Reference"),
+                                                  ret::add);
+      }
+    }
+    return ret;
   }
 
   /**
@@ -134,7 +153,7 @@ public class AS4ReceiptMessage extends AbstractAS4Message <AS4ReceiptMessage>
     for (final Node aRefNode : getAllDSigReferenceNodes (aSoapDocument))
     {
       // Read XMLDsig Reference
-      final ReferenceType aRefObj = new DSigReferenceMarshaller ().read (aRefNode);
+      final ReferenceType aRefObj = AS4MarshallerPools.DSIG_REFERENCE.read (aRefNode);
       if (aRefObj == null)
       {
         LOGGER.error ("Failed to read the content of the 'Reference' node as an XMLDsig Reference object: " +
@@ -153,32 +172,45 @@ public class AS4ReceiptMessage extends AbstractAS4Message <AS4ReceiptMessage>
   }
 
   /**
-   * This method creates a receipt message.
+   * Create the "ebbp:NonRepudiationInformation" element directly from the
+   * passed "ds:Reference" elements. Compared to the creation via
+   * {@link NonRepudiationInformation} this avoids reading and writing each
+   * reference with JAXB.
    *
-   * @param eSoapVersion
-   *        SOAP Version which should be used
-   * @param sMessageID
-   *        Message ID to use. May neither be <code>null</code> nor empty.
-   * @param aEbms3UserMessageToRespond
-   *        The received usermessage which should be responded too. May be
+   * @param aDSigReferences
+   *        The "ds:Reference" elements to be contained. May not be
    *        <code>null</code>.
-   * @param aSoapDocument
-   *        If the SOAPDocument has WSS4j elements and the following parameter
-   *        is true NonRepudiation will be used if the message is signed
-   * @param bShouldUseNonRepudiation
-   *        If NonRepudiation should be used or not
-   * @return AS4ReceiptMessage
+   * @return The created element, that is the document element of a new
+   *         document. Never <code>null</code>.
+   * @since 2.7.7
    */
   @Nonnull
-  public static AS4ReceiptMessage create (@Nonnull final ESoapVersion eSoapVersion,
-                                          @Nonnull @Nonempty final String sMessageID,
-                                          @Nullable final Ebms3UserMessage aEbms3UserMessageToRespond,
-                                          @Nullable final Node aSoapDocument,
-                                          final boolean bShouldUseNonRepudiation)
+  public static Element createNonRepudiationInformationElement (@Nonnull final Iterable <? extends Element> aDSigReferences)
   {
-    // Only for signed messages
-    final ICommonsList <ReferenceType> aDSRefs = getAllDSigReferences (aSoapDocument);
+    ValueEnforcer.notNull (aDSigReferences, "DSigReferences");
+
+    final Document aDoc = XMLFactory.newDocument ();
+    final Element ret = (Element) aDoc.appendChild (aDoc.createElementNS (CAS4.EBBP_NS,
+                                                                          "ebbp:NonRepudiationInformation"));
+    ret.setAttributeNS (XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns:ebbp", CAS4.EBBP_NS);
+    for (final Element aRef : aDSigReferences)
+    {
+      final Element aPartInfo = (Element) ret.appendChild (aDoc.createElementNS (CAS4.EBBP_NS,
+                                                                                 "ebbp:MessagePartNRInformation"));
+      // Copy the reference as is
+      aPartInfo.appendChild (aDoc.importNode (aRef, true));
+    }
+    return ret;
+  }
 
+  @Nonnull
+  private static AS4ReceiptMessage _create (@Nonnull final ESoapVersion eSoapVersion,
+                                            @Nonnull @Nonempty final String sMessageID,
+                                            @Nullable final Ebms3UserMessage aEbms3UserMessageToRespond,
+                                            final boolean bHasDSigReferences,
+                                            final boolean bShouldUseNonRepudiation,
+                                            @Nonnull final Supplier <Element> aNonRepudiationInformationSupplier)
+  {
     final Ebms3SignalMessage aSignalMessage = new Ebms3SignalMessage ();
 
     // Message Info
@@ -192,18 +224,9 @@ public class AS4ReceiptMessage extends AbstractAS4Message <AS4ReceiptMessage>
     }
 
     final Ebms3Receipt aEbms3Receipt = new Ebms3Receipt ();
-    if (aDSRefs.isNotEmpty () && bShouldUseNonRepudiation)
+    if (bHasDSigReferences && bShouldUseNonRepudiation)
     {
-      final NonRepudiationInformation aNonRepudiationInformation = new NonRepudiationInformation ();
-      for (final ReferenceType aRef : aDSRefs)
-      {
-        // Add to NR response
-        final MessagePartNRInformation aMessagePartNRInformation = new MessagePartNRInformation ();
-        aMessagePartNRInformation.setReference (aRef);
-        aNonRepudiationInformation.addMessagePartNRInformation (aMessagePartNRInformation);
-      }
-
-      final Element aElement = new NonRepudiationInformationMarshaller ().getAsElement (aNonRepudiationInformation);
+      final Element aElement = aNonRepudiationInformationSupplier.get ();
       if (aElement == null)
         LOGGER.error ("Failed to serialize NonRepudiationInformation object");
       else
@@ -211,7 +234,7 @@ public class AS4ReceiptMessage extends AbstractAS4Message <AS4ReceiptMessage>
     }
     else
     {
-      if (aDSRefs.isEmpty ())
+      if (!bHasDSigReferences)
         LOGGER.info ("Found no ds:Reference elements in the source message, hence returning the source UserMessage in the Receipt");
       else
         LOGGER.info ("Non-repudiation is disabled, hence returning the source UserMessage in the Receipt");
@@ -226,4 +249,89 @@ public class AS4ReceiptMessage extends AbstractAS4Message <AS4ReceiptMessage>
 
     return new AS4ReceiptMessage (eSoapVersion, aSignalMessage);
   }
+
+  /**
+   * This method creates a receipt message.
+   *
+   * @param eSoapVersion
+   *        SOAP Version which should be used
+   * @param sMessageID
+   *        Message ID to use. May neither be <code>null</code> nor empty.
+   * @param aEbms3UserMessageToRespond
+   *        The received usermessage which should be responded too. May be
+   *        <code>null</code>.
+   * @param aSoapDocument
+   *        If the SOAPDocument has WSS4j elements and the following parameter
+   *        is true NonRepudiation will be used if the message is signed
+   * @param bShouldUseNonRepudiation
+   *        If NonRepudiation should be used or not
+   * @return AS4ReceiptMessage
+   * @see #createWithDSigReferences(ESoapVersion, String, Ebms3UserMessage,
+   *      ICommonsList, boolean)
+   */
+  @Nonnull
+  public static AS4ReceiptMessage create (@Nonnull final ESoapVersion eSoapVersion,
+                                          @Nonnull @Nonempty final String sMessageID,
+                                          @Nullable final Ebms3UserMessage aEbms3UserMessageToRespond,
+                                          @Nullable final Node aSoapDocument,
+                                          final boolean bShouldUseNonRepudiation)
+  {
+    // Only for signed messages
+    final ICommonsList <ReferenceType> aDSRefs = getAllDSigReferences (aSoapDocument);
+
+    return _create (eSoapVersion,
+                    sMessageID,
+                    aEbms3UserMessageToRespond,
+                    aDSRefs.isNotEmpty (),
+                    bShouldUseNonRepudiation,
+                    () -> {
+                      final NonRepudiationInformation aNonRepudiationInformation = new NonRepudiationInformation ();
+                      for (final ReferenceType aRef : aDSRefs)
+                      {
+                        // Add to NR response
+                        final MessagePartNRInformation aMessagePartNRInformation = new MessagePartNRInformation ();
+                        aMessagePartNRInformation.setReference (aRef);
+                        aNonRepudiationInformation.addMessagePartNRInformation (aMessagePartNRInformation);
+                      }
+                      return AS4MarshallerPools.NON_REPUDIATION_INFORMATION.getAsElement (aNonRepudiationInformation);
+                    });
+  }
+
+  /**
+   * This method creates a receipt message from the "ds:Reference" elements
+   * that were already verified when processing the incoming message. Compared
+   * to {@link #create(ESoapVersion, String, Ebms3UserMessage, Node, boolean)}
+   * the SOAP document is not searched again and the references are copied
+   * without a JAXB round trip.
+   *
+   * @param eSoapVersion
+   *        SOAP Version which should be used
+   * @param sMessageID
+   *        Message ID to use. May neither be <code>null</code> nor empty.
+   * @param aEbms3UserMessageToRespond
+   *        The received usermessage which should be responded too. May be
+   *        <code>null</code>.
+   * @param aDSigReferences
+   *        The verified "ds:Reference" elements of the received message. May
+   *        be <code>null</code> or empty if the message was not signed.
+   * @param bShouldUseNonRepudiation
+   *        If NonRepudiation should be used or not
+   * @return AS4ReceiptMessage
+   * @see com.helger.phase4.servlet.IAS4MessageState#getVerifiedDSigReferences()
+   * @since 2.7.7
+   */
+  @Nonnull
+  public static AS4ReceiptMessage createWithDSigReferences (@Nonnull final ESoapVersion eSoapVersion,
+                                                            @Nonnull @Nonempty final String sMessageID,
+                                                            @Nullable final Ebms3UserMessage aEbms3UserMessageToRespond,
+                                                            @Nullable final ICommonsList <? extends Element> aDSigReferences,
+                                                            final boolean bShouldUseNonRepudiation)
+  {
+    return _create (eSoapVersion,
+                    sMessageID,
+                    aEbms3UserMessageToRespond,
+                    aDSigReferences != null && aDSigReferences.isNotEmpty (),
+                    bShouldUseNonRepudiation,
+                    () -> createNonRepudiationInformationElement (aDSigReferences));
+  }
 }
@@ -18,9 +18,11 @@ package com.helger.phase4.messaging.domain;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import com.helger.commons.ValueEnforcer;
@@ -29,16 +31,9 @@ import com.helger.commons.string.ToStringGenerator;
 import com.helger.commons.traits.IGenericImplTrait;
 import com.helger.phase4.CAS4;
 import com.helger.phase4.ebms3header.Ebms3Messaging;
-import com.helger.phase4.marshaller.Ebms3MessagingMarshaller;
-import com.helger.phase4.marshaller.Soap11EnvelopeMarshaller;
-import com.helger.phase4.marshaller.Soap12EnvelopeMarshaller;
+import com.helger.phase4.marshaller.AS4MarshallerPools;
 import com.helger.phase4.soap.ESoapVersion;
-import com.helger.phase4.soap11.Soap11Body;
-import com.helger.phase4.soap11.Soap11Envelope;
-import com.helger.phase4.soap11.Soap11Header;
-import com.helger.phase4.soap12.Soap12Body;
-import com.helger.phase4.soap12.Soap12Envelope;
-import com.helger.phase4.soap12.Soap12Header;
+import com.helger.xml.XMLFactory;
 
 /**
  * Abstract AS4 message implementation
@@ -105,47 +100,67 @@ public abstract class AbstractAS4Message <IMPLTYPE extends AbstractAS4Message <I
   @Nonnull
   public final Document getAsSoapDocument (@Nullable final Node aSoapBodyPayload)
   {
-    // Convert to DOM Node
-    final Document aEbms3Document = new Ebms3MessagingMarshaller ().getAsDocument (m_aMessaging);
-    if (aEbms3Document == null)
+    return getAsSoapDocument (aSoapBodyPayload, false);
+  }
+
+  /**
+   * Create a SOAP document from this message with the specified optional
+   * payload. The ebMS header is directly written into the resulting document,
+   * so that no intermediate document is created. Attachments are not handled by
+   * this method.
+   *
+   * @param aSoapBodyPayload
+   *        The payload to be added into the SOAP body. May be
+   *        <code>null</code>.
+   * @param bAdoptPayload
+   *        <code>true</code> to move the payload node into the created
+   *        document instead of copying it. This avoids a deep copy of large
+   *        payloads, but the payload node is removed from its original parent
+   *        and must not be used elsewhere afterwards. <code>false</code> to
+   *        copy the payload.
+   * @return The created DOM document. Never <code>null</code>.
+   * @since 2.7.7
+   */
+  @Nonnull
+  public final Document getAsSoapDocument (@Nullable final Node aSoapBodyPayload, final boolean bAdoptPayload)
+  {
+    final String sNamespaceURI = m_eSoapVersion.getNamespaceURI ();
+    final String sPrefix = m_eSoapVersion.getNamespacePrefix ();
+
+    final Document ret = XMLFactory.newDocument ();
+    final Element eEnvelope = (Element) ret.appendChild (ret.createElementNS (sNamespaceURI, sPrefix + ":Envelope"));
+    eEnvelope.setAttributeNS (XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                              XMLConstants.XMLNS_ATTRIBUTE + ":" + sPrefix,
+                              sNamespaceURI);
+    final Element eHeader = (Element) eEnvelope.appendChild (ret.createElementNS (sNamespaceURI,
+                                                                                  sPrefix +
+                                                                                  ":" +
+                                                                                  m_eSoapVersion.getHeaderElementName ()));
+    final Element eBody = (Element) eEnvelope.appendChild (ret.createElementNS (sNamespaceURI,
+                                                                                sPrefix +
+                                                                                ":" +
+                                                                                m_eSoapVersion.getBodyElementName ()));
+
+    // Write the EBMS3 Messaging directly into the SOAP header
+    if (AS4MarshallerPools.EBMS3_MESSAGING.write (m_aMessaging, eHeader).isFailure ())
       throw new IllegalStateException ("Failed to write EBMS3 Messaging to XML");
 
     final Node aRealSoapBodyPayload = aSoapBodyPayload instanceof Document ? ((Document) aSoapBodyPayload).getDocumentElement ()
                                                                            : aSoapBodyPayload;
-
-    switch (m_eSoapVersion)
+    if (aRealSoapBodyPayload != null)
     {
-      case SOAP_11:
+      Node aPayloadNode = null;
+      if (bAdoptPayload)
       {
-        // Creating SOAP 11 Envelope
-        final Soap11Envelope aSoapEnv = new Soap11Envelope ();
-        aSoapEnv.setHeader (new Soap11Header ());
-        aSoapEnv.setBody (new Soap11Body ());
-        aSoapEnv.getHeader ().addAny (aEbms3Document.getDocumentElement ());
-        if (aRealSoapBodyPayload != null)
-          aSoapEnv.getBody ().addAny (aRealSoapBodyPayload);
-        final Document ret = new Soap11EnvelopeMarshaller ().getAsDocument (aSoapEnv);
-        if (ret == null)
-          throw new IllegalStateException ("Failed to serialize SOAP 1.1 document");
-        return ret;
+        // Move the payload - returns null if not supported by the DOM
+        // implementation
+        aPayloadNode = ret.adoptNode (aRealSoapBodyPayload);
       }
-      case SOAP_12:
-      {
-        // Creating SOAP 12 Envelope
-        final Soap12Envelope aSoapEnv = new Soap12Envelope ();
-        aSoapEnv.setHeader (new Soap12Header ());
-        aSoapEnv.setBody (new Soap12Body ());
-        aSoapEnv.getHeader ().addAny (aEbms3Document.getDocumentElement ());
-        if (aRealSoapBodyPayload != null)
-          aSoapEnv.getBody ().addAny (aRealSoapBodyPayload);
-        final Document ret = new Soap12EnvelopeMarshaller ().getAsDocument (aSoapEnv);
-        if (ret == null)
-          throw new IllegalStateException ("Failed to serialize SOAP 1.2 document");
-        return ret;
-      }
-      default:
-        throw new IllegalStateException ("Unsupported SOAP version " + m_eSoapVersion);
+      if (aPayloadNode == null)
+        aPayloadNode = ret.importNode (aRealSoapBodyPayload, true);
+      eBody.appendChild (aPayloadNode);
     }
+    return ret;
   }
 
   @Override
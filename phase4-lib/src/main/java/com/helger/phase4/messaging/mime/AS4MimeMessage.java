@@ -21,7 +21,10 @@ import java.io.InputStream;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.attachment.WSS4JAttachment;
 
 import jakarta.mail.MessagingException;
 import jakarta.mail.Session;
@@ -36,6 +39,7 @@ import jakarta.mail.internet.MimeMessage;
 public class AS4MimeMessage extends MimeMessage
 {
   private final boolean m_bIsRepeatable;
+  private ICommonsList <WSS4JAttachment> m_aAttachments;
 
   @Nonnull
   private static Session _getSafeMailSession (@Nullable final Session aSession)
@@ -61,6 +65,24 @@ public class AS4MimeMessage extends MimeMessage
     return m_bIsRepeatable;
   }
 
+  /**
+   * @return The attachments this message was created from, in the order of the
+   *         MIME parts after the SOAP part. <code>null</code> if this message
+   *         was not created by {@link MimeMessageCreator}.
+   * @since 2.7.7
+   */
+  @Nullable
+  @ReturnsMutableCopy
+  public final ICommonsList <WSS4JAttachment> getAllAttachments ()
+  {
+    return m_aAttachments == null ? null : m_aAttachments.getClone ();
+  }
+
+  final void setAllAttachments (@Nonnull final ICommonsList <WSS4JAttachment> aAttachments)
+  {
+    m_aAttachments = aAttachments;
+  }
+
   @Override
   public String toString ()
   {
@@ -26,6 +26,7 @@ import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 
 import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.http.CHttpHeader;
 import com.helger.mail.cte.EContentTransferEncoding;
@@ -110,10 +111,12 @@ public final class MimeMessageCreator
     }
 
     boolean bIsRepeatable = true;
+    final ICommonsList <WSS4JAttachment> aAttachments = new CommonsArrayList <> ();
     if (aEncryptedAttachments != null)
       for (final WSS4JAttachment aEncryptedAttachment : aEncryptedAttachments)
       {
         aEncryptedAttachment.addToMimeMultipart (aMimeMultipart);
+        aAttachments.add (aEncryptedAttachment);
         if (!aEncryptedAttachment.isRepeatable ())
           bIsRepeatable = false;
       }
@@ -121,7 +124,11 @@ public final class MimeMessageCreator
     // Build main message
     final AS4MimeMessage aMsg = new AS4MimeMessage ((Session) null, bIsRepeatable);
     aMsg.setContent (aMimeMultipart);
+    // Assigns the boundary and the part headers. The attachment content is not
+    // read, because the Content-Transfer-Encoding is set explicitly.
     aMsg.saveChanges ();
+    // Remember the sources for writing with a known length
+    aMsg.setAllAttachments (aAttachments);
     return aMsg;
   }
 }
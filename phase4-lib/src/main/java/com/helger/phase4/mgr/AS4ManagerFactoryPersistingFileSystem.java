@@ -16,10 +16,18 @@
  */
 package com.helger.phase4.mgr;
 
+import java.io.File;
+import java.io.IOException;
+
 import javax.annotation.Nonnull;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.io.file.FileOperationManager;
 import com.helger.dao.DAOException;
 import com.helger.phase4.duplicate.AS4DuplicateManager;
+import com.helger.phase4.duplicate.AS4DuplicateManagerMappedFile;
 import com.helger.phase4.duplicate.IAS4DuplicateManager;
 import com.helger.phase4.model.mpc.IMPCManager;
 import com.helger.phase4.model.mpc.MPCManager;
@@ -28,6 +36,7 @@ import com.helger.phase4.model.pmode.PModeManager;
 import com.helger.phase4.profile.AS4ProfileManager;
 import com.helger.phase4.profile.IAS4ProfileManager;
 import com.helger.phase4.util.Phase4Exception;
+import com.helger.photon.io.WebFileIO;
 
 /**
  * Implementation of {@link IAS4ManagerFactory} creating managers that are
@@ -38,9 +47,12 @@ import com.helger.phase4.util.Phase4Exception;
  */
 public class AS4ManagerFactoryPersistingFileSystem implements IAS4ManagerFactory
 {
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4ManagerFactoryPersistingFileSystem.class);
+
   private static final String MPC_XML = "as4-mpc.xml";
   private static final String PMODE_XML = "as4-pmode.xml";
   private static final String INCOMING_DUPLICATE_XML = "as4-duplicate-incoming.xml";
+  private static final String INCOMING_DUPLICATE_DIR = "as4-duplicate-incoming";
 
   @Nonnull
   public IMPCManager createMPCManager () throws Phase4Exception
@@ -68,17 +80,46 @@ public class AS4ManagerFactoryPersistingFileSystem implements IAS4ManagerFactory
     }
   }
 
+  /**
+   * {@inheritDoc}<br>
+   * Since 2.7.7 this creates an {@link AS4DuplicateManagerMappedFile} instead
+   * of the XML based {@link AS4DuplicateManager}. Existing items of the XML
+   * based manager are migrated once and the XML file is renamed afterwards.
+   */
   @Nonnull
   public IAS4DuplicateManager createDuplicateManager () throws Phase4Exception
   {
+    final AS4DuplicateManagerMappedFile ret;
     try
     {
-      return new AS4DuplicateManager (INCOMING_DUPLICATE_XML);
+      ret = new AS4DuplicateManagerMappedFile (WebFileIO.getDataIO ().getFile (INCOMING_DUPLICATE_DIR));
     }
-    catch (final DAOException ex)
+    catch (final IOException ex)
     {
-      throw new Phase4Exception ("Error creating AS4DuplicateManager", ex);
+      throw new Phase4Exception ("Error creating AS4DuplicateManagerMappedFile", ex);
+    }
+
+    final File aXMLFile = WebFileIO.getDataIO ().getFile (INCOMING_DUPLICATE_XML);
+    if (aXMLFile.isFile ())
+    {
+      try
+      {
+        final AS4DuplicateManager aOldMgr = new AS4DuplicateManager (INCOMING_DUPLICATE_XML);
+        final int nMigrated = ret.registerAllItems (aOldMgr.getAll ());
+        ret.close ();
+        LOGGER.info ("Migrated " + nMigrated + " AS4 duplicate items from '" + aXMLFile.getAbsolutePath () + "'");
+      }
+      catch (final DAOException ex)
+      {
+        throw new Phase4Exception ("Error migrating AS4DuplicateManager", ex);
+      }
+
+      // Migrate only once
+      final File aMigratedFile = new File (aXMLFile.getParentFile (), INCOMING_DUPLICATE_XML + ".migrated");
+      if (FileOperationManager.INSTANCE.renameFile (aXMLFile, aMigratedFile).isFailure ())
+        LOGGER.warn ("Failed to rename '" + aXMLFile.getAbsolutePath () + "' after migration");
     }
+    return ret;
   }
 
   @Nonnull
@@ -118,6 +118,14 @@ public final class MetaAS4Manager extends AbstractGlobalSingleton
     }
   }
 
+  @Override
+  protected void onBeforeDestroy (@Nonnull final IScope aScopeToBeDestroyed) throws Exception
+  {
+    // E.g. to flush persistent data
+    if (m_aIncomingDuplicateMgr instanceof AutoCloseable)
+      ((AutoCloseable) m_aIncomingDuplicateMgr).close ();
+  }
+
   @Nonnull
   public static MetaAS4Manager getInstance ()
   {
@@ -22,6 +22,8 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsSet;
 import com.helger.commons.equals.EqualsHelper;
@@ -31,7 +33,13 @@ import com.helger.phase4.model.pmode.leg.PModeLeg;
 import com.helger.phase4.model.pmode.leg.PModeLegBusinessInformation;
 
 /**
- * Interface for a manager for {@link PMode} objects.
+ * Interface for a manager for {@link PMode} objects.<br>
+ * Note: contained PModes must only be modified via
+ * {@link #updatePMode(IPMode)} or {@link #createOrUpdatePMode(PMode)}, as the
+ * lookups are indexed. The provided managers store copies of the PModes passed
+ * in, so modifying such an object afterwards has no effect until it is passed
+ * to the manager again. Modifications of PModes returned by the manager are
+ * not seen by the lookups.
  *
  * @author Philip Helger
  */
@@ -57,7 +65,9 @@ public interface IPModeManager
   EChange updatePMode (@Nonnull IPMode aPMode);
 
   /**
-   * Create or update the provided PMode.
+   * Create or update the provided PMode. If a PMode with the same ID or the same
+   * initiator and responder exists, it is updated with the values of the
+   * provided PMode.
    *
    * @param aPMode
    *        The PMode to be created or updated.
@@ -119,6 +129,42 @@ public interface IPModeManager
     });
   }
 
+  /**
+   * Find the first PMode that has the provided initiator and responder.
+   *
+   * @param aInitiator
+   *        Initiator to search. May be <code>null</code>.
+   * @param aResponder
+   *        Responder to search. May be <code>null</code>.
+   * @return <code>null</code> if no such PMode exists.
+   * @since 2.7.7
+   */
+  @Nullable
+  default IPMode getPModeOfInitiatorAndResponder (@Nullable final PModeParty aInitiator,
+                                                  @Nullable final PModeParty aResponder)
+  {
+    return findFirst (x -> EqualsHelper.equals (x.getInitiator (), aInitiator) &&
+                           EqualsHelper.equals (x.getResponder (), aResponder));
+  }
+
+  /**
+   * Get all PModes that have the provided agreement.
+   *
+   * @param sAgreement
+   *        The agreement to search. May be <code>null</code>.
+   * @return A non-<code>null</code> but maybe empty list of all matching
+   *         PModes.
+   * @since 2.7.7
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  default ICommonsList <IPMode> getAllPModesOfAgreement (@Nullable final String sAgreement)
+  {
+    if (sAgreement == null)
+      return new CommonsArrayList <> ();
+    return getAll ().getAll (x -> sAgreement.equals (x.getAgreement ()));
+  }
+
   /**
    * Get a predicate that matches a PMode by ID, initiator and responder.
    *
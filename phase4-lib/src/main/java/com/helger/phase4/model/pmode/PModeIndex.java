@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.phase4.model.pmode.leg.PModeLeg;
+import com.helger.phase4.model.pmode.leg.PModeLegBusinessInformation;
+import com.helger.xml.microdom.IMicroElement;
+import com.helger.xml.microdom.convert.MicroTypeConverter;
+
+/**
+ * Secondary indices for {@link PMode} objects used by the PMode managers, to
+ * avoid linear scans over all PModes. The index is authoritative: the keys are
+ * a snapshot of the values at the time a PMode is added, and the managers
+ * re-index a PMode on every create, update and delete. The managers only store
+ * copies created with {@link #getStoredCopy(IPMode)}, so that the objects
+ * passed in by the caller are not shared. Modifications of contained PModes
+ * outside of the managers are not seen by the lookups. All lookups verify the
+ * current values of the PMode, so that such modifications never lead to wrong
+ * results.<br>
+ * Note: this class must be guarded by the lock of the owning manager.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@NotThreadSafe
+final class PModeIndex
+{
+  /**
+   * The keys under which a single PMode was indexed.
+   */
+  private static final class IndexKeys
+  {
+    private final PMode m_aPMode;
+    private final List <String> m_aServiceAction;
+    private final List <List <String>> m_aInitiatorResponder;
+    private final String m_sAgreement;
+
+    IndexKeys (@Nonnull final PMode aPMode)
+    {
+      m_aPMode = aPMode;
+      m_aServiceAction = _getServiceActionKey (aPMode);
+      m_aInitiatorResponder = _getInitiatorResponderKey (aPMode.getInitiator (), aPMode.getResponder ());
+      m_sAgreement = aPMode.getAgreement ();
+    }
+  }
+
+  private final ICommonsMap <String, IndexKeys> m_aKeysOfID = new CommonsHashMap <> ();
+  private final ICommonsMap <List <String>, ICommonsList <PMode>> m_aByServiceAction = new CommonsHashMap <> ();
+  private final ICommonsMap <List <List <String>>, ICommonsList <PMode>> m_aByInitiatorResponder = new CommonsHashMap <> ();
+  private final ICommonsMap <String, ICommonsList <PMode>> m_aByAgreement = new CommonsHashMap <> ();
+
+  PModeIndex ()
+  {}
+
+  @Nonnull
+  private static List <String> _getServiceActionKey (@Nullable final String sService, @Nullable final String sAction)
+  {
+    return Arrays.asList (sService, sAction);
+  }
+
+  @Nullable
+  private static List <String> _getServiceActionKey (@Nonnull final IPMode aPMode)
+  {
+    final PModeLeg aLeg = aPMode.getLeg1 ();
+    if (aLeg != null)
+    {
+      final PModeLegBusinessInformation aBI = aLeg.getBusinessInfo ();
+      if (aBI != null)
+        return _getServiceActionKey (aBI.getService (), aBI.getAction ());
+    }
+    // Not indexed
+    return null;
+  }
+
+  @Nullable
+  private static List <String> _getPartyKey (@Nullable final PModeParty aParty)
+  {
+    if (aParty == null)
+      return null;
+    return Arrays.asList (aParty.getIDType (),
+                          aParty.getIDValue (),
+                          aParty.getRole (),
+                          aParty.getUserName (),
+                          aParty.getPassword ());
+  }
+
+  @Nonnull
+  private static List <List <String>> _getInitiatorResponderKey (@Nullable final PModeParty aInitiator,
+                                                                 @Nullable final PModeParty aResponder)
+  {
+    return Arrays.asList (_getPartyKey (aInitiator), _getPartyKey (aResponder));
+  }
+
+  static boolean isServiceAndActionMatching (@Nonnull final IPMode aPMode,
+                                             @Nullable final String sService,
+                                             @Nullable final String sAction)
+  {
+    final PModeLeg aLeg = aPMode.getLeg1 ();
+    if (aLeg != null)
+    {
+      final PModeLegBusinessInformation aBI = aLeg.getBusinessInfo ();
+      if (aBI != null)
+        return EqualsHelper.equals (aBI.getService (), sService) && EqualsHelper.equals (aBI.getAction (), sAction);
+    }
+    return false;
+  }
+
+  private static <K> void _add (@Nonnull final ICommonsMap <K, ICommonsList <PMode>> aMap,
+                                @Nullable final K aKey,
+                                @Nonnull final PMode aPMode)
+  {
+    if (aKey != null)
+      aMap.computeIfAbsent (aKey, k -> new CommonsArrayList <> ()).add (aPMode);
+  }
+
+  private static <K> void _remove (@Nonnull final ICommonsMap <K, ICommonsList <PMode>> aMap,
+                                   @Nullable final K aKey,
+                                   @Nonnull final PMode aPMode)
+  {
+    if (aKey != null)
+    {
+      final ICommonsList <PMode> aList = aMap.get (aKey);
+      if (aList != null)
+      {
+        aList.removeIf (x -> x == aPMode);
+        if (aList.isEmpty ())
+          aMap.remove (aKey);
+      }
+    }
+  }
+
+  @Nullable
+  private static <K> PMode _findFirst (@Nonnull final ICommonsMap <K, ICommonsList <PMode>> aMap,
+                                       @Nonnull final K aKey,
+                                       @Nonnull final Predicate <? super PMode> aVerifier)
+  {
+    final ICommonsList <PMode> aList = aMap.get (aKey);
+    return aList == null ? null : aList.findFirst (aVerifier);
+  }
+
+  /**
+   * Create a deep copy of the provided PMode, using the same converter that is
+   * used for persistence.
+   *
+   * @param aPMode
+   *        The PMode to be copied. May not be <code>null</code>.
+   * @return A new PMode that shares no mutable objects with the source.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  static PMode getStoredCopy (@Nonnull final IPMode aPMode)
+  {
+    final IMicroElement eCopy = MicroTypeConverter.convertToMicroElement (aPMode, "PMode");
+    return MicroTypeConverter.convertToNative (eCopy, PMode.class);
+  }
+
+  /**
+   * Add a PMode to all indices. If a PMode with the same ID is already indexed,
+   * it is removed first.
+   *
+   * @param aPMode
+   *        The PMode to be added. May not be <code>null</code>.
+   */
+  void add (@Nonnull final PMode aPMode)
+  {
+    remove (aPMode.getID ());
+
+    final IndexKeys aKeys = new IndexKeys (aPMode);
+    m_aKeysOfID.put (aPMode.getID (), aKeys);
+    _add (m_aByServiceAction, aKeys.m_aServiceAction, aPMode);
+    _add (m_aByInitiatorResponder, aKeys.m_aInitiatorResponder, aPMode);
+    _add (m_aByAgreement, aKeys.m_sAgreement, aPMode);
+  }
+
+  /**
+   * Remove a PMode from all indices, using the keys it was added with.
+   *
+   * @param sPModeID
+   *        The ID of the PMode to be removed. May be <code>null</code>.
+   */
+  void remove (@Nullable final String sPModeID)
+  {
+    final IndexKeys aKeys = m_aKeysOfID.remove (sPModeID);
+    if (aKeys != null)
+    {
+      final PMode aPMode = aKeys.m_aPMode;
+      _remove (m_aByServiceAction, aKeys.m_aServiceAction, aPMode);
+      _remove (m_aByInitiatorResponder, aKeys.m_aInitiatorResponder, aPMode);
+      _remove (m_aByAgreement, aKeys.m_sAgreement, aPMode);
+    }
+  }
+
+  /**
+   * Remove all entries and add all provided PModes.
+   *
+   * @param aPModes
+   *        The PModes to be indexed. May not be <code>null</code>.
+   */
+  void rebuild (@Nonnull final Iterable <? extends PMode> aPModes)
+  {
+    m_aKeysOfID.clear ();
+    m_aByServiceAction.clear ();
+    m_aByInitiatorResponder.clear ();
+    m_aByAgreement.clear ();
+    for (final PMode aPMode : aPModes)
+      add (aPMode);
+  }
+
+  @Nullable
+  PMode getOfServiceAndAction (@Nullable final String sService, @Nullable final String sAction)
+  {
+    return _findFirst (m_aByServiceAction,
+                       _getServiceActionKey (sService, sAction),
+                       x -> isServiceAndActionMatching (x, sService, sAction));
+  }
+
+  @Nullable
+  PMode getOfInitiatorAndResponder (@Nullable final PModeParty aInitiator, @Nullable final PModeParty aResponder)
+  {
+    return _findFirst (m_aByInitiatorResponder,
+                       _getInitiatorResponderKey (aInitiator, aResponder),
+                       x -> EqualsHelper.equals (x.getInitiator (), aInitiator) &&
+                            EqualsHelper.equals (x.getResponder (), aResponder));
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  ICommonsList <IPMode> getAllOfAgreement (@Nullable final String sAgreement)
+  {
+    final ICommonsList <IPMode> ret = new CommonsArrayList <> ();
+    if (sAgreement != null)
+    {
+      final ICommonsList <PMode> aList = m_aByAgreement.get (sAgreement);
+      if (aList != null)
+        aList.findAll (x -> sAgreement.equals (x.getAgreement ()), ret::add);
+    }
+    return ret;
+  }
+}
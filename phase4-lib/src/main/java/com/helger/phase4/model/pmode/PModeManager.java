@@ -16,10 +16,9 @@
  */
 package com.helger.phase4.model.pmode;
 
-import java.util.function.Predicate;
-
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 import org.slf4j.Logger;
@@ -28,6 +27,8 @@ import org.slf4j.LoggerFactory;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.ELockType;
 import com.helger.commons.annotation.MustBeLocked;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.state.EChange;
 import com.helger.dao.DAOException;
 import com.helger.photon.audit.AuditHelper;
@@ -44,9 +45,15 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (PModeManager.class);
 
+  @GuardedBy ("m_aRWLock")
+  private final PModeIndex m_aIndex = new PModeIndex ();
+
   public PModeManager (@Nullable final String sFilename) throws DAOException
   {
     super (PMode.class, sFilename);
+    // The initial read happens in the super constructor
+    final ICommonsList <PMode> aAll = getAll ().getAllMapped (PMode.class::cast);
+    m_aRWLock.writeLocked ( () -> m_aIndex.rebuild (aAll));
   }
 
   private void _validatePMode (@Nonnull final IPMode aPMode)
@@ -64,7 +71,10 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
   @MustBeLocked (ELockType.WRITE)
   private void _createPModeLocked (@Nonnull final PMode aPMode)
   {
-    internalCreateItem (aPMode);
+    // Store a copy, so that the caller cannot modify it without re-indexing
+    final PMode aStoredPMode = PModeIndex.getStoredCopy (aPMode);
+    internalCreateItem (aStoredPMode);
+    m_aIndex.add (aStoredPMode);
     AuditHelper.onAuditCreateSuccess (PMode.OT, aPMode.getID ());
 
     if (LOGGER.isDebugEnabled ())
@@ -91,25 +101,36 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
       AuditHelper.onAuditModifyFailure (PMode.OT, aPMode.getID (), "no-such-id");
       return EChange.UNCHANGED;
     }
+    return _updatePMode (aExistingPMode, aPMode);
+  }
+
+  @Nonnull
+  private EChange _updatePMode (@Nonnull final PMode aExistingPMode, @Nonnull final IPMode aPMode)
+  {
     if (aExistingPMode.isDeleted ())
     {
-      AuditHelper.onAuditModifyFailure (PMode.OT, aPMode.getID (), "already-deleted");
+      AuditHelper.onAuditModifyFailure (PMode.OT, aExistingPMode.getID (), "already-deleted");
       return EChange.UNCHANGED;
     }
 
+    // Don't share any objects with the caller
+    final PMode aNewValues = PModeIndex.getStoredCopy (aPMode);
+
     m_aRWLock.writeLock ().lock ();
     try
     {
       EChange eChange = EChange.UNCHANGED;
-      eChange = eChange.or (aExistingPMode.setInitiator (aPMode.getInitiator ()));
-      eChange = eChange.or (aExistingPMode.setResponder (aPMode.getResponder ()));
-      eChange = eChange.or (aExistingPMode.setAgreement (aPMode.getAgreement ()));
-      eChange = eChange.or (aExistingPMode.setMEP (aPMode.getMEP ()));
-      eChange = eChange.or (aExistingPMode.setMEPBinding (aPMode.getMEPBinding ()));
-      eChange = eChange.or (aExistingPMode.setLeg1 (aPMode.getLeg1 ()));
-      eChange = eChange.or (aExistingPMode.setLeg2 (aPMode.getLeg2 ()));
-      eChange = eChange.or (aExistingPMode.setPayloadService (aPMode.getPayloadService ()));
-      eChange = eChange.or (aExistingPMode.setReceptionAwareness (aPMode.getReceptionAwareness ()));
+      eChange = eChange.or (aExistingPMode.setInitiator (aNewValues.getInitiator ()));
+      eChange = eChange.or (aExistingPMode.setResponder (aNewValues.getResponder ()));
+      eChange = eChange.or (aExistingPMode.setAgreement (aNewValues.getAgreement ()));
+      eChange = eChange.or (aExistingPMode.setMEP (aNewValues.getMEP ()));
+      eChange = eChange.or (aExistingPMode.setMEPBinding (aNewValues.getMEPBinding ()));
+      eChange = eChange.or (aExistingPMode.setLeg1 (aNewValues.getLeg1 ()));
+      eChange = eChange.or (aExistingPMode.setLeg2 (aNewValues.getLeg2 ()));
+      eChange = eChange.or (aExistingPMode.setPayloadService (aNewValues.getPayloadService ()));
+      eChange = eChange.or (aExistingPMode.setReceptionAwareness (aNewValues.getReceptionAwareness ()));
+      // Re-index with the new values
+      m_aIndex.add (aExistingPMode);
       if (eChange.isUnchanged ())
         return EChange.UNCHANGED;
 
@@ -123,28 +144,44 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
     AuditHelper.onAuditModifySuccess (PMode.OT, "all", aExistingPMode.getID ());
 
     if (LOGGER.isDebugEnabled ())
-      LOGGER.debug ("Updated PMode with ID '" + aPMode.getID () + "'");
+      LOGGER.debug ("Updated PMode with ID '" + aExistingPMode.getID () + "'");
 
     return EChange.CHANGED;
   }
 
+  /**
+   * Find an existing PMode that either has the same ID or the same initiator
+   * and responder. This is the indexed version of
+   * {@link IPModeManager#getPModeFilter(String, PModeParty, PModeParty)}.
+   *
+   * @param aPMode
+   *        The PMode to search. May not be <code>null</code>.
+   * @return <code>null</code> if no such PMode exists.
+   */
+  @Nullable
+  @MustBeLocked (ELockType.READ)
+  private PMode _findExistingLocked (@Nonnull final IPMode aPMode)
+  {
+    final PMode ret = getOfID (aPMode.getID ());
+    if (ret != null)
+      return ret;
+    return m_aIndex.getOfInitiatorAndResponder (aPMode.getInitiator (), aPMode.getResponder ());
+  }
+
   public void createOrUpdatePMode (@Nonnull final PMode aPMode)
   {
     ValueEnforcer.notNull (aPMode, "PMode");
     _validatePMode (aPMode);
 
     // Try in read-lock
-    final Predicate <IPMode> aFilter = IPModeManager.getPModeFilter (aPMode.getID (),
-                                                                     aPMode.getInitiator (),
-                                                                     aPMode.getResponder ());
-    IPMode aExisting = findFirst (aFilter);
+    PMode aExisting = m_aRWLock.readLockedGet ( () -> _findExistingLocked (aPMode));
     if (aExisting == null)
     {
       m_aRWLock.writeLock ().lock ();
       try
       {
         // Try again in write lock
-        aExisting = findFirst (aFilter);
+        aExisting = _findExistingLocked (aPMode);
         if (aExisting == null)
         {
           // Create a new one
@@ -159,7 +196,10 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
     }
 
     if (aExisting != null)
-      updatePMode (aExisting);
+    {
+      // Take the new values - re-indexes the existing PMode
+      _updatePMode (aExisting, aPMode);
+    }
   }
 
   @Nonnull
@@ -208,6 +248,7 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
     try
     {
       internalDeleteItem (sPModeID);
+      m_aIndex.remove (sPModeID);
     }
     finally
     {
@@ -223,4 +264,27 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
   {
     return getOfID (sID);
   }
+
+  @Nullable
+  @Override
+  public IPMode getPModeOfServiceAndAction (@Nullable final String sService, @Nullable final String sAction)
+  {
+    return m_aRWLock.readLockedGet ( () -> m_aIndex.getOfServiceAndAction (sService, sAction));
+  }
+
+  @Nullable
+  @Override
+  public IPMode getPModeOfInitiatorAndResponder (@Nullable final PModeParty aInitiator,
+                                                 @Nullable final PModeParty aResponder)
+  {
+    return m_aRWLock.readLockedGet ( () -> m_aIndex.getOfInitiatorAndResponder (aInitiator, aResponder));
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  @Override
+  public ICommonsList <IPMode> getAllPModesOfAgreement (@Nullable final String sAgreement)
+  {
+    return m_aRWLock.readLockedGet ( () -> m_aIndex.getAllOfAgreement (sAgreement));
+  }
 }
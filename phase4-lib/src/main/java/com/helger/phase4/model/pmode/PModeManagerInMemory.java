@@ -54,6 +54,8 @@ public class PModeManagerInMemory implements IPModeManager
   private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
   @GuardedBy ("m_aRWLock")
   private final ICommonsMap <String, PMode> m_aMap = new CommonsHashMap <> ();
+  @GuardedBy ("m_aRWLock")
+  private final PModeIndex m_aIndex = new PModeIndex ();
 
   public PModeManagerInMemory ()
   {}
@@ -76,7 +78,10 @@ public class PModeManagerInMemory implements IPModeManager
     final String sID = aPMode.getID ();
     if (m_aMap.containsKey (sID))
       throw new IllegalArgumentException ("An object with ID '" + sID + "' is already contained!");
-    m_aMap.put (sID, aPMode);
+    // Store a copy, so that the caller cannot modify it without re-indexing
+    final PMode aStoredPMode = PModeIndex.getStoredCopy (aPMode);
+    m_aMap.put (sID, aStoredPMode);
+    m_aIndex.add (aStoredPMode);
 
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Created PMode with ID '" + aPMode.getID () + "'");
@@ -97,22 +102,35 @@ public class PModeManagerInMemory implements IPModeManager
     _validatePMode (aNewPMode);
 
     final PMode aExistingPMode = getOfID (aNewPMode.getID ());
-    if (aExistingPMode == null || aExistingPMode.isDeleted ())
+    if (aExistingPMode == null)
+      return EChange.UNCHANGED;
+    return _updatePMode (aExistingPMode, aNewPMode);
+  }
+
+  @Nonnull
+  private EChange _updatePMode (@Nonnull final PMode aExistingPMode, @Nonnull final IPMode aNewPMode)
+  {
+    if (aExistingPMode.isDeleted ())
       return EChange.UNCHANGED;
 
+    // Don't share any objects with the caller
+    final PMode aNewValues = PModeIndex.getStoredCopy (aNewPMode);
+
     m_aRWLock.writeLock ().lock ();
     try
     {
       EChange eChange = EChange.UNCHANGED;
-      eChange = eChange.or (aExistingPMode.setInitiator (aNewPMode.getInitiator ()));
-      eChange = eChange.or (aExistingPMode.setResponder (aNewPMode.getResponder ()));
-      eChange = eChange.or (aExistingPMode.setAgreement (aNewPMode.getAgreement ()));
-      eChange = eChange.or (aExistingPMode.setMEP (aNewPMode.getMEP ()));
-      eChange = eChange.or (aExistingPMode.setMEPBinding (aNewPMode.getMEPBinding ()));
-      eChange = eChange.or (aExistingPMode.setLeg1 (aNewPMode.getLeg1 ()));
-      eChange = eChange.or (aExistingPMode.setLeg2 (aNewPMode.getLeg2 ()));
-      eChange = eChange.or (aExistingPMode.setPayloadService (aNewPMode.getPayloadService ()));
-      eChange = eChange.or (aExistingPMode.setReceptionAwareness (aNewPMode.getReceptionAwareness ()));
+      eChange = eChange.or (aExistingPMode.setInitiator (aNewValues.getInitiator ()));
+      eChange = eChange.or (aExistingPMode.setResponder (aNewValues.getResponder ()));
+      eChange = eChange.or (aExistingPMode.setAgreement (aNewValues.getAgreement ()));
+      eChange = eChange.or (aExistingPMode.setMEP (aNewValues.getMEP ()));
+      eChange = eChange.or (aExistingPMode.setMEPBinding (aNewValues.getMEPBinding ()));
+      eChange = eChange.or (aExistingPMode.setLeg1 (aNewValues.getLeg1 ()));
+      eChange = eChange.or (aExistingPMode.setLeg2 (aNewValues.getLeg2 ()));
+      eChange = eChange.or (aExistingPMode.setPayloadService (aNewValues.getPayloadService ()));
+      eChange = eChange.or (aExistingPMode.setReceptionAwareness (aNewValues.getReceptionAwareness ()));
+      // Re-index with the new values
+      m_aIndex.add (aExistingPMode);
       if (eChange.isUnchanged ())
         return EChange.UNCHANGED;
 
@@ -124,28 +142,44 @@ public class PModeManagerInMemory implements IPModeManager
     }
 
     if (LOGGER.isDebugEnabled ())
-      LOGGER.debug ("Updated PMode with ID '" + aNewPMode.getID () + "'");
+      LOGGER.debug ("Updated PMode with ID '" + aExistingPMode.getID () + "'");
 
     return EChange.CHANGED;
   }
 
+  /**
+   * Find an existing PMode that either has the same ID or the same initiator
+   * and responder. This is the indexed version of
+   * {@link IPModeManager#getPModeFilter(String, PModeParty, PModeParty)}.
+   *
+   * @param aPMode
+   *        The PMode to search. May not be <code>null</code>.
+   * @return <code>null</code> if no such PMode exists.
+   */
+  @Nullable
+  @MustBeLocked (ELockType.READ)
+  private PMode _findExistingLocked (@Nonnull final IPMode aPMode)
+  {
+    final PMode ret = m_aMap.get (aPMode.getID ());
+    if (ret != null)
+      return ret;
+    return m_aIndex.getOfInitiatorAndResponder (aPMode.getInitiator (), aPMode.getResponder ());
+  }
+
   public void createOrUpdatePMode (@Nonnull final PMode aPMode)
   {
     ValueEnforcer.notNull (aPMode, "PMode");
     _validatePMode (aPMode);
 
     // Try in read-lock
-    final Predicate <IPMode> aFilter = IPModeManager.getPModeFilter (aPMode.getID (),
-                                                                     aPMode.getInitiator (),
-                                                                     aPMode.getResponder ());
-    IPMode aExisting = findFirst (aFilter);
+    PMode aExisting = m_aRWLock.readLockedGet ( () -> _findExistingLocked (aPMode));
     if (aExisting == null)
     {
       m_aRWLock.writeLock ().lock ();
       try
       {
         // Try again in write lock
-        aExisting = findFirst (aFilter);
+        aExisting = _findExistingLocked (aPMode);
         if (aExisting == null)
         {
           // Create a new one
@@ -161,7 +195,8 @@ public class PModeManagerInMemory implements IPModeManager
 
     if (aExisting != null)
     {
-      updatePMode (aExisting);
+      // Take the new values - re-indexes the existing PMode
+      _updatePMode (aExisting, aPMode);
 
       if (LOGGER.isDebugEnabled ())
         LOGGER.debug ("Updated PMode with ID '" + aPMode.getID () + "'");
@@ -203,6 +238,7 @@ public class PModeManagerInMemory implements IPModeManager
     try
     {
       m_aMap.remove (sPModeID);
+      m_aIndex.remove (sPModeID);
     }
     finally
     {
@@ -245,4 +281,27 @@ public class PModeManagerInMemory implements IPModeManager
   {
     return m_aRWLock.readLockedGet (m_aMap::copyOfKeySet);
   }
+
+  @Nullable
+  @Override
+  public IPMode getPModeOfServiceAndAction (@Nullable final String sService, @Nullable final String sAction)
+  {
+    return m_aRWLock.readLockedGet ( () -> m_aIndex.getOfServiceAndAction (sService, sAction));
+  }
+
+  @Nullable
+  @Override
+  public IPMode getPModeOfInitiatorAndResponder (@Nullable final PModeParty aInitiator,
+                                                 @Nullable final PModeParty aResponder)
+  {
+    return m_aRWLock.readLockedGet ( () -> m_aIndex.getOfInitiatorAndResponder (aInitiator, aResponder));
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  @Override
+  public ICommonsList <IPMode> getAllPModesOfAgreement (@Nullable final String sAgreement)
+  {
+    return m_aRWLock.readLockedGet ( () -> m_aIndex.getAllOfAgreement (sAgreement));
+  }
 }
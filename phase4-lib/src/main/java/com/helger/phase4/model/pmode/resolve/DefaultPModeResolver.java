@@ -25,7 +25,9 @@ import com.helger.phase4.mgr.MetaAS4Manager;
 import com.helger.phase4.model.pmode.DefaultPMode;
 import com.helger.phase4.model.pmode.IPMode;
 import com.helger.phase4.model.pmode.IPModeManager;
+import com.helger.phase4.profile.AS4PModeTemplateCache;
 import com.helger.phase4.profile.IAS4Profile;
+import com.helger.phase4.profile.IAS4ProfileManager;
 
 /**
  * Default implementation of {@link IPModeResolver} using the fixed ID only. If
@@ -76,9 +78,15 @@ public class DefaultPModeResolver implements IPModeResolver
       return ret;
 
     // Use default pmode based on profile
-    final IAS4Profile aProfile = MetaAS4Manager.getProfileMgr ().getDefaultProfileOrNull ();
+    final IAS4ProfileManager aProfileMgr = MetaAS4Manager.getProfileMgr ();
+    final IAS4Profile aProfile = aProfileMgr.getDefaultProfileOrNull ();
     if (aProfile != null)
+    {
+      final AS4PModeTemplateCache aTemplateCache = aProfileMgr.getPModeTemplateCache ();
+      if (aTemplateCache != null)
+        return aTemplateCache.getPModeTemplate (aProfile, sInitiatorID, sResponderID, sAddress);
       return aProfile.createPModeTemplate (sInitiatorID, sResponderID, sAddress);
+    }
 
     if (!m_bUseDefaultAsFallback)
     {
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.profile;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.model.pmode.IPMode;
+
+/**
+ * A bounded cache for the P-Mode templates created by
+ * {@link IAS4Profile#createPModeTemplate(String, String, String)}. Besides the
+ * P-Modes it remembers, whether a P-Mode template was successfully validated
+ * against the profile, so that the validation is only performed once.<br>
+ * The cached P-Modes are shared between all callers and must therefore not be
+ * modified.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@ThreadSafe
+public class AS4PModeTemplateCache
+{
+  public static final int DEFAULT_MAX_ENTRIES = 1_000;
+
+  private static final class Entry
+  {
+    private final List <String> m_aKey;
+    private final String m_sProfileID;
+    private final IPMode m_aPMode;
+    @GuardedBy ("m_aRWLock")
+    private boolean m_bValidated;
+
+    Entry (@Nonnull final List <String> aKey, @Nonnull final String sProfileID, @Nonnull final IPMode aPMode)
+    {
+      m_aKey = aKey;
+      m_sProfileID = sProfileID;
+      m_aPMode = aPMode;
+    }
+  }
+
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsOrderedMap <List <String>, Entry> m_aMap = new CommonsLinkedHashMap <> ();
+  @GuardedBy ("m_aRWLock")
+  private final Map <IPMode, Entry> m_aEntryOfPMode = new IdentityHashMap <> ();
+  @GuardedBy ("m_aRWLock")
+  private int m_nMaxEntries = DEFAULT_MAX_ENTRIES;
+
+  public AS4PModeTemplateCache ()
+  {}
+
+  /**
+   * @return The maximum number of cached P-Mode templates. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxEntries ()
+  {
+    return m_aRWLock.readLockedInt ( () -> m_nMaxEntries);
+  }
+
+  /**
+   * @param nMaxEntries
+   *        The maximum number of cached P-Mode templates. Must be &gt; 0.
+   */
+  public final void setMaxEntries (@Nonnegative final int nMaxEntries)
+  {
+    ValueEnforcer.isGT0 (nMaxEntries, "MaxEntries");
+    m_aRWLock.writeLocked ( () -> {
+      m_nMaxEntries = nMaxEntries;
+      _evictLocked ();
+    });
+  }
+
+  /**
+   * @return The number of cached P-Mode templates. Always &ge; 0.
+   */
+  @Nonnegative
+  public final int size ()
+  {
+    return m_aRWLock.readLockedInt (m_aMap::size);
+  }
+
+  private void _evictLocked ()
+  {
+    // Remove the oldest entries
+    while (m_aMap.size () > m_nMaxEntries)
+    {
+      final Entry aOldest = m_aMap.getFirstValue ();
+      m_aMap.remove (aOldest.m_aKey);
+      m_aEntryOfPMode.remove (aOldest.m_aPMode);
+    }
+  }
+
+  /**
+   * Get the cached P-Mode template of the provided profile, or create and cache
+   * a new one.
+   *
+   * @param aProfile
+   *        The profile to use. May not be <code>null</code>.
+   * @param sInitiatorID
+   *        Initiator ID. May neither be <code>null</code> nor empty.
+   * @param sResponderID
+   *        Responder ID. May neither be <code>null</code> nor empty.
+   * @param sAddress
+   *        Address string. May be <code>null</code>.
+   * @return The P-Mode template. May be <code>null</code> if the profile
+   *         could not create one. The returned object must not be modified.
+   * @see IAS4Profile#createPModeTemplate(String, String, String)
+   */
+  @Nullable
+  public IPMode getPModeTemplate (@Nonnull final IAS4Profile aProfile,
+                                  @Nonnull @Nonempty final String sInitiatorID,
+                                  @Nonnull @Nonempty final String sResponderID,
+                                  @Nullable final String sAddress)
+  {
+    ValueEnforcer.notNull (aProfile, "Profile");
+
+    final String sProfileID = aProfile.getID ();
+    final List <String> aKey = Arrays.asList (sProfileID, sInitiatorID, sResponderID, sAddress);
+    final Entry aEntry = m_aRWLock.readLockedGet ( () -> m_aMap.get (aKey));
+    if (aEntry != null)
+      return aEntry.m_aPMode;
+
+    // Create outside of the lock
+    final IPMode aPMode = aProfile.createPModeTemplate (sInitiatorID, sResponderID, sAddress);
+    if (aPMode == null)
+      return null;
+
+    return m_aRWLock.writeLockedGet ( () -> {
+      // Another thread may have been faster
+      final Entry aExisting = m_aMap.get (aKey);
+      if (aExisting != null)
+        return aExisting.m_aPMode;
+
+      final Entry aNewEntry = new Entry (aKey, sProfileID, aPMode);
+      m_aMap.put (aKey, aNewEntry);
+      m_aEntryOfPMode.put (aPMode, aNewEntry);
+      _evictLocked ();
+      return aPMode;
+    });
+  }
+
+  /**
+   * Check if the provided P-Mode is a cached template that was already
+   * successfully validated against the provided profile.
+   *
+   * @param aPMode
+   *        The P-Mode to check. May be <code>null</code>.
+   * @param sProfileID
+   *        The ID of the profile that is used for validation. May be
+   *        <code>null</code>.
+   * @return <code>true</code> if the P-Mode does not need to be validated
+   *         again, <code>false</code> otherwise.
+   */
+  public boolean isValidatedPModeTemplate (@Nullable final IPMode aPMode, @Nullable final String sProfileID)
+  {
+    if (aPMode == null || sProfileID == null)
+      return false;
+
+    return m_aRWLock.readLockedBoolean ( () -> {
+      final Entry aEntry = m_aEntryOfPMode.get (aPMode);
+      return aEntry != null && aEntry.m_bValidated && aEntry.m_sProfileID.equals (sProfileID);
+    });
+  }
+
+  /**
+   * Remember that the provided P-Mode was successfully validated against the
+   * provided profile. This only has an effect, if the P-Mode is a cached
+   * template of that profile.
+   *
+   * @param aPMode
+   *        The P-Mode that was validated. May be <code>null</code>.
+   * @param sProfileID
+   *        The ID of the profile that was used for validation. May be
+   *        <code>null</code>.
+   */
+  public void markPModeTemplateValidated (@Nullable final IPMode aPMode, @Nullable final String sProfileID)
+  {
+    if (aPMode != null && sProfileID != null)
+      m_aRWLock.writeLocked ( () -> {
+        final Entry aEntry = m_aEntryOfPMode.get (aPMode);
+        if (aEntry != null && aEntry.m_sProfileID.equals (sProfileID))
+          aEntry.m_bValidated = true;
+      });
+  }
+
+  /**
+   * Remove all cached P-Mode templates.
+   */
+  public void clearCache ()
+  {
+    m_aRWLock.writeLocked ( () -> {
+      m_aMap.clear ();
+      m_aEntryOfPMode.clear ();
+    });
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Size", size ()).append ("MaxEntries", getMaxEntries ()).getToString ();
+  }
+}
@@ -53,6 +53,7 @@ public class AS4ProfileManager implements IAS4ProfileManager
   private final ICommonsMap <String, IAS4Profile> m_aMap = new CommonsHashMap <> ();
   @GuardedBy ("m_aRWLock")
   private IAS4Profile m_aDefaultProfile;
+  private final AS4PModeTemplateCache m_aPModeTemplateCache = new AS4PModeTemplateCache ();
 
   private void _registerAll ()
   {
@@ -60,6 +61,8 @@ public class AS4ProfileManager implements IAS4ProfileManager
       m_aMap.clear ();
       m_aDefaultProfile = null;
     });
+    // Templates of the old profiles must no longer be used
+    m_aPModeTemplateCache.clearCache ();
     for (final IAS4ProfileRegistrarSPI aSPI : ServiceLoaderHelper.getAllSPIImplementations (IAS4ProfileRegistrarSPI.class))
       aSPI.registerAS4Profile (this);
 
@@ -176,6 +179,12 @@ public class AS4ProfileManager implements IAS4ProfileManager
                      (aAS4Profile.isDeprecated () ? " which is deprecated" : ""));
   }
 
+  @Nonnull
+  public final AS4PModeTemplateCache getPModeTemplateCache ()
+  {
+    return m_aPModeTemplateCache;
+  }
+
   public void reloadAll ()
   {
     _registerAll ();
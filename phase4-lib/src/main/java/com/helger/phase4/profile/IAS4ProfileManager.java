@@ -87,4 +87,17 @@ public interface IAS4ProfileManager extends IAS4ProfileRegistrar
     setDefaultProfile (aDefault);
     return aDefault;
   }
+
+  /**
+   * @return The cache for the P-Mode templates of the contained profiles. It is
+   *         cleared when the profiles are reloaded. May be <code>null</code>
+   *         in which case P-Mode templates are created and validated every
+   *         time.
+   * @since 2.7.7
+   */
+  @Nullable
+  default AS4PModeTemplateCache getPModeTemplateCache ()
+  {
+    return null;
+  }
 }
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.sender;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+
+/**
+ * This class holds the global default executors used for asynchronous AS4
+ * message sending. The executor runs the main sending, and the scheduler is
+ * only used to trigger retries after the back-off duration elapsed, so that no
+ * thread is blocked while waiting for a retry.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@ThreadSafe
+public final class AS4AsyncSendExecutors
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4AsyncSendExecutors.class);
+
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+  @GuardedBy ("RW_LOCK")
+  private static Executor s_aDefaultExecutor;
+  @GuardedBy ("RW_LOCK")
+  private static ScheduledExecutorService s_aDefaultRetryScheduler;
+
+  private AS4AsyncSendExecutors ()
+  {}
+
+  @Nonnull
+  private static ThreadFactory _createDaemonThreadFactory (@Nonnull @Nonempty final String sPrefix)
+  {
+    final AtomicInteger aCounter = new AtomicInteger (0);
+    return aRunnable -> {
+      final Thread ret = new Thread (aRunnable, sPrefix + aCounter.incrementAndGet ());
+      ret.setDaemon (true);
+      return ret;
+    };
+  }
+
+  /**
+   * Create the default executor for asynchronous sending. On Java 21 and later
+   * this is an executor creating one virtual thread per task. On older Java
+   * versions this is a cached thread pool with daemon threads.
+   *
+   * @return A new executor and never <code>null</code>.
+   */
+  @Nonnull
+  public static ExecutorService createDefaultExecutor ()
+  {
+    try
+    {
+      // Resolved via reflection to stay compatible with older Java versions
+      final Object ret = Executors.class.getMethod ("newVirtualThreadPerTaskExecutor").invoke (null);
+      LOGGER.info ("Using virtual threads for asynchronous AS4 sending");
+      return (ExecutorService) ret;
+    }
+    catch (final ReflectiveOperationException | RuntimeException ex)
+    {
+      // No virtual threads available
+      LOGGER.info ("Using a cached thread pool for asynchronous AS4 sending");
+      return Executors.newCachedThreadPool (_createDaemonThreadFactory ("phase4-async-send-"));
+    }
+  }
+
+  /**
+   * @return A new scheduler with a single daemon thread, that is used to
+   *         trigger retries. Never <code>null</code>.
+   */
+  @Nonnull
+  public static ScheduledExecutorService createDefaultRetryScheduler ()
+  {
+    return Executors.newSingleThreadScheduledExecutor (_createDaemonThreadFactory ("phase4-async-retry-"));
+  }
+
+  /**
+   * @return The default executor to be used for asynchronous sending. Created
+   *         on first access if not set. Never <code>null</code>.
+   */
+  @Nonnull
+  public static Executor getDefaultExecutor ()
+  {
+    Executor ret = RW_LOCK.readLockedGet ( () -> s_aDefaultExecutor);
+    if (ret == null)
+    {
+      ret = RW_LOCK.writeLockedGet ( () -> {
+        // Try again in write lock
+        if (s_aDefaultExecutor == null)
+          s_aDefaultExecutor = createDefaultExecutor ();
+        return s_aDefaultExecutor;
+      });
+    }
+    return ret;
+  }
+
+  /**
+   * Set the default executor to be used for asynchronous sending. The caller is
+   * responsible for shutting down the previous executor, if necessary.
+   *
+   * @param aExecutor
+   *        The new executor. May be <code>null</code> to use a new default
+   *        executor on next access.
+   */
+  public static void setDefaultExecutor (@Nullable final Executor aExecutor)
+  {
+    RW_LOCK.writeLocked ( () -> s_aDefaultExecutor = aExecutor);
+  }
+
+  /**
+   * @return The default scheduler to be used to trigger retries of
+   *         asynchronous sending. Created on first access if not set. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public static ScheduledExecutorService getDefaultRetryScheduler ()
+  {
+    ScheduledExecutorService ret = RW_LOCK.readLockedGet ( () -> s_aDefaultRetryScheduler);
+    if (ret == null)
+    {
+      ret = RW_LOCK.writeLockedGet ( () -> {
+        // Try again in write lock
+        if (s_aDefaultRetryScheduler == null)
+          s_aDefaultRetryScheduler = createDefaultRetryScheduler ();
+        return s_aDefaultRetryScheduler;
+      });
+    }
+    return ret;
+  }
+
+  /**
+   * Set the default scheduler to be used to trigger retries of asynchronous
+   * sending. The caller is responsible for shutting down the previous
+   * scheduler, if necessary.
+   *
+   * @param aRetryScheduler
+   *        The new scheduler. May be <code>null</code> to use a new default
+   *        scheduler on next access.
+   */
+  public static void setDefaultRetryScheduler (@Nullable final ScheduledExecutorService aRetryScheduler)
+  {
+    RW_LOCK.writeLocked ( () -> s_aDefaultRetryScheduler = aRetryScheduler);
+  }
+
+  /**
+   * Helper method to get the provided executor or the default one.
+   *
+   * @param aExecutor
+   *        The executor to check. May be <code>null</code>.
+   * @return The provided executor if not <code>null</code>, the default one
+   *         otherwise.
+   */
+  @Nonnull
+  public static Executor getExecutorOrDefault (@Nullable final Executor aExecutor)
+  {
+    return aExecutor != null ? aExecutor : getDefaultExecutor ();
+  }
+
+  /**
+   * Helper method to get the provided scheduler or the default one.
+   *
+   * @param aRetryScheduler
+   *        The scheduler to check. May be <code>null</code>.
+   * @return The provided scheduler if not <code>null</code>, the default one
+   *         otherwise.
+   */
+  @Nonnull
+  public static ScheduledExecutorService getRetrySchedulerOrDefault (@Nullable final ScheduledExecutorService aRetryScheduler)
+  {
+    return aRetryScheduler != null ? aRetryScheduler : getDefaultRetryScheduler ();
+  }
+}
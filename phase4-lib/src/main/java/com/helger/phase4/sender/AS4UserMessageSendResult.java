@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.sender;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.state.ISuccessIndicator;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.ebms3header.Ebms3SignalMessage;
+import com.helger.phase4.sender.AbstractAS4UserMessageBuilder.ESimpleUserMessageSendResult;
+import com.helger.phase4.util.Phase4Exception;
+
+/**
+ * The result of an asynchronous AS4 user message sending, as created by
+ * {@link AbstractAS4UserMessageBuilder#sendMessageAndCheckForReceiptAsync()}.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@Immutable
+public final class AS4UserMessageSendResult implements ISuccessIndicator
+{
+  private final ESimpleUserMessageSendResult m_eResult;
+  private final Ebms3SignalMessage m_aSignalMsg;
+  private final Phase4Exception m_aException;
+
+  public AS4UserMessageSendResult (@Nonnull final ESimpleUserMessageSendResult eResult,
+                                   @Nullable final Ebms3SignalMessage aSignalMsg,
+                                   @Nullable final Phase4Exception aException)
+  {
+    ValueEnforcer.notNull (eResult, "Result");
+    m_eResult = eResult;
+    m_aSignalMsg = aSignalMsg;
+    m_aException = aException;
+  }
+
+  /**
+   * @return The overall sending result. Never <code>null</code>.
+   */
+  @Nonnull
+  public ESimpleUserMessageSendResult getResult ()
+  {
+    return m_eResult;
+  }
+
+  public boolean isSuccess ()
+  {
+    return m_eResult.isSuccess ();
+  }
+
+  /**
+   * @return The received signal message of the last try. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public Ebms3SignalMessage getSignalMessage ()
+  {
+    return m_aSignalMsg;
+  }
+
+  public boolean hasSignalMessage ()
+  {
+    return m_aSignalMsg != null;
+  }
+
+  /**
+   * @return The exception that occurred in the last try. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public Phase4Exception getException ()
+  {
+    return m_aException;
+  }
+
+  public boolean hasException ()
+  {
+    return m_aException != null;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Result", m_eResult)
+                                       .append ("SignalMessage", m_aSignalMsg)
+                                       .append ("Exception", m_aException)
+                                       .getToString ();
+  }
+}
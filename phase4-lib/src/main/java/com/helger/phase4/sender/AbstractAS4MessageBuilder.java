@@ -18,6 +18,10 @@ package com.helger.phase4.sender;
 
 import java.time.OffsetDateTime;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
@@ -48,6 +52,7 @@ import com.helger.phase4.dump.IAS4IncomingDumper;
 import com.helger.phase4.dump.IAS4OutgoingDumper;
 import com.helger.phase4.http.HttpRetrySettings;
 import com.helger.phase4.http.IHttpPoster;
+import com.helger.phase4.http.PooledHttpPoster;
 import com.helger.phase4.model.pmode.resolve.DefaultPModeResolver;
 import com.helger.phase4.model.pmode.resolve.IPModeResolver;
 import com.helger.phase4.servlet.AS4IncomingProfileSelectorFromGlobal;
@@ -96,6 +101,8 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
   protected IAS4DecryptParameterModifier m_aDecryptParameterModifier;
   protected IAS4RetryCallback m_aRetryCallback;
   protected IAS4RawResponseConsumer m_aResponseConsumer;
+  protected Executor m_aAsyncExecutor;
+  protected ScheduledExecutorService m_aAsyncRetryScheduler;
 
   /**
    * Create a new builder, with the following fields already set:<br>
@@ -140,7 +147,9 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
    * only be used if you know what you are doing! It allows you to overwrite how
    * the message is sent over the wire.<br>
    * Note: if this method is used with a non-<code>null</code> parameter,
-   * {@link #httpClientFactory()} becomes useless
+   * {@link #httpClientFactory()} becomes useless<br>
+   * Note: to reuse HTTP connections over multiple messages, a shared
+   * {@link PooledHttpPoster} can be provided here.
    *
    * @param aCustomHttpPoster
    *        The new HTTP poster to be used. May be <code>null</code> which means
@@ -698,6 +707,65 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
     return thisAsT ();
   }
 
+  /**
+   * @return The executor to be used for asynchronous sending. May be
+   *         <code>null</code> in which case the default executor of
+   *         {@link AS4AsyncSendExecutors} is used.
+   * @since 2.7.7
+   */
+  @Nullable
+  public final Executor asyncExecutor ()
+  {
+    return m_aAsyncExecutor;
+  }
+
+  /**
+   * Set the executor to be used for asynchronous sending via
+   * {@link #sendMessageAsync()}.
+   *
+   * @param aAsyncExecutor
+   *        The executor to be used. May be <code>null</code> to use the default
+   *        executor of {@link AS4AsyncSendExecutors}.
+   * @return this for chaining
+   * @since 2.7.7
+   */
+  @Nonnull
+  public final IMPLTYPE asyncExecutor (@Nullable final Executor aAsyncExecutor)
+  {
+    m_aAsyncExecutor = aAsyncExecutor;
+    return thisAsT ();
+  }
+
+  /**
+   * @return The scheduler to be used to trigger retries of asynchronous
+   *         sending. May be <code>null</code> in which case the default
+   *         scheduler of {@link AS4AsyncSendExecutors} is used.
+   * @since 2.7.7
+   */
+  @Nullable
+  public final ScheduledExecutorService asyncRetryScheduler ()
+  {
+    return m_aAsyncRetryScheduler;
+  }
+
+  /**
+   * Set the scheduler to be used to trigger retries of asynchronous sending.
+   * The scheduler only triggers the retry - the retry itself is performed on
+   * the executor.
+   *
+   * @param aAsyncRetryScheduler
+   *        The scheduler to be used. May be <code>null</code> to use the
+   *        default scheduler of {@link AS4AsyncSendExecutors}.
+   * @return this for chaining
+   * @since 2.7.7
+   */
+  @Nonnull
+  public final IMPLTYPE asyncRetryScheduler (@Nullable final ScheduledExecutorService aAsyncRetryScheduler)
+  {
+    m_aAsyncRetryScheduler = aAsyncRetryScheduler;
+    return thisAsT ();
+  }
+
   @OverridingMethodsMustInvokeSuper
   public boolean isEveryRequiredFieldSet ()
   {
@@ -743,6 +811,8 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
     // m_aDecryptRequestDataModifier may be null
     // m_aRetryCallback may be null
     // m_aResponseConsumer may be null
+    // m_aAsyncExecutor may be null
+    // m_aAsyncRetryScheduler may be null
 
     // All valid
     return true;
@@ -863,4 +933,35 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
 
     return ESuccess.SUCCESS;
   }
+
+  /**
+   * Asynchronously send the AS4 message. This performs the same steps as
+   * {@link #sendMessage()} but on the configured {@link #asyncExecutor()}. The
+   * builder must not be modified until the returned future is completed.<br>
+   * Note: HTTP retries are performed like in {@link #sendMessage()} and
+   * therefore occupy an executor thread while waiting. For user messages,
+   * {@link AbstractAS4UserMessageBuilder#sendMessageAndCheckForReceiptAsync()}
+   * schedules the retries without blocking.
+   *
+   * @return A future that is completed with the result of
+   *         {@link #sendMessage()}. If a {@link Phase4Exception} is thrown, the
+   *         future is completed exceptionally with a
+   *         {@link CompletionException} having the original exception as the
+   *         cause. Never <code>null</code>.
+   * @since 2.7.7
+   */
+  @Nonnull
+  public final CompletableFuture <ESuccess> sendMessageAsync ()
+  {
+    return CompletableFuture.supplyAsync ( () -> {
+      try
+      {
+        return sendMessage ();
+      }
+      catch (final Phase4Exception ex)
+      {
+        throw new CompletionException (ex);
+      }
+    }, AS4AsyncSendExecutors.getExecutorOrDefault (m_aAsyncExecutor));
+  }
 }
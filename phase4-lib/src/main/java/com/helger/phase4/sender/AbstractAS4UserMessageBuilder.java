@@ -17,11 +17,16 @@
 package com.helger.phase4.sender;
 
 import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.OverridingMethodsMustInvokeSuper;
+import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import org.slf4j.Logger;
@@ -32,6 +37,7 @@ import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.id.IHasID;
 import com.helger.commons.lang.EnumHelper;
+import com.helger.commons.state.EContinue;
 import com.helger.commons.state.ISuccessIndicator;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.wrapper.Wrapper;
@@ -40,9 +46,11 @@ import com.helger.phase4.client.AS4ClientUserMessage;
 import com.helger.phase4.client.IAS4SignalMessageConsumer;
 import com.helger.phase4.ebms3header.Ebms3Property;
 import com.helger.phase4.ebms3header.Ebms3SignalMessage;
+import com.helger.phase4.http.HttpRetrySettings;
 import com.helger.phase4.messaging.domain.MessageHelperMethods;
 import com.helger.phase4.model.MessageProperty;
 import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.model.pmode.PModeReceptionAwareness;
 import com.helger.phase4.util.Phase4Exception;
 
 /**
@@ -86,6 +94,32 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
 
   protected IAS4SignalMessageConsumer m_aSignalMsgConsumer;
 
+  /**
+   * The state of a single asynchronous send. It is only visible to the
+   * sending thread and takes precedence over the respective builder fields,
+   * so that the builder itself is never modified.
+   *
+   * @author Philip Helger
+   */
+  @Immutable
+  private static final class AsyncSendState
+  {
+    private final String m_sMessageID;
+    private final HttpRetrySettings m_aHttpRetrySettings;
+    private final IAS4SignalMessageConsumer m_aSignalMsgConsumer;
+
+    AsyncSendState (@Nonnull final String sMessageID,
+                    @Nonnull final HttpRetrySettings aHttpRetrySettings,
+                    @Nonnull final IAS4SignalMessageConsumer aSignalMsgConsumer)
+    {
+      m_sMessageID = sMessageID;
+      m_aHttpRetrySettings = aHttpRetrySettings;
+      m_aSignalMsgConsumer = aSignalMsgConsumer;
+    }
+  }
+
+  private final ThreadLocal <AsyncSendState> m_aAsyncSendState = new ThreadLocal <> ();
+
   /**
    * Create a new builder, with the following fields already set:<br>
    * {@link #pmode(IPMode)}<br>
@@ -537,6 +571,21 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
     return thisAsT ();
   }
 
+  /**
+   * @return The signal message consumer to be used for the current sending.
+   *         During an asynchronous send this is the consumer of the send
+   *         performed by the current thread, otherwise the one set via
+   *         {@link #signalMsgConsumer(IAS4SignalMessageConsumer)}. May be
+   *         <code>null</code>.
+   * @since 2.7.7
+   */
+  @Nullable
+  protected final IAS4SignalMessageConsumer getSignalMsgConsumerForSending ()
+  {
+    final AsyncSendState aAsyncSendState = m_aAsyncSendState.get ();
+    return aAsyncSendState != null ? aAsyncSendState.m_aSignalMsgConsumer : m_aSignalMsgConsumer;
+  }
+
   @Override
   @OverridingMethodsMustInvokeSuper
   public boolean isEveryRequiredFieldSet ()
@@ -636,9 +685,13 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
 
     aUserMsg.setPMode (m_aPMode, true);
 
+    final AsyncSendState aAsyncSendState = m_aAsyncSendState.get ();
+
     // Set after PMode
-    if (m_aHttpRetrySettings != null)
-      aUserMsg.httpRetrySettings ().assignFrom (m_aHttpRetrySettings);
+    final HttpRetrySettings aHttpRetrySettings = aAsyncSendState != null ? aAsyncSendState.m_aHttpRetrySettings
+                                                                         : m_aHttpRetrySettings;
+    if (aHttpRetrySettings != null)
+      aUserMsg.httpRetrySettings ().assignFrom (aHttpRetrySettings);
 
     aUserMsg.setAgreementRefValue (m_sAgreementRef);
     if (StringHelper.hasText (m_sPModeID))
@@ -648,8 +701,9 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
     aUserMsg.setServiceType (m_sServiceType);
     aUserMsg.setServiceValue (m_sService);
     aUserMsg.setAction (m_sAction);
-    if (StringHelper.hasText (m_sMessageID))
-      aUserMsg.setMessageID (m_sMessageID);
+    final String sMessageID = aAsyncSendState != null ? aAsyncSendState.m_sMessageID : m_sMessageID;
+    if (StringHelper.hasText (sMessageID))
+      aUserMsg.setMessageID (sMessageID);
     if (StringHelper.hasText (m_sRefToMessageID))
       aUserMsg.setRefToMessageID (m_sRefToMessageID);
     // Empty conversation ID is okay
@@ -794,6 +848,32 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
         aOld.handleSignalMessage (aSignalMsg, aMMD, aState);
       };
 
+      return _sendMessageAndEvaluate (aSignalMsgKeeper, aExceptionConsumer);
+    }
+    finally
+    {
+      // Restore the original value
+      m_aSignalMsgConsumer = aOld;
+    }
+  }
+
+  /**
+   * Send the message and evaluate the signal message that was received.
+   *
+   * @param aSignalMsgKeeper
+   *        The wrapper that is filled by the signal message consumer used for
+   *        sending. May not be <code>null</code>.
+   * @param aExceptionConsumer
+   *        An optional Consumer that takes an eventually thrown
+   *        {@link Phase4Exception}. May be <code>null</code>.
+   * @return The evaluation result. Never <code>null</code>.
+   */
+  @Nonnull
+  private ESimpleUserMessageSendResult _sendMessageAndEvaluate (@Nonnull final Wrapper <Ebms3SignalMessage> aSignalMsgKeeper,
+                                                                @Nullable final Consumer <? super Phase4Exception> aExceptionConsumer)
+  {
+    try
+    {
       // Main sending
       if (sendMessage ().isFailure ())
       {
@@ -843,10 +923,201 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
       // Something went wrong - see the logs
       return ESimpleUserMessageSendResult.TRANSPORT_ERROR;
     }
+  }
+
+  /**
+   * Perform a single try of {@link #sendMessageAndCheckForReceipt(Consumer)}
+   * with the provided state and remember the received signal message and the
+   * exception. The builder fields are not modified.
+   *
+   * @param sMessageID
+   *        The message ID to be used. May neither be <code>null</code> nor
+   *        empty.
+   * @param aSignalMsgConsumer
+   *        The signal message consumer at the time the asynchronous send was
+   *        started. May be <code>null</code>.
+   * @return The result of the try. Never <code>null</code>.
+   */
+  @Nonnull
+  private AS4UserMessageSendResult _sendMessageAndCheckForReceiptOnce (@Nonnull @Nonempty final String sMessageID,
+                                                                       @Nullable final IAS4SignalMessageConsumer aSignalMsgConsumer)
+  {
+    final Wrapper <Ebms3SignalMessage> aSignalMsgKeeper = new Wrapper <> ();
+    final Wrapper <Phase4Exception> aExceptionKeeper = new Wrapper <> ();
+
+    // Retries are scheduled by the caller, so never block in the HTTP poster
+    m_aAsyncSendState.set (new AsyncSendState (sMessageID,
+                                               new HttpRetrySettings ().setMaxRetries (0),
+                                               (aSignalMsg, aMMD, aState) -> {
+                                                 aSignalMsgKeeper.set (aSignalMsg);
+                                                 if (aSignalMsgConsumer != null)
+                                                   aSignalMsgConsumer.handleSignalMessage (aSignalMsg, aMMD, aState);
+                                               }));
+    try
+    {
+      final ESimpleUserMessageSendResult eResult = _sendMessageAndEvaluate (aSignalMsgKeeper, ex -> {
+        LOGGER.error ("Exception sending AS4 user message", ex);
+        aExceptionKeeper.set (ex);
+      });
+      return new AS4UserMessageSendResult (eResult, aSignalMsgKeeper.get (), aExceptionKeeper.get ());
+    }
     finally
     {
-      // Restore the original value
-      m_aSignalMsgConsumer = aOld;
+      m_aAsyncSendState.remove ();
+    }
+  }
+
+  private void _sendAsyncTry (@Nonnull final CompletableFuture <AS4UserMessageSendResult> aFuture,
+                              @Nonnull final Executor aExecutor,
+                              @Nonnull @Nonempty final String sMessageID,
+                              @Nullable final IAS4SignalMessageConsumer aSignalMsgConsumer,
+                              @Nonnull final HttpRetrySettings aRetrySettings,
+                              final int nTry,
+                              @Nonnull final Duration aDurationBeforeRetry)
+  {
+    final AS4UserMessageSendResult aResult;
+    try
+    {
+      if (nTry > 0)
+        LOGGER.info ("Async retry #" +
+                     nTry +
+                     "/" +
+                     aRetrySettings.getMaxRetries () +
+                     " for sending message with ID '" +
+                     sMessageID +
+                     "'");
+      aResult = _sendMessageAndCheckForReceiptOnce (sMessageID, aSignalMsgConsumer);
+    }
+    catch (final RuntimeException ex)
+    {
+      aFuture.completeExceptionally (ex);
+      return;
+    }
+
+    final int nMaxTries = 1 + aRetrySettings.getMaxRetries ();
+    if (aResult.getResult () != ESimpleUserMessageSendResult.TRANSPORT_ERROR || nTry >= nMaxTries - 1)
+    {
+      // Success, non-retryable error or last try
+      aFuture.complete (aResult);
+      return;
+    }
+
+    // After the first retry, increase the waiting time
+    final Duration aNextDuration = nTry > 1 ? HttpRetrySettings.getIncreased (aDurationBeforeRetry,
+                                                                               aRetrySettings.getRetryIncreaseFactor ())
+                                            : aDurationBeforeRetry;
+    final long nRetryIntervalMS = aNextDuration.toMillis ();
+
+    if (m_aRetryCallback != null)
+    {
+      final Exception aEx = aResult.hasException () ? aResult.getException ()
+                                                    : new Phase4Exception ("Transport error sending AS4 message");
+      final EContinue eContinue;
+      try
+      {
+        eContinue = m_aRetryCallback.onBeforeRetry (sMessageID,
+                                                    StringHelper.getNotNull (m_sEndpointURL),
+                                                    nTry,
+                                                    nMaxTries,
+                                                    nRetryIntervalMS,
+                                                    aEx);
+      }
+      catch (final RuntimeException ex)
+      {
+        aFuture.completeExceptionally (ex);
+        return;
+      }
+      if (eContinue.isBreak ())
+      {
+        LOGGER.warn ("Error sending message '" +
+                     sMessageID +
+                     "' - retrying was explicitly stopped by the RetryCallback");
+        aFuture.complete (aResult);
+        return;
+      }
+    }
+
+    LOGGER.warn ("Error sending message '" + sMessageID + "' - scheduling retry in " + nRetryIntervalMS + " ms");
+
+    try
+    {
+      // The scheduler only triggers the retry, the sending itself happens on
+      // the executor, so that no thread is blocked while waiting
+      AS4AsyncSendExecutors.getRetrySchedulerOrDefault (m_aAsyncRetryScheduler)
+                           .schedule ( () -> aExecutor.execute ( () -> _sendAsyncTry (aFuture,
+                                                                                      aExecutor,
+                                                                                      sMessageID,
+                                                                                      aSignalMsgConsumer,
+                                                                                      aRetrySettings,
+                                                                                      nTry + 1,
+                                                                                      aNextDuration)),
+                                       nRetryIntervalMS,
+                                       TimeUnit.MILLISECONDS);
+    }
+    catch (final RuntimeException ex)
+    {
+      // E.g. RejectedExecutionException
+      aFuture.completeExceptionally (ex);
+    }
+  }
+
+  /**
+   * Asynchronous version of {@link #sendMessageAndCheckForReceipt()}. The
+   * sending is performed on the configured {@link #asyncExecutor()}. HTTP
+   * retries configured via {@link #httpRetrySettings(HttpRetrySettings)} or
+   * via the reception awareness of the P-Mode are scheduled via the configured
+   * {@link #asyncRetryScheduler()} instead of blocking a thread for the retry
+   * interval. Retries are only performed for
+   * {@link ESimpleUserMessageSendResult#TRANSPORT_ERROR} and the same message
+   * ID is used for all tries.<br>
+   * The message ID, the retry settings and the signal message consumer are
+   * taken from the builder when this method is called, and the builder itself
+   * is not modified. All other builder settings must not be modified until the
+   * returned future is completed.
+   *
+   * @return A future that is completed with the result of the last try. Never
+   *         <code>null</code>.
+   * @since 2.7.7
+   */
+  @Nonnull
+  public final CompletableFuture <AS4UserMessageSendResult> sendMessageAndCheckForReceiptAsync ()
+  {
+    final Executor aExecutor = AS4AsyncSendExecutors.getExecutorOrDefault (m_aAsyncExecutor);
+
+    // Copy the state for this send - use the same message ID for all tries
+    final String sMessageID = StringHelper.hasText (m_sMessageID) ? m_sMessageID
+                                                                  : MessageHelperMethods.createRandomMessageID ();
+    final IAS4SignalMessageConsumer aSignalMsgConsumer = m_aSignalMsgConsumer;
+    final HttpRetrySettings aRetrySettings = new HttpRetrySettings ();
+    if (m_aHttpRetrySettings != null)
+      aRetrySettings.assignFrom (m_aHttpRetrySettings);
+    else
+      if (m_aPMode != null)
+      {
+        // Same as in AbstractAS4Client.setValuesFromPMode
+        final PModeReceptionAwareness aRA = m_aPMode.getReceptionAwareness ();
+        if (aRA != null && aRA.isRetryDefined ())
+        {
+          aRetrySettings.setMaxRetries (aRA.getMaxRetries ());
+          aRetrySettings.setDurationBeforeRetry (Duration.ofMillis (aRA.getRetryIntervalMS ()));
+        }
+      }
+
+    final CompletableFuture <AS4UserMessageSendResult> ret = new CompletableFuture <> ();
+    try
+    {
+      aExecutor.execute ( () -> _sendAsyncTry (ret,
+                                               aExecutor,
+                                               sMessageID,
+                                               aSignalMsgConsumer,
+                                               aRetrySettings,
+                                               0,
+                                               aRetrySettings.getDurationBeforeRetry ()));
+    }
+    catch (final RuntimeException ex)
+    {
+      ret.completeExceptionally (ex);
     }
+    return ret;
   }
 }
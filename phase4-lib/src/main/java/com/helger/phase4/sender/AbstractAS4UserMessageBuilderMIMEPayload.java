@@ -222,7 +222,7 @@ public abstract class AbstractAS4UserMessageBuilderMIMEPayload <IMPLTYPE extends
                                                                                  aIncomingSecurityConfiguration,
                                                                                  m_aRetryCallback,
                                                                                  m_aResponseConsumer,
-                                                                                 m_aSignalMsgConsumer);
+                                                                                 getSignalMsgConsumerForSending ());
     }
     catch (final Phase4Exception ex)
     {
@@ -41,15 +41,15 @@ import org.w3c.dom.Node;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.collection.CollectionHelper;
 import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
 import com.helger.commons.collection.impl.ICommonsList;
-import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.collection.impl.ICommonsMap;
 import com.helger.commons.error.list.ErrorList;
 import com.helger.commons.http.CHttpHeader;
 import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.io.IHasInputStream;
 import com.helger.commons.io.stream.HasInputStream;
 import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
-import com.helger.commons.lang.ServiceLoaderHelper;
 import com.helger.commons.mime.IMimeType;
 import com.helger.commons.mime.MimeTypeParser;
 import com.helger.commons.string.StringHelper;
@@ -57,6 +57,7 @@ import com.helger.commons.wrapper.Wrapper;
 import com.helger.phase4.attachment.AS4DecompressException;
 import com.helger.phase4.attachment.EAS4CompressionMode;
 import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
+import com.helger.phase4.attachment.IAS4IncomingStreamingAttachmentFactory;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.client.IAS4SignalMessageConsumer;
 import com.helger.phase4.client.IAS4UserMessageConsumer;
@@ -80,8 +81,10 @@ import com.helger.phase4.model.AS4Helper;
 import com.helger.phase4.model.pmode.IPMode;
 import com.helger.phase4.model.pmode.leg.PModeLeg;
 import com.helger.phase4.model.pmode.resolve.IPModeResolver;
+import com.helger.phase4.profile.AS4PModeTemplateCache;
 import com.helger.phase4.profile.IAS4Profile;
 import com.helger.phase4.profile.IAS4ProfileValidator;
+import com.helger.phase4.servlet.mgr.AS4IncomingMessageProcessingStatusManager;
 import com.helger.phase4.servlet.soap.AS4SingleSOAPHeader;
 import com.helger.phase4.servlet.soap.ISOAPHeaderElementProcessor;
 import com.helger.phase4.servlet.soap.SOAPHeaderElementProcessorRegistry;
@@ -97,6 +100,7 @@ import com.helger.xml.XMLHelper;
 import com.helger.xml.serialize.read.DOMReader;
 
 import jakarta.mail.MessagingException;
+import jakarta.mail.internet.InternetHeaders;
 import jakarta.mail.internet.MimeBodyPart;
 
 /**
@@ -180,8 +184,8 @@ public final class AS4IncomingHandler
     final Wrapper <OutputStream> aDumpOSHolder = new Wrapper <> ();
     Exception aCaughtException = null;
 
-    // Load all SPIs
-    final ICommonsList <IAS4IncomingMessageProcessingStatusSPI> aStatusSPIs = ServiceLoaderHelper.getAllSPIImplementations (IAS4IncomingMessageProcessingStatusSPI.class);
+    // Get all SPIs (resolved once)
+    final ICommonsList <IAS4IncomingMessageProcessingStatusSPI> aStatusSPIs = AS4IncomingMessageProcessingStatusManager.getAllProcessors ();
     for (final IAS4IncomingMessageProcessingStatusSPI aStatusSPI : aStatusSPIs)
       try
       {
@@ -238,6 +242,22 @@ public final class AS4IncomingHandler
 
             try (final MultipartItemInputStream aBodyPartIS = aMulti.createInputStream ())
             {
+              if (nIndex > 0 && aIAF instanceof IAS4IncomingStreamingAttachmentFactory)
+              {
+                // MIME Attachment (index is gt 0)
+                if (LOGGER.isDebugEnabled ())
+                  LOGGER.debug ("Streaming MIME part #" + nIndex + " as attachment");
+
+                // Read only the headers - the content is streamed
+                final InternetHeaders aPartHeaders = new InternetHeaders (aBodyPartIS);
+                final WSS4JAttachment aAttachment = ((IAS4IncomingStreamingAttachmentFactory) aIAF).createAttachment (aPartHeaders,
+                                                                                                                     aBodyPartIS,
+                                                                                                                     aResHelper);
+                aIncomingAttachments.add (aAttachment);
+                nIndex++;
+                continue;
+              }
+
               // Read headers AND content
               final MimeBodyPart aBodyPart = new MimeBodyPart (aBodyPartIS);
 
@@ -413,6 +433,7 @@ public final class AS4IncomingHandler
   {
     final ESoapVersion eSoapVersion = aState.getSoapVersion ();
     final ICommonsList <AS4SingleSOAPHeader> aHeadersInMessage = new CommonsArrayList <> ();
+    final ICommonsMap <QName, AS4SingleSOAPHeader> aHeadersByQName = new CommonsHashMap <> ();
     {
       // Find SOAP header
       final Node aHeaderNode = XMLHelper.getFirstChildElementOfName (aSoapDocument.getDocumentElement (),
@@ -430,11 +451,14 @@ public final class AS4IncomingHandler
         final QName aQName = XMLHelper.getQName (aHeaderChild);
         final String sMustUnderstand = aHeaderChild.getAttributeNS (eSoapVersion.getNamespaceURI (), "mustUnderstand");
         final boolean bIsMustUnderstand = eSoapVersion.getMustUnderstandValue (true).equals (sMustUnderstand);
-        aHeadersInMessage.add (new AS4SingleSOAPHeader (aHeaderChild, aQName, bIsMustUnderstand));
+        final AS4SingleSOAPHeader aHeader = new AS4SingleSOAPHeader (aHeaderChild, aQName, bIsMustUnderstand);
+        aHeadersInMessage.add (aHeader);
+        // Only the first header with a QName is processed
+        aHeadersByQName.putIfAbsent (aQName, aHeader);
       }
     }
 
-    final ICommonsOrderedMap <QName, ISOAPHeaderElementProcessor> aAllRegisteredProcessors = aRegistry.getAllElementProcessors ();
+    final Map <QName, ISOAPHeaderElementProcessor> aAllRegisteredProcessors = aRegistry.getAllElementProcessorsView ();
     if (aAllRegisteredProcessors.isEmpty ())
       LOGGER.error ("No SOAP Header element processor is registered");
 
@@ -444,7 +468,7 @@ public final class AS4IncomingHandler
       final QName aQName = aEntry.getKey ();
 
       // Check if this message contains a header for the current handler
-      final AS4SingleSOAPHeader aHeader = aHeadersInMessage.findFirst (x -> aQName.equals (x.getQName ()));
+      final AS4SingleSOAPHeader aHeader = aHeadersByQName.get (aQName);
       if (aHeader == null)
       {
         // no header element for current processor
@@ -522,6 +546,31 @@ public final class AS4IncomingHandler
     }
   }
 
+  /**
+   * Validate the P-Mode against the profile. If the P-Mode is a cached P-Mode
+   * template that was already validated against the same profile, the
+   * validation is skipped.
+   */
+  private static void _validatePMode (@Nonnull final IAS4ProfileValidator aValidator,
+                                      @Nonnull final IPMode aPMode,
+                                      @Nonnull final String sProfileID,
+                                      @Nonnull final ErrorList aErrorList)
+  {
+    final AS4PModeTemplateCache aTemplateCache = MetaAS4Manager.getProfileMgr ().getPModeTemplateCache ();
+    if (aTemplateCache != null && aTemplateCache.isValidatedPModeTemplate (aPMode, sProfileID))
+      return;
+
+    final ErrorList aPModeErrorList = new ErrorList ();
+    aValidator.validatePMode (aPMode, aPModeErrorList);
+    if (aPModeErrorList.isEmpty ())
+    {
+      if (aTemplateCache != null)
+        aTemplateCache.markPModeTemplateValidated (aPMode, sProfileID);
+    }
+    else
+      aErrorList.addAll (aPModeErrorList);
+  }
+
   private static void _decompressAttachments (@Nonnull final ICommonsList <WSS4JAttachment> aIncomingDecryptedAttachments,
                                               @Nonnull final Ebms3UserMessage aUserMessage,
                                               @Nonnull final IAS4MessageState aState)
@@ -723,7 +772,7 @@ public final class AS4IncomingHandler
           if (aAS4ProfileSelector.validateAgainstProfile ())
           {
             final ErrorList aErrorList = new ErrorList ();
-            aValidator.validatePMode (aPMode, aErrorList);
+            _validatePMode (aValidator, aPMode, sProfileID, aErrorList);
             aValidator.validateUserMessage (aEbmsUserMessage, aErrorList);
             aValidator.validateInitiatorIdentity (aEbmsUserMessage,
                                                   aState.getUsedCertificate (),
@@ -768,7 +817,7 @@ public final class AS4IncomingHandler
           {
             final ErrorList aErrorList = new ErrorList ();
             if (aPMode != null)
-              aValidator.validatePMode (aPMode, aErrorList);
+              _validatePMode (aValidator, aPMode, sProfileID, aErrorList);
             aValidator.validateSignalMessage (aEbmsSignalMessage, aErrorList);
             if (aErrorList.isNotEmpty ())
             {
@@ -31,6 +31,7 @@ import org.apache.wss4j.dom.WSConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import com.helger.commons.ValueEnforcer;
@@ -40,6 +41,7 @@ import com.helger.commons.collection.impl.ICommonsMap;
 import com.helger.commons.datetime.XMLOffsetDateTime;
 import com.helger.phase4.attachment.EAS4CompressionMode;
 import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.crypto.IAS4TrustValidationCache;
 import com.helger.phase4.ebms3header.Ebms3Messaging;
 import com.helger.phase4.mgr.MetaAS4Manager;
 import com.helger.phase4.model.mpc.IMPC;
@@ -74,6 +76,8 @@ public final class AS4MessageState extends AttributeContainerAny <String> implem
   private static final String KEY_INITIATOR_ID = "phase4.initiator.id";
   private static final String KEY_RESPONDER_ID = "phase4.responder.id";
   private static final String KEY_USED_CERTIFICATE = "phase4.used.certificate";
+  private static final String KEY_TRUST_VALIDATION_CACHE = "phase4.trust.validation.cache";
+  private static final String KEY_VERIFIED_DSIG_REFERENCES = "phase4.soap.wss4j.verified.dsig.references";
   private static final String KEY_EFFECTIVE_PMODE_LEG = "phase4.pmode.effective.leg";
   private static final String KEY_EFFECTIVE_PMODE_LEG_NUMBER = "phase4.pmode.effective.leg.number";
   private static final String KEY_WSS4J_SECURITY_ACTIONS = "phase4.soap.wss4j-security-actions";
@@ -262,6 +266,28 @@ public final class AS4MessageState extends AttributeContainerAny <String> implem
     putIn (KEY_USED_CERTIFICATE, aCert);
   }
 
+  @Nullable
+  public IAS4TrustValidationCache getTrustValidationCache ()
+  {
+    return getCastedValue (KEY_TRUST_VALIDATION_CACHE);
+  }
+
+  public void setTrustValidationCache (@Nullable final IAS4TrustValidationCache aCache)
+  {
+    putIn (KEY_TRUST_VALIDATION_CACHE, aCache);
+  }
+
+  @Nullable
+  public ICommonsList <Element> getVerifiedDSigReferences ()
+  {
+    return getCastedValue (KEY_VERIFIED_DSIG_REFERENCES);
+  }
+
+  public void setVerifiedDSigReferences (@Nullable final ICommonsList <Element> aReferences)
+  {
+    putIn (KEY_VERIFIED_DSIG_REFERENCES, aReferences);
+  }
+
   @Nullable
   public PModeLeg getEffectivePModeLeg ()
   {
@@ -28,11 +28,14 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.WillClose;
 
+import org.apache.hc.core5.http.ContentType;
 import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import com.helger.commons.CGlobal;
@@ -57,6 +60,7 @@ import com.helger.phase4.attachment.AS4DecompressException;
 import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.client.IAS4RetryCallback;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.crypto.AS4CryptParams;
 import com.helger.phase4.crypto.AS4SigningParams;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
@@ -100,6 +104,8 @@ import com.helger.phase4.model.pmode.leg.PModeLegSecurity;
 import com.helger.phase4.model.pmode.resolve.IPModeResolver;
 import com.helger.phase4.profile.IAS4Profile;
 import com.helger.phase4.servlet.AS4IncomingHandler.IAS4ParsedMessageCallback;
+import com.helger.phase4.servlet.mgr.AS4IncomingReceiptCache;
+import com.helger.phase4.servlet.mgr.AS4IncomingReceiptCache.CachedReceipt;
 import com.helger.phase4.servlet.mgr.AS4ServletMessageProcessorManager;
 import com.helger.phase4.servlet.soap.SOAPHeaderElementProcessorRegistry;
 import com.helger.phase4.servlet.spi.AS4MessageProcessorResult;
@@ -135,6 +141,44 @@ public class AS4RequestHandler implements AutoCloseable
     void applyToResponse (@Nonnull IAS4ResponseAbstraction aHttpResponse, @Nullable IAS4OutgoingDumper aOutgoingDumper);
   }
 
+  private static void _dumpXMLResponse (@Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                        @Nonnull final IAS4IncomingMessageMetadata aIncomingMessageMetadata,
+                                        @Nullable final IAS4MessageState aState,
+                                        @Nonnull @Nonempty final String sResponseMessageID,
+                                        @Nonnull final byte [] aXMLBytes)
+  {
+    if (aOutgoingDumper != null)
+    {
+      try
+      {
+        // No custom headers
+        final OutputStream aDumpOS = aOutgoingDumper.onBeginRequest (EAS4MessageMode.RESPONSE,
+                                                                     aIncomingMessageMetadata,
+                                                                     aState,
+                                                                     sResponseMessageID,
+                                                                     null,
+                                                                     0);
+        if (aDumpOS != null)
+          try
+          {
+            aDumpOS.write (aXMLBytes);
+          }
+          finally
+          {
+            StreamHelper.close (aDumpOS);
+            aOutgoingDumper.onEndRequest (EAS4MessageMode.RESPONSE,
+                                          aIncomingMessageMetadata,
+                                          aState,
+                                          sResponseMessageID);
+          }
+      }
+      catch (final IOException ex)
+      {
+        LOGGER.warn ("IOException in dumping of outgoing XML response", ex);
+      }
+    }
+  }
+
   private static final class AS4ResponseFactoryXML implements IAS4ResponseFactory
   {
     private final IAS4IncomingMessageMetadata m_aIncomingMessageMetadata;
@@ -142,6 +186,7 @@ public class AS4RequestHandler implements AutoCloseable
     private final String m_sResponseMessageID;
     private final Document m_aDoc;
     private final IMimeType m_aMimeType;
+    private byte [] m_aXMLBytes;
 
     public AS4ResponseFactoryXML (@Nonnull final IAS4IncomingMessageMetadata aIncomingMessageMetadata,
                                   @Nonnull final IAS4MessageState aState,
@@ -167,45 +212,87 @@ public class AS4RequestHandler implements AutoCloseable
       return new HttpXMLEntity (m_aDoc, m_aMimeType);
     }
 
+    @Nonnull
+    public IMimeType getMimeType ()
+    {
+      return m_aMimeType;
+    }
+
+    @Nonnull
+    public Charset getCharset ()
+    {
+      return AS4XMLHelper.XWS.getCharset ();
+    }
+
+    /**
+     * @return The serialized XML document. Serialized only once. Never
+     *         <code>null</code>.
+     */
+    @Nonnull
+    public byte [] getXMLBytes ()
+    {
+      byte [] ret = m_aXMLBytes;
+      if (ret == null)
+      {
+        final String sXML = AS4XMLHelper.serializeXML (m_aDoc);
+        ret = sXML.getBytes (getCharset ());
+        m_aXMLBytes = ret;
+      }
+      return ret;
+    }
+
     public void applyToResponse (@Nonnull final IAS4ResponseAbstraction aHttpResponse,
                                  @Nullable final IAS4OutgoingDumper aOutgoingDumper)
     {
-      final String sXML = AS4XMLHelper.serializeXML (m_aDoc);
-      final Charset aCharset = AS4XMLHelper.XWS.getCharset ();
-      final byte [] aXMLBytes = sXML.getBytes (aCharset);
+      final Charset aCharset = getCharset ();
+      final byte [] aXMLBytes = getXMLBytes ();
       aHttpResponse.setContent (aXMLBytes, aCharset);
       aHttpResponse.setMimeType (m_aMimeType);
 
-      if (aOutgoingDumper != null)
-      {
-        try
-        {
-          // No custom headers
-          final OutputStream aDumpOS = aOutgoingDumper.onBeginRequest (EAS4MessageMode.RESPONSE,
-                                                                       m_aIncomingMessageMetadata,
-                                                                       m_aState,
-                                                                       m_sResponseMessageID,
-                                                                       null,
-                                                                       0);
-          if (aDumpOS != null)
-            try
-            {
-              aDumpOS.write (aXMLBytes);
-            }
-            finally
-            {
-              StreamHelper.close (aDumpOS);
-              aOutgoingDumper.onEndRequest (EAS4MessageMode.RESPONSE,
-                                            m_aIncomingMessageMetadata,
-                                            m_aState,
-                                            m_sResponseMessageID);
-            }
-        }
-        catch (final IOException ex)
-        {
-          LOGGER.warn ("IOException in dumping of outgoing XML response", ex);
-        }
-      }
+      _dumpXMLResponse (aOutgoingDumper, m_aIncomingMessageMetadata, m_aState, m_sResponseMessageID, aXMLBytes);
+    }
+  }
+
+  /**
+   * Returns the cached receipt of a duplicate incoming message. No message
+   * state is available, because the SOAP header processors were not invoked.
+   *
+   * @author Philip Helger
+   */
+  private static final class AS4ResponseFactoryCachedXML implements IAS4ResponseFactory
+  {
+    private final IAS4IncomingMessageMetadata m_aIncomingMessageMetadata;
+    private final CachedReceipt m_aCachedReceipt;
+
+    public AS4ResponseFactoryCachedXML (@Nonnull final IAS4IncomingMessageMetadata aIncomingMessageMetadata,
+                                        @Nonnull final CachedReceipt aCachedReceipt)
+    {
+      ValueEnforcer.notNull (aIncomingMessageMetadata, "IncomingMessageMetadata");
+      ValueEnforcer.notNull (aCachedReceipt, "CachedReceipt");
+      m_aIncomingMessageMetadata = aIncomingMessageMetadata;
+      m_aCachedReceipt = aCachedReceipt;
+    }
+
+    @Nonnull
+    public HttpEntity getHttpEntityForSending (@Nonnull final IMimeType aMimType)
+    {
+      return new ByteArrayEntity (m_aCachedReceipt.bytes (),
+                                  ContentType.create (m_aCachedReceipt.getMimeType ().getAsString (),
+                                                      m_aCachedReceipt.getCharset ()));
+    }
+
+    public void applyToResponse (@Nonnull final IAS4ResponseAbstraction aHttpResponse,
+                                 @Nullable final IAS4OutgoingDumper aOutgoingDumper)
+    {
+      final byte [] aXMLBytes = m_aCachedReceipt.bytes ();
+      aHttpResponse.setContent (aXMLBytes, m_aCachedReceipt.getCharset ());
+      aHttpResponse.setMimeType (m_aCachedReceipt.getMimeType ());
+
+      _dumpXMLResponse (aOutgoingDumper,
+                        m_aIncomingMessageMetadata,
+                        null,
+                        m_aCachedReceipt.getResponseMessageID (),
+                        aXMLBytes);
     }
   }
 
@@ -1155,7 +1242,7 @@ public class AS4RequestHandler implements AutoCloseable
    * @throws WSSecurityException
    */
   @Nonnull
-  private IAS4ResponseFactory _createResponseReceiptMessage (@Nonnull final IAS4MessageState aIncomingState,
+  private AS4ResponseFactoryXML _createResponseReceiptMessage (@Nonnull final IAS4MessageState aIncomingState,
                                                              @Nullable final Document aSoapDocument,
                                                              @Nonnull final ESoapVersion eSoapVersion,
                                                              @Nonnull @Nonempty final String sResponseMessageID,
@@ -1164,12 +1251,26 @@ public class AS4RequestHandler implements AutoCloseable
                                                              @Nullable final ICommonsList <WSS4JAttachment> aResponseAttachments) throws WSSecurityException
   {
     // Create receipt
-    final AS4ReceiptMessage aReceiptMessage = AS4ReceiptMessage.create (eSoapVersion,
-                                                                        sResponseMessageID,
-                                                                        aUserMessage,
-                                                                        aSoapDocument,
-                                                                        _isSendNonRepudiationInformation (aEffectiveLeg))
-                                                               .setMustUnderstand (true);
+    final boolean bSendNonRepudiationInformation = _isSendNonRepudiationInformation (aEffectiveLeg);
+    final AS4ReceiptMessage aReceiptMessage;
+    if (aIncomingState.hasVerifiedDSigReferences ())
+    {
+      // Use the references from the signature verification
+      aReceiptMessage = AS4ReceiptMessage.createWithDSigReferences (eSoapVersion,
+                                                                    sResponseMessageID,
+                                                                    aUserMessage,
+                                                                    aIncomingState.getVerifiedDSigReferences (),
+                                                                    bSendNonRepudiationInformation);
+    }
+    else
+    {
+      aReceiptMessage = AS4ReceiptMessage.create (eSoapVersion,
+                                                  sResponseMessageID,
+                                                  aUserMessage,
+                                                  aSoapDocument,
+                                                  bSendNonRepudiationInformation);
+    }
+    aReceiptMessage.setMustUnderstand (true);
 
     final ESoapVersion eResponseSoapVersion = aEffectiveLeg.getProtocol ().getSoapVersion ();
     if (eResponseSoapVersion != eSoapVersion)
@@ -1382,6 +1483,8 @@ public class AS4RequestHandler implements AutoCloseable
                                                   @Nonnull final Document aSoapDocument,
                                                   @Nonnull final ESoapVersion eSoapVersion,
                                                   @Nonnull final ICommonsList <WSS4JAttachment> aIncomingAttachments,
+                                                  @Nullable final String sRawMessageID,
+                                                  @Nullable final byte [] aRawSignatureValueDigest,
                                                   @Nonnull final ICommonsList <Ebms3Error> aEbmsErrorMessagesTarget) throws WSSecurityException,
                                                                                                                      MessagingException,
                                                                                                                      Phase4Exception
@@ -1485,6 +1588,8 @@ public class AS4RequestHandler implements AutoCloseable
     if (aState.isPingMessage () && !bCanInvokeSPIs)
       LOGGER.info ("Received an AS4 Ping message - meaning it will NOT be handled by the custom handlers.");
 
+    // Only synchronously processed messages may have their receipt cached
+    boolean bProcessingCompleted = false;
     if (bCanInvokeSPIs)
     {
       // PMode may be null for receipts
@@ -1511,8 +1616,11 @@ public class AS4RequestHandler implements AutoCloseable
         if (aSPIResult.isFailure ())
           LOGGER.warn ("Error invoking synchronous SPIs");
         else
+        {
           if (LOGGER.isDebugEnabled ())
             LOGGER.debug ("Successfully invoked synchronous SPIs");
+          bProcessingCompleted = true;
+        }
 
         // Notify outside world about the end of the incoming processing
         if (m_aSoapProcessingFinalizedCB != null)
@@ -1745,13 +1853,31 @@ public class AS4RequestHandler implements AutoCloseable
                 if (bSendReceiptAsResponse)
                 {
                   sResponseMessageID = MessageHelperMethods.createRandomMessageID ();
-                  ret = _createResponseReceiptMessage (aState,
-                                                       aSoapDocument,
-                                                       eSoapVersion,
-                                                       sResponseMessageID,
-                                                       aEffectiveLeg,
-                                                       aEbmsUserMessage,
-                                                       aResponseAttachments);
+                  final AS4ResponseFactoryXML aReceiptFactory = _createResponseReceiptMessage (aState,
+                                                                                               aSoapDocument,
+                                                                                               eSoapVersion,
+                                                                                               sResponseMessageID,
+                                                                                               aEffectiveLeg,
+                                                                                               aEbmsUserMessage,
+                                                                                               aResponseAttachments);
+                  ret = aReceiptFactory;
+
+                  // The raw values are only present if the pre-check is enabled
+                  if (bProcessingCompleted &&
+                      aRawSignatureValueDigest != null &&
+                      aState.hasUsedCertificate () &&
+                      sMessageID.equals (sRawMessageID))
+                  {
+                    // Remember for duplicate incoming messages with the same
+                    // verified signature
+                    AS4IncomingReceiptCache.getInstance ()
+                                           .put (sMessageID,
+                                                 aRawSignatureValueDigest,
+                                                 sResponseMessageID,
+                                                 aReceiptFactory.getXMLBytes (),
+                                                 aReceiptFactory.getCharset (),
+                                                 aReceiptFactory.getMimeType ());
+                  }
                 }
                 else
                 {
@@ -1817,6 +1943,70 @@ public class AS4RequestHandler implements AutoCloseable
     return ret;
   }
 
+  @Nullable
+  private static Element _getSingleChildElement (@Nullable final Element aParent,
+                                                 @Nonnull final String sNamespaceURI,
+                                                 @Nonnull final String sLocalName)
+  {
+    if (aParent == null)
+      return null;
+
+    Element ret = null;
+    for (Node aChild = aParent.getFirstChild (); aChild != null; aChild = aChild.getNextSibling ())
+      if (aChild.getNodeType () == Node.ELEMENT_NODE &&
+          sNamespaceURI.equals (aChild.getNamespaceURI ()) &&
+          sLocalName.equals (aChild.getLocalName ()))
+      {
+        // Ambiguous
+        if (ret != null)
+          return null;
+        ret = (Element) aChild;
+      }
+    return ret;
+  }
+
+  @Nullable
+  private static String _getTextOfPath (@Nullable final Element aStart,
+                                        @Nonnull final String sNamespaceURI,
+                                        @Nonnull final String... aLocalNames)
+  {
+    Element aElement = aStart;
+    for (final String sLocalName : aLocalNames)
+      aElement = _getSingleChildElement (aElement, sNamespaceURI, sLocalName);
+    return aElement == null ? null : aElement.getTextContent ();
+  }
+
+  /**
+   * Check if the incoming message is a duplicate that can be answered from the
+   * receipt cache, before any SOAP header processor runs. The values are taken
+   * from the unverified SOAP header, so the cached receipt is only returned if
+   * the eb:MessageId and the digest of the ds:SignatureValue exactly match the
+   * ones of the originally verified message. If any of the elements is missing
+   * or ambiguous, <code>null</code> is returned and the message is processed
+   * as usual.
+   *
+   * @param sRawMessageID
+   *        The raw eb:MessageId of the incoming message. May be
+   *        <code>null</code>.
+   * @param aRawSignatureValueDigest
+   *        The digest of the raw ds:SignatureValue of the incoming message. May
+   *        be <code>null</code>.
+   * @return <code>null</code> if the message is not a known duplicate.
+   */
+  @Nullable
+  private static CachedReceipt _findCachedReceiptOfDuplicate (@Nullable final String sRawMessageID,
+                                                              @Nullable final byte [] aRawSignatureValueDigest)
+  {
+    if (StringHelper.hasNoText (sRawMessageID) || aRawSignatureValueDigest == null)
+      return null;
+
+    // Must be a known duplicate
+    if (MetaAS4Manager.getIncomingDuplicateMgr ().getItemOfMessageID (sRawMessageID) == null)
+      return null;
+
+    return AS4IncomingReceiptCache.getInstance ().get (sRawMessageID, aRawSignatureValueDigest);
+  }
+
   /**
    * This is the main handling routine when called from an abstract
    * (non-Servlet) API
@@ -1848,12 +2038,47 @@ public class AS4RequestHandler implements AutoCloseable
   {
     final IAS4ParsedMessageCallback aCallback = (aHttpHeaders, aSoapDocument, eSoapVersion, aIncomingAttachments) -> {
       // SOAP document and SOAP version are determined
+      String sRawMessageID = null;
+      byte [] aRawSignatureValueDigest = null;
+      if (AS4Configuration.isIncomingDuplicatePreCheckEnabled ())
+      {
+        final Element aHeader = _getSingleChildElement (aSoapDocument.getDocumentElement (),
+                                                        eSoapVersion.getNamespaceURI (),
+                                                        eSoapVersion.getHeaderElementName ());
+        sRawMessageID = _getTextOfPath (aHeader, CAS4.EBMS_NS, "Messaging", "UserMessage", "MessageInfo", "MessageId");
+        final Element aSignature = _getSingleChildElement (_getSingleChildElement (aHeader,
+                                                                                   CAS4.WSSE_NS,
+                                                                                   "Security"),
+                                                           CAS4.DS_NS,
+                                                           "Signature");
+        aRawSignatureValueDigest = AS4IncomingReceiptCache.getSignatureValueDigest (_getTextOfPath (aSignature,
+                                                                                                    CAS4.DS_NS,
+                                                                                                    "SignatureValue"));
+
+        final CachedReceipt aCachedReceipt = _findCachedReceiptOfDuplicate (sRawMessageID, aRawSignatureValueDigest);
+        if (aCachedReceipt != null)
+        {
+          // Skip all the processing and return the original receipt
+          LOGGER.info ("Returning the cached receipt for the duplicate incoming message with ID '" +
+                       sRawMessageID +
+                       "'");
+          final IAS4OutgoingDumper aRealOutgoingDumper = m_aOutgoingDumper != null ? m_aOutgoingDumper : AS4DumpManager
+                                                                                                                       .getOutgoingDumper ();
+          new AS4ResponseFactoryCachedXML (m_aMessageMetadata, aCachedReceipt).applyToResponse (aHttpResponse,
+                                                                                                aRealOutgoingDumper);
+          AS4HttpDebug.debug ( () -> "RECEIVE-END with cached receipt");
+          return;
+        }
+      }
+
       // Collect all runtime errors
       final ICommonsList <Ebms3Error> aErrorMessages = new CommonsArrayList <> ();
       final IAS4ResponseFactory aResponder = _handleSoapMessage (aHttpHeaders,
                                                                  aSoapDocument,
                                                                  eSoapVersion,
                                                                  aIncomingAttachments,
+                                                                 sRawMessageID,
+                                                                 aRawSignatureValueDigest,
                                                                  aErrorMessages);
       if (aResponder != null)
       {
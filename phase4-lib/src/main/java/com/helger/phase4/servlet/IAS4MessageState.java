@@ -26,6 +26,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import com.helger.commons.collection.impl.ICommonsList;
@@ -34,6 +35,7 @@ import com.helger.commons.datetime.XMLOffsetDateTime;
 import com.helger.commons.string.StringHelper;
 import com.helger.phase4.attachment.EAS4CompressionMode;
 import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.crypto.IAS4TrustValidationCache;
 import com.helger.phase4.ebms3header.Ebms3Error;
 import com.helger.phase4.ebms3header.Ebms3Messaging;
 import com.helger.phase4.ebms3header.Ebms3PullRequest;
@@ -345,6 +347,47 @@ public interface IAS4MessageState
     return getUsedCertificate () != null;
   }
 
+  /**
+   * @return The cache for positive certificate trust validation results from
+   *         the incoming security configuration. Profile specific certificate
+   *         checks may use it to avoid repeated validation of the same
+   *         certificate. May be <code>null</code> if no cache is configured.
+   * @since 2.7.7
+   */
+  @Nullable
+  default IAS4TrustValidationCache getTrustValidationCache ()
+  {
+    return null;
+  }
+
+  /**
+   * @return The "ds:Reference" elements of the signature that was successfully
+   *         verified by WSS4J. They can be used to create the non-repudiation
+   *         information of a receipt without searching the SOAP document
+   *         again. May be <code>null</code> if the incoming message was not
+   *         signed or if the implementation does not provide them. The default
+   *         implementation always returns <code>null</code>.
+   * @see #hasVerifiedDSigReferences()
+   * @since 2.7.7
+   */
+  @Nullable
+  default ICommonsList <Element> getVerifiedDSigReferences ()
+  {
+    return null;
+  }
+
+  /**
+   * @return <code>true</code> if verified "ds:Reference" elements are present,
+   *         <code>false</code> if not.
+   * @see #getVerifiedDSigReferences()
+   * @since 2.7.7
+   */
+  default boolean hasVerifiedDSigReferences ()
+  {
+    final ICommonsList <Element> aList = getVerifiedDSigReferences ();
+    return aList != null && aList.isNotEmpty ();
+  }
+
   /**
    * @return The effective leg to use. May be leg 1 or leg 2 of the PMode. If no
    *         PMode was found, no PModeLeg is present.
@@ -64,6 +64,16 @@ public final class AS4DuplicateCleanupJob extends AbstractScopeAwareJob
     if (aEvicted.isNotEmpty ())
       if (LOGGER.isDebugEnabled ())
         LOGGER.debug ("Evicted " + aEvicted.size () + " incoming duplicate message IDs before " + aOldDT.toString ());
+
+    // Cached receipts are only needed for known duplicates
+    final AS4IncomingReceiptCache aReceiptCache = AS4IncomingReceiptCache.getInstanceIfInstantiated ();
+    if (aReceiptCache != null)
+    {
+      final int nEvicted = aReceiptCache.evictAllItemsBefore (aOldDT);
+      if (nEvicted > 0)
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Evicted " + nEvicted + " cached incoming receipts before " + aOldDT.toString ());
+    }
   }
 
   /**
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet.mgr;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.lang.ServiceLoaderHelper;
+import com.helger.phase4.incoming.spi.IAS4IncomingMessageProcessingStatusSPI;
+
+/**
+ * This class manages all the {@link IAS4IncomingMessageProcessingStatusSPI}
+ * SPI implementations. They are resolved once, so that the classpath is not
+ * scanned for every incoming message.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@ThreadSafe
+public final class AS4IncomingMessageProcessingStatusManager
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4IncomingMessageProcessingStatusManager.class);
+
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+  @GuardedBy ("RW_LOCK")
+  private static final ICommonsList <IAS4IncomingMessageProcessingStatusSPI> s_aProcessors = new CommonsArrayList <> ();
+
+  private AS4IncomingMessageProcessingStatusManager ()
+  {}
+
+  /**
+   * Reload all SPI implementations of
+   * {@link IAS4IncomingMessageProcessingStatusSPI}.
+   */
+  public static void reinitProcessors ()
+  {
+    final ICommonsList <IAS4IncomingMessageProcessingStatusSPI> aProcessorSPIs = ServiceLoaderHelper.getAllSPIImplementations (IAS4IncomingMessageProcessingStatusSPI.class);
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Found " + aProcessorSPIs.size () + " AS4 incoming message processing status SPIs");
+
+    RW_LOCK.writeLocked ( () -> s_aProcessors.setAll (aProcessorSPIs));
+  }
+
+  static
+  {
+    // Init once at the beginning
+    reinitProcessors ();
+  }
+
+  /**
+   * @return A list of all registered processing status SPIs. Never
+   *         <code>null</code> but maybe empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsList <IAS4IncomingMessageProcessingStatusSPI> getAllProcessors ()
+  {
+    return RW_LOCK.readLockedGet (s_aProcessors::getClone);
+  }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet.mgr;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.OffsetDateTime;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableObject;
+import com.helger.commons.annotation.UsedViaReflection;
+import com.helger.commons.mime.IMimeType;
+import com.helger.commons.string.StringHelper;
+import com.helger.phase4.mgr.MetaAS4Manager;
+import com.helger.scope.singleton.AbstractGlobalSingleton;
+
+/**
+ * A cache for the serialized receipts of successfully handled incoming
+ * messages. It is used to answer duplicate incoming messages with the original
+ * receipt, without invoking the SPIs and without creating and signing a new
+ * receipt. The lookup happens before any WS-Security processing, so a receipt
+ * is only returned if the raw eb:MessageId and the digest of the raw
+ * ds:SignatureValue of the incoming message exactly match the values of the
+ * originally verified message. Entries are evicted together with the duplicate
+ * message IDs by {@link AS4DuplicateCleanupJob} and the number of entries is
+ * limited.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@ThreadSafe
+public final class AS4IncomingReceiptCache extends AbstractGlobalSingleton
+{
+  public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+  /**
+   * A single cached receipt.
+   *
+   * @author Philip Helger
+   */
+  @Immutable
+  public static final class CachedReceipt
+  {
+    private final String m_sMessageID;
+    private final byte [] m_aSignatureValueDigest;
+    private final String m_sResponseMessageID;
+    private final OffsetDateTime m_aDT;
+    private final byte [] m_aBytes;
+    private final Charset m_aCharset;
+    private final IMimeType m_aMimeType;
+
+    CachedReceipt (@Nonnull @Nonempty final String sMessageID,
+                   @Nonnull final byte [] aSignatureValueDigest,
+                   @Nonnull @Nonempty final String sResponseMessageID,
+                   @Nonnull final byte [] aBytes,
+                   @Nonnull final Charset aCharset,
+                   @Nonnull final IMimeType aMimeType)
+    {
+      m_sMessageID = sMessageID;
+      m_aSignatureValueDigest = aSignatureValueDigest;
+      m_sResponseMessageID = sResponseMessageID;
+      m_aDT = MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ();
+      m_aBytes = aBytes;
+      m_aCharset = aCharset;
+      m_aMimeType = aMimeType;
+    }
+
+    /**
+     * @return The message ID of the incoming message. Neither
+     *         <code>null</code> nor empty.
+     */
+    @Nonnull
+    @Nonempty
+    public String getMessageID ()
+    {
+      return m_sMessageID;
+    }
+
+    /**
+     * @return The SHA-256 digest of the ds:SignatureValue of the verified
+     *         incoming message. Never <code>null</code>. Don't modify.
+     */
+    @Nonnull
+    @ReturnsMutableObject
+    public byte [] signatureValueDigest ()
+    {
+      return m_aSignatureValueDigest;
+    }
+
+    /**
+     * Check if the provided digest matches the digest of the original message.
+     *
+     * @param aSignatureValueDigest
+     *        The digest of the ds:SignatureValue of the incoming message. May
+     *        be <code>null</code>.
+     * @return <code>true</code> if the digests are identical.
+     */
+    public boolean hasSignatureValueDigest (@Nullable final byte [] aSignatureValueDigest)
+    {
+      return aSignatureValueDigest != null && MessageDigest.isEqual (m_aSignatureValueDigest, aSignatureValueDigest);
+    }
+
+    /**
+     * @return The message ID of the cached receipt. Neither <code>null</code>
+     *         nor empty.
+     */
+    @Nonnull
+    @Nonempty
+    public String getResponseMessageID ()
+    {
+      return m_sResponseMessageID;
+    }
+
+    /**
+     * @return The date time when the receipt was cached. Never
+     *         <code>null</code>.
+     */
+    @Nonnull
+    public OffsetDateTime getDateTime ()
+    {
+      return m_aDT;
+    }
+
+    /**
+     * @return The serialized receipt. Never <code>null</code>. Don't modify.
+     */
+    @Nonnull
+    @ReturnsMutableObject
+    public byte [] bytes ()
+    {
+      return m_aBytes;
+    }
+
+    @Nonnull
+    public Charset getCharset ()
+    {
+      return m_aCharset;
+    }
+
+    @Nonnull
+    public IMimeType getMimeType ()
+    {
+      return m_aMimeType;
+    }
+  }
+
+  private final ConcurrentHashMap <String, CachedReceipt> m_aMap = new ConcurrentHashMap <> ();
+  // Insertion order
+  private final Queue <CachedReceipt> m_aQueue = new ConcurrentLinkedQueue <> ();
+  private volatile int m_nMaxEntries = DEFAULT_MAX_ENTRIES;
+
+  @Deprecated (forRemoval = false)
+  @UsedViaReflection
+  public AS4IncomingReceiptCache ()
+  {}
+
+  @Nonnull
+  public static AS4IncomingReceiptCache getInstance ()
+  {
+    return getGlobalSingleton (AS4IncomingReceiptCache.class);
+  }
+
+  @Nullable
+  public static AS4IncomingReceiptCache getInstanceIfInstantiated ()
+  {
+    return getGlobalSingletonIfInstantiated (AS4IncomingReceiptCache.class);
+  }
+
+  /**
+   * Get the digest of the provided signature value, as used for the lookup.
+   *
+   * @param sSignatureValue
+   *        The raw text content of the ds:SignatureValue element. May be
+   *        <code>null</code>.
+   * @return The SHA-256 digest of the unmodified text or <code>null</code> if
+   *         no signature value is present.
+   */
+  @Nullable
+  public static byte [] getSignatureValueDigest (@Nullable final String sSignatureValue)
+  {
+    if (StringHelper.hasNoText (sSignatureValue))
+      return null;
+
+    try
+    {
+      return MessageDigest.getInstance ("SHA-256").digest (sSignatureValue.getBytes (StandardCharsets.UTF_8));
+    }
+    catch (final NoSuchAlgorithmException ex)
+    {
+      // Don't cache
+      return null;
+    }
+  }
+
+  /**
+   * @return The maximum number of cached receipts. Always &gt; 0.
+   */
+  @Nonnegative
+  public int getMaxEntries ()
+  {
+    return m_nMaxEntries;
+  }
+
+  /**
+   * @param nMaxEntries
+   *        The maximum number of cached receipts. Must be &gt; 0.
+   */
+  public void setMaxEntries (@Nonnegative final int nMaxEntries)
+  {
+    ValueEnforcer.isGT0 (nMaxEntries, "MaxEntries");
+    m_nMaxEntries = nMaxEntries;
+  }
+
+  /**
+   * @return The number of cached receipts. Always &ge; 0.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aMap.size ();
+  }
+
+  /**
+   * Cache the receipt of a successfully handled incoming message.
+   *
+   * @param sMessageID
+   *        The incoming message ID. May not be <code>null</code>.
+   * @param aSignatureValueDigest
+   *        The digest of the ds:SignatureValue of the verified incoming
+   *        message, as created by {@link #getSignatureValueDigest(String)}.
+   *        May not be <code>null</code>.
+   * @param sResponseMessageID
+   *        The message ID of the receipt. May neither be <code>null</code> nor
+   *        empty.
+   * @param aBytes
+   *        The serialized receipt. May not be <code>null</code>.
+   * @param aCharset
+   *        The charset of the serialized receipt. May not be <code>null</code>.
+   * @param aMimeType
+   *        The MIME type of the receipt. May not be <code>null</code>.
+   */
+  public void put (@Nonnull @Nonempty final String sMessageID,
+                   @Nonnull final byte [] aSignatureValueDigest,
+                   @Nonnull @Nonempty final String sResponseMessageID,
+                   @Nonnull final byte [] aBytes,
+                   @Nonnull final Charset aCharset,
+                   @Nonnull final IMimeType aMimeType)
+  {
+    ValueEnforcer.notEmpty (sMessageID, "MessageID");
+    ValueEnforcer.notNull (aSignatureValueDigest, "SignatureValueDigest");
+    ValueEnforcer.notEmpty (sResponseMessageID, "ResponseMessageID");
+    ValueEnforcer.notNull (aBytes, "Bytes");
+    ValueEnforcer.notNull (aCharset, "Charset");
+    ValueEnforcer.notNull (aMimeType, "MimeType");
+
+    final CachedReceipt aEntry = new CachedReceipt (sMessageID,
+                                                    aSignatureValueDigest,
+                                                    sResponseMessageID,
+                                                    aBytes,
+                                                    aCharset,
+                                                    aMimeType);
+    if (m_aMap.putIfAbsent (sMessageID, aEntry) == null)
+    {
+      m_aQueue.add (aEntry);
+
+      // Remove the oldest entries if there are too many
+      CachedReceipt aOldest;
+      while (m_aMap.size () > m_nMaxEntries && (aOldest = m_aQueue.poll ()) != null)
+        m_aMap.remove (aOldest.getMessageID (), aOldest);
+    }
+  }
+
+  /**
+   * Get the cached receipt for the provided incoming message.
+   *
+   * @param sMessageID
+   *        The incoming message ID. May be <code>null</code>.
+   * @param aSignatureValueDigest
+   *        The digest of the ds:SignatureValue of the incoming message. Must be
+   *        identical to the one that was cached. May be <code>null</code>.
+   * @return <code>null</code> if no such receipt is cached.
+   */
+  @Nullable
+  public CachedReceipt get (@Nullable final String sMessageID, @Nullable final byte [] aSignatureValueDigest)
+  {
+    if (StringHelper.hasNoText (sMessageID) || aSignatureValueDigest == null)
+      return null;
+
+    final CachedReceipt ret = m_aMap.get (sMessageID);
+    return ret != null && ret.hasSignatureValueDigest (aSignatureValueDigest) ? ret : null;
+  }
+
+  /**
+   * Remove all receipts that were cached before the provided date time.
+   *
+   * @param aRefDT
+   *        The reference date time. May not be <code>null</code>.
+   * @return The number of evicted receipts.
+   */
+  @Nonnegative
+  public int evictAllItemsBefore (@Nonnull final OffsetDateTime aRefDT)
+  {
+    int ret = 0;
+    CachedReceipt aEntry;
+    while ((aEntry = m_aQueue.peek ()) != null && aEntry.getDateTime ().isBefore (aRefDT))
+    {
+      if (m_aQueue.remove (aEntry) && m_aMap.remove (aEntry.getMessageID (), aEntry))
+        ret++;
+    }
+    return ret;
+  }
+
+  /**
+   * Remove all cached receipts.
+   */
+  public void clearCache ()
+  {
+    m_aQueue.clear ();
+    m_aMap.clear ();
+  }
+}
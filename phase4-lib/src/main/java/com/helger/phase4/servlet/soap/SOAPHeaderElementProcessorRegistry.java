@@ -17,6 +17,8 @@
 package com.helger.phase4.servlet.soap;
 
 import java.security.Provider;
+import java.util.Collections;
+import java.util.Map;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
@@ -29,6 +31,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsImmutableObject;
 import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.impl.CommonsLinkedHashMap;
 import com.helger.commons.collection.impl.ICommonsOrderedMap;
@@ -54,6 +57,8 @@ public class SOAPHeaderElementProcessorRegistry
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (SOAPHeaderElementProcessorRegistry.class);
   private final ICommonsOrderedMap <QName, ISOAPHeaderElementProcessor> m_aMap = new CommonsLinkedHashMap <> ();
+  // Read-only view for the per message dispatching
+  private final Map <QName, ISOAPHeaderElementProcessor> m_aView = Collections.unmodifiableMap (m_aMap);
 
   public SOAPHeaderElementProcessorRegistry ()
   {}
@@ -92,6 +97,24 @@ public class SOAPHeaderElementProcessorRegistry
     return m_aMap.getClone ();
   }
 
+  /**
+   * Get a read-only view on all registered processors, without copying them.
+   * This is meant to be used when dispatching the header elements of a single
+   * message. The iteration order is the registration order.
+   *
+   * @return A read-only view on the registered processors. Never
+   *         <code>null</code>. Changes to the registry are reflected
+   *         immediately.
+   * @see #getAllElementProcessors()
+   * @since 2.7.7
+   */
+  @Nonnull
+  @ReturnsImmutableObject
+  public Map <QName, ISOAPHeaderElementProcessor> getAllElementProcessorsView ()
+  {
+    return m_aView;
+  }
+
   @Nonnull
   public static SOAPHeaderElementProcessorRegistry createDefault (@Nonnull final IPModeResolver aPModeResolver,
                                                                   @Nonnull final IAS4CryptoFactory aCryptoFactorySign,
@@ -135,7 +158,8 @@ public class SOAPHeaderElementProcessorRegistry
                                                                              aCryptoFactoryCrypt,
                                                                              aSecurityProviderSignVerify,
                                                                              aFallbackPModeProvider,
-                                                                             aDecryptParameterModifier));
+                                                                             aDecryptParameterModifier,
+                                                                             aIncomingSecurityConfiguration.getTrustValidationCache ()));
     return ret;
   }
 }
@@ -16,7 +16,6 @@
  */
 package com.helger.phase4.servlet.soap;
 
-import java.io.File;
 import java.io.IOException;
 import java.security.Provider;
 import java.security.cert.X509Certificate;
@@ -47,13 +46,12 @@ import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.CommonsHashSet;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsSet;
-import com.helger.commons.io.file.FileHelper;
-import com.helger.commons.io.stream.HasInputStream;
-import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.io.IHasInputStream;
 import com.helger.commons.regex.RegExCache;
 import com.helger.commons.state.ESuccess;
 import com.helger.commons.string.StringHelper;
 import com.helger.phase4.CAS4;
+import com.helger.phase4.attachment.AS4LazySpoolingInputStreamProvider;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.attachment.WSS4JAttachmentCallbackHandler;
 import com.helger.phase4.config.AS4Configuration;
@@ -62,12 +60,15 @@ import com.helger.phase4.crypto.ECryptoAlgorithmSignDigest;
 import com.helger.phase4.crypto.ECryptoMode;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.crypto.IAS4DecryptParameterModifier;
+import com.helger.phase4.crypto.IAS4TrustValidationCache;
 import com.helger.phase4.ebms3header.Ebms3Error;
 import com.helger.phase4.ebms3header.Ebms3UserMessage;
 import com.helger.phase4.error.EEbmsError;
+import com.helger.phase4.messaging.domain.AS4ReceiptMessage;
 import com.helger.phase4.model.pmode.IPMode;
 import com.helger.phase4.model.pmode.leg.PModeLeg;
 import com.helger.phase4.servlet.AS4MessageState;
+import com.helger.phase4.wss.AS4CachingSignatureTrustValidator;
 import com.helger.phase4.wss.WSSConfigManager;
 import com.helger.phase4.wss.WSSSynchronizer;
 import com.helger.xml.XMLHelper;
@@ -90,12 +91,48 @@ public class SOAPHeaderElementProcessorWSS4J implements ISOAPHeaderElementProces
   private final Provider m_aSecurityProviderSignVerify;
   private final Supplier <? extends IPMode> m_aFallbackPModeProvider;
   private final IAS4DecryptParameterModifier m_aDecryptParameterModifier;
+  private final IAS4TrustValidationCache m_aTrustValidationCache;
 
   public SOAPHeaderElementProcessorWSS4J (@Nonnull final IAS4CryptoFactory aCryptoFactorySign,
                                           @Nonnull final IAS4CryptoFactory aCryptoFactoryCrypt,
                                           @Nullable final Provider aSecurityProviderSignVerify,
                                           @Nonnull final Supplier <? extends IPMode> aFallbackPModeProvider,
                                           @Nullable final IAS4DecryptParameterModifier aDecryptParameterModifier)
+  {
+    this (aCryptoFactorySign,
+          aCryptoFactoryCrypt,
+          aSecurityProviderSignVerify,
+          aFallbackPModeProvider,
+          aDecryptParameterModifier,
+          null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aCryptoFactorySign
+   *        The crypto factory for signature verification. May not be
+   *        <code>null</code>.
+   * @param aCryptoFactoryCrypt
+   *        The crypto factory for decryption. May not be <code>null</code>.
+   * @param aSecurityProviderSignVerify
+   *        The optional security provider for signature verification. May be
+   *        <code>null</code>.
+   * @param aFallbackPModeProvider
+   *        The fallback PMode provider. May not be <code>null</code>.
+   * @param aDecryptParameterModifier
+   *        The optional decrypt parameter modifier. May be <code>null</code>.
+   * @param aTrustValidationCache
+   *        The optional cache for positive certificate trust validation
+   *        results. May be <code>null</code>.
+   * @since 2.7.7
+   */
+  public SOAPHeaderElementProcessorWSS4J (@Nonnull final IAS4CryptoFactory aCryptoFactorySign,
+                                          @Nonnull final IAS4CryptoFactory aCryptoFactoryCrypt,
+                                          @Nullable final Provider aSecurityProviderSignVerify,
+                                          @Nonnull final Supplier <? extends IPMode> aFallbackPModeProvider,
+                                          @Nullable final IAS4DecryptParameterModifier aDecryptParameterModifier,
+                                          @Nullable final IAS4TrustValidationCache aTrustValidationCache)
   {
     ValueEnforcer.notNull (aCryptoFactorySign, "CryptoFactorySign");
     ValueEnforcer.notNull (aCryptoFactoryCrypt, "CryptoFactoryCrypt");
@@ -105,10 +142,12 @@ public class SOAPHeaderElementProcessorWSS4J implements ISOAPHeaderElementProces
     m_aSecurityProviderSignVerify = aSecurityProviderSignVerify;
     m_aFallbackPModeProvider = aFallbackPModeProvider;
     m_aDecryptParameterModifier = aDecryptParameterModifier;
+    m_aTrustValidationCache = aTrustValidationCache;
   }
 
   @Nonnull
   private ESuccess _verifyAndDecrypt (@Nonnull final Document aSOAPDoc,
+                                      @Nonnull final Element aSecurityNode,
                                       @Nonnull final ICommonsList <WSS4JAttachment> aAttachments,
                                       @Nonnull final AS4MessageState aState,
                                       @Nonnull final ICommonsList <Ebms3Error> aProcessingErrorMessagesTarget,
@@ -130,6 +169,13 @@ public class SOAPHeaderElementProcessorWSS4J implements ISOAPHeaderElementProces
       // an instance of globally)
       final WSSConfig aWSSConfig = aWSSConfigSupplier.get ();
 
+      if (m_aTrustValidationCache != null)
+      {
+        // Avoid repeated certificate path validation
+        aWSSConfig.setValidator (WSConstants.SIGNATURE, new AS4CachingSignatureTrustValidator (m_aTrustValidationCache));
+        aState.setTrustValidationCache (m_aTrustValidationCache);
+      }
+
       if (m_aDecryptParameterModifier != null)
       {
         // Make any custom modifications necessary
@@ -204,6 +250,13 @@ public class SOAPHeaderElementProcessorWSS4J implements ISOAPHeaderElementProces
       // this determines if a signature check or a decryption happened
       aState.setSoapWSS4JSecurityActions (nWSS4JSecurityActions);
 
+      if ((nWSS4JSecurityActions & WSConstants.SIGN) == WSConstants.SIGN)
+      {
+        // Remember the verified references, so that a receipt can be created
+        // without searching the SOAP document again
+        aState.setVerifiedDSigReferences (AS4ReceiptMessage.getAllDSigReferenceElements (aSecurityNode));
+      }
+
       final X509Certificate aUsedCert;
       if (aCertSet.size () > 1)
       {
@@ -231,23 +284,33 @@ public class SOAPHeaderElementProcessorWSS4J implements ISOAPHeaderElementProces
 
       // Decrypting the Attachments
       final ICommonsList <WSS4JAttachment> aResponseAttachments = aAttachmentCallbackHandler.getAllResponseAttachments ();
+      final boolean bLazy = AS4Configuration.isIncomingDecryptedAttachmentsLazy ();
+      final int nMemoryThreshold = AS4Configuration.getIncomingDecryptedAttachmentsMemoryThreshold ();
       for (final WSS4JAttachment aResponseAttachment : aResponseAttachments)
       {
-        // Always copy to a temporary file, so that decrypted content can be
-        // read more than once. By default the stream can only be read once
-        // Not nice, but working :)
-        final File aTempFile = aState.getResourceHelper ().createTempFile ();
-        if (StreamHelper.copyByteStream ()
-                        .from (aResponseAttachment.getSourceStream ())
-                        .closeFrom (true)
-                        .to (FileHelper.getBufferedOutputStream (aTempFile))
-                        .closeTo (true)
-                        .build ()
-                        .isFailure ())
+        final IHasInputStream aSourceISP = aResponseAttachment.getInputStreamProvider ();
+        // Attachments that were not decrypted can be read more than once
+        if (aSourceISP == null || aSourceISP.isReadMultiple ())
+          continue;
+
+        // Decrypted attachments can only be read once
+        final AS4LazySpoolingInputStreamProvider aISP = new AS4LazySpoolingInputStreamProvider (aSourceISP,
+                                                                                                aState.getResourceHelper (),
+                                                                                                nMemoryThreshold);
+        if (!bLazy)
         {
-          LOGGER.error ("Failed to write response attachment to temporary file '" + aTempFile.getAbsolutePath () + "'");
+          // Read completely into memory or a temporary file, so that decrypted
+          // content can be read more than once
+          try
+          {
+            aISP.spool ();
+          }
+          catch (final IOException ex)
+          {
+            LOGGER.error ("Failed to spool response attachment '" + aResponseAttachment.getId () + "'", ex);
+          }
         }
-        aResponseAttachment.setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aTempFile)));
+        aResponseAttachment.setSourceStreamProvider (aISP);
       }
 
       // Remember in State
@@ -492,6 +555,7 @@ public class SOAPHeaderElementProcessorWSS4J implements ISOAPHeaderElementProces
       {
         // Use static WSSConfig creation
         eSuccess = WSSSynchronizer.call ( () -> _verifyAndDecrypt (aSOAPDoc,
+                                                                   aSecurityNode,
                                                                    aAttachments,
                                                                    aState,
                                                                    aProcessingErrorMessagesTarget,
@@ -501,6 +565,7 @@ public class SOAPHeaderElementProcessorWSS4J implements ISOAPHeaderElementProces
       {
         // Use instance WSSConfig creation
         eSuccess = _verifyAndDecrypt (aSOAPDoc,
+                                      aSecurityNode,
                                       aAttachments,
                                       aState,
                                       aProcessingErrorMessagesTarget,
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A bounded in-memory cache with a String key, where each entry has its own
+ * expiration time. If the maximum number of entries is reached, expired entries
+ * are removed first and then the oldest entries. This is the shared base of the
+ * different lookup caches.
+ *
+ * @author Philip Helger
+ * @param <VALUETYPE>
+ *        The value type. <code>null</code> values are allowed.
+ * @since 2.7.7
+ */
+@ThreadSafe
+public class AS4ExpiringCache <VALUETYPE>
+{
+  /**
+   * A single cache entry.
+   *
+   * @author Philip Helger
+   * @param <VALUETYPE>
+   *        The value type
+   */
+  @Immutable
+  public static final class Entry <VALUETYPE>
+  {
+    private final VALUETYPE m_aValue;
+    private final long m_nExpiryMillis;
+
+    Entry (@Nullable final VALUETYPE aValue, final long nExpiryMillis)
+    {
+      m_aValue = aValue;
+      m_nExpiryMillis = nExpiryMillis;
+    }
+
+    /**
+     * @return The cached value. May be <code>null</code>.
+     */
+    @Nullable
+    public VALUETYPE getValue ()
+    {
+      return m_aValue;
+    }
+
+    /**
+     * @return The expiration time in milliseconds since the epoch.
+     */
+    public long getExpiryMillis ()
+    {
+      return m_nExpiryMillis;
+    }
+  }
+
+  private final int m_nMaxEntries;
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  @GuardedBy ("m_aRWLock")
+  private final Map <String, Entry <VALUETYPE>> m_aMap = new LinkedHashMap <> ();
+
+  /**
+   * Constructor
+   *
+   * @param nMaxEntries
+   *        The maximum number of entries to keep. Must be &gt; 0.
+   */
+  public AS4ExpiringCache (@Nonnegative final int nMaxEntries)
+  {
+    ValueEnforcer.isGT0 (nMaxEntries, "MaxEntries");
+    m_nMaxEntries = nMaxEntries;
+  }
+
+  /**
+   * @return The maximum number of entries. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxEntries ()
+  {
+    return m_nMaxEntries;
+  }
+
+  /**
+   * Get the entry of the provided key, if it is not expired.
+   *
+   * @param sKey
+   *        The key to search. May not be <code>null</code>.
+   * @return <code>null</code> if no such entry is present or if it is expired.
+   */
+  @Nullable
+  public final Entry <VALUETYPE> getNotExpired (@Nonnull final String sKey)
+  {
+    final Entry <VALUETYPE> aEntry = m_aRWLock.readLockedGet ( () -> m_aMap.get (sKey));
+    if (aEntry != null && aEntry.m_nExpiryMillis > System.currentTimeMillis ())
+      return aEntry;
+    return null;
+  }
+
+  /**
+   * Add or replace an entry. A replaced entry counts as the newest entry.
+   *
+   * @param sKey
+   *        The key to use. May neither be <code>null</code> nor empty.
+   * @param aValue
+   *        The value to cache. May be <code>null</code>.
+   * @param nExpiryMillis
+   *        The expiration time in milliseconds since the epoch. Entries that
+   *        are already expired are not added.
+   */
+  public final void put (@Nonnull @Nonempty final String sKey,
+                         @Nullable final VALUETYPE aValue,
+                         final long nExpiryMillis)
+  {
+    ValueEnforcer.notEmpty (sKey, "Key");
+    final long nNow = System.currentTimeMillis ();
+    if (nExpiryMillis <= nNow)
+      return;
+
+    final Entry <VALUETYPE> aEntry = new Entry <> (aValue, nExpiryMillis);
+    m_aRWLock.writeLocked ( () -> {
+      // Re-insert to update the insertion order
+      m_aMap.remove (sKey);
+      if (m_aMap.size () >= m_nMaxEntries)
+      {
+        // Remove expired ones first
+        m_aMap.values ().removeIf (x -> x.m_nExpiryMillis <= nNow);
+
+        // Remove the oldest entries
+        final Iterator <String> it = m_aMap.keySet ().iterator ();
+        while (m_aMap.size () >= m_nMaxEntries && it.hasNext ())
+        {
+          it.next ();
+          it.remove ();
+        }
+      }
+      m_aMap.put (sKey, aEntry);
+    });
+  }
+
+  /**
+   * Remove all entries with a key starting with the provided prefix.
+   *
+   * @param sKeyPrefix
+   *        The key prefix. May not be <code>null</code>.
+   * @return The number of removed entries. Always &ge; 0.
+   */
+  @Nonnegative
+  public final int removeAllWithKeyPrefix (@Nonnull final String sKeyPrefix)
+  {
+    ValueEnforcer.notNull (sKeyPrefix, "KeyPrefix");
+    return m_aRWLock.writeLockedGet ( () -> {
+      final int nOldSize = m_aMap.size ();
+      m_aMap.keySet ().removeIf (x -> x.startsWith (sKeyPrefix));
+      return Integer.valueOf (nOldSize - m_aMap.size ());
+    }).intValue ();
+  }
+
+  /**
+   * Remove all entries.
+   */
+  public final void removeAll ()
+  {
+    m_aRWLock.writeLocked (m_aMap::clear);
+  }
+
+  /**
+   * @return The number of cached entries, including the expired ones that were
+   *         not yet evicted. Always &ge; 0.
+   */
+  @Nonnegative
+  public final int size ()
+  {
+    return m_aRWLock.readLockedInt (m_aMap::size);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("MaxEntries", m_nMaxEntries).append ("Size", size ()).getToString ();
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.wss;
+
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.validate.SignatureTrustValidator;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.phase4.crypto.IAS4TrustValidationCache;
+
+/**
+ * A WSS4J {@link SignatureTrustValidator} that skips the expensive certificate
+ * path validation of {@link Crypto#verifyTrust(X509Certificate[], boolean,
+ * Collection, Collection)} if the same certificate was recently validated
+ * successfully with the same {@link Crypto} and the same settings. The expiry
+ * check of the certificates is always performed.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+public class AS4CachingSignatureTrustValidator extends SignatureTrustValidator
+{
+  private static final SimpleLock LOCK = new SimpleLock ();
+  // Weak keys, so that replaced Crypto instances can be garbage collected
+  @GuardedBy ("LOCK")
+  private static final Map <Crypto, Long> CRYPTO_IDS = new WeakHashMap <> ();
+  @GuardedBy ("LOCK")
+  private static long s_nNextCryptoID = 0;
+
+  private final IAS4TrustValidationCache m_aCache;
+
+  public AS4CachingSignatureTrustValidator (@Nonnull final IAS4TrustValidationCache aCache)
+  {
+    ValueEnforcer.notNull (aCache, "Cache");
+    m_aCache = aCache;
+  }
+
+  /**
+   * @return The cache to be used. Never <code>null</code>.
+   */
+  @Nonnull
+  public final IAS4TrustValidationCache getCache ()
+  {
+    return m_aCache;
+  }
+
+  private static void _appendPatterns (@Nonnull final StringBuilder aSB,
+                                       @Nullable final Collection <Pattern> aPatterns)
+  {
+    aSB.append ('[');
+    if (aPatterns != null)
+      for (final Pattern aPattern : aPatterns)
+        aSB.append (aPattern.pattern ()).append ('|');
+    aSB.append (']');
+  }
+
+  /**
+   * Get a unique ID for the provided {@link Crypto} instance. Different
+   * instances never share the same ID, even if an instance was garbage
+   * collected in the meantime.
+   *
+   * @param aCrypto
+   *        The crypto to get the ID for. May not be <code>null</code>.
+   * @return The ID of the crypto. Always &ge; 0.
+   */
+  @Nonnegative
+  protected static long getCryptoID (@Nonnull final Crypto aCrypto)
+  {
+    return LOCK.lockedGet ( () -> CRYPTO_IDS.computeIfAbsent (aCrypto, k -> Long.valueOf (s_nNextCryptoID++)))
+               .longValue ();
+  }
+
+  /**
+   * Get the validation type for the cache. It contains all the parameters that
+   * influence the trust validation.
+   *
+   * @param aCrypto
+   *        The crypto used for validation. Its unique ID is part of the type,
+   *        so that a replaced trust store does not use old results.
+   * @param aData
+   *        The request data with the constraints.
+   * @param bEnableRevocation
+   *        <code>true</code> if revocation checking is enabled.
+   * @return The validation type. Never <code>null</code> nor empty.
+   */
+  @Nonnull
+  protected String getValidationType (@Nonnull final Crypto aCrypto,
+                                      @Nonnull final RequestData aData,
+                                      final boolean bEnableRevocation)
+  {
+    final StringBuilder aSB = new StringBuilder ("wss4j-");
+    aSB.append (getCryptoID (aCrypto));
+    if (bEnableRevocation)
+      aSB.append ("-revocation");
+    _appendPatterns (aSB, aData.getSubjectCertConstraints ());
+    _appendPatterns (aSB, aData.getIssuerDNPatterns ());
+    return aSB.toString ();
+  }
+
+  @Override
+  protected void verifyTrustInCerts (final X509Certificate [] aCerts,
+                                     final Crypto aCrypto,
+                                     final RequestData aData,
+                                     final boolean bEnableRevocation) throws WSSecurityException
+  {
+    if (aCerts == null || aCerts.length == 0 || aCerts[0] == null)
+    {
+      super.verifyTrustInCerts (aCerts, aCrypto, aData, bEnableRevocation);
+      return;
+    }
+
+    final String sValidationType = getValidationType (aCrypto, aData, bEnableRevocation);
+    if (m_aCache.isTrusted (sValidationType, aCerts[0]))
+      return;
+
+    // Throws an exception if not trusted
+    super.verifyTrustInCerts (aCerts, aCrypto, aData, bEnableRevocation);
+    m_aCache.setTrusted (sValidationType, aCerts[0]);
+  }
+}
@@ -16,11 +16,14 @@
  */
 package com.helger.phase4.wss;
 
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 import org.apache.wss4j.dom.engine.WSSConfig;
@@ -32,6 +35,11 @@ import com.helger.phase4.config.AS4Configuration;
 /**
  * A helper class to run all WSS stuff in a lock. {@link WSSConfig#init()} and
  * {@link WSSConfig#cleanUp()} is called for every invocation.<br>
+ * If {@link AS4Configuration#isWSS4JSynchronizedSecurityConcurrent()} returns
+ * <code>true</code>, the actions are not serialized. Instead
+ * {@link WSSConfig#init()} is called when the first action starts and
+ * {@link WSSConfig#cleanUp()} is called when the last running action finished,
+ * so that the security providers are available for all running actions.<br>
  * Note: this class may only be invoked if
  * {@link AS4Configuration#isWSS4JSynchronizedSecurity()} returns
  * <code>true</code>.
@@ -43,10 +51,31 @@ import com.helger.phase4.config.AS4Configuration;
 public final class WSSSynchronizer
 {
   private static final Lock LOCK = new ReentrantLock ();
+  private static final Condition NO_CONCURRENT_CALLS = LOCK.newCondition ();
+  @GuardedBy ("LOCK")
+  private static int s_nConcurrentCalls = 0;
 
   private WSSSynchronizer ()
   {}
 
+  /**
+   * @return The number of currently running concurrent calls. Always &ge; 0.
+   * @since 2.7.7
+   */
+  @Nonnegative
+  public static int getConcurrentCallCount ()
+  {
+    LOCK.lock ();
+    try
+    {
+      return s_nConcurrentCalls;
+    }
+    finally
+    {
+      LOCK.unlock ();
+    }
+  }
+
   /**
    * A wrapper around {@link #call(IThrowingSupplier)} swallowing the return
    * value
@@ -66,14 +95,17 @@ public final class WSSSynchronizer
   }
 
   @Nullable
-  public static <T, EX extends Exception> T call (@Nonnull final IThrowingSupplier <T, EX> aSupplier) throws EX
+  private static <T, EX extends Exception> T _callExclusive (@Nonnull final IThrowingSupplier <T, EX> aSupplier) throws EX
   {
-    ValueEnforcer.notNull (aSupplier, "Supplier");
-
     // Lock
     LOCK.lock ();
     try
     {
+      // Wait until all concurrent calls are done, because cleanUp would
+      // remove the providers they rely on
+      while (s_nConcurrentCalls > 0)
+        NO_CONCURRENT_CALLS.awaitUninterruptibly ();
+
       // Register
       WSSConfig.init ();
       try
@@ -93,4 +125,55 @@ public final class WSSSynchronizer
       LOCK.unlock ();
     }
   }
+
+  @Nullable
+  private static <T, EX extends Exception> T _callConcurrent (@Nonnull final IThrowingSupplier <T, EX> aSupplier) throws EX
+  {
+    // Register - only the first call needs to initialize
+    LOCK.lock ();
+    try
+    {
+      if (s_nConcurrentCalls == 0)
+        WSSConfig.init ();
+      s_nConcurrentCalls++;
+    }
+    finally
+    {
+      LOCK.unlock ();
+    }
+
+    try
+    {
+      // Perform outside of the lock
+      return aSupplier.get ();
+    }
+    finally
+    {
+      // Unregister - only the last call needs to clean up
+      LOCK.lock ();
+      try
+      {
+        s_nConcurrentCalls--;
+        if (s_nConcurrentCalls == 0)
+        {
+          WSSConfig.cleanUp ();
+          NO_CONCURRENT_CALLS.signalAll ();
+        }
+      }
+      finally
+      {
+        LOCK.unlock ();
+      }
+    }
+  }
+
+  @Nullable
+  public static <T, EX extends Exception> T call (@Nonnull final IThrowingSupplier <T, EX> aSupplier) throws EX
+  {
+    ValueEnforcer.notNull (aSupplier, "Supplier");
+
+    if (AS4Configuration.isWSS4JSynchronizedSecurityConcurrent ())
+      return _callConcurrent (aSupplier);
+    return _callExclusive (aSupplier);
+  }
 }
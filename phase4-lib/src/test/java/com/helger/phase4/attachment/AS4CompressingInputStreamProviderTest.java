@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.io.stream.HasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link AS4CompressingInputStreamProvider}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4CompressingInputStreamProviderTest
+{
+  @Nonnull
+  private static byte [] _createPayload (final int nSize)
+  {
+    final byte [] ret = new byte [nSize];
+    for (int i = 0; i < ret.length; ++i)
+      ret[i] = (byte) (i % 253);
+    return ret;
+  }
+
+  @Nonnull
+  private static byte [] _decompress (@Nonnull final byte [] aCompressed) throws Exception
+  {
+    try (final InputStream aIS = EAS4CompressionMode.GZIP.getDecompressStream (new NonBlockingByteArrayInputStream (aCompressed)))
+    {
+      return StreamHelper.getAllBytes (aIS);
+    }
+  }
+
+  @Test
+  public void testReadMultiple () throws Exception
+  {
+    final byte [] aPayload = _createPayload (200_000);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4CompressingInputStreamProvider aISP = new AS4CompressingInputStreamProvider (HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aPayload)),
+                                                                                            EAS4CompressionMode.GZIP,
+                                                                                            aResHelper);
+      assertTrue (aISP.isReadMultiple ());
+      assertFalse (aISP.isSpooled ());
+
+      // Compressed while reading
+      final byte [] aCompressed = StreamHelper.getAllBytes (aISP.getInputStream ());
+      assertTrue (aISP.isSpooled ());
+      assertTrue (aCompressed.length < aPayload.length);
+      assertArrayEquals (aPayload, _decompress (aCompressed));
+
+      // Read again from the temporary file
+      assertArrayEquals (aCompressed, StreamHelper.getAllBytes (aISP.getInputStream ()));
+    }
+  }
+
+  @Test
+  public void testIncompleteFirstRead () throws Exception
+  {
+    final byte [] aPayload = _createPayload (100_000);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4CompressingInputStreamProvider aISP = new AS4CompressingInputStreamProvider (HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aPayload)),
+                                                                                            EAS4CompressionMode.GZIP,
+                                                                                            aResHelper);
+      try (final InputStream aIS = aISP.getInputStream ())
+      {
+        aIS.read (new byte [10]);
+      }
+      // Nothing was spooled
+      assertFalse (aISP.isSpooled ());
+
+      // Compressed again
+      assertArrayEquals (aPayload, _decompress (StreamHelper.getAllBytes (aISP.getInputStream ())));
+      assertTrue (aISP.isSpooled ());
+    }
+  }
+
+  @Test
+  public void testEmpty () throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4CompressingInputStreamProvider aISP = new AS4CompressingInputStreamProvider (HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (new byte [0])),
+                                                                                            EAS4CompressionMode.GZIP,
+                                                                                            aResHelper);
+      final byte [] aCompressed = StreamHelper.getAllBytes (aISP.getInputStream ());
+      assertArrayEquals (new byte [0], _decompress (aCompressed));
+      assertArrayEquals (aCompressed, StreamHelper.getAllBytes (aISP.getInputStream ()));
+    }
+  }
+}
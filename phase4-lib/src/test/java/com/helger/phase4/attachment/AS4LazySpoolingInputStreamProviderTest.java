@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.io.stream.HasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link AS4LazySpoolingInputStreamProvider}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4LazySpoolingInputStreamProviderTest
+{
+  @Nonnull
+  private static byte [] _createPayload (final int nSize)
+  {
+    final byte [] ret = new byte [nSize];
+    for (int i = 0; i < ret.length; ++i)
+      ret[i] = (byte) (i % 253);
+    return ret;
+  }
+
+  @Nonnull
+  private static AS4LazySpoolingInputStreamProvider _create (@Nonnull final byte [] aPayload,
+                                                             @Nonnull final AS4ResourceHelper aResHelper,
+                                                             final int nMemoryThreshold)
+  {
+    return new AS4LazySpoolingInputStreamProvider (HasInputStream.once ( () -> new NonBlockingByteArrayInputStream (aPayload)),
+                                                   aResHelper,
+                                                   nMemoryThreshold);
+  }
+
+  @Test
+  public void testSmallContentIsKeptInMemory () throws Exception
+  {
+    final byte [] aPayload = _createPayload (1000);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4LazySpoolingInputStreamProvider aISP = _create (aPayload, aResHelper, 1000);
+      assertFalse (aISP.isSpooled ());
+      assertFalse (aISP.isReadMultiple ());
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aISP.getInputStream ()));
+      assertTrue (aISP.isSpooled ());
+      assertTrue (aISP.isReadMultiple ());
+      // Read again from memory
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aISP.getInputStream ()));
+    }
+  }
+
+  @Test
+  public void testLargeContentCanBeReadOnce () throws Exception
+  {
+    final byte [] aPayload = _createPayload (10_000);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4LazySpoolingInputStreamProvider aISP = _create (aPayload, aResHelper, 1000);
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aISP.getInputStream ()));
+      assertFalse (aISP.isSpooled ());
+      assertFalse (aISP.isReadMultiple ());
+      try
+      {
+        aISP.getInputStream ();
+        fail ();
+      }
+      catch (final IllegalStateException ex)
+      {
+        // Expected
+      }
+    }
+  }
+
+  @Test
+  public void testSpool () throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      for (final int nSize : new int [] { 0, 999, 1000, 1001, 100_000 })
+      {
+        final byte [] aPayload = _createPayload (nSize);
+        final AS4LazySpoolingInputStreamProvider aISP = _create (aPayload, aResHelper, 1000);
+        aISP.spool ();
+        assertTrue (aISP.isSpooled ());
+        assertTrue (aISP.isReadMultiple ());
+        // Spooling twice does not harm
+        aISP.spool ();
+        for (int i = 0; i < 3; ++i)
+          assertArrayEquals (aPayload, StreamHelper.getAllBytes (aISP.getInputStream ()));
+      }
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * Test class for class {@link AS4ParallelGZipCompressionCodec}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4ParallelGZipCompressionCodecTest
+{
+  @Nonnull
+  private static byte [] _createPayload (final int nSize)
+  {
+    final byte [] ret = new byte [nSize];
+    for (int i = 0; i < ret.length; ++i)
+      ret[i] = (byte) ((i * 31 + i / 7) % 101);
+    return ret;
+  }
+
+  @Nonnull
+  private static byte [] _compress (@Nonnull final IAS4CompressionCodec aCodec,
+                                    @Nonnull final byte [] aPayload,
+                                    final int nChunkSize) throws IOException
+  {
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+    try (final OutputStream aOS = aCodec.getCompressStream (aBAOS))
+    {
+      for (int i = 0; i < aPayload.length; i += nChunkSize)
+        aOS.write (aPayload, i, Math.min (nChunkSize, aPayload.length - i));
+    }
+    return aBAOS.toByteArray ();
+  }
+
+  @Nonnull
+  private static byte [] _decompressJDK (@Nonnull final byte [] aCompressed) throws IOException
+  {
+    try (final InputStream aIS = new GZIPInputStream (new NonBlockingByteArrayInputStream (aCompressed)))
+    {
+      return StreamHelper.getAllBytes (aIS);
+    }
+  }
+
+  @Test
+  public void testRoundTrip () throws IOException
+  {
+    final ForkJoinPool aPool = new ForkJoinPool (4);
+    try
+    {
+      final AS4ParallelGZipCompressionCodec aCodec = new AS4ParallelGZipCompressionCodec (6, 10_000, aPool);
+      for (final int nSize : new int [] { 0, 1, 9_999, 10_000, 10_001, 123_456 })
+      {
+        final byte [] aPayload = _createPayload (nSize);
+        final byte [] aCompressed = _compress (aCodec, aPayload, 4096);
+        // Must be readable by the JDK
+        assertArrayEquals (aPayload, _decompressJDK (aCompressed));
+        assertArrayEquals (aPayload, StreamHelper.getAllBytes (aCodec.getDecompressStream (new NonBlockingByteArrayInputStream (aCompressed))));
+      }
+    }
+    finally
+    {
+      aPool.shutdown ();
+    }
+  }
+
+  @Test
+  public void testDeterministic () throws IOException
+  {
+    final AS4ParallelGZipCompressionCodec aCodec = new AS4ParallelGZipCompressionCodec (-1, 8_192);
+    final byte [] aPayload = _createPayload (100_000);
+    // Independent of the write chunk size
+    final byte [] aCompressed = _compress (aCodec, aPayload, 1000);
+    assertArrayEquals (aCompressed, _compress (aCodec, aPayload, 77_777));
+    assertArrayEquals (aCompressed, _compress (aCodec, aPayload, 1));
+  }
+
+  @Test
+  public void testSingleBlockIsStandardGZip () throws IOException
+  {
+    final byte [] aPayload = _createPayload (5_000);
+    final byte [] aParallel = _compress (new AS4ParallelGZipCompressionCodec (9, 10_000), aPayload, aPayload.length);
+    final byte [] aSequential = _compress (new AS4GZipCompressionCodec (9), aPayload, aPayload.length);
+    assertArrayEquals (aSequential, aParallel);
+  }
+
+  @Test
+  public void testLevel () throws IOException
+  {
+    final byte [] aPayload = _createPayload (50_000);
+    final byte [] aStored = _compress (new AS4GZipCompressionCodec (0), aPayload, 4096);
+    final byte [] aBest = _compress (new AS4GZipCompressionCodec (9), aPayload, 4096);
+    assertTrue (aStored.length > aPayload.length);
+    assertTrue (aBest.length < aStored.length);
+    assertArrayEquals (aPayload, _decompressJDK (aStored));
+    assertArrayEquals (aPayload, _decompressJDK (aBest));
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.junit.Test;
+
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+import jakarta.mail.internet.InternetHeaders;
+
+/**
+ * Test class for class {@link IAS4IncomingStreamingAttachmentFactory}.
+ *
+ * @author Philip Helger
+ */
+public final class IAS4IncomingStreamingAttachmentFactoryTest
+{
+  private static byte [] _createPayload ()
+  {
+    // Bigger than the in-memory threshold
+    final byte [] ret = new byte [200 * 1024];
+    for (int i = 0; i < ret.length; ++i)
+      ret[i] = (byte) (i % 251);
+    return ret;
+  }
+
+  @Test
+  public void testStreamedMimePart () throws Exception
+  {
+    final byte [] aPayload = _createPayload ();
+    final String sPart = "Content-Type: application/octet-stream\r\n" +
+                         "Content-Transfer-Encoding: binary\r\n" +
+                         "Content-ID: <test@phase4>\r\n" +
+                         "\r\n";
+    final byte [] aHeaderBytes = sPart.getBytes (StandardCharsets.ISO_8859_1);
+    final byte [] aAll = new byte [aHeaderBytes.length + aPayload.length];
+    System.arraycopy (aHeaderBytes, 0, aAll, 0, aHeaderBytes.length);
+    System.arraycopy (aPayload, 0, aAll, aHeaderBytes.length, aPayload.length);
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ();
+         final InputStream aIS = new NonBlockingByteArrayInputStream (aAll))
+    {
+      // Headers are parsed, content is left in the stream
+      final InternetHeaders aHeaders = new InternetHeaders (aIS);
+      final WSS4JAttachment aAttachment = IAS4IncomingStreamingAttachmentFactory.STREAMING_INSTANCE.createAttachment (aHeaders,
+                                                                                                                     aIS,
+                                                                                                                     aResHelper);
+      assertEquals ("test@phase4", aAttachment.getId ());
+      assertEquals ("application/octet-stream", aAttachment.getMimeType ());
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+      // Can be read more than once
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+    }
+  }
+
+  @Test
+  public void testBase64Decoding () throws Exception
+  {
+    final byte [] aPayload = _createPayload ();
+    final InternetHeaders aHeaders = new InternetHeaders ();
+    aHeaders.addHeader ("Content-Type", "application/xml");
+    aHeaders.addHeader ("Content-Transfer-Encoding", "base64");
+    aHeaders.addHeader ("Content-ID", "<b64@phase4>");
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ();
+         final InputStream aIS = new NonBlockingByteArrayInputStream (Base64.getMimeEncoder ().encode (aPayload)))
+    {
+      final WSS4JAttachment aAttachment = IAS4IncomingStreamingAttachmentFactory.STREAMING_INSTANCE.createAttachment (aHeaders,
+                                                                                                                     aIS,
+                                                                                                                     aResHelper);
+      assertEquals ("b64@phase4", aAttachment.getId ());
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+    }
+  }
+
+  @Test
+  public void testMissingContentType () throws Exception
+  {
+    final byte [] aPayload = _createPayload ();
+    final InternetHeaders aHeaders = new InternetHeaders ();
+    aHeaders.addHeader ("Content-ID", "<noct@phase4>");
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ();
+         final InputStream aIS = new NonBlockingByteArrayInputStream (aPayload))
+    {
+      final WSS4JAttachment aAttachment = IAS4IncomingStreamingAttachmentFactory.STREAMING_INSTANCE.createAttachment (aHeaders,
+                                                                                                                     aIS,
+                                                                                                                     aResHelper);
+      assertEquals ("noct@phase4", aAttachment.getId ());
+      // Same as MimeBodyPart.getContentType ()
+      assertEquals ("text/plain", aAttachment.getMimeType ());
+      assertEquals ("text/plain", aAttachment.getHeaders ().get ("Content-Type"));
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+    }
+  }
+}
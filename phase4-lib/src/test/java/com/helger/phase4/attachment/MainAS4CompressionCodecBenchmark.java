@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.io.stream.NullOutputStream;
+import com.helger.commons.timing.StopWatch;
+
+/**
+ * Compares the throughput of {@link AS4GZipCompressionCodec} and
+ * {@link AS4ParallelGZipCompressionCodec} for payloads of 1 MB, 10 MB and 100
+ * MB.
+ *
+ * @author Philip Helger
+ */
+public final class MainAS4CompressionCodecBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainAS4CompressionCodecBenchmark.class);
+  private static final int WARMUP_RUNS = 3;
+  private static final int MEASURED_RUNS = 5;
+
+  @Nonnull
+  private static byte [] _createPayload (final int nSize)
+  {
+    // Semi-compressible content: random words of a small vocabulary
+    final String [] aWords = { "Invoice", "Order", "<cbc:ID>", "</cbc:ID>", "EUR", "123.45", "\n", "  " };
+    final byte [] ret = new byte [nSize];
+    final ThreadLocalRandom aRandom = ThreadLocalRandom.current ();
+    int nPos = 0;
+    while (nPos < nSize)
+    {
+      final byte [] aWord = aWords[aRandom.nextInt (aWords.length)].getBytes (StandardCharsets.US_ASCII);
+      final int nLen = Math.min (aWord.length, nSize - nPos);
+      System.arraycopy (aWord, 0, ret, nPos, nLen);
+      nPos += nLen;
+    }
+    return ret;
+  }
+
+  private static long _compress (@Nonnull final IAS4CompressionCodec aCodec, @Nonnull final byte [] aPayload) throws IOException
+  {
+    final StopWatch aSW = StopWatch.createdStarted ();
+    try (final OutputStream aOS = aCodec.getCompressStream (new NullOutputStream ()))
+    {
+      aOS.write (aPayload);
+    }
+    aSW.stop ();
+    return aSW.getMillis ();
+  }
+
+  private static double _measure (@Nonnull final IAS4CompressionCodec aCodec, @Nonnull final byte [] aPayload) throws IOException
+  {
+    for (int i = 0; i < WARMUP_RUNS; ++i)
+      _compress (aCodec, aPayload);
+    long nTotal = 0;
+    for (int i = 0; i < MEASURED_RUNS; ++i)
+      nTotal += _compress (aCodec, aPayload);
+    return nTotal / (double) MEASURED_RUNS;
+  }
+
+  public static void main (final String [] args) throws Exception
+  {
+    final IAS4CompressionCodec aSequential = new AS4GZipCompressionCodec (-1);
+    final IAS4CompressionCodec aParallel = new AS4ParallelGZipCompressionCodec (-1, CGlobal.BYTES_PER_MEGABYTE);
+    for (final int nMB : new int [] { 1, 10, 100 })
+    {
+      final byte [] aPayload = _createPayload (nMB * CGlobal.BYTES_PER_MEGABYTE);
+      final double dSequential = _measure (aSequential, aPayload);
+      final double dParallel = _measure (aParallel, aPayload);
+      LOGGER.info (nMB +
+                   " MB: sequential " +
+                   String.format ("%.1f", dSequential) +
+                   " ms, parallel " +
+                   String.format ("%.1f", dParallel) +
+                   " ms (speedup " +
+                   String.format ("%.2f", dSequential / Math.max (1, dParallel)) +
+                   ")");
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.phase4.messaging.EAS4MessageMode;
+
+/**
+ * Test class for class {@link AS4AsyncDumpWriter}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4AsyncDumpWriterTest
+{
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Nonnull
+  private static byte [] _createPayload (final int nSize, final int nSeed)
+  {
+    final byte [] ret = new byte [nSize];
+    for (int i = 0; i < ret.length; ++i)
+      ret[i] = (byte) (i * nSeed);
+    return ret;
+  }
+
+  /**
+   * Read all segment files and return the content per stream ID, in the order
+   * the streams were started.
+   */
+  @Nonnull
+  private static ICommonsOrderedMap <Long, NonBlockingByteArrayOutputStream> _readAll (@Nonnull final File aDir) throws IOException
+  {
+    final ICommonsOrderedMap <Long, NonBlockingByteArrayOutputStream> ret = new CommonsLinkedHashMap <> ();
+    final File [] aFiles = aDir.listFiles ( (d, n) -> n.endsWith (AS4DumpSegment.FILE_EXTENSION));
+    assertNotNull (aFiles);
+    Arrays.sort (aFiles);
+    for (final File aFile : aFiles)
+      try (final DataInputStream aDIS = new DataInputStream (FileHelper.getBufferedInputStream (aFile)))
+      {
+        final byte [] aMagic = new byte [AS4DumpSegment.FILE_MAGIC.length];
+        aDIS.readFully (aMagic);
+        assertArrayEquals (AS4DumpSegment.FILE_MAGIC, aMagic);
+        while (true)
+        {
+          final byte nType;
+          try
+          {
+            nType = aDIS.readByte ();
+          }
+          catch (final EOFException ex)
+          {
+            break;
+          }
+          final Long aStreamID = Long.valueOf (aDIS.readLong ());
+          final byte [] aPayload = new byte [aDIS.readInt ()];
+          aDIS.readFully (aPayload);
+          if (nType == AS4DumpSegment.FRAME_BEGIN)
+            ret.put (aStreamID, new NonBlockingByteArrayOutputStream ());
+          else
+            if (nType == AS4DumpSegment.FRAME_DATA)
+              ret.get (aStreamID).write (aPayload);
+        }
+      }
+    return ret;
+  }
+
+  @Test
+  public void testInterleavedStreams () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    final byte [] aPayload1 = _createPayload (100_000, 3);
+    final byte [] aPayload2 = _createPayload (55_555, 7);
+    try (final AS4AsyncDumpWriter aWriter = new AS4AsyncDumpWriter (aDir, 16, 64 * 1024, 1024))
+    {
+      // Small segments to force rotation
+      aWriter.setMaxSegmentSize (20_000);
+      try (final OutputStream aOS1 = aWriter.openIncomingStream ("in-1");
+           final OutputStream aOS2 = aWriter.openOutgoingStream ("msg-2", 0))
+      {
+        for (int i = 0; i < 100_000; i += 1000)
+        {
+          aOS1.write (aPayload1, i, 1000);
+          if (i < aPayload2.length)
+            aOS2.write (aPayload2, i, Math.min (1000, aPayload2.length - i));
+        }
+      }
+    }
+
+    final ICommonsOrderedMap <Long, NonBlockingByteArrayOutputStream> aStreams = _readAll (aDir);
+    assertEquals (2, aStreams.size ());
+    assertArrayEquals (aPayload1, aStreams.getFirstValue ().toByteArray ());
+    assertArrayEquals (aPayload2, aStreams.getLastValue ().toByteArray ());
+    assertTrue (aDir.listFiles ().length > 1);
+  }
+
+  @Test
+  public void testDropPolicy () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    final byte [] aPayload = _createPayload (1_000_000, 5);
+    final AS4AsyncDumpWriter aWriter = new AS4AsyncDumpWriter (aDir, 1, 1024, 1024);
+    aWriter.setOverflowPolicy (EAS4DumpOverflowPolicy.DROP);
+    try
+    {
+      try (final OutputStream aOS = aWriter.openIncomingStream ("in"))
+      {
+        aOS.write (aPayload);
+      }
+    }
+    finally
+    {
+      aWriter.close ();
+    }
+
+    final ICommonsOrderedMap <Long, NonBlockingByteArrayOutputStream> aStreams = _readAll (aDir);
+    final int nWritten = aStreams.isEmpty () ? 0 : aStreams.getFirstValue ().size ();
+    // Every byte is either written or counted as dropped
+    assertEquals (aPayload.length, nWritten + aWriter.getDroppedBytes ());
+    assertEquals (0, aWriter.getQueuedBytes ());
+    if (aWriter.getDroppedBytes () > 0)
+      assertEquals (1, aWriter.getTruncatedStreamCount ());
+  }
+
+  @Test
+  public void testWriteAfterClose () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    final byte [] aPayload = _createPayload (10_000, 11);
+    final AS4AsyncDumpWriter aWriter = new AS4AsyncDumpWriter (aDir, 16, 64 * 1024, 1024);
+    final OutputStream aOS = aWriter.openIncomingStream ("in");
+    // Exactly 5 chunks, so that everything is queued
+    aOS.write (aPayload, 0, 5_120);
+    aWriter.close ();
+
+    // Writing to a stream that is still open is dropped
+    aOS.write (aPayload, 5_120, 4_880);
+    aOS.close ();
+    assertEquals (4_880, aWriter.getDroppedBytes ());
+    assertEquals (1, aWriter.getTruncatedStreamCount ());
+    assertEquals (0, aWriter.getQueuedBytes ());
+
+    // The stream is marked as incomplete in the index
+    final ICommonsList <AS4DumpIndexEntry> aEntries = new AS4DumpSegmentReader (aDir).getAllEntries ();
+    assertEquals (1, aEntries.size ());
+    assertFalse (aEntries.getFirst ().isComplete ());
+  }
+
+  @Test
+  public void testDumperAfterClose () throws Exception
+  {
+    final AS4AsyncDumpWriter aWriter = new AS4AsyncDumpWriter (m_aTempFolder.newFolder (), 16, 64 * 1024, 1024);
+    final AS4OutgoingDumperAsync aDumper = new AS4OutgoingDumperAsync (aWriter);
+    try (final OutputStream aOS = aDumper.onBeginRequest (EAS4MessageMode.REQUEST, null, null, "msg", null, 0))
+    {
+      assertNotNull (aOS);
+    }
+    assertFalse (aWriter.isClosed ());
+    aWriter.close ();
+    assertTrue (aWriter.isClosed ());
+
+    // Dumping is skipped instead of failing the message
+    assertNull (aDumper.onBeginRequest (EAS4MessageMode.REQUEST, null, null, "msg", null, 1));
+  }
+}
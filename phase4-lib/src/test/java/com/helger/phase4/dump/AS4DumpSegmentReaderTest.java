@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dump;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.phase4.crypto.AS4CryptoFactoryProperties;
+
+/**
+ * Test class for class {@link AS4DumpSegmentReader}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DumpSegmentReaderTest
+{
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Test
+  public void testWriteAndRead () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    final StringBuilder aSB = new StringBuilder ("Content-Type: text/xml\r\n\r\n<S:Envelope><eb:RefToMessageId>ref</eb:RefToMessageId>");
+    aSB.append ("<eb:MessageId>abc@phase4</eb:MessageId>");
+    while (aSB.length () < 50_000)
+      aSB.append ("<Payload>").append (aSB.length ()).append ("</Payload>");
+    final byte [] aIncoming = aSB.toString ().getBytes (StandardCharsets.ISO_8859_1);
+    final byte [] aOutgoing = "outgoing".getBytes (StandardCharsets.ISO_8859_1);
+
+    try (final AS4AsyncDumpWriter aWriter = new AS4AsyncDumpWriter (aDir, 16, 64 * 1024, 512))
+    {
+      aWriter.setMaxSegmentSize (10_000);
+      try (final OutputStream aOS1 = aWriter.openIncomingStream ("in-1");
+           final OutputStream aOS2 = aWriter.openOutgoingStream ("msg-2", 1))
+      {
+        for (int i = 0; i < aIncoming.length; i += 100)
+        {
+          aOS1.write (aIncoming, i, Math.min (100, aIncoming.length - i));
+          if (i == 5000)
+            aOS2.write (aOutgoing);
+        }
+      }
+      // Not closed before the writer
+      aWriter.openIncomingStream ("in-3").write (aOutgoing);
+    }
+
+    final AS4DumpSegmentReader aReader = new AS4DumpSegmentReader (aDir);
+    assertEquals (3, aReader.getAllEntries ().size ());
+
+    final AS4DumpIndexEntry aEntry1 = aReader.getIncomingEntryOfUniqueID ("in-1");
+    assertNotNull (aEntry1);
+    assertTrue (aEntry1.isIncoming ());
+    assertTrue (aEntry1.isComplete ());
+    assertEquals ("abc@phase4", aEntry1.getMessageID ());
+    try (final InputStream aIS = aReader.openStream (aEntry1))
+    {
+      assertArrayEquals (aIncoming, StreamHelper.getAllBytes (aIS));
+    }
+
+    assertEquals (1, aReader.getAllEntriesOfMessageID ("msg-2").size ());
+    final AS4DumpIndexEntry aEntry2 = aReader.getAllEntriesOfMessageID ("msg-2").getFirstOrNull ();
+    assertFalse (aEntry2.isIncoming ());
+    assertEquals (1, aEntry2.getTry ());
+    try (final InputStream aIS = aReader.openStream (aEntry2))
+    {
+      assertArrayEquals (aOutgoing, StreamHelper.getAllBytes (aIS));
+    }
+
+    final AS4DumpIndexEntry aEntry3 = aReader.getIncomingEntryOfUniqueID ("in-3");
+    assertNotNull (aEntry3);
+    assertFalse (aEntry3.isComplete ());
+    assertNull (aEntry3.getMessageID ());
+
+    assertNull (aReader.getIncomingEntryOfUniqueID ("in-2"));
+    assertTrue (aReader.getAllEntriesOfMessageID ("ref").isEmpty ());
+  }
+
+  @Test
+  public void testMultipleRuns () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    final byte [] aFirst = "first".getBytes (StandardCharsets.ISO_8859_1);
+    final byte [] aSecond = "second".getBytes (StandardCharsets.ISO_8859_1);
+
+    // First run with a stream that is not closed before the writer
+    try (final AS4AsyncDumpWriter aWriter = new AS4AsyncDumpWriter (aDir))
+    {
+      aWriter.openIncomingStream ("in-1").write (aFirst);
+    }
+    // Second run in the same directory
+    try (final AS4AsyncDumpWriter aWriter = new AS4AsyncDumpWriter (aDir))
+    {
+      try (final OutputStream aOS = aWriter.openIncomingStream ("in-2"))
+      {
+        aOS.write (aSecond);
+      }
+    }
+
+    final AS4DumpSegmentReader aReader = new AS4DumpSegmentReader (aDir);
+    final AS4DumpIndexEntry aEntry1 = aReader.getIncomingEntryOfUniqueID ("in-1");
+    final AS4DumpIndexEntry aEntry2 = aReader.getIncomingEntryOfUniqueID ("in-2");
+    assertNotNull (aEntry1);
+    assertNotNull (aEntry2);
+    assertTrue (aEntry1.getStreamID () != aEntry2.getStreamID ());
+    assertFalse (aEntry1.isComplete ());
+    assertEquals (aEntry1.getSegmentFilename (), aEntry1.getEndSegmentFilename ());
+    assertFalse (aEntry1.getEndSegmentFilename ().equals (aEntry2.getSegmentFilename ()));
+
+    try (final InputStream aIS = aReader.openStream (aEntry2))
+    {
+      assertArrayEquals (aSecond, StreamHelper.getAllBytes (aIS));
+    }
+
+    // The incomplete stream has no end frame, but the later segment must not
+    // be read
+    assertTrue (new File (aDir, aEntry2.getSegmentFilename ()).delete ());
+    try (final InputStream aIS = aReader.openStream (aEntry1))
+    {
+      assertArrayEquals (aFirst, StreamHelper.getAllBytes (aIS));
+    }
+  }
+
+  @Test
+  public void testDecryptClosesStream () throws Exception
+  {
+    final AtomicBoolean aClosed = new AtomicBoolean (false);
+    final InputStream aIS = new InputStream ()
+    {
+      @Override
+      public int read () throws IOException
+      {
+        throw new IOException ("Test read error");
+      }
+
+      @Override
+      public void close ()
+      {
+        aClosed.set (true);
+      }
+    };
+    try
+    {
+      AS4DumpReader.decryptAS4In (aIS,
+                                  AS4CryptoFactoryProperties.getDefaultInstance (),
+                                  AS4CryptoFactoryProperties.getDefaultInstance (),
+                                  null,
+                                  (nIndex, aPayload) -> {});
+      fail ();
+    }
+    catch (final IOException ex)
+    {
+      // expected
+    }
+    assertTrue (aClosed.get ());
+  }
+
+  @Test
+  public void testReadInitialHttpHeaders () throws Exception
+  {
+    final byte [] aData = "A: 1\r\nB: x:y\r\n\r\npayload".getBytes (StandardCharsets.ISO_8859_1);
+    try (final InputStream aIS = new NonBlockingByteArrayInputStream (aData))
+    {
+      final HttpHeaderMap hm = AS4DumpReader.readInitialHttpHeaders (aIS);
+      assertEquals (2, hm.getCount ());
+      assertEquals ("x:y", hm.getFirstHeaderValue ("B"));
+      assertEquals ("payload", new String (StreamHelper.getAllBytes (aIS), StandardCharsets.ISO_8859_1));
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.OffsetDateTime;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.phase4.mgr.MetaAS4Manager;
+
+/**
+ * Test class for class {@link AS4DuplicateManagerInMemory}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DuplicateManagerInMemoryTest
+{
+  @Test
+  public void testBasic ()
+  {
+    final AS4DuplicateManagerInMemory aMgr = new AS4DuplicateManagerInMemory ();
+    assertTrue (aMgr.isEmpty ());
+
+    assertTrue (aMgr.registerAndCheck (null, null, null).isContinue ());
+    assertTrue (aMgr.registerAndCheck ("", null, null).isContinue ());
+    assertTrue (aMgr.isEmpty ());
+
+    assertTrue (aMgr.registerAndCheck ("a", "profile", "pmode").isContinue ());
+    assertTrue (aMgr.registerAndCheck ("a", "profile", "pmode").isBreak ());
+    assertTrue (aMgr.registerAndCheck ("b", null, null).isContinue ());
+    assertEquals (2, aMgr.size ());
+
+    assertNotNull (aMgr.getItemOfMessageID ("a"));
+    assertEquals ("profile", aMgr.getItemOfMessageID ("a").getProfileID ());
+    assertNull (aMgr.getItemOfMessageID ("c"));
+    assertNull (aMgr.getItemOfMessageID (null));
+    assertEquals (2, aMgr.getAll ().size ());
+
+    // Nothing is older than the past
+    assertTrue (aMgr.evictAllItemsBefore (MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ().minusDays (1))
+                    .isEmpty ());
+    assertEquals (2, aMgr.size ());
+
+    // Everything is older than the future
+    final ICommonsList <String> aEvicted = aMgr.evictAllItemsBefore (MetaAS4Manager.getTimestampMgr ()
+                                                                                   .getCurrentDateTime ()
+                                                                                   .plusDays (1));
+    assertEquals (2, aEvicted.size ());
+    assertEquals ("a", aEvicted.get (0));
+    assertEquals ("b", aEvicted.get (1));
+    assertTrue (aMgr.isEmpty ());
+
+    // Can be registered again after eviction
+    assertTrue (aMgr.registerAndCheck ("a", null, null).isContinue ());
+    assertTrue (aMgr.clearCache ().isChanged ());
+    assertTrue (aMgr.clearCache ().isUnchanged ());
+    assertTrue (aMgr.isEmpty ());
+  }
+
+  @Test
+  public void testConcurrentRegistration () throws Exception
+  {
+    final AS4DuplicateManagerInMemory aMgr = new AS4DuplicateManagerInMemory ();
+    final int nIDs = 10_000;
+    final AtomicInteger aContinueCount = new AtomicInteger (0);
+    final ExecutorService aES = Executors.newFixedThreadPool (8);
+    // Every ID is registered twice
+    for (int i = 0; i < nIDs * 2; ++i)
+    {
+      final String sID = "id" + (i % nIDs);
+      aES.submit ( () -> {
+        if (aMgr.registerAndCheck (sID, null, null).isContinue ())
+          aContinueCount.incrementAndGet ();
+      });
+    }
+    aES.shutdown ();
+    aES.awaitTermination (1, TimeUnit.MINUTES);
+
+    // Each ID must be accepted exactly once
+    assertEquals (nIDs, aContinueCount.get ());
+    assertEquals (nIDs, aMgr.size ());
+
+    final OffsetDateTime aFuture = MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ().plusDays (1);
+    assertEquals (nIDs, aMgr.evictAllItemsBefore (aFuture).size ());
+    assertTrue (aMgr.isEmpty ());
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.time.OffsetDateTime;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.helger.phase4.mgr.MetaAS4Manager;
+
+/**
+ * Test class for class {@link AS4DuplicateManagerMappedFile}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DuplicateManagerMappedFileTest
+{
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Test
+  public void testRestore () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    try (final AS4DuplicateManagerMappedFile aMgr = new AS4DuplicateManagerMappedFile (aDir))
+    {
+      assertTrue (aMgr.isEmpty ());
+      assertTrue (aMgr.registerAndCheck ("a", "profile", "pmode").isContinue ());
+      assertTrue (aMgr.registerAndCheck ("a", "profile", "pmode").isBreak ());
+      assertTrue (aMgr.registerAndCheck ("b", null, null).isContinue ());
+      assertEquals (2, aMgr.size ());
+    }
+
+    try (final AS4DuplicateManagerMappedFile aMgr = new AS4DuplicateManagerMappedFile (aDir))
+    {
+      assertEquals (2, aMgr.size ());
+      // The last segment is continued
+      assertEquals (1, aMgr.getSegmentCount ());
+      final IAS4DuplicateItem aItem = aMgr.getItemOfMessageID ("a");
+      assertNotNull (aItem);
+      assertEquals ("profile", aItem.getProfileID ());
+      assertEquals ("pmode", aItem.getPModeID ());
+      assertNull (aMgr.getItemOfMessageID ("b").getProfileID ());
+
+      // Still a duplicate after restart
+      assertTrue (aMgr.registerAndCheck ("a", null, null).isBreak ());
+      assertTrue (aMgr.registerAndCheck ("c", null, null).isContinue ());
+    }
+
+    try (final AS4DuplicateManagerMappedFile aMgr = new AS4DuplicateManagerMappedFile (aDir))
+    {
+      assertEquals (3, aMgr.size ());
+      assertEquals (1, aMgr.getSegmentCount ());
+
+      assertTrue (aMgr.clearCache ().isChanged ());
+      assertTrue (aMgr.isEmpty ());
+      assertEquals (1, aMgr.getSegmentCount ());
+    }
+
+    try (final AS4DuplicateManagerMappedFile aMgr = new AS4DuplicateManagerMappedFile (aDir))
+    {
+      assertTrue (aMgr.isEmpty ());
+    }
+  }
+
+  @Test
+  public void testEvictionAndSegments () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    final int nCount = 1_000;
+    try (final AS4DuplicateManagerMappedFile aMgr = new AS4DuplicateManagerMappedFile (aDir, 1024))
+    {
+      for (int i = 0; i < nCount; ++i)
+        assertTrue (aMgr.registerAndCheck ("msg-" + i, "profile", "pmode").isContinue ());
+      assertEquals (nCount, aMgr.size ());
+      // Small segments must roll
+      assertTrue (aMgr.getSegmentCount () > 1);
+    }
+
+    final OffsetDateTime aFuture = MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ().plusDays (1);
+    try (final AS4DuplicateManagerMappedFile aMgr = new AS4DuplicateManagerMappedFile (aDir, 1024))
+    {
+      assertEquals (nCount, aMgr.size ());
+
+      // Evict everything - all segments are deleted
+      assertEquals (nCount, aMgr.evictAllItemsBefore (aFuture).size ());
+      assertTrue (aMgr.isEmpty ());
+      assertEquals (1, aMgr.getSegmentCount ());
+    }
+
+    try (final AS4DuplicateManagerMappedFile aMgr = new AS4DuplicateManagerMappedFile (aDir, 1024))
+    {
+      assertTrue (aMgr.isEmpty ());
+    }
+  }
+
+  @Test
+  public void testRegisterAllItems () throws Exception
+  {
+    final AS4DuplicateManagerInMemory aSrc = new AS4DuplicateManagerInMemory ();
+    assertTrue (aSrc.registerAndCheck ("a", "profile", "pmode").isContinue ());
+    assertTrue (aSrc.registerAndCheck ("b", null, null).isContinue ());
+    final OffsetDateTime aDT = aSrc.getItemOfMessageID ("a").getDateTime ();
+
+    final File aDir = m_aTempFolder.newFolder ();
+    try (final AS4DuplicateManagerMappedFile aMgr = new AS4DuplicateManagerMappedFile (aDir))
+    {
+      assertTrue (aMgr.registerAndCheck ("b", null, null).isContinue ());
+      // "b" is already contained
+      assertEquals (1, aMgr.registerAllItems (aSrc.getAll ()));
+      assertEquals (2, aMgr.size ());
+    }
+
+    try (final AS4DuplicateManagerMappedFile aMgr = new AS4DuplicateManagerMappedFile (aDir))
+    {
+      assertEquals (2, aMgr.size ());
+      // The original date time is kept
+      assertEquals (aDT.toInstant (), aMgr.getItemOfMessageID ("a").getDateTime ().toInstant ());
+      assertTrue (aMgr.registerAndCheck ("a", null, null).isBreak ());
+    }
+  }
+}
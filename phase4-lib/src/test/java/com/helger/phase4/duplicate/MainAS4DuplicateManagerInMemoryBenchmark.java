@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import java.time.OffsetDateTime;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.timing.StopWatch;
+import com.helger.phase4.mgr.MetaAS4Manager;
+
+/**
+ * Microbenchmark for {@link AS4DuplicateManagerInMemory} with 1 million
+ * retained message IDs.
+ *
+ * @author Philip Helger
+ */
+public final class MainAS4DuplicateManagerInMemoryBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainAS4DuplicateManagerInMemoryBenchmark.class);
+  private static final int RETAINED = 1_000_000;
+  private static final int THREADS = 8;
+  private static final int NEW_PER_THREAD = 100_000;
+
+  public static void main (final String [] args) throws Exception
+  {
+    final AS4DuplicateManagerInMemory aMgr = new AS4DuplicateManagerInMemory ();
+
+    // Fill
+    StopWatch aSW = StopWatch.createdStarted ();
+    for (int i = 0; i < RETAINED; ++i)
+      aMgr.registerAndCheck ("retained-" + i, "profile", "pmode");
+    aSW.stop ();
+    LOGGER.info ("Registered " + RETAINED + " IDs single-threaded in " + aSW.getMillis () + " ms");
+    final OffsetDateTime aAfterFill = MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ().plusNanos (1);
+
+    // Concurrent registration with 1M retained IDs
+    final ExecutorService aES = Executors.newFixedThreadPool (THREADS);
+    aSW = StopWatch.createdStarted ();
+    for (int t = 0; t < THREADS; ++t)
+    {
+      final int nThread = t;
+      aES.submit ( () -> {
+        for (int i = 0; i < NEW_PER_THREAD; ++i)
+          aMgr.registerAndCheck ("new-" + nThread + "-" + i, "profile", "pmode");
+      });
+    }
+    aES.shutdown ();
+    aES.awaitTermination (1, TimeUnit.HOURS);
+    aSW.stop ();
+    final int nNew = THREADS * NEW_PER_THREAD;
+    LOGGER.info ("Registered " +
+                 nNew +
+                 " IDs with " +
+                 THREADS +
+                 " threads in " +
+                 aSW.getMillis () +
+                 " ms (" +
+                 Math.round (nNew * 1000d / Math.max (1, aSW.getMillis ())) +
+                 " ops/s)");
+
+    // Lookup
+    aSW = StopWatch.createdStarted ();
+    for (int i = 0; i < RETAINED; ++i)
+      if (aMgr.getItemOfMessageID ("retained-" + i) == null)
+        throw new IllegalStateException ("Missing ID " + i);
+    aSW.stop ();
+    LOGGER.info ("Looked up " + RETAINED + " IDs in " + aSW.getMillis () + " ms");
+
+    // Evict only the retained ones
+    aSW = StopWatch.createdStarted ();
+    final int nEvicted = aMgr.evictAllItemsBefore (aAfterFill).size ();
+    aSW.stop ();
+    LOGGER.info ("Evicted " + nEvicted + " of " + (RETAINED + nNew) + " IDs in " + aSW.getMillis () + " ms");
+
+    // Nothing to evict
+    aSW = StopWatch.createdStarted ();
+    aMgr.evictAllItemsBefore (aAfterFill);
+    aSW.stop ();
+    LOGGER.info ("Empty eviction took " + aSW.getNanos () / 1000 + " us");
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.timing.StopWatch;
+
+/**
+ * Measures writing and restoring millions of IDs with
+ * {@link AS4DuplicateManagerMappedFile}.
+ *
+ * @author Philip Helger
+ */
+public final class MainAS4DuplicateManagerMappedFileBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainAS4DuplicateManagerMappedFileBenchmark.class);
+  private static final int COUNT = 2_000_000;
+
+  public static void main (final String [] args) throws Exception
+  {
+    final File aDir = Files.createTempDirectory ("phase4-duplicate").toFile ();
+    try
+    {
+      StopWatch aSW = StopWatch.createdStarted ();
+      try (final AS4DuplicateManagerMappedFile aMgr = new AS4DuplicateManagerMappedFile (aDir))
+      {
+        for (int i = 0; i < COUNT; ++i)
+          aMgr.registerAndCheck ("urn:uuid:" + i + "@phase4", "profile", "pmode");
+        LOGGER.info ("Used " + aMgr.getSegmentCount () + " segments");
+      }
+      aSW.stop ();
+      LOGGER.info ("Registered " + COUNT + " IDs in " + aSW.getMillis () + " ms");
+
+      aSW = StopWatch.createdStarted ();
+      try (final AS4DuplicateManagerMappedFile aMgr = new AS4DuplicateManagerMappedFile (aDir))
+      {
+        aSW.stop ();
+        LOGGER.info ("Restored " + aMgr.size () + " IDs in " + aSW.getMillis () + " ms");
+      }
+    }
+    finally
+    {
+      FileOperationManager.INSTANCE.deleteDirRecursive (aDir);
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.mime.CMimeType;
+import com.helger.phase4.attachment.EAS4CompressionMode;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.messaging.domain.MessageHelperMethods;
+import com.helger.phase4.messaging.mime.AS4MimeMessage;
+import com.helger.phase4.messaging.mime.MimeMessageCreator;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Test class for class {@link HttpMimeMessageEntity}.
+ *
+ * @author Philip Helger
+ */
+public final class HttpMimeMessageEntityTest
+{
+  @Nonnull
+  private static File _createFile (@Nonnull final AS4ResourceHelper aResHelper, final int nSize) throws Exception
+  {
+    final File ret = aResHelper.createTempFile ();
+    try (final OutputStream aOS = FileHelper.getBufferedOutputStream (ret))
+    {
+      for (int i = 0; i < nSize; ++i)
+        aOS.write (i % 253);
+    }
+    return ret;
+  }
+
+  @Nonnull
+  private static byte [] _writeEntity (@Nonnull final HttpMimeMessageEntity aEntity) throws Exception
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      aEntity.writeTo (aBAOS);
+      return aBAOS.toByteArray ();
+    }
+  }
+
+  @Test
+  public void testKnownLength () throws Exception
+  {
+    final Document aSoapDoc = DOMReader.readXMLDOM (new ClassPathResource ("SOAPBodyPayload.xml"));
+    assertNotNull (aSoapDoc);
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final WSS4JAttachment aPlain = WSS4JAttachment.createOutgoingFileAttachment (_createFile (aResHelper, 100_000),
+                                                                                   null,
+                                                                                   "plain.bin",
+                                                                                   CMimeType.APPLICATION_OCTET_STREAM,
+                                                                                   null,
+                                                                                   null,
+                                                                                   aResHelper);
+      final WSS4JAttachment aCompressed = WSS4JAttachment.createOutgoingFileAttachment (_createFile (aResHelper, 50_000),
+                                                                                        null,
+                                                                                        "compressed.bin",
+                                                                                        CMimeType.APPLICATION_OCTET_STREAM,
+                                                                                        EAS4CompressionMode.GZIP,
+                                                                                        null,
+                                                                                        aResHelper);
+      assertNotNull (aPlain.getSourceFile ());
+      assertNotNull (aCompressed.getSourceFile ());
+
+      final AS4MimeMessage aMimeMsg = MimeMessageCreator.generateMimeMessage (ESoapVersion.SOAP_12,
+                                                                              aSoapDoc,
+                                                                              new CommonsArrayList <> (aPlain,
+                                                                                                       aCompressed));
+      final HttpMimeMessageEntity aEntity = HttpMimeMessageEntity.create (aMimeMsg);
+      // Same as when sending
+      MessageHelperMethods.getAndRemoveAllHeaders (aMimeMsg);
+
+      final long nLength = aEntity.getContentLength ();
+      assertTrue (nLength > 150_000);
+
+      final byte [] aFast = _writeEntity (aEntity);
+      assertEquals (nLength, aFast.length);
+
+      // Must be identical to what the MIME message writes itself
+      try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+      {
+        aMimeMsg.writeTo (aBAOS);
+        assertArrayEquals (aBAOS.toByteArray (), aFast);
+      }
+
+      // Repeatable
+      assertArrayEquals (aFast, _writeEntity (aEntity));
+    }
+  }
+
+  @Test
+  public void testUnknownLength () throws Exception
+  {
+    final Document aSoapDoc = DOMReader.readXMLDOM (new ClassPathResource ("SOAPBodyPayload.xml"));
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      // In-memory attachment
+      final WSS4JAttachment aInMemory = WSS4JAttachment.createOutgoingFileAttachment (new byte [] { 1, 2, 3 },
+                                                                                      null,
+                                                                                      "memory.bin",
+                                                                                      CMimeType.APPLICATION_OCTET_STREAM,
+                                                                                      null,
+                                                                                      null,
+                                                                                      aResHelper);
+      final AS4MimeMessage aMimeMsg = MimeMessageCreator.generateMimeMessage (ESoapVersion.SOAP_12,
+                                                                              aSoapDoc,
+                                                                              new CommonsArrayList <> (aInMemory));
+      final HttpMimeMessageEntity aEntity = HttpMimeMessageEntity.create (aMimeMsg);
+      MessageHelperMethods.getAndRemoveAllHeaders (aMimeMsg);
+
+      assertEquals (-1, aEntity.getContentLength ());
+      assertTrue (_writeEntity (aEntity).length > 0);
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.marshaller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.jaxb.validation.CollectingValidationEventHandler;
+import com.helger.phase4.ebms3header.Ebms3Messaging;
+import com.helger.phase4.ebms3header.ObjectFactory;
+import com.helger.phase4.soap11.Soap11Envelope;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Test class for class {@link AS4MarshallerPool}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4MarshallerPoolTest
+{
+  private static final String PATH11 = "external/soap11test/";
+
+  @Nonnull
+  private static AS4MarshallerPool <Ebms3Messaging> _createPool (@Nonnegative final int nMaxIdle)
+  {
+    return new AS4MarshallerPool <> (Ebms3Messaging.class,
+                                     Ebms3MessagingMarshaller.XSDS,
+                                     new ObjectFactory ()::createMessaging,
+                                     Ebms3NamespaceHandler.getInstance (),
+                                     nMaxIdle);
+  }
+
+  @Test
+  public void testReadWrite ()
+  {
+    final AS4MarshallerPool <Ebms3Messaging> aPool = _createPool (AS4MarshallerPool.DEFAULT_MAX_IDLE);
+    final Document aDoc = DOMReader.readXMLDOM (new ClassPathResource (PATH11 + "UserMessage-no-soap.xml"));
+    assertNotNull (aDoc);
+
+    final CollectingValidationEventHandler aCVEH = new CollectingValidationEventHandler ();
+    final Ebms3Messaging aMessage = aPool.read (aDoc.getDocumentElement (), aCVEH);
+    assertNotNull (aMessage);
+    assertTrue (aCVEH.getErrorList ().isEmpty ());
+    assertEquals (1, aPool.getCreatedCount ());
+    assertEquals (1, aPool.getIdleCount ());
+
+    // Write with the same marshaller
+    assertNotNull (aPool.getAsDocument (aMessage));
+    assertNotNull (aPool.getAsString (aMessage));
+    assertEquals (1, aPool.getCreatedCount ());
+    assertEquals (2, aPool.getReusedCount ());
+  }
+
+  @Test
+  public void testValidationEventHandlerPerCall ()
+  {
+    final Soap11Envelope aEnv = new Soap11EnvelopeMarshaller ().read (DOMReader.readXMLDOM (new ClassPathResource (PATH11 +
+                                                                                                                   "MessageInfoMissing.xml")));
+    assertNotNull (aEnv);
+    final Element aHeader = (Element) aEnv.getHeader ().getAnyAtIndex (0);
+
+    final AS4MarshallerPool <Ebms3Messaging> aPool = _createPool (1);
+    final CollectingValidationEventHandler aCVEH1 = new CollectingValidationEventHandler ();
+    aPool.read (aHeader, aCVEH1);
+    assertTrue (aCVEH1.getErrorList ().containsAtLeastOneError ());
+
+    // The previous handler must not be used anymore
+    final int nErrors = aCVEH1.getErrorList ().size ();
+    final CollectingValidationEventHandler aCVEH2 = new CollectingValidationEventHandler ();
+    aPool.read (aHeader, aCVEH2);
+    assertTrue (aCVEH2.getErrorList ().containsAtLeastOneError ());
+    assertEquals (nErrors, aCVEH1.getErrorList ().size ());
+    assertEquals (1, aPool.getCreatedCount ());
+
+    // Without a handler, the result must be the same as with a new marshaller
+    final Ebms3Messaging aExpected = new Ebms3MessagingMarshaller ().read (aHeader);
+    final Ebms3Messaging aPooled = aPool.read (aHeader);
+    assertEquals (aExpected == null, aPooled == null);
+    if (aExpected != null)
+      assertEquals (aExpected, aPooled);
+  }
+
+  @Test
+  public void testConcurrent () throws Exception
+  {
+    final AS4MarshallerPool <Ebms3Messaging> aPool = _createPool (4);
+    final Document aDoc = DOMReader.readXMLDOM (new ClassPathResource (PATH11 + "UserMessage-no-soap.xml"));
+    final AtomicInteger aErrors = new AtomicInteger (0);
+    final ExecutorService aES = Executors.newFixedThreadPool (8);
+    for (int i = 0; i < 200; ++i)
+      aES.submit ( () -> {
+        // DOM nodes are not thread-safe for reading
+        final Element aElement;
+        synchronized (aDoc)
+        {
+          aElement = (Element) aDoc.getDocumentElement ().cloneNode (true);
+        }
+        final Ebms3Messaging aMessage = aPool.read (aElement);
+        if (aMessage == null || aPool.getAsDocument (aMessage) == null)
+          aErrors.incrementAndGet ();
+      });
+    aES.shutdown ();
+    assertTrue (aES.awaitTermination (1, TimeUnit.MINUTES));
+
+    assertEquals (0, aErrors.get ());
+    assertTrue (aPool.getIdleCount () <= 4);
+    assertEquals (400, aPool.getCreatedCount () + aPool.getReusedCount ());
+  }
+}
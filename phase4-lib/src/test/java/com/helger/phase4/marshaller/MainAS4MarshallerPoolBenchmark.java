@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.marshaller;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.timing.StopWatch;
+import com.helger.phase4.ebms3header.Ebms3Messaging;
+import com.helger.phase4.ebms3header.ObjectFactory;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Compares the allocation rate and the duration of reading and writing an
+ * {@link Ebms3Messaging} with a new marshaller per message (as done before)
+ * and with an {@link AS4MarshallerPool}.
+ *
+ * @author Philip Helger
+ */
+public final class MainAS4MarshallerPoolBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainAS4MarshallerPoolBenchmark.class);
+  private static final int MESSAGES = 20_000;
+
+  private static long _getAllocatedBytes ()
+  {
+    final com.sun.management.ThreadMXBean aBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean ();
+    return aBean.getThreadAllocatedBytes (Thread.currentThread ().getId ());
+  }
+
+  private static void _run (@Nonnull final String sName, @Nonnull final Supplier <Document> aRoundTrip)
+  {
+    // Warm up
+    for (int i = 0; i < MESSAGES / 10; ++i)
+      aRoundTrip.get ();
+
+    final long nBytesBefore = _getAllocatedBytes ();
+    final StopWatch aSW = StopWatch.createdStarted ();
+    for (int i = 0; i < MESSAGES; ++i)
+      if (aRoundTrip.get () == null)
+        throw new IllegalStateException ("Round trip failed");
+    aSW.stop ();
+    final long nBytes = _getAllocatedBytes () - nBytesBefore;
+
+    LOGGER.info (sName +
+                 ": " +
+                 (nBytes / MESSAGES) +
+                 " bytes/message; " +
+                 Math.round (MESSAGES * 1000d / Math.max (1, aSW.getMillis ())) +
+                 " messages/s");
+  }
+
+  public static void main (final String [] args)
+  {
+    final Document aDoc = DOMReader.readXMLDOM (new ClassPathResource ("external/soap11test/UserMessage-no-soap.xml"));
+    final Element aElement = aDoc.getDocumentElement ();
+
+    _run ("New marshaller per message", () -> {
+      final Ebms3Messaging aMessage = new Ebms3MessagingMarshaller ().read (aElement);
+      return new Ebms3MessagingMarshaller ().getAsDocument (aMessage);
+    });
+
+    final AS4MarshallerPool <Ebms3Messaging> aPool = new AS4MarshallerPool <> (Ebms3Messaging.class,
+                                                                                Ebms3MessagingMarshaller.XSDS,
+                                                                                new ObjectFactory ()::createMessaging,
+                                                                                Ebms3NamespaceHandler.getInstance ());
+    _run ("Pooled marshaller", () -> aPool.getAsDocument (aPool.read (aElement)));
+    LOGGER.info ("Pool: " + aPool);
+  }
+}
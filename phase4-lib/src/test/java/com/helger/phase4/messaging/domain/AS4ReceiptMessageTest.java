@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.domain;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.WillNotClose;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.mime.CMimeType;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.crypto.AS4CryptoFactoryProperties;
+import com.helger.phase4.crypto.AS4SigningParams;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.ebms3header.MessagePartNRInformation;
+import com.helger.phase4.ebms3header.NonRepudiationInformation;
+import com.helger.phase4.marshaller.AS4MarshallerPools;
+import com.helger.phase4.messaging.crypto.AS4Signer;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.xml.XMLHelper;
+import com.helger.xsds.xmldsig.ReferenceType;
+
+/**
+ * Test class for class {@link AS4ReceiptMessage}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4ReceiptMessageTest
+{
+  @Nonnull
+  static Document createSignedUserMessage (@Nonnegative final int nAttachments,
+                                           @Nonnull @WillNotClose final AS4ResourceHelper aResHelper) throws Exception
+  {
+    final ICommonsList <WSS4JAttachment> aAttachments = new CommonsArrayList <> ();
+    for (int i = 0; i < nAttachments; ++i)
+      aAttachments.add (WSS4JAttachment.createOutgoingFileAttachment (("Attachment " + i).getBytes (),
+                                                                      null,
+                                                                      "attachment" + i + ".txt",
+                                                                      CMimeType.TEXT_PLAIN,
+                                                                      null,
+                                                                      null,
+                                                                      aResHelper));
+
+    final AS4UserMessage aMsg = AS4UserMessage.create (ESoapVersion.AS4_DEFAULT, new Ebms3UserMessage ());
+    return AS4Signer.createSignedMessage (AS4CryptoFactoryProperties.getDefaultInstance (),
+                                          aMsg.getAsSoapDocument (),
+                                          ESoapVersion.AS4_DEFAULT,
+                                          aMsg.getMessagingID (),
+                                          aAttachments,
+                                          aResHelper,
+                                          false,
+                                          AS4SigningParams.createDefault ());
+  }
+
+  @Nonnull
+  static ICommonsList <Element> getAllDSigReferenceElements (@Nonnull final Document aSignedDoc)
+  {
+    final Element aHeader = XMLHelper.getFirstChildElementOfName (aSignedDoc.getDocumentElement (), "Header");
+    return AS4ReceiptMessage.getAllDSigReferenceElements (XMLHelper.getFirstChildElementOfName (aHeader,
+                                                                                                CAS4.WSSE_NS,
+                                                                                                "Security"));
+  }
+
+  @Nonnull
+  private static List <MessagePartNRInformation> _getNRParts (@Nonnull final AS4ReceiptMessage aReceipt)
+  {
+    final List <Object> aAny = aReceipt.getEbms3SignalMessage ().getReceipt ().getAny ();
+    assertEquals (1, aAny.size ());
+    final NonRepudiationInformation aNRI = AS4MarshallerPools.NON_REPUDIATION_INFORMATION.read ((Element) aAny.get (0));
+    assertNotNull (aNRI);
+    return aNRI.getMessagePartNRInformation ();
+  }
+
+  @Test
+  public void testCreateWithDSigReferences () throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final Document aSignedDoc = createSignedUserMessage (3, aResHelper);
+
+      final ICommonsList <Element> aRefElements = getAllDSigReferenceElements (aSignedDoc);
+      // Messaging, Body and 3 attachments
+      assertEquals (5, aRefElements.size ());
+      assertEquals (aRefElements.size (), AS4ReceiptMessage.getAllDSigReferenceNodes (aSignedDoc).size ());
+
+      final List <MessagePartNRInformation> aExpected = _getNRParts (AS4ReceiptMessage.create (ESoapVersion.AS4_DEFAULT,
+                                                                                               "msgid1",
+                                                                                               null,
+                                                                                               aSignedDoc,
+                                                                                               true));
+      final List <MessagePartNRInformation> aActual = _getNRParts (AS4ReceiptMessage.createWithDSigReferences (ESoapVersion.AS4_DEFAULT,
+                                                                                                               "msgid2",
+                                                                                                               null,
+                                                                                                               aRefElements,
+                                                                                                               true));
+      assertEquals (aExpected.size (), aActual.size ());
+      for (int i = 0; i < aExpected.size (); ++i)
+      {
+        final ReferenceType aExpectedRef = aExpected.get (i).getReference ();
+        final ReferenceType aActualRef = aActual.get (i).getReference ();
+        assertEquals (aExpectedRef.getURI (), aActualRef.getURI ());
+        assertEquals (aExpectedRef.getDigestMethod ().getAlgorithm (), aActualRef.getDigestMethod ().getAlgorithm ());
+        assertArrayEquals (aExpectedRef.getDigestValue (), aActualRef.getDigestValue ());
+      }
+
+      // The source document must stay untouched
+      assertEquals (aRefElements, getAllDSigReferenceElements (aSignedDoc));
+
+      // Must be serializable
+      assertNotNull (AS4ReceiptMessage.createWithDSigReferences (ESoapVersion.AS4_DEFAULT,
+                                                                 "msgid3",
+                                                                 null,
+                                                                 aRefElements,
+                                                                 true)
+                                      .getAsSoapDocument ());
+    }
+  }
+
+  @Test
+  public void testCreateWithoutDSigReferences ()
+  {
+    final Ebms3UserMessage aUserMsg = new Ebms3UserMessage ();
+    aUserMsg.setMessageInfo (MessageHelperMethods.createEbms3MessageInfo ());
+
+    // Not signed - returns the user message
+    final AS4ReceiptMessage aReceipt = AS4ReceiptMessage.createWithDSigReferences (ESoapVersion.AS4_DEFAULT,
+                                                                                   "msgid",
+                                                                                   aUserMsg,
+                                                                                   null,
+                                                                                   true);
+    final List <Object> aAny = aReceipt.getEbms3SignalMessage ().getReceipt ().getAny ();
+    assertEquals (1, aAny.size ());
+    assertTrue (aAny.get (0) instanceof Element);
+    assertEquals ("Envelope", ((Element) aAny.get (0)).getLocalName ());
+  }
+}
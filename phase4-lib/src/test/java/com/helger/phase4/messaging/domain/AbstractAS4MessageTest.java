@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Locale;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.error.EEbmsError;
+import com.helger.phase4.marshaller.Soap11EnvelopeMarshaller;
+import com.helger.phase4.marshaller.Soap12EnvelopeMarshaller;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.xml.XMLFactory;
+import com.helger.xml.XMLHelper;
+
+/**
+ * Test class for class {@link AbstractAS4Message}.
+ *
+ * @author Philip Helger
+ */
+public final class AbstractAS4MessageTest
+{
+  private static void _checkEnvelope (@Nonnull final ESoapVersion eSoapVersion, @Nonnull final Document aDoc)
+  {
+    final Element eEnvelope = aDoc.getDocumentElement ();
+    assertEquals (eSoapVersion.getNamespaceURI (), eEnvelope.getNamespaceURI ());
+    assertEquals ("Envelope", eEnvelope.getLocalName ());
+
+    final Element eHeader = XMLHelper.getFirstChildElementOfName (eEnvelope,
+                                                                  eSoapVersion.getNamespaceURI (),
+                                                                  eSoapVersion.getHeaderElementName ());
+    assertNotNull (eHeader);
+    assertNotNull (XMLHelper.getFirstChildElementOfName (eHeader, CAS4.EBMS_NS, "Messaging"));
+    assertNotNull (XMLHelper.getFirstChildElementOfName (eEnvelope,
+                                                         eSoapVersion.getNamespaceURI (),
+                                                         eSoapVersion.getBodyElementName ()));
+  }
+
+  @Test
+  public void testGetAsSoapDocument ()
+  {
+    for (final ESoapVersion eSoapVersion : ESoapVersion.values ())
+    {
+      final AS4ErrorMessage aErrorMsg = AS4ErrorMessage.create (eSoapVersion,
+                                                                "srcmsgid",
+                                                                new CommonsArrayList <> (EEbmsError.EBMS_INVALID_HEADER.errorBuilder (Locale.US)
+                                                                                                                       .build ()))
+                                                       .setMustUnderstand (true);
+      final Document aDoc = aErrorMsg.getAsSoapDocument ();
+      _checkEnvelope (eSoapVersion, aDoc);
+
+      // Must be a valid SOAP document
+      if (eSoapVersion == ESoapVersion.SOAP_11)
+        assertNotNull (new Soap11EnvelopeMarshaller ().read (aDoc));
+      else
+        assertNotNull (new Soap12EnvelopeMarshaller ().read (aDoc));
+    }
+  }
+
+  @Test
+  public void testPayloadCopyAndAdopt ()
+  {
+    final Document aPayloadDoc = XMLFactory.newDocument ();
+    final Element ePayload = (Element) aPayloadDoc.appendChild (aPayloadDoc.createElementNS ("urn:test", "Payload"));
+    ePayload.appendChild (aPayloadDoc.createTextNode ("content"));
+
+    final AS4UserMessage aUserMsg = AS4UserMessage.create (ESoapVersion.AS4_DEFAULT, new Ebms3UserMessage ());
+
+    // Copy
+    Document aDoc = aUserMsg.getAsSoapDocument (aPayloadDoc);
+    _checkEnvelope (ESoapVersion.AS4_DEFAULT, aDoc);
+    Element eBody = XMLHelper.getFirstChildElementOfName (aDoc.getDocumentElement (),
+                                                          ESoapVersion.AS4_DEFAULT.getNamespaceURI (),
+                                                          ESoapVersion.AS4_DEFAULT.getBodyElementName ());
+    Element eBodyPayload = XMLHelper.getFirstChildElement (eBody);
+    assertNotSame (ePayload, eBodyPayload);
+    assertEquals ("content", eBodyPayload.getTextContent ());
+    assertSame (ePayload, aPayloadDoc.getDocumentElement ());
+
+    // Adopt
+    aDoc = aUserMsg.getAsSoapDocument (aPayloadDoc, true);
+    _checkEnvelope (ESoapVersion.AS4_DEFAULT, aDoc);
+    eBody = XMLHelper.getFirstChildElementOfName (aDoc.getDocumentElement (),
+                                                  ESoapVersion.AS4_DEFAULT.getNamespaceURI (),
+                                                  ESoapVersion.AS4_DEFAULT.getBodyElementName ());
+    eBodyPayload = XMLHelper.getFirstChildElement (eBody);
+    assertSame (ePayload, eBodyPayload);
+    assertSame (aDoc, ePayload.getOwnerDocument ());
+    assertNull (aPayloadDoc.getDocumentElement ());
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.domain;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.timing.StopWatch;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Compares the allocation rate and the duration of creating a receipt with
+ * non-repudiation information by searching the signed SOAP document (as done
+ * before) and from the already verified "ds:Reference" elements, for messages
+ * with 1, 10 and 100 attachments.
+ *
+ * @author Philip Helger
+ */
+public final class MainAS4ReceiptMessageBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainAS4ReceiptMessageBenchmark.class);
+  private static final int RECEIPTS = 2_000;
+
+  private static long _getAllocatedBytes ()
+  {
+    final com.sun.management.ThreadMXBean aBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean ();
+    return aBean.getThreadAllocatedBytes (Thread.currentThread ().getId ());
+  }
+
+  private static void _run (@Nonnull final String sName,
+                            @Nonnegative final int nAttachments,
+                            @Nonnull final Supplier <AS4ReceiptMessage> aCreator)
+  {
+    // Warm up
+    for (int i = 0; i < RECEIPTS / 10; ++i)
+      aCreator.get ();
+
+    final long nBytesBefore = _getAllocatedBytes ();
+    final StopWatch aSW = StopWatch.createdStarted ();
+    for (int i = 0; i < RECEIPTS; ++i)
+      if (aCreator.get () == null)
+        throw new IllegalStateException ("Receipt creation failed");
+    aSW.stop ();
+    final long nBytes = _getAllocatedBytes () - nBytesBefore;
+
+    LOGGER.info (sName +
+                 " with " +
+                 nAttachments +
+                 " attachment(s): " +
+                 (nBytes / RECEIPTS) +
+                 " bytes/receipt; " +
+                 Math.round (RECEIPTS * 1000d / Math.max (1, aSW.getMillis ())) +
+                 " receipts/s");
+  }
+
+  public static void main (final String [] args) throws Exception
+  {
+    for (final int nAttachments : new int [] { 1, 10, 100 })
+    {
+      try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+      {
+        final Document aSignedDoc = AS4ReceiptMessageTest.createSignedUserMessage (nAttachments, aResHelper);
+        // Done once during signature verification
+        final ICommonsList <Element> aRefElements = AS4ReceiptMessageTest.getAllDSigReferenceElements (aSignedDoc);
+
+        _run ("Search SOAP document",
+              nAttachments,
+              () -> AS4ReceiptMessage.create (ESoapVersion.AS4_DEFAULT,
+                                              MessageHelperMethods.createRandomMessageID (),
+                                              null,
+                                              aSignedDoc,
+                                              true));
+        _run ("Verified references",
+              nAttachments,
+              () -> AS4ReceiptMessage.createWithDSigReferences (ESoapVersion.AS4_DEFAULT,
+                                                                MessageHelperMethods.createRandomMessageID (),
+                                                                null,
+                                                                aRefElements,
+                                                                true));
+      }
+    }
+  }
+}
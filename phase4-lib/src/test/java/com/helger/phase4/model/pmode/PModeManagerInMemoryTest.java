@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.model.EMEP;
+import com.helger.phase4.model.EMEPBinding;
+import com.helger.phase4.model.pmode.leg.PModeLeg;
+import com.helger.phase4.model.pmode.leg.PModeLegBusinessInformation;
+
+/**
+ * Test class for class {@link PModeManagerInMemory}.
+ *
+ * @author Philip Helger
+ */
+public final class PModeManagerInMemoryTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Nonnull
+  private static PMode _createPMode (@Nonnull final String sID,
+                                     @Nonnull final String sInitiatorID,
+                                     @Nonnull final String sResponderID,
+                                     @Nonnull final String sAgreement,
+                                     @Nonnull final String sService,
+                                     @Nonnull final String sAction)
+  {
+    return new PMode (sID,
+                      PModeParty.createSimple (sInitiatorID, "initiator"),
+                      PModeParty.createSimple (sResponderID, "responder"),
+                      sAgreement,
+                      EMEP.ONE_WAY,
+                      EMEPBinding.PUSH,
+                      new PModeLeg (null,
+                                    PModeLegBusinessInformation.create (sService, sAction, null, null),
+                                    null,
+                                    null,
+                                    null),
+                      null,
+                      null,
+                      null);
+  }
+
+  @Test
+  public void testIndexedLookup ()
+  {
+    final PModeManagerInMemory aMgr = new PModeManagerInMemory ();
+    for (int i = 0; i < 100; ++i)
+      aMgr.createPMode (_createPMode ("pm" + i, "i" + i, "r" + i, "agr" + (i % 10), "svc" + i, "act" + i));
+
+    final IPMode aPMode = aMgr.getPModeOfServiceAndAction ("svc42", "act42");
+    assertNotNull (aPMode);
+    assertEquals ("pm42", aPMode.getID ());
+    assertNull (aMgr.getPModeOfServiceAndAction ("svc42", "act43"));
+    assertNull (aMgr.getPModeOfServiceAndAction (null, null));
+
+    assertSame (aPMode,
+                aMgr.getPModeOfInitiatorAndResponder (PModeParty.createSimple ("i42", "initiator"),
+                                                      PModeParty.createSimple ("r42", "responder")));
+    assertNull (aMgr.getPModeOfInitiatorAndResponder (PModeParty.createSimple ("i42", "initiator"),
+                                                      PModeParty.createSimple ("r43", "responder")));
+
+    assertEquals (10, aMgr.getAllPModesOfAgreement ("agr2").size ());
+    assertTrue (aMgr.getAllPModesOfAgreement ("agr-unknown").isEmpty ());
+    assertTrue (aMgr.getAllPModesOfAgreement (null).isEmpty ());
+  }
+
+  @Test
+  public void testIndexUpdatedOnChange ()
+  {
+    final PModeManagerInMemory aMgr = new PModeManagerInMemory ();
+    aMgr.createPMode (_createPMode ("pm1", "i1", "r1", "agr", "svc1", "act1"));
+    assertNotNull (aMgr.getPModeOfServiceAndAction ("svc1", "act1"));
+
+    // Update with new service and action
+    assertTrue (aMgr.updatePMode (_createPMode ("pm1", "i1", "r1", "agr2", "svc2", "act2")).isChanged ());
+    assertNull (aMgr.getPModeOfServiceAndAction ("svc1", "act1"));
+    assertNotNull (aMgr.getPModeOfServiceAndAction ("svc2", "act2"));
+    assertTrue (aMgr.getAllPModesOfAgreement ("agr").isEmpty ());
+    assertEquals (1, aMgr.getAllPModesOfAgreement ("agr2").size ());
+
+    // Same initiator and responder but different ID - update existing
+    aMgr.createOrUpdatePMode (_createPMode ("pm2", "i1", "r1", "agr2", "svc2", "act2"));
+    assertEquals (1, aMgr.getAll ().size ());
+
+    // Different initiator and responder - create new
+    aMgr.createOrUpdatePMode (_createPMode ("pm3", "i3", "r3", "agr2", "svc3", "act3"));
+    assertEquals (2, aMgr.getAll ().size ());
+    assertEquals (2, aMgr.getAllPModesOfAgreement ("agr2").size ());
+
+    // Delete
+    assertTrue (aMgr.deletePMode ("pm1").isChanged ());
+    assertNull (aMgr.getPModeOfServiceAndAction ("svc2", "act2"));
+    assertEquals (1, aMgr.getAllPModesOfAgreement ("agr2").size ());
+    assertNotNull (aMgr.getPModeOfServiceAndAction ("svc3", "act3"));
+  }
+
+  @Test
+  public void testModifiedOutsideOfManager ()
+  {
+    final PModeManagerInMemory aMgr = new PModeManagerInMemory ();
+    final PMode aPMode = _createPMode ("pm1", "i1", "r1", "agr", "svc1", "act1");
+    aMgr.createPMode (aPMode);
+
+    // The manager stores a copy - modifying the object afterwards has no effect
+    aPMode.setAgreement ("agr2");
+    aPMode.setInitiator (PModeParty.createSimple ("i2", "initiator"));
+    aPMode.getLeg1 ().setBusinessInfo (PModeLegBusinessInformation.create ("svc2", "act2", null, null));
+
+    final IPMode aStored = aMgr.getPModeOfServiceAndAction ("svc1", "act1");
+    assertNotNull (aStored);
+    assertNotSame (aPMode, aStored);
+    assertEquals ("agr", aStored.getAgreement ());
+    assertNull (aMgr.getPModeOfServiceAndAction ("svc2", "act2"));
+    assertSame (aStored,
+                aMgr.getPModeOfInitiatorAndResponder (PModeParty.createSimple ("i1", "initiator"),
+                                                      PModeParty.createSimple ("r1", "responder")));
+    assertEquals (1, aMgr.getAllPModesOfAgreement ("agr").size ());
+    assertTrue (aMgr.getAllPModesOfAgreement ("agr2").isEmpty ());
+
+    // Passing it to the manager again takes the changes and re-indexes
+    aMgr.createOrUpdatePMode (aPMode);
+    assertEquals (1, aMgr.getAll ().size ());
+    assertNull (aMgr.getPModeOfServiceAndAction ("svc1", "act1"));
+    assertSame (aStored, aMgr.getPModeOfServiceAndAction ("svc2", "act2"));
+    assertNull (aMgr.getPModeOfInitiatorAndResponder (PModeParty.createSimple ("i1", "initiator"),
+                                                      PModeParty.createSimple ("r1", "responder")));
+    assertSame (aStored,
+                aMgr.getPModeOfInitiatorAndResponder (PModeParty.createSimple ("i2", "initiator"),
+                                                      PModeParty.createSimple ("r1", "responder")));
+    assertTrue (aMgr.getAllPModesOfAgreement ("agr").isEmpty ());
+    assertEquals (1, aMgr.getAllPModesOfAgreement ("agr2").size ());
+
+    // The leg of the caller is not shared either
+    aPMode.getLeg1 ().setBusinessInfo (PModeLegBusinessInformation.create ("svc3", "act3", null, null));
+    assertSame (aStored, aMgr.getPModeOfServiceAndAction ("svc2", "act2"));
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.profile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.model.pmode.DefaultPMode;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.model.pmode.IPModeIDProvider;
+import com.helger.phase4.model.pmode.PMode;
+
+/**
+ * Test class for class {@link AS4PModeTemplateCache}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4PModeTemplateCacheTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Nonnull
+  private static IAS4Profile _createProfile (@Nonnull final String sID, @Nonnull final AtomicInteger aCounter)
+  {
+    return new AS4Profile (sID, sID, () -> new IAS4ProfileValidator ()
+    {}, (i, r, a) -> {
+      aCounter.incrementAndGet ();
+      return (PMode) DefaultPMode.getOrCreateDefaultPMode (i, r, a, false);
+    }, IPModeIDProvider.DEFAULT_DYNAMIC, false, false);
+  }
+
+  @Test
+  public void testBasic ()
+  {
+    final AtomicInteger aCounter = new AtomicInteger (0);
+    final IAS4Profile aProfile1 = _createProfile ("p1", aCounter);
+    final IAS4Profile aProfile2 = _createProfile ("p2", aCounter);
+
+    final AS4PModeTemplateCache aCache = new AS4PModeTemplateCache ();
+    final IPMode aPMode = aCache.getPModeTemplate (aProfile1, "i", "r", "http://localhost");
+    assertNotNull (aPMode);
+    assertEquals (1, aCounter.get ());
+    assertSame (aPMode, aCache.getPModeTemplate (aProfile1, "i", "r", "http://localhost"));
+    assertEquals (1, aCounter.get ());
+
+    // Different keys
+    assertNotSame (aPMode, aCache.getPModeTemplate (aProfile1, "i", "r", null));
+    assertNotSame (aPMode, aCache.getPModeTemplate (aProfile2, "i", "r", "http://localhost"));
+    assertEquals (3, aCounter.get ());
+    assertEquals (3, aCache.size ());
+
+    // Validation state
+    assertFalse (aCache.isValidatedPModeTemplate (aPMode, "p1"));
+    aCache.markPModeTemplateValidated (aPMode, "p1");
+    assertTrue (aCache.isValidatedPModeTemplate (aPMode, "p1"));
+    assertFalse (aCache.isValidatedPModeTemplate (aPMode, "p2"));
+
+    // Unknown PModes are never considered validated
+    final IPMode aOther = DefaultPMode.getOrCreateDefaultPMode ("i", "r", null, false);
+    aCache.markPModeTemplateValidated (aOther, "p1");
+    assertFalse (aCache.isValidatedPModeTemplate (aOther, "p1"));
+
+    aCache.clearCache ();
+    assertEquals (0, aCache.size ());
+    assertFalse (aCache.isValidatedPModeTemplate (aPMode, "p1"));
+    assertNotSame (aPMode, aCache.getPModeTemplate (aProfile1, "i", "r", "http://localhost"));
+  }
+
+  @Test
+  public void testMaxEntries ()
+  {
+    final AtomicInteger aCounter = new AtomicInteger (0);
+    final IAS4Profile aProfile = _createProfile ("p1", aCounter);
+
+    final AS4PModeTemplateCache aCache = new AS4PModeTemplateCache ();
+    aCache.setMaxEntries (5);
+    for (int i = 0; i < 20; ++i)
+      aCache.getPModeTemplate (aProfile, "i" + i, "r", null);
+    assertEquals (5, aCache.size ());
+
+    // The newest is still cached, the oldest is not
+    aCache.getPModeTemplate (aProfile, "i19", "r", null);
+    assertEquals (20, aCounter.get ());
+    aCache.getPModeTemplate (aProfile, "i0", "r", null);
+    assertEquals (21, aCounter.get ());
+  }
+}
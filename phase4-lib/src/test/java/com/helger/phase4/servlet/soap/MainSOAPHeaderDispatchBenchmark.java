@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet.soap;
+
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+import javax.annotation.Nonnull;
+import javax.xml.namespace.QName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.state.ESuccess;
+import com.helger.commons.timing.StopWatch;
+import com.helger.phase4.CAS4;
+import com.helger.xml.ChildElementIterator;
+import com.helger.xml.XMLFactory;
+import com.helger.xml.XMLHelper;
+
+/**
+ * Compares the duration of assigning the SOAP header elements of a single
+ * message to the registered {@link ISOAPHeaderElementProcessor}s with a copy of
+ * the registry and a linear search (as done before) and with the registry view
+ * and a QName keyed map.
+ *
+ * @author Philip Helger
+ */
+public final class MainSOAPHeaderDispatchBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainSOAPHeaderDispatchBenchmark.class);
+  private static final int MESSAGES = 1_000_000;
+
+  @Nonnull
+  private static ICommonsList <Element> _createHeaderElements ()
+  {
+    final Document aDoc = XMLFactory.newDocument ();
+    final Element eHeader = (Element) aDoc.appendChild (aDoc.createElementNS ("http://www.w3.org/2003/05/soap-envelope",
+                                                                              "S12:Header"));
+    // Typical AS4 message headers
+    eHeader.appendChild (aDoc.createElementNS (CAS4.EBMS_NS, "eb:Messaging"));
+    eHeader.appendChild (aDoc.createElementNS ("http://www.w3.org/2005/08/addressing", "wsa:To"));
+    eHeader.appendChild (aDoc.createElementNS ("http://www.w3.org/2005/08/addressing", "wsa:Action"));
+    eHeader.appendChild (aDoc.createElementNS (CAS4.WSSE_NS, "wsse:Security"));
+    final ICommonsList <Element> ret = new CommonsArrayList <> ();
+    for (final Element aHeaderElement : new ChildElementIterator (eHeader))
+      ret.add (aHeaderElement);
+    return ret;
+  }
+
+  private static void _run (@Nonnull final String sName,
+                            @Nonnull final ICommonsList <Element> aHeaderElements,
+                            @Nonnull final ToIntFunction <ICommonsList <AS4SingleSOAPHeader>> aDispatcher)
+  {
+    // Warm up
+    int nFound = 0;
+    for (int i = 0; i < MESSAGES / 10; ++i)
+      nFound += aDispatcher.applyAsInt (_getHeaders (aHeaderElements));
+
+    final StopWatch aSW = StopWatch.createdStarted ();
+    for (int i = 0; i < MESSAGES; ++i)
+      nFound += aDispatcher.applyAsInt (_getHeaders (aHeaderElements));
+    aSW.stop ();
+
+    LOGGER.info (sName +
+                 ": " +
+                 Math.round (aSW.getNanos () / (double) MESSAGES) +
+                 " ns/message (" +
+                 nFound +
+                 " dispatches)");
+  }
+
+  @Nonnull
+  private static ICommonsList <AS4SingleSOAPHeader> _getHeaders (@Nonnull final ICommonsList <Element> aHeaderElements)
+  {
+    final ICommonsList <AS4SingleSOAPHeader> ret = new CommonsArrayList <> (aHeaderElements.size ());
+    for (final Element aHeaderElement : aHeaderElements)
+      ret.add (new AS4SingleSOAPHeader (aHeaderElement, XMLHelper.getQName (aHeaderElement), true));
+    return ret;
+  }
+
+  public static void main (final String [] args)
+  {
+    final ISOAPHeaderElementProcessor aNoop = (aSOAPDoc, aHeaderElement, aAttachments, aState, aErrors) -> ESuccess.SUCCESS;
+    final SOAPHeaderElementProcessorRegistry aRegistry = new SOAPHeaderElementProcessorRegistry ();
+    aRegistry.registerHeaderElementProcessor (SOAPHeaderElementProcessorExtractEbms3Messaging.QNAME_MESSAGING, aNoop);
+    aRegistry.registerHeaderElementProcessor (SOAPHeaderElementProcessorWSS4J.QNAME_SECURITY, aNoop);
+
+    final ICommonsList <Element> aHeaderElements = _createHeaderElements ();
+
+    _run ("Registry copy and linear search", aHeaderElements, aHeaders -> {
+      int ret = 0;
+      final ICommonsOrderedMap <QName, ISOAPHeaderElementProcessor> aProcessors = aRegistry.getAllElementProcessors ();
+      for (final QName aQName : aProcessors.keySet ())
+        if (aHeaders.findFirst (x -> aQName.equals (x.getQName ())) != null)
+          ret++;
+      return ret;
+    });
+
+    _run ("Registry view and QName map", aHeaderElements, aHeaders -> {
+      int ret = 0;
+      final ICommonsMap <QName, AS4SingleSOAPHeader> aHeadersByQName = new CommonsHashMap <> ();
+      for (final AS4SingleSOAPHeader aHeader : aHeaders)
+        aHeadersByQName.putIfAbsent (aHeader.getQName (), aHeader);
+      final Map <QName, ISOAPHeaderElementProcessor> aProcessors = aRegistry.getAllElementProcessorsView ();
+      for (final QName aQName : aProcessors.keySet ())
+        if (aHeadersByQName.get (aQName) != null)
+          ret++;
+      return ret;
+    });
+  }
+}
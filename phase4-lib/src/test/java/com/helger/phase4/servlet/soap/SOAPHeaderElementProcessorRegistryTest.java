@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet.soap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.state.ESuccess;
+
+/**
+ * Test class for class {@link SOAPHeaderElementProcessorRegistry}.
+ *
+ * @author Philip Helger
+ */
+public final class SOAPHeaderElementProcessorRegistryTest
+{
+  private static final ISOAPHeaderElementProcessor NOOP = (aSOAPDoc, aHeaderElement, aAttachments, aState, aErrors) -> ESuccess.SUCCESS;
+
+  @Test
+  public void testView ()
+  {
+    final SOAPHeaderElementProcessorRegistry aRegistry = new SOAPHeaderElementProcessorRegistry ();
+    final Map <QName, ISOAPHeaderElementProcessor> aView = aRegistry.getAllElementProcessorsView ();
+    assertTrue (aView.isEmpty ());
+    assertSame (aView, aRegistry.getAllElementProcessorsView ());
+
+    final QName aQN1 = new QName ("urn:test", "b");
+    final QName aQN2 = new QName ("urn:test", "a");
+    aRegistry.registerHeaderElementProcessor (aQN1, NOOP);
+    aRegistry.registerHeaderElementProcessor (aQN2, NOOP);
+
+    // Changes are visible and the registration order is kept
+    assertEquals (2, aView.size ());
+    assertEquals (new CommonsArrayList <> (aQN1, aQN2), new CommonsArrayList <> (aView.keySet ()));
+    assertEquals (aRegistry.getAllElementProcessors (), aView);
+
+    try
+    {
+      aView.put (new QName ("urn:test", "c"), NOOP);
+      fail ();
+    }
+    catch (final UnsupportedOperationException ex)
+    {
+      // expected
+    }
+    assertEquals (2, aRegistry.getAllElementProcessors ().size ());
+  }
+}
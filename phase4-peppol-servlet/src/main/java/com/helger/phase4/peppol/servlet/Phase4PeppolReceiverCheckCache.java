@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.peppol.smp.ISMPTransportProfile;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.phase4.util.AS4ExpiringCache;
+import com.helger.smpclient.peppol.ISMPServiceMetadataProvider;
+import com.helger.smpclient.AbstractGenericSMPClient;
+
+/**
+ * This class caches the positive outcome of the receiver checks performed by
+ * {@link Phase4PeppolServletMessageProcessorSPI}, so that not every incoming
+ * message requires an SMP lookup. Entries are identified by receiver, document
+ * type, process and transport profile as well as by the used
+ * {@link Phase4PeppolReceiverCheckData}, so that a change of the configuration
+ * automatically leads to a new lookup. The SMP client is identified by its
+ * host URI and the AP certificate by its issuer and serial number. If the SMP
+ * client is not an {@link AbstractGenericSMPClient} no caching happens.
+ * Negative outcomes are never cached.
+ * After changing the SMP registration of a participant,
+ * {@link #removeAllOfReceiver(IParticipantIdentifier)} should be called.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@ThreadSafe
+public class Phase4PeppolReceiverCheckCache
+{
+  /** The default time to live of a positive check result */
+  public static final Duration DEFAULT_TTL = Duration.ofMinutes (5);
+  /** The default maximum number of cached entries */
+  public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+  private static final char SEPARATOR = '\n';
+
+  private final long m_nTTLMillis;
+  private final AS4ExpiringCache <Boolean> m_aCache;
+  private final AtomicLong m_aHits = new AtomicLong (0);
+  private final AtomicLong m_aMisses = new AtomicLong (0);
+
+  /**
+   * Constructor using the default time to live and the default maximum number
+   * of entries.
+   */
+  public Phase4PeppolReceiverCheckCache ()
+  {
+    this (DEFAULT_TTL, DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aTTL
+   *        The time to live of each positive check result. May not be
+   *        <code>null</code> and must be positive.
+   * @param nMaxEntries
+   *        The maximum number of entries to keep. Must be &gt; 0.
+   */
+  public Phase4PeppolReceiverCheckCache (@Nonnull final Duration aTTL, @Nonnegative final int nMaxEntries)
+  {
+    ValueEnforcer.notNull (aTTL, "TTL");
+    ValueEnforcer.isTrue (!aTTL.isNegative () && !aTTL.isZero (), "TTL must be positive");
+    m_nTTLMillis = aTTL.toMillis ();
+    m_aCache = new AS4ExpiringCache <> (nMaxEntries);
+  }
+
+  /**
+   * @return The time to live of each entry in milliseconds.
+   */
+  @Nonnegative
+  public final long getTTLMillis ()
+  {
+    return m_nTTLMillis;
+  }
+
+  /**
+   * @return The maximum number of entries. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxEntries ()
+  {
+    return m_aCache.getMaxEntries ();
+  }
+
+  /**
+   * @return The number of successful lookups.
+   */
+  @Nonnegative
+  public final long getHitCount ()
+  {
+    return m_aHits.get ();
+  }
+
+  /**
+   * @return The number of unsuccessful lookups.
+   */
+  @Nonnegative
+  public final long getMissCount ()
+  {
+    return m_aMisses.get ();
+  }
+
+  @Nonnull
+  private static String _getReceiverPrefix (@Nonnull final IParticipantIdentifier aReceiverID)
+  {
+    return aReceiverID.getURIEncoded () + SEPARATOR;
+  }
+
+  @Nullable
+  private static String _getKey (@Nonnull final Phase4PeppolReceiverCheckData aReceiverCheckData,
+                                 @Nonnull final IParticipantIdentifier aReceiverID,
+                                 @Nonnull final IDocumentTypeIdentifier aDocTypeID,
+                                 @Nonnull final IProcessIdentifier aProcessID,
+                                 @Nonnull final ISMPTransportProfile aTransportProfile)
+  {
+    final ISMPServiceMetadataProvider aSMPClient = aReceiverCheckData.getSMPClient ();
+    if (!(aSMPClient instanceof AbstractGenericSMPClient <?>))
+    {
+      // No stable identification of the SMP possible
+      return null;
+    }
+    final X509Certificate aAPCert = aReceiverCheckData.getAPCertificate ();
+
+    // The receiver must be first, to allow for removeAllOfReceiver
+    return _getReceiverPrefix (aReceiverID) +
+           aDocTypeID.getURIEncoded () +
+           SEPARATOR +
+           aProcessID.getURIEncoded () +
+           SEPARATOR +
+           aTransportProfile.getID () +
+           SEPARATOR +
+           ((AbstractGenericSMPClient <?>) aSMPClient).getSMPHostURI () +
+           SEPARATOR +
+           aReceiverCheckData.getWildcardSelectionMode ().name () +
+           SEPARATOR +
+           aReceiverCheckData.getAS4EndpointURL () +
+           SEPARATOR +
+           aAPCert.getIssuerX500Principal ().getName () +
+           SEPARATOR +
+           aAPCert.getSerialNumber ().toString ();
+  }
+
+  /**
+   * Check if the receiver checks were already performed successfully for the
+   * provided parameters.
+   *
+   * @param aReceiverCheckData
+   *        The receiver check data used. May not be <code>null</code>.
+   * @param aReceiverID
+   *        The receiver participant ID. May not be <code>null</code>.
+   * @param aDocTypeID
+   *        The document type ID. May not be <code>null</code>.
+   * @param aProcessID
+   *        The process ID. May not be <code>null</code>.
+   * @param aTransportProfile
+   *        The transport profile. May not be <code>null</code>.
+   * @return <code>true</code> if a non-expired positive result is present,
+   *         <code>false</code> otherwise.
+   */
+  public boolean isVerified (@Nonnull final Phase4PeppolReceiverCheckData aReceiverCheckData,
+                             @Nonnull final IParticipantIdentifier aReceiverID,
+                             @Nonnull final IDocumentTypeIdentifier aDocTypeID,
+                             @Nonnull final IProcessIdentifier aProcessID,
+                             @Nonnull final ISMPTransportProfile aTransportProfile)
+  {
+    ValueEnforcer.notNull (aReceiverCheckData, "ReceiverCheckData");
+    ValueEnforcer.notNull (aReceiverID, "ReceiverID");
+    ValueEnforcer.notNull (aDocTypeID, "DocTypeID");
+    ValueEnforcer.notNull (aProcessID, "ProcessID");
+    ValueEnforcer.notNull (aTransportProfile, "TransportProfile");
+
+    final String sKey = _getKey (aReceiverCheckData, aReceiverID, aDocTypeID, aProcessID, aTransportProfile);
+    if (sKey != null && m_aCache.getNotExpired (sKey) != null)
+    {
+      m_aHits.incrementAndGet ();
+      return true;
+    }
+    m_aMisses.incrementAndGet ();
+    return false;
+  }
+
+  /**
+   * Remember that the receiver checks were performed successfully for the
+   * provided parameters.
+   *
+   * @param aReceiverCheckData
+   *        The receiver check data used. May not be <code>null</code>.
+   * @param aReceiverID
+   *        The receiver participant ID. May not be <code>null</code>.
+   * @param aDocTypeID
+   *        The document type ID. May not be <code>null</code>.
+   * @param aProcessID
+   *        The process ID. May not be <code>null</code>.
+   * @param aTransportProfile
+   *        The transport profile. May not be <code>null</code>.
+   */
+  public void setVerified (@Nonnull final Phase4PeppolReceiverCheckData aReceiverCheckData,
+                           @Nonnull final IParticipantIdentifier aReceiverID,
+                           @Nonnull final IDocumentTypeIdentifier aDocTypeID,
+                           @Nonnull final IProcessIdentifier aProcessID,
+                           @Nonnull final ISMPTransportProfile aTransportProfile)
+  {
+    ValueEnforcer.notNull (aReceiverCheckData, "ReceiverCheckData");
+    ValueEnforcer.notNull (aReceiverID, "ReceiverID");
+    ValueEnforcer.notNull (aDocTypeID, "DocTypeID");
+    ValueEnforcer.notNull (aProcessID, "ProcessID");
+    ValueEnforcer.notNull (aTransportProfile, "TransportProfile");
+
+    final String sKey = _getKey (aReceiverCheckData, aReceiverID, aDocTypeID, aProcessID, aTransportProfile);
+    if (sKey != null)
+      m_aCache.put (sKey, Boolean.TRUE, System.currentTimeMillis () + m_nTTLMillis);
+  }
+
+  /**
+   * Remove all cached results of the provided receiver. This should be called
+   * after the SMP registration of the participant was changed.
+   *
+   * @param aReceiverID
+   *        The receiver participant ID. May not be <code>null</code>.
+   * @return The number of removed entries. Always &ge; 0.
+   */
+  @Nonnegative
+  public int removeAllOfReceiver (@Nonnull final IParticipantIdentifier aReceiverID)
+  {
+    ValueEnforcer.notNull (aReceiverID, "ReceiverID");
+
+    return m_aCache.removeAllWithKeyPrefix (_getReceiverPrefix (aReceiverID));
+  }
+
+  /**
+   * Remove all cached results.
+   */
+  public void removeAll ()
+  {
+    m_aCache.removeAll ();
+  }
+
+  /**
+   * @return The number of cached entries, including the expired ones that were
+   *         not yet evicted. Always &ge; 0.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aCache.size ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("TTLMillis", m_nTTLMillis)
+                                       .append ("Cache", m_aCache)
+                                       .append ("Hits", m_aHits.get ())
+                                       .append ("Misses", m_aMisses.get ())
+                                       .getToString ();
+  }
+}
@@ -59,6 +59,7 @@ public final class Phase4PeppolServletConfiguration
   private static boolean s_bPerformSBDHValueChecks = PeppolSBDHDocumentReader.DEFAULT_PERFORM_VALUE_CHECKS;
   private static boolean s_bCheckSBDHForMandatoryCountryC1 = PeppolSBDHDocumentReader.DEFAULT_CHECK_FOR_COUNTRY_C1;
   private static boolean s_bCheckSigningCertificateRevocation = DEFAULT_CHECK_SIGNING_CERTIFICATE_REVOCATION;
+  private static Phase4PeppolReceiverCheckCache s_aReceiverCheckCache;
 
   private Phase4PeppolServletConfiguration ()
   {}
@@ -210,6 +211,34 @@ public final class Phase4PeppolServletConfiguration
     return new Phase4PeppolReceiverCheckData (aSMPClient, sAS4EndpointURL, aAPCertificate, getWildcardSelectionMode ());
   }
 
+  /**
+   * @return The cache for positive receiver check results. May be
+   *         <code>null</code> if caching is disabled. By default no cache is
+   *         used, so that changes in the SMP are effective immediately.
+   * @since 2.7.7
+   */
+  @Nullable
+  public static Phase4PeppolReceiverCheckCache getReceiverCheckCache ()
+  {
+    return s_aReceiverCheckCache;
+  }
+
+  /**
+   * Set the cache for positive receiver check results. Caching is opt-in and
+   * disabled by default. If the SMP registration of a participant is changed,
+   * the cached results of it should be removed via
+   * {@link Phase4PeppolReceiverCheckCache#removeAllOfReceiver(com.helger.peppolid.IParticipantIdentifier)}.
+   *
+   * @param aReceiverCheckCache
+   *        The cache to be used. May be <code>null</code> to perform the SMP
+   *        lookup for every incoming message.
+   * @since 2.7.7
+   */
+  public static void setReceiverCheckCache (@Nullable final Phase4PeppolReceiverCheckCache aReceiverCheckCache)
+  {
+    s_aReceiverCheckCache = aReceiverCheckCache;
+  }
+
   /**
    * @return <code>true</code> if SBDH value checks are enabled,
    *         <code>false</code> if they are disabled.
@@ -27,6 +27,7 @@ import java.util.Locale;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.security.auth.x500.X500Principal;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,6 +43,7 @@ import com.helger.commons.annotation.ReturnsMutableObject;
 import com.helger.commons.annotation.UnsupportedOperation;
 import com.helger.commons.annotation.UsedViaReflection;
 import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsTreeSet;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.datetime.XMLOffsetDateTime;
 import com.helger.commons.error.IError;
@@ -57,7 +59,9 @@ import com.helger.peppol.sbdh.read.PeppolSBDHDocumentReadException;
 import com.helger.peppol.sbdh.read.PeppolSBDHDocumentReader;
 import com.helger.peppol.smp.ESMPTransportProfile;
 import com.helger.peppol.smp.ISMPTransportProfile;
+import com.helger.peppol.utils.CertificateRevocationChecker;
 import com.helger.peppol.utils.EPeppolCertificateCheckResult;
+import com.helger.peppol.utils.ERevocationCheckMode;
 import com.helger.peppol.utils.PeppolCertificateChecker;
 import com.helger.peppol.utils.PeppolCertificateHelper;
 import com.helger.peppolid.IDocumentTypeIdentifier;
@@ -69,6 +73,7 @@ import com.helger.phase4.attachment.AS4DecompressException;
 import com.helger.phase4.attachment.EAS4CompressionMode;
 import com.helger.phase4.attachment.IAS4Attachment;
 import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.crypto.IAS4TrustValidationCache;
 import com.helger.phase4.ebms3header.Ebms3Error;
 import com.helger.phase4.ebms3header.Ebms3Property;
 import com.helger.phase4.ebms3header.Ebms3SignalMessage;
@@ -164,6 +169,14 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
   }
 
   public static final ESMPTransportProfile DEFAULT_TRANSPORT_PROFILE = ESMPTransportProfile.TRANSPORT_PROFILE_PEPPOL_AS4_V2;
+  /**
+   * The prefix of the validation type used for caching positive Peppol AP
+   * certificate checks in the trust validation cache.
+   *
+   * @see #getTrustValidationTypePeppolAP(ERevocationCheckMode)
+   * @since 2.7.7
+   */
+  public static final String TRUST_VALIDATION_TYPE_PEPPOL_AP = "peppol-ap";
 
   private static final Logger LOGGER = LoggerFactory.getLogger (Phase4PeppolServletMessageProcessorSPI.class);
 
@@ -171,6 +184,7 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
   private ISMPTransportProfile m_aTransportProfile = DEFAULT_TRANSPORT_PROFILE;
   private Phase4PeppolReceiverCheckData m_aReceiverCheckData;
   private ETriState m_eCheckSigningCertificateRevocation = ETriState.UNDEFINED;
+  private Phase4PeppolReceiverCheckCache m_aReceiverCheckCache;
 
   /**
    * Constructor. Uses all SPI implementations of
@@ -182,6 +196,32 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
     m_aHandlers = ServiceLoaderHelper.getAllSPIImplementations (IPhase4PeppolIncomingSBDHandlerSPI.class);
   }
 
+  /**
+   * Get the validation type used for caching positive Peppol AP certificate
+   * checks. It contains all the settings that influence the check, so that
+   * results from different settings are never mixed.
+   *
+   * @param eCheckMode
+   *        The revocation check mode used. May not be <code>null</code>.
+   * @return The validation type consisting of
+   *         {@link #TRUST_VALIDATION_TYPE_PEPPOL_AP}, the check mode and the
+   *         trusted Peppol AP CAs. Never <code>null</code>.
+   * @since 2.7.7
+   */
+  @Nonnull
+  @Nonempty
+  public static String getTrustValidationTypePeppolAP (@Nonnull final ERevocationCheckMode eCheckMode)
+  {
+    ValueEnforcer.notNull (eCheckMode, "CheckMode");
+    final StringBuilder aSB = new StringBuilder (TRUST_VALIDATION_TYPE_PEPPOL_AP);
+    aSB.append ('-').append (eCheckMode.name ());
+    // Sorted to be independent of the set order
+    for (final String sIssuer : new CommonsTreeSet <> (PeppolCertificateChecker.PEPPOL_AP_CA_ISSUERS,
+                                                       X500Principal::getName))
+      aSB.append ('[').append (sIssuer).append (']');
+    return aSB.toString ();
+  }
+
   /**
    * @return A list of all contained Peppol specific SBD handlers. Never
    *         <code>null</code> but maybe empty.
@@ -299,6 +339,35 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
     return this;
   }
 
+  /**
+   * @return The receiver check cache to be used. <code>null</code> by default
+   *         meaning that the global one is used.
+   * @since 2.7.7
+   * @see Phase4PeppolServletConfiguration#getReceiverCheckCache() for the
+   *      global setting
+   */
+  @Nullable
+  public final Phase4PeppolReceiverCheckCache getReceiverCheckCache ()
+  {
+    return m_aReceiverCheckCache;
+  }
+
+  /**
+   * Set the receiver check cache to be used. If set, it overrides the global
+   * one defined by {@link Phase4PeppolServletConfiguration}.
+   *
+   * @param aReceiverCheckCache
+   *        The custom receiver check cache to use. May be <code>null</code>.
+   * @return this for chaining
+   * @since 2.7.7
+   */
+  @Nonnull
+  public final Phase4PeppolServletMessageProcessorSPI setReceiverCheckCache (@Nullable final Phase4PeppolReceiverCheckCache aReceiverCheckCache)
+  {
+    m_aReceiverCheckCache = aReceiverCheckCache;
+    return this;
+  }
+
   @Nullable
   private EndpointType _getReceiverEndpoint (@Nonnull final String sLogPrefix,
                                              @Nonnull final ISMPServiceMetadataProvider aSMPClient,
@@ -634,13 +703,31 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
     {
       final OffsetDateTime aNow = MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ();
       final X509Certificate aSenderCert = aState.getUsedCertificate ();
-      // Check if signing AP certificate is revoked
-      // * Use global caching setting
-      // * Use global certificate check mode
-      final EPeppolCertificateCheckResult eCertCheckResult = PeppolCertificateChecker.checkPeppolAPCertificate (aSenderCert,
-                                                                                                                aNow,
-                                                                                                                ETriState.UNDEFINED,
-                                                                                                                null);
+      // Use the global certificate check mode - resolved once, so that the
+      // check and the cache key are consistent
+      final ERevocationCheckMode eCheckMode = CertificateRevocationChecker.getRevocationCheckMode ();
+      // Reuse recent positive results if a cache is configured
+      final IAS4TrustValidationCache aTrustValidationCache = aState.getTrustValidationCache ();
+      final String sTrustValidationType = aTrustValidationCache == null ? null
+                                                                        : getTrustValidationTypePeppolAP (eCheckMode);
+      final EPeppolCertificateCheckResult eCertCheckResult;
+      if (aTrustValidationCache != null &&
+          aSenderCert != null &&
+          aTrustValidationCache.isTrusted (sTrustValidationType, aSenderCert))
+      {
+        eCertCheckResult = EPeppolCertificateCheckResult.VALID;
+      }
+      else
+      {
+        // Check if signing AP certificate is revoked
+        // * Use global caching setting
+        eCertCheckResult = PeppolCertificateChecker.checkPeppolAPCertificate (aSenderCert,
+                                                                              aNow,
+                                                                              ETriState.UNDEFINED,
+                                                                              eCheckMode);
+        if (aTrustValidationCache != null && aSenderCert != null && eCertCheckResult.isValid ())
+          aTrustValidationCache.setTrusted (sTrustValidationType, aSenderCert);
+      }
       if (eCertCheckResult.isInvalid ())
       {
         final String sDetails = "The received Peppol message is signed with a Peppol AP certificate invalid at " +
@@ -817,38 +904,65 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
           final IParticipantIdentifier aReceiverID = aPeppolSBD.getReceiverAsIdentifier ();
           final IDocumentTypeIdentifier aDocTypeID = aPeppolSBD.getDocumentTypeAsIdentifier ();
           final IProcessIdentifier aProcessID = aPeppolSBD.getProcessAsIdentifier ();
-          final EndpointType aReceiverEndpoint = _getReceiverEndpoint (sLogPrefix,
-                                                                       aReceiverCheckData.getSMPClient (),
-                                                                       aReceiverID,
-                                                                       aDocTypeID,
-                                                                       aProcessID,
-                                                                       aReceiverCheckData.getWildcardSelectionMode ());
-          if (aReceiverEndpoint == null)
+          final Phase4PeppolReceiverCheckCache aReceiverCheckCache = m_aReceiverCheckCache != null ? m_aReceiverCheckCache
+                                                                                                   : Phase4PeppolServletConfiguration.getReceiverCheckCache ();
+          final boolean bCacheable = aReceiverCheckCache != null &&
+                                     aReceiverID != null &&
+                                     aDocTypeID != null &&
+                                     aProcessID != null;
+          if (bCacheable &&
+              aReceiverCheckCache.isVerified (aReceiverCheckData,
+                                              aReceiverID,
+                                              aDocTypeID,
+                                              aProcessID,
+                                              m_aTransportProfile))
           {
-            final String sMsg = "Failed to resolve SMP endpoint for provided receiver ID (" +
-                                (aReceiverID == null ? "null" : aReceiverID.getURIEncoded ()) +
-                                ")/documentType ID (" +
-                                (aDocTypeID == null ? "null" : aDocTypeID.getURIEncoded ()) +
-                                ")/process ID (" +
-                                (aProcessID == null ? "null" : aProcessID.getURIEncoded ()) +
-                                ")/transport profile (" +
-                                m_aTransportProfile.getID () +
-                                ") - not handling incoming AS4 document";
-            LOGGER.error (sLogPrefix + sMsg);
-            // the errorDetail MUST be set according to Peppol AS4 profile 2.2
-            aProcessingErrorMessages.add (EEbmsError.EBMS_OTHER.errorBuilder (aDisplayLocale)
-                                                               .refToMessageInError (aState.getMessageID ())
-                                                               .description (sMsg, aDisplayLocale)
-                                                               .errorDetail ("PEPPOL:NOT_SERVICED")
-                                                               .build ());
-            return AS4MessageProcessorResult.createFailure ();
+            if (LOGGER.isDebugEnabled ())
+              LOGGER.debug (sLogPrefix + "Using the cached positive result of the SMP checks");
           }
+          else
+          {
+            final EndpointType aReceiverEndpoint = _getReceiverEndpoint (sLogPrefix,
+                                                                         aReceiverCheckData.getSMPClient (),
+                                                                         aReceiverID,
+                                                                         aDocTypeID,
+                                                                         aProcessID,
+                                                                         aReceiverCheckData.getWildcardSelectionMode ());
+            if (aReceiverEndpoint == null)
+            {
+              final String sMsg = "Failed to resolve SMP endpoint for provided receiver ID (" +
+                                  (aReceiverID == null ? "null" : aReceiverID.getURIEncoded ()) +
+                                  ")/documentType ID (" +
+                                  (aDocTypeID == null ? "null" : aDocTypeID.getURIEncoded ()) +
+                                  ")/process ID (" +
+                                  (aProcessID == null ? "null" : aProcessID.getURIEncoded ()) +
+                                  ")/transport profile (" +
+                                  m_aTransportProfile.getID () +
+                                  ") - not handling incoming AS4 document";
+              LOGGER.error (sLogPrefix + sMsg);
+              // the errorDetail MUST be set according to Peppol AS4 profile 2.2
+              aProcessingErrorMessages.add (EEbmsError.EBMS_OTHER.errorBuilder (aDisplayLocale)
+                                                                 .refToMessageInError (aState.getMessageID ())
+                                                                 .description (sMsg, aDisplayLocale)
+                                                                 .errorDetail ("PEPPOL:NOT_SERVICED")
+                                                                 .build ());
+              return AS4MessageProcessorResult.createFailure ();
+            }
 
-          // Check if the message is for us
-          _checkIfReceiverEndpointURLMatches (sLogPrefix, aReceiverCheckData.getAS4EndpointURL (), aReceiverEndpoint);
+            // Check if the message is for us
+            _checkIfReceiverEndpointURLMatches (sLogPrefix, aReceiverCheckData.getAS4EndpointURL (), aReceiverEndpoint);
 
-          // Get the recipient certificate from the SMP
-          _checkIfEndpointCertificateMatches (sLogPrefix, aReceiverCheckData.getAPCertificate (), aReceiverEndpoint);
+            // Get the recipient certificate from the SMP
+            _checkIfEndpointCertificateMatches (sLogPrefix, aReceiverCheckData.getAPCertificate (), aReceiverEndpoint);
+
+            // Remember the positive result
+            if (bCacheable)
+              aReceiverCheckCache.setVerified (aReceiverCheckData,
+                                               aReceiverID,
+                                               aDocTypeID,
+                                               aProcessID,
+                                               m_aTransportProfile);
+          }
         }
         catch (final Phase4Exception ex)
         {
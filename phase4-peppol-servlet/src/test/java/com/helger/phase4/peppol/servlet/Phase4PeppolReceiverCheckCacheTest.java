@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+
+import org.junit.Test;
+
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.url.URLHelper;
+import com.helger.peppol.smp.ESMPTransportProfile;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.peppolid.factory.PeppolIdentifierFactory;
+import com.helger.security.certificate.CertificateHelper;
+import com.helger.smpclient.peppol.PeppolWildcardSelector;
+import com.helger.smpclient.peppol.SMPClientReadOnly;
+
+/**
+ * Test class for class {@link Phase4PeppolReceiverCheckCache}.
+ *
+ * @author Philip Helger
+ */
+public final class Phase4PeppolReceiverCheckCacheTest
+{
+  private static final IParticipantIdentifier PID1 = PeppolIdentifierFactory.INSTANCE.createParticipantIdentifierWithDefaultScheme ("9915:phase4-test1");
+  private static final IParticipantIdentifier PID2 = PeppolIdentifierFactory.INSTANCE.createParticipantIdentifierWithDefaultScheme ("9915:phase4-test2");
+  private static final IDocumentTypeIdentifier DOCTYPE = PeppolIdentifierFactory.INSTANCE.createDocumentTypeIdentifierWithDefaultScheme ("urn:oasis:names:specification:ubl:schema:xsd:Invoice-2::Invoice##urn:cen.eu:en16931:2017#compliant#urn:fdc:peppol.eu:2017:poacc:billing:3.0::2.1");
+  private static final IProcessIdentifier PROCESS = PeppolIdentifierFactory.INSTANCE.createProcessIdentifierWithDefaultScheme ("urn:fdc:peppol.eu:2017:poacc:billing:01:1.0");
+
+  private static Phase4PeppolReceiverCheckData _createCheckData (final String sAS4EndpointURL) throws Exception
+  {
+    final X509Certificate aCert = CertificateHelper.convertStringToCertficate (StreamHelper.getAllBytesAsString (new ClassPathResource ("external/certs/test-ap.crt"),
+                                                                                                                StandardCharsets.US_ASCII));
+    assertNotNull (aCert);
+    return new Phase4PeppolReceiverCheckData (new SMPClientReadOnly (URLHelper.getAsURI ("http://localhost:8080")),
+                                              sAS4EndpointURL,
+                                              aCert,
+                                              PeppolWildcardSelector.EMode.WILDCARD_ONLY);
+  }
+
+  @Test
+  public void testBasic () throws Exception
+  {
+    final Phase4PeppolReceiverCheckCache aCache = new Phase4PeppolReceiverCheckCache ();
+    final Phase4PeppolReceiverCheckData aData = _createCheckData ("https://ap.example.org/as4");
+    final ESMPTransportProfile eTP = ESMPTransportProfile.TRANSPORT_PROFILE_PEPPOL_AS4_V2;
+
+    assertFalse (aCache.isVerified (aData, PID1, DOCTYPE, PROCESS, eTP));
+    aCache.setVerified (aData, PID1, DOCTYPE, PROCESS, eTP);
+    assertTrue (aCache.isVerified (aData, PID1, DOCTYPE, PROCESS, eTP));
+    assertEquals (1, aCache.getHitCount ());
+    assertEquals (1, aCache.getMissCount ());
+
+    // Other SMP client instance with the same settings
+    assertTrue (aCache.isVerified (_createCheckData ("https://ap.example.org/as4"), PID1, DOCTYPE, PROCESS, eTP));
+
+    // Different receiver
+    assertFalse (aCache.isVerified (aData, PID2, DOCTYPE, PROCESS, eTP));
+    // Different configuration
+    assertFalse (aCache.isVerified (_createCheckData ("https://other.example.org/as4"), PID1, DOCTYPE, PROCESS, eTP));
+
+    aCache.setVerified (aData, PID2, DOCTYPE, PROCESS, eTP);
+    assertEquals (2, aCache.size ());
+
+    // Evict after re-registration
+    assertEquals (1, aCache.removeAllOfReceiver (PID1));
+    assertFalse (aCache.isVerified (aData, PID1, DOCTYPE, PROCESS, eTP));
+    assertTrue (aCache.isVerified (aData, PID2, DOCTYPE, PROCESS, eTP));
+
+    aCache.removeAll ();
+    assertEquals (0, aCache.size ());
+  }
+
+  @Test
+  public void testExpiry () throws Exception
+  {
+    final Phase4PeppolReceiverCheckCache aCache = new Phase4PeppolReceiverCheckCache (Duration.ofMillis (200), 1);
+    final Phase4PeppolReceiverCheckData aData = _createCheckData ("https://ap.example.org/as4");
+    final ESMPTransportProfile eTP = ESMPTransportProfile.TRANSPORT_PROFILE_PEPPOL_AS4_V2;
+
+    aCache.setVerified (aData, PID1, DOCTYPE, PROCESS, eTP);
+    assertTrue (aCache.isVerified (aData, PID1, DOCTYPE, PROCESS, eTP));
+
+    // Max entries reached
+    aCache.setVerified (aData, PID2, DOCTYPE, PROCESS, eTP);
+    assertEquals (1, aCache.size ());
+    assertFalse (aCache.isVerified (aData, PID1, DOCTYPE, PROCESS, eTP));
+    assertTrue (aCache.isVerified (aData, PID2, DOCTYPE, PROCESS, eTP));
+
+    ThreadHelper.sleep (300);
+    assertFalse (aCache.isVerified (aData, PID2, DOCTYPE, PROCESS, eTP));
+  }
+}
@@ -81,7 +81,10 @@ public class PeppolCRLDownloader extends CRLDownloader
 
   /**
    * Install a global CRLCache using this CRL downloader and the provided
-   * {@link HttpClientSettings}.
+   * {@link HttpClientSettings}. To avoid CRL downloads in the receive path,
+   * consider using
+   * {@link PeppolPrefetchingCRLDownloader#setAsDefaultCRLCache(HttpClientSettings, java.io.File)}
+   * instead.
    *
    * @param aHCS
    *        The {@link HttpClientSettings} to be used. May not be
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2019-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.profile.peppol;
+
+import javax.annotation.CheckForSigned;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * The status of a single CRL managed by the
+ * {@link PeppolPrefetchingCRLDownloader}. Used for monitoring purposes.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@Immutable
+public final class PeppolCRLStatus
+{
+  private final String m_sURL;
+  private final long m_nFetchedMillis;
+  private final long m_nLastFetchDurationMillis;
+  private final long m_nNextUpdateMillis;
+  private final int m_nFailureCount;
+  private final boolean m_bLoadedFromDisk;
+
+  PeppolCRLStatus (@Nonnull @Nonempty final String sURL,
+                   final long nFetchedMillis,
+                   final long nLastFetchDurationMillis,
+                   final long nNextUpdateMillis,
+                   final int nFailureCount,
+                   final boolean bLoadedFromDisk)
+  {
+    m_sURL = sURL;
+    m_nFetchedMillis = nFetchedMillis;
+    m_nLastFetchDurationMillis = nLastFetchDurationMillis;
+    m_nNextUpdateMillis = nNextUpdateMillis;
+    m_nFailureCount = nFailureCount;
+    m_bLoadedFromDisk = bLoadedFromDisk;
+  }
+
+  /**
+   * @return The URL of the CRL. Neither <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getURL ()
+  {
+    return m_sURL;
+  }
+
+  /**
+   * @return The time in milliseconds since the epoch, when the currently used
+   *         CRL was fetched.
+   */
+  public long getFetchedMillis ()
+  {
+    return m_nFetchedMillis;
+  }
+
+  /**
+   * @param nNowMillis
+   *        The current time in milliseconds since the epoch.
+   * @return The age of the currently used CRL in milliseconds.
+   */
+  @Nonnegative
+  public long getAgeMillis (final long nNowMillis)
+  {
+    return Math.max (0, nNowMillis - m_nFetchedMillis);
+  }
+
+  /**
+   * @return The duration of the last successful download in milliseconds or
+   *         -1 if the CRL was only loaded from disk so far.
+   */
+  @CheckForSigned
+  public long getLastFetchDurationMillis ()
+  {
+    return m_nLastFetchDurationMillis;
+  }
+
+  /**
+   * @return The "next update" time of the CRL in milliseconds since the epoch
+   *         or -1 if the CRL contains no such information.
+   */
+  @CheckForSigned
+  public long getNextUpdateMillis ()
+  {
+    return m_nNextUpdateMillis;
+  }
+
+  /**
+   * @return The number of failed downloads since the last successful one.
+   */
+  @Nonnegative
+  public int getFailureCount ()
+  {
+    return m_nFailureCount;
+  }
+
+  /**
+   * @return <code>true</code> if the currently used CRL was loaded from the
+   *         persistence directory and not downloaded yet.
+   */
+  public boolean isLoadedFromDisk ()
+  {
+    return m_bLoadedFromDisk;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("URL", m_sURL)
+                                       .append ("FetchedMillis", m_nFetchedMillis)
+                                       .append ("LastFetchDurationMillis", m_nLastFetchDurationMillis)
+                                       .append ("NextUpdateMillis", m_nNextUpdateMillis)
+                                       .append ("FailureCount", m_nFailureCount)
+                                       .append ("LoadedFromDisk", m_bLoadedFromDisk)
+                                       .getToString ();
+  }
+}
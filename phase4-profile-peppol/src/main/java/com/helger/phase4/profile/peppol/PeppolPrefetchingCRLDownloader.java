@@ -0,0 +1,561 @@
+/*
+ * Copyright (C) 2019-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.profile.peppol;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CRL;
+import java.security.cert.CRLException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.time.Duration;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.string.StringHelper;
+import com.helger.httpclient.HttpClientSettings;
+import com.helger.peppol.utils.CRLCache;
+import com.helger.peppol.utils.CRLDownloader;
+import com.helger.peppol.utils.CertificateRevocationChecker;
+import com.helger.peppol.utils.IUrlDownloader;
+
+/**
+ * A {@link CRLDownloader} that keeps all CRLs it downloaded in memory and
+ * refreshes them in the background before they expire. While a refresh is
+ * running, the previous CRL is returned ("stale while revalidate"), so that
+ * only the very first request for a CRL URL needs to wait for the download.
+ * Optionally all CRLs are persisted in a directory, so that after a restart no
+ * download is needed in the receive path.<br>
+ * A CRL whose "next update" is longer ago than the configured grace period (see
+ * {@link #setNextUpdateGracePeriod(Duration)}) is never returned. In that case
+ * a synchronous download is attempted and if that fails too, the CRL is treated
+ * as unavailable, so that the revocation check fails closed.<br>
+ * This class is meant to be used as the downloader of a {@link CRLCache} with
+ * a short caching duration - see
+ * {@link #setAsDefaultCRLCache(HttpClientSettings, File)}.
+ *
+ * @author Philip Helger
+ * @since 2.7.7
+ */
+@ThreadSafe
+public class PeppolPrefetchingCRLDownloader extends CRLDownloader implements AutoCloseable
+{
+  /** The default duration after which a CRL is refreshed */
+  public static final Duration DEFAULT_REFRESH_INTERVAL = Duration.ofHours (1);
+  /**
+   * The default duration before the "next update" of a CRL, when a refresh is
+   * triggered
+   */
+  public static final Duration DEFAULT_PREFETCH_MARGIN = Duration.ofHours (1);
+  /**
+   * The default duration after the "next update" of a CRL, until which it may
+   * still be used if no newer CRL can be downloaded
+   */
+  public static final Duration DEFAULT_NEXT_UPDATE_GRACE_PERIOD = Duration.ofHours (1);
+  /** The default interval in which all CRLs are checked for a refresh */
+  public static final Duration DEFAULT_CHECK_INTERVAL = Duration.ofMinutes (1);
+  /**
+   * The default caching duration of the {@link CRLCache} installed by
+   * {@link #setAsDefaultCRLCache(HttpClientSettings, File)}.
+   */
+  public static final Duration DEFAULT_CRL_CACHE_DURATION = Duration.ofMinutes (5);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (PeppolPrefetchingCRLDownloader.class);
+  private static final String FILE_EXTENSION = ".crl";
+  /** Minimum duration between a failed download and the next attempt */
+  private static final long RETRY_AFTER_FAILURE_MILLIS = TimeUnit.MINUTES.toMillis (1);
+
+  /**
+   * A single cached CRL.
+   */
+  @Immutable
+  private static final class CachedCRL
+  {
+    private final X509CRL m_aCRL;
+    private final long m_nFetchedMillis;
+    private final long m_nLastFetchDurationMillis;
+    private final int m_nFailureCount;
+    private final long m_nLastFailureMillis;
+    private final boolean m_bLoadedFromDisk;
+
+    CachedCRL (@Nonnull final X509CRL aCRL,
+               final long nFetchedMillis,
+               final long nLastFetchDurationMillis,
+               final int nFailureCount,
+               final long nLastFailureMillis,
+               final boolean bLoadedFromDisk)
+    {
+      m_aCRL = aCRL;
+      m_nFetchedMillis = nFetchedMillis;
+      m_nLastFetchDurationMillis = nLastFetchDurationMillis;
+      m_nFailureCount = nFailureCount;
+      m_nLastFailureMillis = nLastFailureMillis;
+      m_bLoadedFromDisk = bLoadedFromDisk;
+    }
+
+    long getNextUpdateMillis ()
+    {
+      final Date aNextUpdate = m_aCRL.getNextUpdate ();
+      return aNextUpdate == null ? -1 : aNextUpdate.getTime ();
+    }
+
+    boolean isExpired (final long nNow, final long nGracePeriodMillis)
+    {
+      final long nNextUpdate = getNextUpdateMillis ();
+      return nNextUpdate >= 0 && nNow > nNextUpdate + nGracePeriodMillis;
+    }
+
+    boolean isRetryBlocked (final long nNow)
+    {
+      return m_nFailureCount > 0 && nNow < m_nLastFailureMillis + RETRY_AFTER_FAILURE_MILLIS;
+    }
+
+    @Nonnull
+    CachedCRL getWithFailure ()
+    {
+      return new CachedCRL (m_aCRL,
+                            m_nFetchedMillis,
+                            m_nLastFetchDurationMillis,
+                            m_nFailureCount + 1,
+                            System.currentTimeMillis (),
+                            m_bLoadedFromDisk);
+    }
+  }
+
+  private final File m_aPersistenceDir;
+  private final Map <String, CachedCRL> m_aMap = new ConcurrentHashMap <> ();
+  private final Set <String> m_aRefreshing = ConcurrentHashMap.newKeySet ();
+  private final ScheduledExecutorService m_aExecutor;
+  private volatile long m_nRefreshIntervalMillis = DEFAULT_REFRESH_INTERVAL.toMillis ();
+  private volatile long m_nPrefetchMarginMillis = DEFAULT_PREFETCH_MARGIN.toMillis ();
+  private volatile long m_nNextUpdateGracePeriodMillis = DEFAULT_NEXT_UPDATE_GRACE_PERIOD.toMillis ();
+
+  /**
+   * Constructor
+   *
+   * @param aDownloader
+   *        The URL downloader to use. May not be <code>null</code>.
+   * @param aPersistenceDir
+   *        The optional directory to persist the CRLs to. May be
+   *        <code>null</code> to not persist anything. The directory is created
+   *        if it does not exist.
+   */
+  public PeppolPrefetchingCRLDownloader (@Nonnull final IUrlDownloader aDownloader,
+                                         @Nullable final File aPersistenceDir)
+  {
+    super (aDownloader);
+    m_aPersistenceDir = aPersistenceDir;
+    if (aPersistenceDir != null)
+      FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (aPersistenceDir);
+    m_aExecutor = Executors.newSingleThreadScheduledExecutor (aRunnable -> {
+      final Thread ret = new Thread (aRunnable, "phase4-crl-refresh");
+      ret.setDaemon (true);
+      return ret;
+    });
+  }
+
+  /**
+   * Constructor using {@link HttpClientUrlDownloader}.
+   *
+   * @param aHCS
+   *        The {@link HttpClientSettings} to use. May not be <code>null</code>.
+   * @param aPersistenceDir
+   *        The optional directory to persist the CRLs to. May be
+   *        <code>null</code>.
+   */
+  public PeppolPrefetchingCRLDownloader (@Nonnull final HttpClientSettings aHCS, @Nullable final File aPersistenceDir)
+  {
+    this (new HttpClientUrlDownloader (aHCS), aPersistenceDir);
+  }
+
+  /**
+   * @return The persistence directory. May be <code>null</code>.
+   */
+  @Nullable
+  public final File getPersistenceDir ()
+  {
+    return m_aPersistenceDir;
+  }
+
+  /**
+   * Set the duration after which a CRL is refreshed, independent of its "next
+   * update" value.
+   *
+   * @param aRefreshInterval
+   *        The refresh interval. May not be <code>null</code> and must be
+   *        positive.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final PeppolPrefetchingCRLDownloader setRefreshInterval (@Nonnull final Duration aRefreshInterval)
+  {
+    ValueEnforcer.notNull (aRefreshInterval, "RefreshInterval");
+    ValueEnforcer.isTrue (!aRefreshInterval.isNegative () && !aRefreshInterval.isZero (),
+                          "RefreshInterval must be positive");
+    m_nRefreshIntervalMillis = aRefreshInterval.toMillis ();
+    return this;
+  }
+
+  /**
+   * Set the duration before the "next update" of a CRL, when a refresh is
+   * triggered.
+   *
+   * @param aPrefetchMargin
+   *        The margin. May not be <code>null</code> and must not be negative.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final PeppolPrefetchingCRLDownloader setPrefetchMargin (@Nonnull final Duration aPrefetchMargin)
+  {
+    ValueEnforcer.notNull (aPrefetchMargin, "PrefetchMargin");
+    ValueEnforcer.isFalse (aPrefetchMargin.isNegative (), "PrefetchMargin must not be negative");
+    m_nPrefetchMarginMillis = aPrefetchMargin.toMillis ();
+    return this;
+  }
+
+  /**
+   * Set the duration after the "next update" of a CRL, until which it may still
+   * be used if no newer CRL can be downloaded. Afterwards the CRL is treated as
+   * unavailable.
+   *
+   * @param aGracePeriod
+   *        The grace period. May not be <code>null</code> and must not be
+   *        negative.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final PeppolPrefetchingCRLDownloader setNextUpdateGracePeriod (@Nonnull final Duration aGracePeriod)
+  {
+    ValueEnforcer.notNull (aGracePeriod, "GracePeriod");
+    ValueEnforcer.isFalse (aGracePeriod.isNegative (), "GracePeriod must not be negative");
+    m_nNextUpdateGracePeriodMillis = aGracePeriod.toMillis ();
+    return this;
+  }
+
+  /**
+   * Start the periodic background check, that refreshes all known CRLs before
+   * they expire.
+   *
+   * @param aCheckInterval
+   *        The interval in which all CRLs are checked. May not be
+   *        <code>null</code> and must be positive.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final PeppolPrefetchingCRLDownloader startBackgroundRefresh (@Nonnull final Duration aCheckInterval)
+  {
+    ValueEnforcer.notNull (aCheckInterval, "CheckInterval");
+    ValueEnforcer.isTrue (!aCheckInterval.isNegative () && !aCheckInterval.isZero (), "CheckInterval must be positive");
+    final long nMillis = aCheckInterval.toMillis ();
+    m_aExecutor.scheduleWithFixedDelay (this::refreshAllDue, nMillis, nMillis, TimeUnit.MILLISECONDS);
+    return this;
+  }
+
+  @Nullable
+  private static String _getFilename (@Nonnull final String sURL)
+  {
+    try
+    {
+      final byte [] aDigest = MessageDigest.getInstance ("SHA-256").digest (sURL.getBytes (StandardCharsets.UTF_8));
+      return StringHelper.getHexEncoded (aDigest) + FILE_EXTENSION;
+    }
+    catch (final NoSuchAlgorithmException ex)
+    {
+      return null;
+    }
+  }
+
+  @Nullable
+  private File _getFile (@Nonnull final String sURL)
+  {
+    if (m_aPersistenceDir == null)
+      return null;
+    final String sFilename = _getFilename (sURL);
+    return sFilename == null ? null : new File (m_aPersistenceDir, sFilename);
+  }
+
+  @Nullable
+  private CachedCRL _readFromDisk (@Nonnull final String sURL)
+  {
+    final File aFile = _getFile (sURL);
+    if (aFile == null || !aFile.isFile ())
+      return null;
+
+    try (final InputStream aIS = FileHelper.getBufferedInputStream (aFile))
+    {
+      final CRL aCRL = CertificateFactory.getInstance ("X.509").generateCRL (aIS);
+      if (aCRL instanceof X509CRL)
+      {
+        LOGGER.info ("Loaded CRL for '" + sURL + "' from '" + aFile.getAbsolutePath () + "'");
+        return new CachedCRL ((X509CRL) aCRL, aFile.lastModified (), -1, 0, -1, true);
+      }
+    }
+    catch (final IOException | CertificateException | CRLException ex)
+    {
+      LOGGER.warn ("Failed to read persisted CRL for '" + sURL + "' from '" + aFile.getAbsolutePath () + "'", ex);
+    }
+    return null;
+  }
+
+  private void _writeToDisk (@Nonnull final String sURL, @Nonnull final X509CRL aCRL)
+  {
+    final File aFile = _getFile (sURL);
+    if (aFile == null)
+      return;
+
+    // Write to a temporary file first, so that a crash never leaves a broken
+    // file
+    final File aTempFile = new File (aFile.getParentFile (), aFile.getName () + ".tmp");
+    try
+    {
+      try (final OutputStream aOS = FileHelper.getBufferedOutputStream (aTempFile))
+      {
+        if (aOS == null)
+          throw new IOException ("Failed to open '" + aTempFile.getAbsolutePath () + "' for writing");
+        aOS.write (aCRL.getEncoded ());
+      }
+      Files.move (aTempFile.toPath (),
+                  aFile.toPath (),
+                  StandardCopyOption.REPLACE_EXISTING,
+                  StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (final IOException | CRLException ex)
+    {
+      LOGGER.warn ("Failed to persist CRL for '" + sURL + "' to '" + aFile.getAbsolutePath () + "'", ex);
+      FileOperationManager.INSTANCE.deleteFileIfExisting (aTempFile);
+    }
+  }
+
+  /**
+   * Download the CRL from the provided URL and remember it. In case of an
+   * error, the previous CRL stays active.
+   *
+   * @param sURL
+   *        The URL to download from. May neither be <code>null</code> nor
+   *        empty.
+   * @return The cached entry after the download. May be <code>null</code> if
+   *         the download failed and no previous CRL is present.
+   */
+  @Nullable
+  private CachedCRL _fetch (@Nonnull @Nonempty final String sURL)
+  {
+    final long nStart = System.nanoTime ();
+    final CRL aCRL = super.downloadCRL (sURL);
+    final long nDurationMillis = TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - nStart);
+
+    if (aCRL instanceof X509CRL)
+    {
+      final X509CRL aX509CRL = (X509CRL) aCRL;
+      final CachedCRL ret = new CachedCRL (aX509CRL, System.currentTimeMillis (), nDurationMillis, 0, -1, false);
+      m_aMap.put (sURL, ret);
+      _writeToDisk (sURL, aX509CRL);
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Downloaded CRL from '" + sURL + "' in " + nDurationMillis + " ms");
+      return ret;
+    }
+
+    LOGGER.warn ("Failed to download CRL from '" + sURL + "' after " + nDurationMillis + " ms");
+    return m_aMap.computeIfPresent (sURL, (k, v) -> v.getWithFailure ());
+  }
+
+  private boolean _isRefreshDue (@Nonnull final CachedCRL aCached, final long nNow)
+  {
+    if (aCached.isRetryBlocked (nNow))
+      return false;
+    if (aCached.m_bLoadedFromDisk)
+      return true;
+    if (nNow >= aCached.m_nFetchedMillis + m_nRefreshIntervalMillis)
+      return true;
+    final long nNextUpdate = aCached.getNextUpdateMillis ();
+    return nNextUpdate >= 0 && nNow >= nNextUpdate - m_nPrefetchMarginMillis;
+  }
+
+  private void _triggerRefresh (@Nonnull final String sURL)
+  {
+    // Only one refresh per URL at a time
+    if (m_aRefreshing.add (sURL))
+    {
+      try
+      {
+        m_aExecutor.execute ( () -> {
+          try
+          {
+            _fetch (sURL);
+          }
+          catch (final RuntimeException ex)
+          {
+            LOGGER.error ("Error refreshing CRL from '" + sURL + "'", ex);
+          }
+          finally
+          {
+            m_aRefreshing.remove (sURL);
+          }
+        });
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        // Already closed
+        m_aRefreshing.remove (sURL);
+      }
+    }
+  }
+
+  /**
+   * Trigger an asynchronous refresh for all CRLs where it is due. This is
+   * called periodically if {@link #startBackgroundRefresh(Duration)} was
+   * called.
+   */
+  public void refreshAllDue ()
+  {
+    final long nNow = System.currentTimeMillis ();
+    m_aMap.forEach ( (sURL, aCached) -> {
+      if (_isRefreshDue (aCached, nNow))
+        _triggerRefresh (sURL);
+    });
+  }
+
+  @Override
+  @Nullable
+  public CRL downloadCRL (@Nullable final String sURL)
+  {
+    if (StringHelper.hasNoText (sURL))
+      return null;
+
+    CachedCRL aCached = m_aMap.get (sURL);
+    boolean bFetched = false;
+    if (aCached == null)
+    {
+      aCached = _readFromDisk (sURL);
+      if (aCached != null)
+        m_aMap.putIfAbsent (sURL, aCached);
+      else
+      {
+        // Unknown CRL - must be downloaded synchronously
+        aCached = _fetch (sURL);
+        if (aCached == null)
+          return null;
+        bFetched = true;
+      }
+    }
+
+    final long nGracePeriodMillis = m_nNextUpdateGracePeriodMillis;
+    final long nNow = System.currentTimeMillis ();
+    if (aCached.isExpired (nNow, nGracePeriodMillis))
+    {
+      // Too old to be used - try to download synchronously
+      if (!bFetched && !aCached.isRetryBlocked (nNow))
+        aCached = _fetch (sURL);
+      if (aCached == null || aCached.isExpired (System.currentTimeMillis (), nGracePeriodMillis))
+      {
+        LOGGER.warn ("The CRL from '" + sURL + "' is expired and no newer CRL is available - treating it as unavailable");
+        return null;
+      }
+    }
+    else
+      if (_isRefreshDue (aCached, nNow))
+      {
+        // Serve stale data while refreshing
+        _triggerRefresh (sURL);
+      }
+    return aCached.m_aCRL;
+  }
+
+  /**
+   * @return The status of all CRLs currently known for monitoring purposes.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <PeppolCRLStatus> getAllCRLStatus ()
+  {
+    final ICommonsList <PeppolCRLStatus> ret = new CommonsArrayList <> ();
+    m_aMap.forEach ( (sURL, aCached) -> ret.add (new PeppolCRLStatus (sURL,
+                                                                      aCached.m_nFetchedMillis,
+                                                                      aCached.m_nLastFetchDurationMillis,
+                                                                      aCached.getNextUpdateMillis (),
+                                                                      aCached.m_nFailureCount,
+                                                                      aCached.m_bLoadedFromDisk)));
+    return ret;
+  }
+
+  /**
+   * Stop all background activities.
+   */
+  public void close ()
+  {
+    m_aExecutor.shutdownNow ();
+  }
+
+  /**
+   * Install a global {@link CRLCache} using a new
+   * {@link PeppolPrefetchingCRLDownloader} with the default settings and the
+   * background refresh enabled.
+   *
+   * @param aHCS
+   *        The {@link HttpClientSettings} to be used. May not be
+   *        <code>null</code>.
+   * @param aPersistenceDir
+   *        The optional directory to persist the CRLs to. May be
+   *        <code>null</code>.
+   * @return The created downloader, e.g. to access the status. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public static PeppolPrefetchingCRLDownloader setAsDefaultCRLCache (@Nonnull final HttpClientSettings aHCS,
+                                                                     @Nullable final File aPersistenceDir)
+  {
+    ValueEnforcer.notNull (aHCS, "HttpClientSettings");
+
+    LOGGER.info ("Installing the PeppolPrefetchingCRLDownloader as the default CRL cache using HttpClientSettings " +
+                 aHCS +
+                 " and persistence directory " +
+                 (aPersistenceDir == null ? "none" : "'" + aPersistenceDir.getAbsolutePath () + "'"));
+    final PeppolPrefetchingCRLDownloader ret = new PeppolPrefetchingCRLDownloader (aHCS, aPersistenceDir);
+    ret.startBackgroundRefresh (DEFAULT_CHECK_INTERVAL);
+    CertificateRevocationChecker.setDefaultCRLCache (new CRLCache (ret, DEFAULT_CRL_CACHE_DURATION));
+    return ret;
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2019-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.profile.peppol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.cert.CRL;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.peppol.utils.IUrlDownloader;
+
+/**
+ * Test class for class {@link PeppolPrefetchingCRLDownloader}
+ *
+ * @author Philip Helger
+ */
+public final class PeppolPrefetchingCRLDownloaderTest
+{
+  private static final String URL = "http://crl.example.org/test-ca.crl";
+
+  /**
+   * Local stand-in for a CRL distribution point.
+   */
+  private static final class MockUrlDownloader implements IUrlDownloader
+  {
+    private final byte [] m_aCRLBytes;
+    private final AtomicInteger m_aCalls = new AtomicInteger (0);
+    private final AtomicBoolean m_aFail = new AtomicBoolean (false);
+
+    MockUrlDownloader ()
+    {
+      this ("external/crl/test-ca.crl");
+    }
+
+    MockUrlDownloader (@Nonnull final String sCRLPath)
+    {
+      m_aCRLBytes = StreamHelper.getAllBytes (new ClassPathResource (sCRLPath));
+    }
+
+    public byte [] downloadURL (@Nonnull final String sURL) throws Exception
+    {
+      m_aCalls.incrementAndGet ();
+      if (m_aFail.get ())
+        throw new IllegalStateException ("Simulated download error");
+      return m_aCRLBytes;
+    }
+  }
+
+  private static void _waitFor (@Nonnull final BooleanSupplier aCondition)
+  {
+    for (int i = 0; i < 500 && !aCondition.getAsBoolean (); ++i)
+      ThreadHelper.sleep (10);
+    assertTrue (aCondition.getAsBoolean ());
+  }
+
+  @Test
+  public void testStaleWhileRevalidate ()
+  {
+    final MockUrlDownloader aMock = new MockUrlDownloader ();
+    try (final PeppolPrefetchingCRLDownloader aDL = new PeppolPrefetchingCRLDownloader (aMock, null))
+    {
+      aDL.setRefreshInterval (Duration.ofMillis (50));
+
+      // Initial download is synchronous
+      final CRL aCRL = aDL.downloadCRL (URL);
+      assertNotNull (aCRL);
+      assertEquals (1, aMock.m_aCalls.get ());
+
+      // Cached
+      assertSame (aCRL, aDL.downloadCRL (URL));
+      assertEquals (1, aMock.m_aCalls.get ());
+
+      // Stale data is returned and refreshed in the background
+      ThreadHelper.sleep (100);
+      assertSame (aCRL, aDL.downloadCRL (URL));
+      _waitFor ( () -> aMock.m_aCalls.get () == 2);
+
+      assertEquals (1, aDL.getAllCRLStatus ().size ());
+      final PeppolCRLStatus aStatus = aDL.getAllCRLStatus ().getFirst ();
+      assertEquals (URL, aStatus.getURL ());
+      assertEquals (0, aStatus.getFailureCount ());
+      assertTrue (aStatus.getLastFetchDurationMillis () >= 0);
+      assertTrue (aStatus.getNextUpdateMillis () > 0);
+      assertFalse (aStatus.isLoadedFromDisk ());
+    }
+  }
+
+  @Test
+  public void testFailureKeepsStaleData ()
+  {
+    final MockUrlDownloader aMock = new MockUrlDownloader ();
+    try (final PeppolPrefetchingCRLDownloader aDL = new PeppolPrefetchingCRLDownloader (aMock, null))
+    {
+      aDL.setRefreshInterval (Duration.ofMillis (50));
+      final CRL aCRL = aDL.downloadCRL (URL);
+      assertNotNull (aCRL);
+
+      aMock.m_aFail.set (true);
+      ThreadHelper.sleep (100);
+      assertSame (aCRL, aDL.downloadCRL (URL));
+      _waitFor ( () -> aDL.getAllCRLStatus ().getFirst ().getFailureCount () == 1);
+      assertSame (aCRL, aDL.downloadCRL (URL));
+
+      // Unknown CRL that cannot be downloaded
+      assertNull (aDL.downloadCRL ("http://crl.example.org/other.crl"));
+    }
+  }
+
+  @Test
+  public void testPersistence () throws Exception
+  {
+    final File aDir = Files.createTempDirectory ("phase4-crl").toFile ();
+    try
+    {
+      try (final PeppolPrefetchingCRLDownloader aDL = new PeppolPrefetchingCRLDownloader (new MockUrlDownloader (),
+                                                                                           aDir))
+      {
+        assertNotNull (aDL.downloadCRL (URL));
+      }
+
+      // Cold start with an unreachable distribution point
+      final MockUrlDownloader aMock = new MockUrlDownloader ();
+      aMock.m_aFail.set (true);
+      try (final PeppolPrefetchingCRLDownloader aDL = new PeppolPrefetchingCRLDownloader (aMock, aDir))
+      {
+        assertNotNull (aDL.downloadCRL (URL));
+        assertTrue (aDL.getAllCRLStatus ().getFirst ().isLoadedFromDisk ());
+      }
+    }
+    finally
+    {
+      FileOperationManager.INSTANCE.deleteDirRecursive (aDir);
+    }
+  }
+
+  @Test
+  public void testExpiredCRL ()
+  {
+    // Next update is in the past
+    final MockUrlDownloader aMock = new MockUrlDownloader ("external/crl/expired-ca.crl");
+    try (final PeppolPrefetchingCRLDownloader aDL = new PeppolPrefetchingCRLDownloader (aMock, null))
+    {
+      // Fail closed
+      assertNull (aDL.downloadCRL (URL));
+      assertEquals (1, aMock.m_aCalls.get ());
+
+      // Still downloaded synchronously while expired
+      assertNull (aDL.downloadCRL (URL));
+      assertEquals (2, aMock.m_aCalls.get ());
+
+      // Within the grace period
+      aDL.setNextUpdateGracePeriod (Duration.ofDays (365_000));
+      assertNotNull (aDL.downloadCRL (URL));
+    }
+  }
+}
@@ -148,6 +148,8 @@ public final class DropFolderUserMessage
                                                                     aSBDH.getReceiverScheme (),
                                                                     aSBDH.getReceiverValue ()));
           aClient.setPayload (new SBDMarshaller ().getAsElement (aSBD));
+          // The payload element is only used for this message
+          aClient.setAdoptPayload (true);
 
           final IAS4ClientBuildMessageCallback aCallback = null;
           final IAS4OutgoingDumper aOutgoingDumper = null;
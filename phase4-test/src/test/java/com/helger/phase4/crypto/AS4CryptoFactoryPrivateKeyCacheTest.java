@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+
+import org.junit.Test;
+
+/**
+ * Test class for the private key caching of {@link AbstractAS4CryptoFactory}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4CryptoFactoryPrivateKeyCacheTest
+{
+  @Test
+  public void testCacheAndInvalidate ()
+  {
+    final AS4CryptoFactoryProperties aCF = new AS4CryptoFactoryProperties (AS4CryptoFactoryProperties.getDefaultInstance ()
+                                                                                                       .cryptoProperties ());
+    final KeyStore.PrivateKeyEntry aPKE = aCF.getPrivateKeyEntry ();
+    assertNotNull (aPKE);
+    final X509Certificate aCert = aCF.getCertificate ();
+    assertNotNull (aCert);
+
+    // Cached
+    assertSame (aPKE, aCF.getPrivateKeyEntry ());
+    assertSame (aCert, aCF.getCertificate ());
+
+    // Uncached
+    assertNotSame (aPKE, aCF.loadPrivateKeyEntry ());
+
+    // Invalidated
+    aCF.clearCachedPrivateKeyEntry ();
+    final KeyStore.PrivateKeyEntry aPKE2 = aCF.getPrivateKeyEntry ();
+    assertNotNull (aPKE2);
+    assertNotSame (aPKE, aPKE2);
+    assertEquals (aCert, aCF.getCertificate ());
+  }
+
+  @Test
+  public void testInMemoryKeyStore ()
+  {
+    final AS4CryptoFactoryProperties aSrc = AS4CryptoFactoryProperties.getDefaultInstance ();
+    final AS4CryptoFactoryInMemoryKeyStore aCF = new AS4CryptoFactoryInMemoryKeyStore (aSrc.getKeyStore (),
+                                                                                       aSrc.getKeyAlias (),
+                                                                                       aSrc.getKeyPassword (),
+                                                                                       aSrc.getTrustStore ());
+    final KeyStore.PrivateKeyEntry aPKE = aCF.getPrivateKeyEntry ();
+    assertNotNull (aPKE);
+    assertSame (aPKE, aCF.getPrivateKeyEntry ());
+    assertEquals (aSrc.getCertificate (), aCF.getCertificate ());
+
+    aCF.clearCachedPrivateKeyEntry ();
+    assertNotSame (aPKE, aCF.getPrivateKeyEntry ());
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.security.KeyStore;
+import java.time.Duration;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.junit.Test;
+
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * Test class for class {@link AS4CryptoFactoryReloadable}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4CryptoFactoryReloadableTest
+{
+  private static void _copy (final byte [] aBytes, final File aFile)
+  {
+    try (final OutputStream aOS = FileHelper.getOutputStream (aFile))
+    {
+      aOS.write (aBytes);
+    }
+    catch (final Exception ex)
+    {
+      throw new IllegalStateException (ex);
+    }
+  }
+
+  @Test
+  public void testReload () throws Exception
+  {
+    final byte [] aKeyStoreBytes = StreamHelper.getAllBytes (new ClassPathResource ("keys/dummy-pw-test.jks"));
+    final File aKeyStoreFile = File.createTempFile ("phase4-reload", ".jks");
+    try
+    {
+      _copy (aKeyStoreBytes, aKeyStoreFile);
+
+      final AS4CryptoProperties aProps = AS4CryptoFactoryProperties.getDefaultInstance ()
+                                                                   .cryptoProperties ()
+                                                                   .getClone ()
+                                                                   .setKeyStorePath (aKeyStoreFile.getAbsolutePath ());
+      try (final AS4CryptoFactoryReloadable aCF = new AS4CryptoFactoryReloadable (aProps))
+      {
+        assertEquals (1, aCF.getLoadCount ());
+        final Crypto aCrypto = aCF.getCrypto (ECryptoMode.ENCRYPT_SIGN);
+        final KeyStore.PrivateKeyEntry aPKE = aCF.getPrivateKeyEntry ();
+        assertNotNull (aPKE);
+
+        // Nothing changed
+        assertFalse (aCF.isModified ());
+        assertTrue (aCF.reloadIfModified ().isSuccess ());
+        assertEquals (1, aCF.getLoadCount ());
+        assertSame (aCrypto, aCF.getCrypto (ECryptoMode.ENCRYPT_SIGN));
+
+        // Touch the file
+        assertTrue (aKeyStoreFile.setLastModified (aKeyStoreFile.lastModified () + 10_000));
+        assertTrue (aCF.isModified ());
+        assertTrue (aCF.reloadIfModified ().isSuccess ());
+        assertEquals (2, aCF.getLoadCount ());
+        final Crypto aCrypto2 = aCF.getCrypto (ECryptoMode.ENCRYPT_SIGN);
+        assertNotSame (aCrypto, aCrypto2);
+        // The private key cache is bound to the key store
+        assertNotSame (aPKE, aCF.getPrivateKeyEntry ());
+        assertEquals (aPKE.getCertificate (), aCF.getCertificate ());
+
+        // Broken file - old state stays active
+        _copy (new byte [] { 1, 2, 3 }, aKeyStoreFile);
+        assertTrue (aCF.reload ().isFailure ());
+        assertEquals (2, aCF.getLoadCount ());
+        assertSame (aCrypto2, aCF.getCrypto (ECryptoMode.ENCRYPT_SIGN));
+        assertNotNull (aCF.getPrivateKeyEntry ());
+
+        // Monitoring
+        assertFalse (aCF.isMonitoring ());
+        aCF.startMonitoring (Duration.ofMillis (50));
+        assertTrue (aCF.isMonitoring ());
+        aCF.stopMonitoring ();
+        assertFalse (aCF.isMonitoring ());
+      }
+    }
+    finally
+    {
+      FileOperationManager.INSTANCE.deleteFile (aKeyStoreFile);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+
+import org.junit.Test;
+
+import com.helger.commons.concurrent.ThreadHelper;
+
+/**
+ * Test class for class {@link AS4TrustValidationCache}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4TrustValidationCacheTest
+{
+  private static final X509Certificate CERT = AS4CryptoFactoryProperties.getDefaultInstance ().getCertificate ();
+
+  @Test
+  public void testBasic ()
+  {
+    assertNotNull (CERT);
+    final AS4TrustValidationCache aCache = new AS4TrustValidationCache ();
+    assertEquals (0, aCache.size ());
+    assertFalse (aCache.isTrusted ("a", CERT));
+
+    aCache.setTrusted ("a", CERT);
+    assertEquals (1, aCache.size ());
+    assertTrue (aCache.isTrusted ("a", CERT));
+    // Different type
+    assertFalse (aCache.isTrusted ("b", CERT));
+    assertEquals (1, aCache.getHitCount ());
+    assertEquals (2, aCache.getMissCount ());
+
+    aCache.clear ();
+    assertEquals (0, aCache.size ());
+    assertFalse (aCache.isTrusted ("a", CERT));
+  }
+
+  @Test
+  public void testExpiry ()
+  {
+    final AS4TrustValidationCache aCache = new AS4TrustValidationCache (Duration.ofMillis (50), 10);
+    aCache.setTrusted ("a", CERT);
+    assertTrue (aCache.isTrusted ("a", CERT));
+    ThreadHelper.sleep (100);
+    assertFalse (aCache.isTrusted ("a", CERT));
+  }
+
+  @Test
+  public void testMaxEntries ()
+  {
+    final AS4TrustValidationCache aCache = new AS4TrustValidationCache (Duration.ofMinutes (1), 2);
+    aCache.setTrusted ("a", CERT);
+    aCache.setTrusted ("b", CERT);
+    aCache.setTrusted ("c", CERT);
+    assertEquals (2, aCache.size ());
+    // The oldest one was evicted
+    assertFalse (aCache.isTrusted ("a", CERT));
+    assertTrue (aCache.isTrusted ("b", CERT));
+    assertTrue (aCache.isTrusted ("c", CERT));
+  }
+}
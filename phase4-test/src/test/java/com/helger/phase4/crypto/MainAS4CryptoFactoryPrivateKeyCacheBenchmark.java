@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.timing.StopWatch;
+
+/**
+ * Compares the per message costs of loading the private key entry from the key
+ * store with the cached version of {@link AbstractAS4CryptoFactory}.
+ *
+ * @author Philip Helger
+ */
+public final class MainAS4CryptoFactoryPrivateKeyCacheBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainAS4CryptoFactoryPrivateKeyCacheBenchmark.class);
+  private static final int ITERATIONS = 10_000;
+
+  private static double _runAndGetMicrosPerCall (@Nonnull final Supplier <?> aSupplier)
+  {
+    final StopWatch aSW = StopWatch.createdStarted ();
+    for (int i = 0; i < ITERATIONS; ++i)
+      if (aSupplier.get () == null)
+        throw new IllegalStateException ("Failed to load private key");
+    aSW.stop ();
+    return aSW.getNanos () / 1000d / ITERATIONS;
+  }
+
+  public static void main (final String [] args)
+  {
+    final AS4CryptoFactoryProperties aCF = AS4CryptoFactoryProperties.getDefaultInstance ();
+
+    // Warm up
+    _runAndGetMicrosPerCall (aCF::loadPrivateKeyEntry);
+    _runAndGetMicrosPerCall (aCF::getPrivateKeyEntry);
+
+    final double dUncached = _runAndGetMicrosPerCall (aCF::loadPrivateKeyEntry);
+    final double dCached = _runAndGetMicrosPerCall (aCF::getPrivateKeyEntry);
+    final double dCachedCert = _runAndGetMicrosPerCall (aCF::getCertificate);
+
+    LOGGER.info ("Uncached private key entry: " + String.format ("%.3f", dUncached) + " us/call");
+    LOGGER.info ("Cached private key entry:   " + String.format ("%.3f", dCached) + " us/call");
+    LOGGER.info ("Cached certificate:         " + String.format ("%.3f", dCachedCert) + " us/call");
+  }
+}
@@ -200,6 +200,7 @@ public final class TwoWayMEPTest extends AbstractUserMessageTestSetUpExt
     aEbms3UserMessage.setMessageProperties (createDefaultProperties ());
 
     m_aPMode.getLeg2 ().getBusinessInfo ().setMPCID ("wrongmpc-id");
+    MetaAS4Manager.getPModeMgr ().updatePMode (m_aPMode);
 
     final IPMode aPMode = MetaAS4Manager.getPModeMgr ().getPModeOfID (m_aPMode.getID ());
     aEbms3UserMessage.getCollaborationInfo ().getAgreementRef ().setPmode (aPMode.getID ());
@@ -16,23 +16,52 @@
  */
 package com.helger.phase4.server.servlet;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
 import org.apache.hc.core5.http.HttpEntity;
+import org.apache.wss4j.dom.handler.RequestData;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import com.helger.commons.CGlobal;
+import com.helger.commons.collection.attr.StringMap;
 import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.http.CHttpHeader;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.IHasInputStream;
 import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.mime.IMimeType;
+import com.helger.commons.wrapper.Wrapper;
 import com.helger.phase4.AS4TestConstants;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.ScopedAS4Configuration;
+import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
 import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.crypto.AS4IncomingSecurityConfiguration;
+import com.helger.phase4.crypto.IAS4DecryptParameterModifier;
+import com.helger.phase4.crypto.IAS4IncomingSecurityConfiguration;
 import com.helger.phase4.error.EEbmsError;
 import com.helger.phase4.http.HttpXMLEntity;
+import com.helger.phase4.model.pmode.resolve.DefaultPModeResolver;
 import com.helger.phase4.server.message.MockMessages;
+import com.helger.phase4.servlet.AS4IncomingMessageMetadata;
+import com.helger.phase4.servlet.AS4RequestHandler;
+import com.helger.phase4.servlet.IAS4ResponseAbstraction;
 import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4XMLHelper;
 import com.helger.xml.serialize.read.DOMReader;
 
 /**
@@ -99,4 +128,106 @@ public final class UserMessageDuplicateTest extends AbstractUserMessageTestSetUp
     // Send second
     sendPlainMessage (aEntity, false, EEbmsError.EBMS_OTHER.getErrorCode ());
   }
+
+  @Test
+  public void testDuplicateSignedMessageWithPreCheck () throws Exception
+  {
+    final Node aPayload = DOMReader.readXMLDOM (new ClassPathResource (AS4TestConstants.TEST_SOAP_BODY_PAYLOAD_XML));
+    final ESoapVersion eSOAPVersion = ESoapVersion.AS4_DEFAULT;
+    final Document aDoc = MockMessages.createUserMessageSigned (eSOAPVersion, aPayload, null, s_aResMgr);
+
+    final HttpEntity aEntity = new HttpXMLEntity (aDoc, eSOAPVersion.getMimeType ());
+
+    try (final ScopedAS4Configuration aSC = ScopedAS4Configuration.createTestConfig (new StringMap ().putIn (AS4Configuration.PROPERTY_PHASE4_INCOMING_DUPLICATE_PRECHECK,
+                                                                                                             true)))
+    {
+      // Send first
+      final String sResponse = sendPlainMessage (aEntity, true, null);
+      assertTrue (sResponse.contains (AS4TestConstants.RECEIPT_ASSERTCHECK));
+
+      // Send second - the original receipt is returned
+      final String sResponse2 = sendPlainMessage (aEntity, true, null);
+      assertEquals (sResponse, sResponse2);
+    }
+  }
+
+  @Nonnull
+  private byte [] _handleInProcess (@Nonnull final HttpEntity aEntity,
+                                    @Nonnull final IAS4IncomingSecurityConfiguration aISC) throws Exception
+  {
+    final HttpHeaderMap aHeaders = new HttpHeaderMap ();
+    aHeaders.addHeader (CHttpHeader.CONTENT_TYPE, aEntity.getContentType ());
+
+    final Wrapper <byte []> aResponse = new Wrapper <> ();
+    try (final AS4RequestHandler aHandler = new AS4RequestHandler (m_aCryptoFactory,
+                                                                   m_aCryptoFactory,
+                                                                   DefaultPModeResolver.DEFAULT_PMODE_RESOLVER,
+                                                                   IAS4IncomingAttachmentFactory.DEFAULT_INSTANCE,
+                                                                   aISC,
+                                                                   AS4IncomingMessageMetadata.createForRequest ()))
+    {
+      aHandler.handleRequest (aEntity.getContent (), aHeaders, new IAS4ResponseAbstraction ()
+      {
+        public void setContent (@Nonnull final byte [] aBytes, @Nonnull final Charset aCharset)
+        {
+          aResponse.set (aBytes);
+        }
+
+        public void setContent (@Nonnull final HttpHeaderMap aHeaderMap, @Nonnull final IHasInputStream aHasIS)
+        {
+          // Receipts are never sent as MIME messages
+        }
+
+        public void setMimeType (@Nonnull final IMimeType aMimeType)
+        {}
+
+        public void setStatus (final int nStatusCode)
+        {}
+      });
+    }
+    assertNotNull (aResponse.get ());
+    return aResponse.get ();
+  }
+
+  @Test
+  public void testPreCheckSkipsWSS4J () throws Exception
+  {
+    final Node aPayload = DOMReader.readXMLDOM (new ClassPathResource (AS4TestConstants.TEST_SOAP_BODY_PAYLOAD_XML));
+    final ESoapVersion eSOAPVersion = ESoapVersion.AS4_DEFAULT;
+    final Document aDoc = MockMessages.createUserMessageSigned (eSOAPVersion, aPayload, null, s_aResMgr);
+
+    // Count the invocations of the WSS4J processor
+    final AtomicInteger aWSS4JCount = new AtomicInteger (0);
+    final IAS4DecryptParameterModifier aCounter = new IAS4DecryptParameterModifier ()
+    {
+      @Override
+      public void modifyRequestData (@Nonnull final RequestData aRequestData)
+      {
+        aWSS4JCount.incrementAndGet ();
+      }
+    };
+    final IAS4IncomingSecurityConfiguration aISC = AS4IncomingSecurityConfiguration.createDefaultInstance ()
+                                                                                   .setDecryptParameterModifier (aCounter);
+
+    try (final ScopedAS4Configuration aSC = ScopedAS4Configuration.createTestConfig (new StringMap ().putIn (AS4Configuration.PROPERTY_PHASE4_INCOMING_DUPLICATE_PRECHECK,
+                                                                                                             true)))
+    {
+      // Send first
+      final byte [] aResponse = _handleInProcess (new HttpXMLEntity (aDoc, eSOAPVersion.getMimeType ()), aISC);
+      assertTrue (new String (aResponse, AS4XMLHelper.XWS.getCharset ()).contains (AS4TestConstants.RECEIPT_ASSERTCHECK));
+      assertEquals (1, aWSS4JCount.get ());
+
+      // Replay - answered from the cache without WSS4J
+      final byte [] aResponse2 = _handleInProcess (new HttpXMLEntity (aDoc, eSOAPVersion.getMimeType ()), aISC);
+      assertArrayEquals (aResponse, aResponse2);
+      assertEquals (1, aWSS4JCount.get ());
+
+      // Same message ID but a different signature value - processed as usual
+      final Element aSignatureValue = (Element) aDoc.getElementsByTagNameNS (CAS4.DS_NS, "SignatureValue").item (0);
+      aSignatureValue.setTextContent ("AAAA" + aSignatureValue.getTextContent ());
+      final byte [] aResponse3 = _handleInProcess (new HttpXMLEntity (aDoc, eSOAPVersion.getMimeType ()), aISC);
+      assertFalse (Arrays.equals (aResponse, aResponse3));
+      assertEquals (2, aWSS4JCount.get ());
+    }
+  }
 }
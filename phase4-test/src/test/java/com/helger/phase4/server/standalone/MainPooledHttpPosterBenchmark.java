@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.standalone;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.timing.StopWatch;
+import com.helger.commons.url.URLHelper;
+import com.helger.phase4.AS4TestConstants;
+import com.helger.phase4.ScopedAS4Configuration;
+import com.helger.phase4.http.BasicHttpPoster;
+import com.helger.phase4.http.PooledHttpPoster;
+import com.helger.phase4.server.AS4JettyRunner;
+import com.helger.phase4.server.MockJettySetup;
+
+/**
+ * Compares the message throughput of {@link BasicHttpPoster} (new connection
+ * per message) and {@link PooledHttpPoster} (reused connections) against a
+ * locally spawned Jetty.
+ *
+ * @author Philip Helger
+ */
+public final class MainPooledHttpPosterBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainPooledHttpPosterBenchmark.class);
+  private static final int THREADS = 8;
+  private static final int MESSAGES = 2_000;
+
+  private static double _run (@Nonnull final BasicHttpPoster aPoster,
+                              @Nonnull final String sURL,
+                              @Nonnull final byte [] aPayload) throws Exception
+  {
+    final HttpClientResponseHandler <Integer> aRH = aResponse -> {
+      EntityUtils.consume (aResponse.getEntity ());
+      return Integer.valueOf (aResponse.getCode ());
+    };
+    final AtomicInteger aErrors = new AtomicInteger (0);
+    final ExecutorService aES = Executors.newFixedThreadPool (THREADS);
+    final StopWatch aSW = StopWatch.createdStarted ();
+    for (int i = 0; i < MESSAGES; ++i)
+      aES.submit ( () -> {
+        try
+        {
+          aPoster.sendGenericMessage (sURL, null, new ByteArrayEntity (aPayload, ContentType.APPLICATION_XML), aRH);
+        }
+        catch (final Exception ex)
+        {
+          aErrors.incrementAndGet ();
+        }
+      });
+    aES.shutdown ();
+    aES.awaitTermination (1, TimeUnit.HOURS);
+    aSW.stop ();
+    if (aErrors.get () > 0)
+      LOGGER.warn (aErrors.get () + " messages failed");
+    return MESSAGES * 1000d / aSW.getMillis ();
+  }
+
+  public static void main (final String [] args) throws Exception
+  {
+    try (final ScopedAS4Configuration aSC = ScopedAS4Configuration.createTestConfig ())
+    {
+      final String sURL = MockJettySetup.getServerAddressFromSettings ();
+      final int nPort = URLHelper.getAsURL (sURL).getPort ();
+      final byte [] aPayload = StreamHelper.getAllBytes (new ClassPathResource (AS4TestConstants.TEST_PAYLOAD_XML));
+
+      final AS4JettyRunner aJetty = new AS4JettyRunner ();
+      aJetty.setPort (nPort).setStopPort (nPort + 1000).setAllowAnnotationBasedConfig (false);
+      aJetty.startServer ();
+      try
+      {
+        // Warm up the receiver
+        _run (new BasicHttpPoster (), sURL, aPayload);
+
+        final double dUnpooled = _run (new BasicHttpPoster (), sURL, aPayload);
+        final double dPooled;
+        try (final PooledHttpPoster aPooledPoster = new PooledHttpPoster ())
+        {
+          aPooledPoster.setMaxConnectionsPerRoute (THREADS);
+          dPooled = _run (aPooledPoster, sURL, aPayload);
+        }
+
+        LOGGER.info ("Unpooled: " + Math.round (dUnpooled) + " msg/s");
+        LOGGER.info ("Pooled:   " + Math.round (dPooled) + " msg/s");
+      }
+      finally
+      {
+        aJetty.shutDownServer ();
+      }
+    }
+  }
+}
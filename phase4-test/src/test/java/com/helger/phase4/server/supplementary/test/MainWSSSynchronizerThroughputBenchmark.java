@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015-2024 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.supplementary.test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.engine.WSSecurityEngine;
+import org.apache.wss4j.dom.handler.WSHandlerResult;
+import org.apache.wss4j.dom.message.WSSecHeader;
+import org.apache.wss4j.dom.message.WSSecSignature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+
+import com.helger.commons.collection.attr.IStringMap;
+import com.helger.commons.collection.attr.StringMap;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.timing.StopWatch;
+import com.helger.phase4.ScopedAS4Configuration;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.crypto.AS4CryptoFactoryProperties;
+import com.helger.phase4.crypto.ECryptoAlgorithmSign;
+import com.helger.phase4.crypto.ECryptoAlgorithmSignDigest;
+import com.helger.phase4.crypto.ECryptoKeyIdentifierType;
+import com.helger.phase4.crypto.ECryptoMode;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.wss.WSSConfigManager;
+import com.helger.phase4.wss.WSSSynchronizer;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Multi-threaded sign/verify throughput benchmark for the different
+ * {@link WSSSynchronizer} modes. This is intentionally not a unit test, as it
+ * takes quite some time and only produces timing output.
+ *
+ * @author Philip Helger
+ */
+public final class MainWSSSynchronizerThroughputBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainWSSSynchronizerThroughputBenchmark.class);
+  private static final int OPERATIONS = 400;
+
+  private static void _signAndVerify (@Nonnull final IAS4CryptoFactory aCryptoFactory) throws Exception
+  {
+    final Document aDoc = DOMReader.readXMLDOM (new ClassPathResource ("UserMessageWithoutWSSE.xml"));
+    final WSSecHeader aSecHeader = new WSSecHeader (aDoc);
+    aSecHeader.insertSecurityHeader ();
+
+    final WSSecSignature aBuilder = new WSSecSignature (aSecHeader);
+    aBuilder.setUserInfo (aCryptoFactory.getKeyAlias (),
+                          aCryptoFactory.getKeyPasswordPerAlias (aCryptoFactory.getKeyAlias ()));
+    aBuilder.setKeyIdentifierType (ECryptoKeyIdentifierType.BST_DIRECT_REFERENCE.getTypeID ());
+    aBuilder.setSignatureAlgorithm (ECryptoAlgorithmSign.RSA_SHA_256.getAlgorithmURI ());
+    aBuilder.setDigestAlgo (ECryptoAlgorithmSignDigest.DIGEST_SHA_256.getAlgorithmURI ());
+    final Document aSignedDoc = aBuilder.build (aCryptoFactory.getCrypto (ECryptoMode.ENCRYPT_SIGN));
+
+    final WSSecurityEngine aSecEngine = new WSSecurityEngine ();
+    aSecEngine.setWssConfig (WSSConfigManager.createStaticWSSConfig ());
+    final WSHandlerResult aResults = aSecEngine.processSecurityHeader (aSignedDoc,
+                                                                       null,
+                                                                       null,
+                                                                       aCryptoFactory.getCrypto (ECryptoMode.ENCRYPT_SIGN));
+    if (aResults.getActionResults ().get (Integer.valueOf (WSConstants.SIGN)) == null)
+      throw new IllegalStateException ("Signature was not verified");
+  }
+
+  private static long _runAndGetMillis (@Nonnegative final int nThreads) throws Exception
+  {
+    final IAS4CryptoFactory aCryptoFactory = AS4CryptoFactoryProperties.getDefaultInstance ();
+    final AtomicInteger aErrors = new AtomicInteger (0);
+    final ExecutorService aES = Executors.newFixedThreadPool (nThreads);
+    final StopWatch aSW = StopWatch.createdStarted ();
+    for (int i = 0; i < OPERATIONS; ++i)
+      aES.submit ( () -> {
+        try
+        {
+          WSSSynchronizer.call ( () -> {
+            _signAndVerify (aCryptoFactory);
+            return null;
+          });
+        }
+        catch (final Exception ex)
+        {
+          LOGGER.error ("Failed to sign and verify", ex);
+          aErrors.incrementAndGet ();
+        }
+      });
+    aES.shutdown ();
+    aES.awaitTermination (10, TimeUnit.MINUTES);
+    aSW.stop ();
+
+    if (aErrors.get () > 0)
+      throw new IllegalStateException (aErrors.get () + " of " + OPERATIONS + " sign/verify operations failed");
+    return aSW.getMillis ();
+  }
+
+  private static void _testMode (final boolean bConcurrent) throws Exception
+  {
+    final IStringMap aSettings = new StringMap ();
+    aSettings.putIn (AS4Configuration.PROPERTY_PHASE4_WSS4J_SYNCSECURITY, true);
+    aSettings.putIn (AS4Configuration.PROPERTY_PHASE4_WSS4J_SYNCSECURITY_CONCURRENT, bConcurrent);
+    try (final ScopedAS4Configuration aSC = ScopedAS4Configuration.createTestConfig (aSettings))
+    {
+      final int nThreads = Math.max (2, Runtime.getRuntime ().availableProcessors ());
+
+      // Warm up
+      _runAndGetMillis (nThreads);
+
+      final long nSingleMillis = _runAndGetMillis (1);
+      final long nMultiMillis = _runAndGetMillis (nThreads);
+      LOGGER.info ((bConcurrent ? "Concurrent" : "Exclusive") +
+                   " mode: " +
+                   OPERATIONS +
+                   " sign/verify operations took " +
+                   nSingleMillis +
+                   " ms with 1 thread and " +
+                   nMultiMillis +
+                   " ms with " +
+                   nThreads +
+                   " threads (speedup " +
+                   String.format ("%.2f", (double) nSingleMillis / Math.max (1, nMultiMillis)) +
+                   ")");
+
+      // All calls must be finished
+      if (WSSSynchronizer.getConcurrentCallCount () != 0)
+        throw new IllegalStateException ("Not all synchronized calls finished");
+    }
+  }
+
+  public static void main (final String [] args) throws Exception
+  {
+    _testMode (false);
+    _testMode (true);
+  }
+}